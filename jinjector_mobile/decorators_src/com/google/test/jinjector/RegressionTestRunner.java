@@ -15,7 +15,15 @@
 
 package com.google.test.jinjector;
 
+import com.google.test.jinjector.coverage.CoverageManager;
+import com.google.test.jinjector.coverage.TestCoverageRecorder;
+import com.google.test.jinjector.memory.TestMemoryMonitor;
+import com.google.test.jinjector.memory.TestMemoryMonitor.TestMemoryRecord;
+
+import java.io.OutputStream;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
 
 import j2meunit.framework.*;
 import j2meunit.textui.TestRunner;
@@ -33,6 +41,28 @@ import j2meunit.util.StringUtil;
  * <p> The playback thread terminates when all tests have been executed and 
  * the results have been printed.
  * 
+ * <p> When memory monitoring is enabled, see 
+ * {@link #setMemoryMonitoring(boolean)}, the heap used by each test is 
+ * measured by a {@link TestMemoryMonitor} and printed together with the 
+ * results. The suite can be run more than once, see 
+ * {@link #setRepetitions(int)}, to detect the tests which leak memory.
+ * 
+ * <p> When coverage is collected, the coverage of each test is recorded by a
+ * {@link TestCoverageRecorder}. The tool uses it to select the tests 
+ * affected by a change, which can then be run alone, see 
+ * {@link #setSelectedTests(Vector)}.
+ * 
+ * <p> The outcome and the duration of each test are recorded by a 
+ * {@link TestResultRecorder}. The suite can be split across several devices,
+ * each one running a {@link TestShard}, see {@link #setShard(TestShard)}.
+ * The progress of the tests can also be streamed in a format readable by 
+ * the tool, see {@link #setEventStream(OutputStream)}.
+ * 
+ * <p> When a timeout is set, see {@link #setTestTimeout(long)} and 
+ * {@link #setSuiteTimeout(long)}, the tests are run by a 
+ * {@link TestWatchdog}, so that a test which hangs does not stall the whole
+ * suite.
+ * 
  * @author Michele Sama
  */
 public class RegressionTestRunner extends TestRunner implements Runnable {
@@ -71,6 +101,70 @@ public class RegressionTestRunner extends TestRunner implements Runnable {
    * this test base. 
    */ 
   private boolean executing = false;
+  
+  /**
+   * The number of times the suite is run.
+   */
+  private int repetitions = 1;
+  
+  /**
+   * Whether the memory used by each test is measured.
+   */
+  private boolean memoryMonitoring = false;
+  
+  /**
+   * Measures the memory used by each test during the execution, or 
+   * <code>null</code> if memory monitoring is disabled.
+   */
+  protected TestMemoryMonitor memoryMonitor;
+  
+  /**
+   * Records the coverage of each test, or <code>null</code> if coverage is 
+   * not collected.
+   */
+  protected TestCoverageRecorder coverageRecorder;
+  
+  /**
+   * The names of the tests to run, or <code>null</code> to run all of them.
+   */
+  private Hashtable selectedTests = null;
+  
+  /**
+   * The shard of the suite to run, or <code>null</code> to run all of it.
+   */
+  private TestShard shard = null;
+  
+  /**
+   * Records the outcome and the duration of each test.
+   */
+  protected TestResultRecorder resultRecorder;
+  
+  /**
+   * The stream on which to write the {@link TestEventStream}, or 
+   * <code>null</code> if the events are not written.
+   */
+  private OutputStream eventOutput = null;
+  
+  /**
+   * Writes the progress of the tests, or <code>null</code> if the events are
+   * not written.
+   */
+  protected TestEventStream eventStream;
+  
+  /**
+   * The maximum duration of a test in milliseconds, 0 for no limit.
+   */
+  private long testTimeout = 0;
+  
+  /**
+   * The maximum duration of the suite in milliseconds, 0 for no limit.
+   */
+  private long suiteTimeout = 0;
+  
+  /**
+   * Enforces the timeouts, or <code>null</code> if there are none.
+   */
+  protected TestWatchdog watchdog;
 
   /**
    * Creates a play back thread with the specified {@link TestSuite}.
@@ -152,6 +246,7 @@ public class RegressionTestRunner extends TestRunner implements Runnable {
           "2) there is a bug in the instrumented code\n" +
           "3) there is a problem in the class path\n" +
           "4) The test suite contains tests which require a specific runner.");
+      printMemoryAtFailure();
       t.printStackTrace();
       print(result);
     } finally {
@@ -159,6 +254,158 @@ public class RegressionTestRunner extends TestRunner implements Runnable {
     }
   }
 
+  /**
+   * Prints the test which was running when the execution failed and the 
+   * heap it was using.
+   */
+  private void printMemoryAtFailure() {
+    if (memoryMonitor == null) {
+      return;
+    }
+    TestMemoryRecord record = memoryMonitor.getCurrentRecord();
+    fWriter.println("Used memory: " + TestMemoryMonitor.getUsedMemory() 
+        + " of " + Runtime.getRuntime().totalMemory() + " bytes");
+    if (record != null) {
+      fWriter.println("Running test: " + record.getName() + ", used " 
+          + record.getLastBefore() + " bytes when it started and at least " 
+          + record.getLastPeak() + " bytes while running");
+    }
+  }
+  
+  /**
+   * Enables the measure of the memory used by each test. The monitor 
+   * collects the garbage around each test and samples the heap from its own
+   * thread, so it changes the timing of the tests.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param enabled <code>true</code> to measure the memory.
+   */
+  public void setMemoryMonitoring(boolean enabled) {
+    memoryMonitoring = enabled;
+  }
+  
+  /**
+   * Sets the number of times the suite is run. When memory monitoring is 
+   * enabled, tests which retain memory in consecutive runs are reported as 
+   * possible leaks.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param repetitions The number of runs, at least 1.
+   */
+  public void setRepetitions(int repetitions) {
+    if (repetitions < 1) {
+      throw new IllegalArgumentException("The suite must run at least once.");
+    }
+    this.repetitions = repetitions;
+  }
+
+  /**
+   * Restricts the execution to some of the tests of the suite.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param names The names of the tests to run, as returned by their 
+   *     <code>toString()</code>, or <code>null</code> to run all of them.
+   */
+  public void setSelectedTests(Vector names) {
+    if (names == null) {
+      selectedTests = null;
+      return;
+    }
+    selectedTests = new Hashtable();
+    for (int i = 0; i < names.size(); i++) {
+      selectedTests.put(names.elementAt(i), Boolean.TRUE);
+    }
+  }
+  
+  /**
+   * Restricts the execution to a shard of the suite. Selected tests, see 
+   * {@link #setSelectedTests(Vector)}, are split across the shards.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param shard The shard to run, or <code>null</code> to run all the 
+   *     suite.
+   */
+  public void setShard(TestShard shard) {
+    this.shard = shard;
+  }
+  
+  /**
+   * Sets the maximum duration of each test. Tests which take longer are 
+   * reported as errors and abandoned.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param millis The timeout in milliseconds, or 0 for no limit.
+   */
+  public void setTestTimeout(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("The timeout cannot be negative.");
+    }
+    testTimeout = millis;
+  }
+  
+  /**
+   * Sets the maximum duration of the suite, including all its repetitions. 
+   * When it expires the running test is abandoned and the remaining ones 
+   * are not run.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param millis The timeout in milliseconds, or 0 for no limit.
+   */
+  public void setSuiteTimeout(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("The timeout cannot be negative.");
+    }
+    suiteTimeout = millis;
+  }
+  
+  /**
+   * @return <code>true</code> if the suite has been aborted because it 
+   *     timed out.
+   */
+  public boolean isAborted() {
+    return watchdog != null && watchdog.isAborted();
+  }
+  
+  /**
+   * Writes the progress of the tests as a {@link TestEventStream}.
+   * 
+   * <p>This must be invoked before {@link #start()}.
+   * 
+   * @param out The stream on which to write the events, or <code>null</code>
+   *     to not write them. It is not closed by the runner.
+   */
+  public void setEventStream(OutputStream out) {
+    eventOutput = out;
+  }
+  
+  /**
+   * Removes from a test the tests which have not been selected.
+   * 
+   * @param test The test to filter.
+   * @return a test containing only the selected tests, or <code>null</code>
+   *     if none of them has been selected.
+   */
+  protected Test filterSelectedTests(Test test) {
+    if (test instanceof TestSuite) {
+      TestSuite filtered = new TestSuite();
+      Enumeration tests = ((TestSuite) test).tests();
+      while (tests.hasMoreElements()) {
+        Test nested = filterSelectedTests((Test) tests.nextElement());
+        if (nested != null) {
+          filtered.addTest(nested);
+        }
+      }
+      return filtered.testCount() == 0 ? null : filtered;
+    }
+    return selectedTests.containsKey(test.toString()) ? test : null;
+  }
+
   /**
    * Query if the regression tests still executing.
    *  
@@ -178,17 +425,75 @@ public class RegressionTestRunner extends TestRunner implements Runnable {
   protected void doRun(Test test) {
     result = createTestResult();
     result.addListener(this);
+    memoryMonitor = null;
+    if (memoryMonitoring) {
+      memoryMonitor = new TestMemoryMonitor();
+      result.addListener(memoryMonitor);
+      memoryMonitor.start();
+    }
+    resultRecorder = new TestResultRecorder();
+    result.addListener(resultRecorder);
+    if (eventOutput != null) {
+      eventStream = new TestEventStream(eventOutput);
+      result.addListener(eventStream);
+    }
+    if (CoverageManager.isTestCoverageAvailable()) {
+      coverageRecorder = new TestCoverageRecorder();
+      result.addListener(coverageRecorder);
+    }
+    // The whole suite is kept, subclasses may need to inspect it.
+    Test toRun = suite;
+    if (selectedTests != null) {
+      toRun = filterSelectedTests(toRun);
+      if (toRun == null) {
+        toRun = new TestSuite();
+      }
+      fWriter.println("Running " + toRun.countTestCases() 
+          + " selected tests");
+    }
+    if (shard != null) {
+      toRun = shard.select(toRun);
+      fWriter.println("Running shard " + shard.getIndex() + " of " 
+          + shard.getCount() + ": " + toRun.countTestCases() + " tests");
+    }
+
+    if (eventStream != null) {
+      eventStream.beginRun(toRun.countTestCases() * repetitions);
+    }
+
+    if (testTimeout > 0 || suiteTimeout > 0) {
+      watchdog = new TestWatchdog(result, testTimeout, suiteTimeout);
+    }
 
     long startTime = System.currentTimeMillis();
     try {
-      suite.run(result);
+      for (int i = 0; i < repetitions && !result.shouldStop(); i++) {
+        if (watchdog != null) {
+          watchdog.run(toRun);
+        } else {
+          toRun.run(result);
+        }
+      }
     } finally {
+      if (memoryMonitor != null) {
+        memoryMonitor.stop();
+      }
+      if (eventStream != null) {
+        eventStream.endRun(result);
+      }
       long endTime = System.currentTimeMillis();
       long runTime = endTime - startTime;
       fWriter.println();
       fWriter.println("Time: " + StringUtil.elapsedTimeAsString(runTime));
       print(result);
       fWriter.println();
+      if (memoryMonitor != null) {
+        memoryMonitor.print(fWriter);
+        fWriter.println();
+      }
+      if (watchdog != null) {
+        watchdog.print(fWriter);
+      }
     }
   }
 
@@ -0,0 +1,218 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import com.google.test.jinjector.util.Log;
+
+import j2meunit.framework.AssertionFailedError;
+import j2meunit.framework.Test;
+import j2meunit.framework.TestListener;
+import j2meunit.framework.TestResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the progress of the tests as a stream of events which can be 
+ * parsed by the tool, as opposed to the human readable output of the 
+ * runner.
+ * 
+ * <p>The stream starts with {@link #HEADER} and contains one event per 
+ * line, whose fields are separated by tabs:
+ * <pre>
+ * B time count             the run began with count tests
+ * S time test              the test started
+ * F time test message      the test failed an assertion
+ * X time test message      the test threw an exception
+ * T time test message      the test did not finish in time
+ * E time test millis       the test ended after millis milliseconds
+ * R time runs failures errors   the run ended
+ * </pre>
+ * where time is the number of milliseconds since the stream was created. 
+ * Tabs, new lines and backslashes in names and messages are escaped as 
+ * <code>\t</code>, <code>\n</code>, <code>\r</code> and <code>\\</code>.
+ * 
+ * <p>Each event is written as soon as it happens, so that the stream shows 
+ * which test was running even if the application dies. Writing errors are 
+ * logged once and disable the stream without affecting the tests.
+ * 
+ * @author Michele Sama
+ */
+public class TestEventStream implements TestListener {
+  
+  /**
+   * The first line of the stream, which identifies its format.
+   */
+  public static final String HEADER = "#JInjector test events 1";
+  
+  public static final char EVENT_BEGIN = 'B';
+  
+  public static final char EVENT_START = 'S';
+  
+  public static final char EVENT_FAILURE = 'F';
+  
+  public static final char EVENT_ERROR = 'X';
+  
+  public static final char EVENT_TIMEOUT = 'T';
+  
+  public static final char EVENT_END = 'E';
+  
+  public static final char EVENT_RUN_END = 'R';
+  
+  private static final char SEPARATOR = '\t';
+  
+  private final long creationTime = System.currentTimeMillis();
+  
+  private OutputStream out;
+  
+  private long startTime;
+  
+  /**
+   * Creates a stream and writes its header.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   */
+  public TestEventStream(OutputStream out) {
+    this.out = out;
+    StringBuffer sb = new StringBuffer(HEADER);
+    write(sb);
+  }
+  
+  /**
+   * Writes the beginning of the run.
+   * 
+   * @param count The number of tests which are going to be run.
+   */
+  public void beginRun(int count) {
+    write(createEvent(EVENT_BEGIN).append(count));
+  }
+  
+  /**
+   * Writes the end of the run.
+   * 
+   * @param result The result of the run.
+   */
+  public void endRun(TestResult result) {
+    write(createEvent(EVENT_RUN_END).append(result.runCount())
+        .append(SEPARATOR).append(result.failureCount())
+        .append(SEPARATOR).append(result.errorCount()));
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#startTest(j2meunit.framework.Test)
+   */
+  public void startTest(Test test) {
+    startTime = System.currentTimeMillis();
+    StringBuffer sb = createEvent(EVENT_START);
+    appendEscaped(sb, test.toString());
+    write(sb);
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#endTest(j2meunit.framework.Test)
+   */
+  public void endTest(Test test) {
+    long duration = System.currentTimeMillis() - startTime;
+    StringBuffer sb = createEvent(EVENT_END);
+    appendEscaped(sb, test.toString());
+    sb.append(SEPARATOR).append(duration);
+    write(sb);
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#endTestStep(j2meunit.framework.Test)
+   */
+  public void endTestStep(Test test) {
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addError(j2meunit.framework.Test, 
+   *     java.lang.Throwable)
+   */
+  public void addError(Test test, Throwable t) {
+    if (t instanceof TestTimeoutError) {
+      writeProblem(EVENT_TIMEOUT, test, t.getMessage());
+    } else {
+      writeProblem(EVENT_ERROR, test, t.toString());
+    }
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addFailure(j2meunit.framework.Test, 
+   *     j2meunit.framework.AssertionFailedError)
+   */
+  public void addFailure(Test test, AssertionFailedError e) {
+    writeProblem(EVENT_FAILURE, test, e.getMessage());
+  }
+  
+  private void writeProblem(char event, Test test, String message) {
+    StringBuffer sb = createEvent(event);
+    appendEscaped(sb, test.toString());
+    sb.append(SEPARATOR);
+    appendEscaped(sb, message == null ? "" : message);
+    write(sb);
+  }
+  
+  private StringBuffer createEvent(char event) {
+    return new StringBuffer().append(event).append(SEPARATOR)
+        .append(System.currentTimeMillis() - creationTime).append(SEPARATOR);
+  }
+  
+  /**
+   * Appends a string escaping the characters which delimit the fields and 
+   * the events.
+   */
+  static void appendEscaped(StringBuffer sb, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+  }
+  
+  /**
+   * Writes and flushes an event. Events come from the watchdog as well as 
+   * from the tests, so they are written atomically.
+   */
+  private synchronized void write(StringBuffer event) {
+    if (out == null) {
+      return;
+    }
+    event.append('\n');
+    try {
+      out.write(event.toString().getBytes("UTF-8"));
+      out.flush();
+    } catch (IOException e) {
+      Log.log(Log.LEVEL_WARNING, "TestEventStream", 
+          "Cannot write the test events, disabling them: " + e.getMessage());
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import com.google.test.jinjector.util.LineReader;
+import com.google.test.jinjector.util.StringUtil;
+
+import j2meunit.framework.AssertionFailedError;
+import j2meunit.framework.Test;
+import j2meunit.framework.TestListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Records the outcome and the duration of each test.
+ * 
+ * <p>The results are written in {@link #FILENAME_RESULTS} one test per line
+ * as:
+ * <pre>
+ * test runs failures millis
+ * </pre>
+ * separated by tabs, where failures counts both failures and errors and 
+ * millis is the average duration of a run. Tests with the same name are 
+ * recorded together.
+ * 
+ * <p>The results of the shards of a suite are merged by the tool, and the 
+ * merged file can be bundled with the application as 
+ * <code>/testResults.txt</code> to balance the next shards, see 
+ * {@link TestShard}.
+ * 
+ * @author Michele Sama
+ */
+public class TestResultRecorder implements TestListener {
+  
+  public static final String FILENAME_RESULTS = "testResults.txt";
+  
+  private static final char SEPARATOR = '\t';
+  
+  /**
+   * The names of the tests in order of execution.
+   */
+  private final Vector names = new Vector();
+  
+  /**
+   * The {@link TestResultRecord}s by test name.
+   */
+  private final Hashtable records = new Hashtable();
+  
+  private TestResultRecord current = null;
+  
+  private long startTime;
+  
+  private boolean currentFailed;
+  
+  /**
+   * Starts timing a test.
+   * 
+   * @see j2meunit.framework.TestListener#startTest(j2meunit.framework.Test)
+   */
+  public void startTest(Test test) {
+    String name = test.toString();
+    current = (TestResultRecord) records.get(name);
+    if (current == null) {
+      current = new TestResultRecord(name);
+      records.put(name, current);
+      names.addElement(name);
+    }
+    currentFailed = false;
+    startTime = System.currentTimeMillis();
+  }
+  
+  /**
+   * Records the duration and the outcome of a test.
+   * 
+   * @see j2meunit.framework.TestListener#endTest(j2meunit.framework.Test)
+   */
+  public void endTest(Test test) {
+    if (current == null) {
+      return;
+    }
+    current.runs++;
+    current.totalTime += System.currentTimeMillis() - startTime;
+    if (currentFailed) {
+      current.failures++;
+    }
+    current = null;
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#endTestStep(j2meunit.framework.Test)
+   */
+  public void endTestStep(Test test) {
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addError(j2meunit.framework.Test, 
+   *     java.lang.Throwable)
+   */
+  public void addError(Test test, Throwable t) {
+    currentFailed = true;
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addFailure(j2meunit.framework.Test, 
+   *     j2meunit.framework.AssertionFailedError)
+   */
+  public void addFailure(Test test, AssertionFailedError e) {
+    currentFailed = true;
+  }
+  
+  /**
+   * @param name The name of a test.
+   * @return the record of the test or <code>null</code> if the test has not
+   *     been run.
+   */
+  public TestResultRecord getRecord(String name) {
+    return (TestResultRecord) records.get(name);
+  }
+  
+  /**
+   * @return the number of recorded tests.
+   */
+  public int size() {
+    return names.size();
+  }
+  
+  /**
+   * Writes the results of all the recorded tests.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   */
+  public void write(OutputStream out) {
+    PrintStream ps = new PrintStream(out);
+    for (int i = 0; i < names.size(); i++) {
+      TestResultRecord record = 
+          (TestResultRecord) records.get(names.elementAt(i));
+      ps.println(record.name + SEPARATOR + record.runs + SEPARATOR 
+          + record.failures + SEPARATOR + record.getAverageTime());
+    }
+    ps.flush();
+  }
+  
+  /**
+   * Reads the average durations from results written by 
+   * {@link #write(OutputStream)}. Malformed lines are skipped.
+   * 
+   * @param in The stream from which to read. It is not closed.
+   * @return the average duration in milliseconds, as a {@link Long}, by 
+   *     test name.
+   * @throws IOException If the stream cannot be read.
+   */
+  public static Hashtable readDurations(InputStream in) throws IOException {
+    Hashtable durations = new Hashtable();
+    LineReader reader = new LineReader(in);
+    String line;
+    while ((line = reader.readline()) != null) {
+      String[] fields = StringUtil.split(line, SEPARATOR);
+      if (fields.length != 4) {
+        continue;
+      }
+      try {
+        durations.put(fields[0], new Long(Long.parseLong(fields[3])));
+      } catch (NumberFormatException e) {
+        // Skips the line.
+      }
+    }
+    return durations;
+  }
+  
+  /**
+   * The results of all the runs of a test.
+   */
+  public static class TestResultRecord {
+    
+    private final String name;
+    
+    private int runs = 0;
+    
+    private int failures = 0;
+    
+    private long totalTime = 0;
+    
+    TestResultRecord(String name) {
+      this.name = name;
+    }
+    
+    /**
+     * @return the name of the test.
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * @return the number of times the test has been run.
+     */
+    public int getRuns() {
+      return runs;
+    }
+    
+    /**
+     * @return the number of runs which failed or threw an error.
+     */
+    public int getFailures() {
+      return failures;
+    }
+    
+    /**
+     * @return the average duration of a run in milliseconds.
+     */
+    public long getAverageTime() {
+      return runs == 0 ? 0 : totalTime / runs;
+    }
+  }
+}
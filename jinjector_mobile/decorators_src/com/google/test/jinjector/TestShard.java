@@ -0,0 +1,188 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestSuite;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Selects the tests run by one of several devices running the same suite.
+ * 
+ * <p>The tests of the suite are numbered in the order in which the suite 
+ * would run them and assigned to the shards longest first, each one to the 
+ * shard with the smallest total duration so far. Durations are taken from 
+ * the results of a previous run, see {@link TestResultRecorder}; tests which
+ * have never been run are assumed to take the average duration, or all the 
+ * same time if no duration is known. The assignment only depends on the 
+ * suite, the durations and the number of shards, so every device computes 
+ * the same partition without talking to the others.
+ * 
+ * <p>Each shard runs its tests in their original order.
+ * 
+ * @author Michele Sama
+ */
+public class TestShard {
+  
+  private final int index;
+  
+  private final int count;
+  
+  /**
+   * The known durations, by test name.
+   */
+  private Hashtable durations = new Hashtable();
+  
+  /**
+   * Creates a shard.
+   * 
+   * @param index The index of this shard, starting from 0.
+   * @param count The number of shards.
+   * @throws IllegalArgumentException If the index is not a valid shard.
+   */
+  public TestShard(int index, int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("Invalid shard " + index + " of " 
+          + count);
+    }
+    this.index = index;
+    this.count = count;
+  }
+  
+  /**
+   * @return the index of this shard, starting from 0.
+   */
+  public int getIndex() {
+    return index;
+  }
+  
+  /**
+   * @return the number of shards.
+   */
+  public int getCount() {
+    return count;
+  }
+  
+  /**
+   * Sets the durations used to balance the shards.
+   * 
+   * @param durations The duration in milliseconds, as a {@link Long}, by 
+   *     test name.
+   */
+  public void setDurations(Hashtable durations) {
+    this.durations = durations == null ? new Hashtable() : durations;
+  }
+  
+  /**
+   * Selects the tests of this shard.
+   * 
+   * @param test The whole suite.
+   * @return a suite containing the tests of this shard.
+   */
+  public TestSuite select(Test test) {
+    Vector tests = new Vector();
+    collectTests(test, tests);
+    int[] shards = assign(tests);
+    TestSuite selected = new TestSuite();
+    for (int i = 0; i < shards.length; i++) {
+      if (shards[i] == index) {
+        selected.addTest((Test) tests.elementAt(i));
+      }
+    }
+    return selected;
+  }
+  
+  /**
+   * Assigns each test to a shard.
+   * 
+   * @param tests The tests in order of execution.
+   * @return the shard of each test.
+   */
+  int[] assign(Vector tests) {
+    int size = tests.size();
+    long[] weights = getWeights(tests);
+    
+    // Sorts the tests by decreasing weight. Insertion sort is stable, so 
+    // tests with the same weight keep their order.
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      int j = i;
+      while (j > 0 && weights[order[j - 1]] < weights[i]) {
+        order[j] = order[j - 1];
+        j--;
+      }
+      order[j] = i;
+    }
+    
+    long[] loads = new long[count];
+    int[] shards = new int[size];
+    for (int i = 0; i < size; i++) {
+      int lightest = 0;
+      for (int s = 1; s < count; s++) {
+        if (loads[s] < loads[lightest]) {
+          lightest = s;
+        }
+      }
+      shards[order[i]] = lightest;
+      loads[lightest] += weights[order[i]];
+    }
+    return shards;
+  }
+  
+  /**
+   * Gets the expected duration of each test, at least 1 so that tests which
+   * are too fast to be measured are still spread across the shards.
+   */
+  private long[] getWeights(Vector tests) {
+    long[] weights = new long[tests.size()];
+    long known = 0;
+    int knownCount = 0;
+    for (int i = 0; i < weights.length; i++) {
+      Long duration = (Long) durations.get(tests.elementAt(i).toString());
+      if (duration == null) {
+        weights[i] = -1;
+      } else {
+        weights[i] = Math.max(1, duration.longValue());
+        known += weights[i];
+        knownCount++;
+      }
+    }
+    long average = knownCount == 0 ? 1 : Math.max(1, known / knownCount);
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] < 0) {
+        weights[i] = average;
+      }
+    }
+    return weights;
+  }
+  
+  /**
+   * Collects the tests of a suite in order of execution.
+   */
+  static void collectTests(Test test, Vector tests) {
+    if (test instanceof TestSuite) {
+      Enumeration nested = ((TestSuite) test).tests();
+      while (nested.hasMoreElements()) {
+        collectTests((Test) nested.nextElement(), tests);
+      }
+    } else {
+      tests.addElement(test);
+    }
+  }
+}
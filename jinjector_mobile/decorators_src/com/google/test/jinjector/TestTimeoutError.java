@@ -0,0 +1,33 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+/**
+ * Reported as the error of a test which did not finish in time.
+ * 
+ * @author Michele Sama
+ */
+public class TestTimeoutError extends Error {
+  
+  /**
+   * Creates an error.
+   * 
+   * @param message The description of the timeout.
+   */
+  public TestTimeoutError(String message) {
+    super(message);
+  }
+}
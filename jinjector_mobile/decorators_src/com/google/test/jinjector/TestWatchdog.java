@@ -0,0 +1,311 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import com.google.test.jinjector.util.Log;
+
+import j2meunit.framework.AssertionFailedError;
+import j2meunit.framework.Test;
+import j2meunit.framework.TestResult;
+
+import java.io.PrintStream;
+import java.util.Vector;
+
+/**
+ * Runs the tests of a suite enforcing a timeout on each test and on the 
+ * whole suite.
+ * 
+ * <p>Each test is run in its own worker thread while the thread invoking 
+ * {@link #run(Test)} waits for it. A test which does not finish in time is 
+ * reported as a {@link TestTimeoutError}, its thread is interrupted and 
+ * abandoned, and the next test is started. Nothing the abandoned test does 
+ * afterwards is reported. When the suite times out the remaining tests are 
+ * not run and the watchdog is aborted.
+ * 
+ * <p>Threads cannot be stopped on CLDC, so an abandoned test keeps running 
+ * until it returns or its blocking call is interrupted.
+ * 
+ * @author Michele Sama
+ */
+public class TestWatchdog {
+  
+  private static final String SOURCE = "TestWatchdog";
+  
+  private final TestResult result;
+  
+  private final long testTimeout;
+  
+  private final long suiteTimeout;
+  
+  private final long suiteStart = System.currentTimeMillis();
+  
+  private boolean aborted = false;
+  
+  /**
+   * The description of each timeout.
+   */
+  private final Vector timeouts = new Vector();
+  
+  /**
+   * Creates a watchdog. The suite timeout starts now.
+   * 
+   * @param result The result in which to report the tests.
+   * @param testTimeout The maximum duration of a test in milliseconds, or 0 
+   *     for no limit.
+   * @param suiteTimeout The maximum duration of all the runs of the suite in
+   *     milliseconds, or 0 for no limit.
+   */
+  public TestWatchdog(TestResult result, long testTimeout, 
+      long suiteTimeout) {
+    if (testTimeout < 0 || suiteTimeout < 0) {
+      throw new IllegalArgumentException("Timeouts cannot be negative.");
+    }
+    this.result = result;
+    this.testTimeout = testTimeout;
+    this.suiteTimeout = suiteTimeout;
+  }
+  
+  /**
+   * Runs all the tests of a suite, one at a time.
+   * 
+   * @param test The suite to run.
+   */
+  public void run(Test test) {
+    Vector tests = new Vector();
+    TestShard.collectTests(test, tests);
+    for (int i = 0; i < tests.size(); i++) {
+      if (aborted || result.shouldStop()) {
+        return;
+      }
+      if (getSuiteTimeLeft() == 0) {
+        abort("Suite timed out after " + suiteTimeout + " ms, " 
+            + (tests.size() - i) + " tests not run");
+        return;
+      }
+      runTest((Test) tests.elementAt(i));
+    }
+  }
+  
+  /**
+   * Runs a test in a worker thread and waits until it finishes or times out.
+   */
+  private void runTest(Test test) {
+    GuardedResult guarded = new GuardedResult(result);
+    Worker worker = new Worker(test, guarded);
+    Thread thread = new Thread(worker, "TestWorker");
+    long start = System.currentTimeMillis();
+    boolean finished;
+    synchronized (worker) {
+      thread.start();
+      try {
+        while (!worker.done) {
+          long timeLeft = getTimeLeft(start);
+          if (timeLeft == 0) {
+            break;
+          }
+          // No limit is represented by a negative value.
+          worker.wait(timeLeft < 0 ? 0 : timeLeft);
+        }
+      } catch (InterruptedException e) {
+        Log.log(Log.LEVEL_WARNING, SOURCE, "Interrupted while waiting for " 
+            + test);
+      }
+      finished = worker.done;
+    }
+    
+    if (finished || !guarded.abandon()) {
+      // The test finished while the timeout was being detected.
+      return;
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    boolean suiteTimedOut = getSuiteTimeLeft() == 0;
+    String message = (suiteTimedOut ? "Suite" : "Test") 
+        + " timed out while running " + test + " for " + elapsed + " ms";
+    timeouts.addElement(message);
+    Log.log(Log.LEVEL_WARNING, SOURCE, message 
+        + ", abandoning its thread");
+    Log.flush();
+    result.addError(test, new TestTimeoutError(message));
+    result.endTest(test);
+    thread.interrupt();
+    if (suiteTimedOut) {
+      abort(message);
+    }
+  }
+  
+  /**
+   * @return the milliseconds before the suite times out, 0 if it has timed
+   *     out, or -1 if it has no limit.
+   */
+  private long getSuiteTimeLeft() {
+    if (suiteTimeout == 0) {
+      return -1;
+    }
+    return Math.max(0, suiteStart + suiteTimeout - System.currentTimeMillis());
+  }
+  
+  /**
+   * @return the milliseconds before a test which started at the given time 
+   *     or the suite time out, 0 if either has timed out, or -1 if they 
+   *     have no limit.
+   */
+  private long getTimeLeft(long testStart) {
+    long suiteLeft = getSuiteTimeLeft();
+    if (testTimeout == 0) {
+      return suiteLeft;
+    }
+    long testLeft = 
+        Math.max(0, testStart + testTimeout - System.currentTimeMillis());
+    return suiteLeft < 0 ? testLeft : Math.min(testLeft, suiteLeft);
+  }
+  
+  private void abort(String message) {
+    aborted = true;
+    Log.log(Log.LEVEL_WARNING, SOURCE, "Aborting: " + message);
+    result.stop();
+  }
+  
+  /**
+   * @return <code>true</code> if the suite has timed out.
+   */
+  public boolean isAborted() {
+    return aborted;
+  }
+  
+  /**
+   * @return the number of tests which timed out.
+   */
+  public int getTimeoutCount() {
+    return timeouts.size();
+  }
+  
+  /**
+   * Prints the tests which timed out, if any.
+   * 
+   * @param ps The stream on which to print.
+   */
+  public void print(PrintStream ps) {
+    if (timeouts.isEmpty()) {
+      return;
+    }
+    ps.println("Timeouts:");
+    for (int i = 0; i < timeouts.size(); i++) {
+      ps.println(timeouts.elementAt(i));
+    }
+    if (aborted) {
+      ps.println("The suite was aborted.");
+    }
+  }
+  
+  /**
+   * Runs a test and notifies the watchdog when it finishes.
+   */
+  private static class Worker implements Runnable {
+    
+    private final Test test;
+    
+    private final TestResult result;
+    
+    private boolean done = false;
+    
+    Worker(Test test, TestResult result) {
+      this.test = test;
+      this.result = result;
+    }
+    
+    public void run() {
+      try {
+        test.run(result);
+      } finally {
+        synchronized (this) {
+          done = true;
+          notify();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Forwards the progress of a test to the result of the suite until the 
+   * test is abandoned.
+   */
+  private static class GuardedResult extends TestResult {
+    
+    private final TestResult delegate;
+    
+    private boolean abandoned = false;
+    
+    private boolean ended = false;
+    
+    GuardedResult(TestResult delegate) {
+      this.delegate = delegate;
+    }
+    
+    /**
+     * Stops forwarding.
+     * 
+     * @return <code>false</code> if the test had already ended.
+     */
+    synchronized boolean abandon() {
+      if (ended) {
+        return false;
+      }
+      abandoned = true;
+      return true;
+    }
+    
+    public synchronized void startTest(Test test) {
+      if (!abandoned) {
+        delegate.startTest(test);
+      }
+    }
+    
+    public synchronized void endTest(Test test) {
+      if (!abandoned) {
+        ended = true;
+        delegate.endTest(test);
+      }
+    }
+    
+    public synchronized void endTestStep(Test test) {
+      if (!abandoned) {
+        delegate.endTestStep(test);
+      }
+    }
+    
+    public synchronized void addError(Test test, Throwable t) {
+      if (!abandoned) {
+        delegate.addError(test, t);
+      }
+    }
+    
+    public synchronized void addFailure(Test test, AssertionFailedError e) {
+      if (!abandoned) {
+        delegate.addFailure(test, e);
+      }
+    }
+    
+    public synchronized void assertionMade() {
+      if (!abandoned) {
+        delegate.assertionMade();
+      }
+    }
+    
+    public synchronized boolean shouldStop() {
+      return abandoned || delegate.shouldStop();
+    }
+  }
+}
@@ -93,6 +93,20 @@ public class CoverageManager {
    */
   private Bitfield[] coveredLines;
 
+  /**
+   * The methods covered since the last invocation of 
+   * {@link #resetTestCoverage()}, or <code>null</code> if coverage is not 
+   * attributed to tests.
+   */
+  private Bitfield testCoveredMethods;
+
+  /**
+   * The files in which at least a line has been covered since the last 
+   * invocation of {@link #resetTestCoverage()}, or <code>null</code> if 
+   * coverage is not attributed to tests.
+   */
+  private Bitfield testCoveredFiles;
+
   /**
    * Used for line coverage.
    */
@@ -379,6 +393,9 @@ public class CoverageManager {
   protected void setCoveredImplementation(int index) {
     synchronized (coveredMethod) {
       coveredMethod.set(index);
+      if (testCoveredMethods != null) {
+        testCoveredMethods.set(index);
+      }
     }
   }
 
@@ -395,6 +412,91 @@ public class CoverageManager {
       synchronized (field) {
         field.set(lineIndex);
       }
+      Bitfield files = instance.testCoveredFiles;
+      if (files != null) {
+        synchronized (files) {
+          files.set(classIndex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tells if the coverage can be attributed to the single tests, which 
+   * requires the coverage to be enabled.
+   * 
+   * @return <code>true</code> if the coverage is being collected.
+   */
+  public static boolean isTestCoverageAvailable() {
+    return coverageCollectionState == STATE_COVERAGE_FLAGGING_ENABLED
+        && (instance.coveredMethod != null || instance.coveredLines != null);
+  }
+
+  /**
+   * Starts attributing coverage to a new test, discarding the coverage of 
+   * the previous one. The overall coverage is not affected.
+   */
+  public static void resetTestCoverage() {
+    instance.resetTestCoverageImplementation();
+  }
+
+  /**
+   * @see #resetTestCoverage()
+   */
+  protected synchronized void resetTestCoverageImplementation() {
+    if (coveredMethod != null) {
+      synchronized (coveredMethod) {
+        testCoveredMethods = new Bitfield(methodInfoContainer.size());
+      }
+    }
+    if (coveredLines != null) {
+      testCoveredFiles = new Bitfield(coveredLines.length);
+    }
+  }
+
+  /**
+   * Appends the coverage of the current test as the comma separated 
+   * indexes of the covered methods, a tab and the comma separated indexes 
+   * of the files in which at least a line has been covered.
+   * 
+   * @param sb The buffer to which the coverage is appended.
+   */
+  public static void appendTestCoverage(StringBuffer sb) {
+    instance.appendTestCoverageImplementation(sb);
+  }
+
+  /**
+   * @see #appendTestCoverage(StringBuffer)
+   */
+  protected synchronized void appendTestCoverageImplementation(
+      StringBuffer sb) {
+    if (testCoveredMethods != null) {
+      synchronized (coveredMethod) {
+        appendIndexes(sb, testCoveredMethods, methodInfoContainer.size());
+      }
+    }
+    sb.append('\t');
+    if (testCoveredFiles != null) {
+      synchronized (testCoveredFiles) {
+        appendIndexes(sb, testCoveredFiles, coveredLines.length);
+      }
+    }
+  }
+
+  /**
+   * Appends the indexes of the bits which are set, separated by commas.
+   */
+  private static void appendIndexes(StringBuffer sb, Bitfield field, 
+      int size) {
+    boolean first = true;
+    for (int i = 0; i < size; i++) {
+      if (field.get(i)) {
+        if (!first) {
+          sb.append(',');
+        }
+        sb.append(i);
+        first = false;
+      }
     }
   }
 
@@ -423,12 +525,14 @@ public class CoverageManager {
    * 
    * <p>The actual path will be written to the log. It may depend on the device
    * and whether it has a memory card installed.
+   * 
+   * <p>The test runners write their own reports in the same folder.
    *
    * TODO: This may need tweaking for various physical devices. The method
    *      has been developed to cope with Nokia devices which have restricted
    *      access to some folders or roots e.g. C:\ cannot be written to.
    */
-  protected static String getWriteableRoot() {
+  public static String getWriteableRoot() {
     String prefix = "file://localhost/";
 
     Enumeration rootEnum = FileSystemRegistry.listRoots();
@@ -0,0 +1,111 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.coverage;
+
+import j2meunit.framework.AssertionFailedError;
+import j2meunit.framework.Test;
+import j2meunit.framework.TestListener;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Vector;
+
+/**
+ * Attributes the coverage collected by the {@link CoverageManager} to the 
+ * test which was running.
+ * 
+ * <p>The coverage of each test is written in {@link #FILENAME_TEST_COVERAGE}
+ * one test per line as:
+ * <pre>
+ * test methods files
+ * </pre>
+ * separated by tabs, where methods and files are the comma separated 
+ * indexes of the covered methods and of the files with at least one covered
+ * line. The indexes are mapped back to their names by the tool, which 
+ * builds the matrix used to select the tests affected by a change.
+ * 
+ * @author Michele Sama
+ */
+public class TestCoverageRecorder implements TestListener {
+  
+  public static final String FILENAME_TEST_COVERAGE = "testCoverage.txt";
+  
+  /**
+   * The coverage of each test, formatted as a line of the report.
+   */
+  private final Vector lines = new Vector();
+  
+  /**
+   * Starts attributing the coverage to the test.
+   * 
+   * @see j2meunit.framework.TestListener#startTest(j2meunit.framework.Test)
+   */
+  public void startTest(Test test) {
+    CoverageManager.resetTestCoverage();
+  }
+  
+  /**
+   * Records the coverage of the test.
+   * 
+   * @see j2meunit.framework.TestListener#endTest(j2meunit.framework.Test)
+   */
+  public void endTest(Test test) {
+    StringBuffer sb = new StringBuffer(test.toString());
+    sb.append('\t');
+    CoverageManager.appendTestCoverage(sb);
+    lines.addElement(sb.toString());
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#endTestStep(j2meunit.framework.Test)
+   */
+  public void endTestStep(Test test) {
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addError(j2meunit.framework.Test, 
+   *     java.lang.Throwable)
+   */
+  public void addError(Test test, Throwable t) {
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addFailure(j2meunit.framework.Test, 
+   *     j2meunit.framework.AssertionFailedError)
+   */
+  public void addFailure(Test test, AssertionFailedError e) {
+  }
+  
+  /**
+   * @return the number of recorded tests.
+   */
+  public int size() {
+    return lines.size();
+  }
+  
+  /**
+   * Writes the coverage of all the recorded tests.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   */
+  public void write(OutputStream out) {
+    PrintStream ps = new PrintStream(out);
+    for (int i = 0; i < lines.size(); i++) {
+      ps.println((String) lines.elementAt(i));
+    }
+    ps.flush();
+  }
+}
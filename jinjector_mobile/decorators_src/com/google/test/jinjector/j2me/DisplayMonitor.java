@@ -0,0 +1,144 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import javax.microedition.lcdui.Alert;
+import javax.microedition.lcdui.Display;
+import javax.microedition.lcdui.Displayable;
+import javax.microedition.lcdui.Item;
+
+/**
+ * Notifies the test code when the application changes the current 
+ * {@link Displayable}.
+ * 
+ * <p>The tool redirects each invocation of <code>Display.setCurrent</code> 
+ * and <code>Display.setCurrentItem</code> in the instrumented code to the 
+ * static methods of this class, which forward the call to the 
+ * {@link Display} and then wake up all the threads blocked in 
+ * {@link #waitForChange(int, long)}. This allows tests to wait for a new 
+ * screen without polling the display.
+ * 
+ * <p>The change of the current Displayable is asynchronous, so waiters must 
+ * check the display again after being notified.
+ * 
+ * @author Michele Sama
+ */
+public class DisplayMonitor {
+
+  private static final Object lock = new Object();
+  
+  private static int changeCount = 0;
+  
+  private static long lastChangeTime = 0;
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private DisplayMonitor() {
+  }
+  
+  /**
+   * Replaces {@link Display#setCurrent(Displayable)}.
+   * 
+   * @param display The target display.
+   * @param next The Displayable to show.
+   */
+  public static void setCurrent(Display display, Displayable next) {
+    display.setCurrent(next);
+    notifyChange();
+  }
+  
+  /**
+   * Replaces {@link Display#setCurrent(Alert, Displayable)}.
+   * 
+   * @param display The target display.
+   * @param alert The Alert to show.
+   * @param next The Displayable to show after the Alert.
+   */
+  public static void setCurrent(Display display, Alert alert, 
+      Displayable next) {
+    display.setCurrent(alert, next);
+    notifyChange();
+  }
+  
+  /**
+   * Replaces {@link Display#setCurrentItem(Item)}.
+   * 
+   * @param display The target display.
+   * @param item The Item to show.
+   */
+  public static void setCurrentItem(Display display, Item item) {
+    display.setCurrentItem(item);
+    notifyChange();
+  }
+  
+  /**
+   * Wakes up all the threads waiting for a change of the display.
+   */
+  public static void notifyChange() {
+    synchronized (lock) {
+      changeCount++;
+      lastChangeTime = System.currentTimeMillis();
+      lock.notifyAll();
+    }
+  }
+  
+  /**
+   * @return the number of changes notified so far. It must be read before 
+   *    checking the display and then passed to 
+   *    {@link #waitForChange(int, long)}, so that changes happening in 
+   *    between are not missed.
+   */
+  public static int getChangeCount() {
+    synchronized (lock) {
+      return changeCount;
+    }
+  }
+  
+  /**
+   * @return the time of the last change, or 0 if no change has been 
+   *    notified.
+   */
+  public static long getLastChangeTime() {
+    synchronized (lock) {
+      return lastChangeTime;
+    }
+  }
+  
+  /**
+   * Blocks until a change is notified or until the timeout expires.
+   * 
+   * @param seenCount The change count already seen by the caller.
+   * @param timeout The maximum time to wait in milliseconds.
+   * @return <code>true</code> if the display has changed since 
+   *    <code>seenCount</code>.
+   * @throws InterruptedException if the thread is interrupted.
+   */
+  public static boolean waitForChange(int seenCount, long timeout) 
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (lock) {
+      while (changeCount == seenCount) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+          return false;
+        }
+        lock.wait(left);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,403 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Displayable;
+
+/**
+ * Measures the frame times of the Canvases and GameCanvases of the 
+ * application.
+ * 
+ * <p>Two kinds of frames are measured:
+ * <ul>
+ * <li>the duration of each <code>paint</code> of a Canvas, which is timed 
+ * by the code injected by the tool when frame timing is enabled;
+ * <li>the interval between two consecutive <code>flushGraphics</code> of a 
+ * GameCanvas, which is the period of the game loop. The duration of each 
+ * <code>flushGraphics</code> is also recorded.
+ * </ul>
+ * 
+ * <p>An interval longer than {@link #IDLE_TIME} is a pause of the game loop
+ * only if the application did not paint nor receive any input during it, 
+ * and is then recorded as a <code>pause</code> instead of a frame. 
+ * Otherwise it is a hitch and it is recorded as a frame like the others.
+ * 
+ * <p>Each kind is recorded per screen, i.e. per class of Displayable, into a 
+ * histogram with fixed buckets. A frame longer than the frame budget 
+ * counts as one or more dropped frames, one for each budget it exceeds.
+ * 
+ * <p>Nothing is recorded until {@link #start(int)} is invoked. 
+ * {@link #isEnabled()} does not lock, so that the GameCanvas wrapper can 
+ * skip timing its flushes at no cost when frame timing is disabled.
+ * 
+ * @author Michele Sama
+ */
+public class FrameProfiler {
+
+  /**
+   * The file in which the test runner dumps the frame times, next to the 
+   * coverage report.
+   */
+  public static final String DEFAULT_FILENAME = "frameTimes.txt";
+  
+  /**
+   * The default frame budget in milliseconds, i.e. 30 frames per second.
+   */
+  public static final int DEFAULT_FRAME_BUDGET = 33;
+  
+  /**
+   * The upper bounds in milliseconds of the buckets of the histograms. The 
+   * last bucket, which is not listed, contains all the longer frames.
+   */
+  private static final int[] BUCKET_BOUNDS = 
+      {4, 8, 12, 16, 20, 25, 33, 42, 50, 67, 100, 150, 250, 500, 1000};
+  
+  /**
+   * The number of buckets of each histogram.
+   */
+  public static final int BUCKET_COUNT = BUCKET_BOUNDS.length + 1;
+  
+  /**
+   * Intervals between two flushes longer than this are pauses, unless the 
+   * application painted or received some input in the meantime.
+   */
+  public static final long IDLE_TIME = 1000;
+  
+  private static final String PAINT = "paint";
+  private static final String FLUSH = "flush";
+  private static final String FRAME = "frame";
+  private static final String PAUSE = "pause";
+  
+  private static volatile boolean enabled = false;
+  
+  /**
+   * Incremented by each paint and input event, so that a flush can tell 
+   * whether the application was active since the previous one.
+   */
+  private static volatile int activity = 0;
+  
+  private static int frameBudget = DEFAULT_FRAME_BUDGET;
+  
+  /**
+   * The statistics of each screen, by class name.
+   */
+  private static Hashtable screens = new Hashtable();
+  
+  /*
+   * The paint in progress. Paints are nested when a subclass invokes the 
+   * paint of its superclass.
+   */
+  private static int paintDepth = 0;
+  private static Canvas paintSource = null;
+  private static long paintStart;
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private FrameProfiler() {
+  }
+  
+  /**
+   * Starts recording frames.
+   * 
+   * @param budget The frame budget in milliseconds.
+   * @throws IllegalArgumentException if the budget is not positive.
+   */
+  public static synchronized void start(int budget) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("The frame budget must be positive.");
+    }
+    frameBudget = budget;
+    enabled = true;
+  }
+  
+  /**
+   * Stops recording frames. Recorded frames are kept.
+   */
+  public static synchronized void stop() {
+    enabled = false;
+    paintDepth = 0;
+    paintSource = null;
+  }
+  
+  /**
+   * @return <code>true</code> if frames are being recorded.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+  
+  /**
+   * Invoked by the injected code when a Canvas starts painting.
+   * 
+   * @param canvas The Canvas being painted.
+   */
+  public static synchronized void beginPaint(Canvas canvas) {
+    if (!enabled) {
+      return;
+    }
+    if (paintDepth++ == 0) {
+      paintSource = canvas;
+      paintStart = System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Invoked by the injected code when a Canvas has finished painting, 
+   * also if an exception has been thrown.
+   * 
+   * @param canvas The Canvas which has been painted.
+   */
+  public static synchronized void endPaint(Canvas canvas) {
+    if (!enabled || paintDepth == 0) {
+      return;
+    }
+    if (--paintDepth == 0) {
+      recordPaint(paintSource.getClass().getName(), 
+          System.currentTimeMillis() - paintStart);
+      paintSource = null;
+    }
+  }
+  
+  /**
+   * Invoked by the GameCanvas wrapper after each flush.
+   * 
+   * @param screen The flushed GameCanvas.
+   * @param start The time at which the flush started.
+   */
+  public static synchronized void flushed(Displayable screen, long start) {
+    if (!enabled) {
+      return;
+    }
+    recordFlush(screen.getClass().getName(), start, 
+        System.currentTimeMillis());
+  }
+  
+  /**
+   * Invoked when the application receives an input event, so that a long 
+   * interval between two flushes is not mistaken for a pause.
+   */
+  static void inputReceived() {
+    if (enabled) {
+      activity++;
+    }
+  }
+  
+  /**
+   * Records a paint.
+   * 
+   * @param screen The class name of the painted screen.
+   * @param millis The duration of the paint.
+   */
+  static synchronized void recordPaint(String screen, long millis) {
+    activity++;
+    getStats(screen).get(PAINT).add(millis, frameBudget);
+  }
+  
+  /**
+   * Records a flush and the frame which it ends.
+   * 
+   * @param screen The class name of the flushed screen.
+   * @param start The time at which the flush started.
+   * @param end The time at which the flush ended.
+   */
+  static synchronized void recordFlush(String screen, long start, long end) {
+    ScreenStats stats = getStats(screen);
+    stats.get(FLUSH).add(end - start, 0);
+    long interval = end - stats.lastFlush;
+    if (stats.lastFlush != 0) {
+      if (interval <= IDLE_TIME || activity != stats.lastActivity) {
+        stats.get(FRAME).add(interval, frameBudget);
+      } else {
+        stats.get(PAUSE).add(interval, 0);
+      }
+    }
+    stats.lastFlush = end;
+    stats.lastActivity = activity;
+  }
+  
+  private static ScreenStats getStats(String name) {
+    ScreenStats stats = (ScreenStats) screens.get(name);
+    if (stats == null) {
+      stats = new ScreenStats();
+      screens.put(name, stats);
+    }
+    return stats;
+  }
+  
+  /**
+   * Gets the histogram of a kind of frames of a screen.
+   * 
+   * @param screenClass The class name of the screen.
+   * @param kind Either "paint", "flush", "frame" or "pause".
+   * @return a copy of the counts of each bucket, or <code>null</code> if no 
+   *    such frame has been recorded.
+   */
+  public static synchronized int[] getHistogram(String screenClass, 
+      String kind) {
+    ScreenStats stats = (ScreenStats) screens.get(screenClass);
+    if (stats == null || !stats.histograms.containsKey(kind)) {
+      return null;
+    }
+    int[] buckets = stats.get(kind).buckets;
+    int[] copy = new int[buckets.length];
+    System.arraycopy(buckets, 0, copy, 0, buckets.length);
+    return copy;
+  }
+  
+  /**
+   * Gets the number of dropped frames of a kind of frames of a screen.
+   * 
+   * @param screenClass The class name of the screen.
+   * @param kind Either "paint" or "frame".
+   * @return the number of dropped frames.
+   */
+  public static synchronized int getDroppedFrames(String screenClass, 
+      String kind) {
+    ScreenStats stats = (ScreenStats) screens.get(screenClass);
+    if (stats == null || !stats.histograms.containsKey(kind)) {
+      return 0;
+    }
+    return stats.get(kind).dropped;
+  }
+  
+  /**
+   * @return <code>true</code> if no frame has been recorded.
+   */
+  public static synchronized boolean isEmpty() {
+    return screens.isEmpty();
+  }
+  
+  /**
+   * Discards all the recorded frames.
+   */
+  public static synchronized void clear() {
+    screens.clear();
+    paintDepth = 0;
+    paintSource = null;
+  }
+  
+  /**
+   * Writes the histograms, preceded by a line with the frame budget and the 
+   * bounds of the buckets, one histogram per line as:
+   * <pre>
+   * screen kind count totalMillis maxMillis dropped bucket0,...,bucketN
+   * </pre>
+   * separated by tabs, where kind is either <code>paint</code>, 
+   * <code>flush</code>, <code>frame</code> or <code>pause</code>.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void dump(OutputStream out) throws IOException {
+    StringBuffer sb = new StringBuffer();
+    synchronized (FrameProfiler.class) {
+      sb.append("# budget=").append(frameBudget).append(" buckets=");
+      for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+        sb.append(BUCKET_BOUNDS[i]).append(',');
+      }
+      sb.append("inf\n");
+      Enumeration names = screens.keys();
+      while (names.hasMoreElements()) {
+        String name = (String) names.nextElement();
+        ScreenStats stats = (ScreenStats) screens.get(name);
+        Enumeration kinds = stats.histograms.keys();
+        while (kinds.hasMoreElements()) {
+          String kind = (String) kinds.nextElement();
+          sb.append(name).append('\t').append(kind).append('\t');
+          stats.get(kind).append(sb);
+          sb.append('\n');
+        }
+      }
+    }
+    out.write(sb.toString().getBytes());
+    out.flush();
+  }
+  
+  /**
+   * The histograms of a screen, by kind.
+   */
+  private static class ScreenStats {
+    final Hashtable histograms = new Hashtable();
+    
+    /**
+     * The end of the last flush, or 0.
+     */
+    long lastFlush = 0;
+    
+    /**
+     * The activity at the end of the last flush.
+     */
+    int lastActivity = 0;
+    
+    FrameHistogram get(String kind) {
+      FrameHistogram histogram = (FrameHistogram) histograms.get(kind);
+      if (histogram == null) {
+        histogram = new FrameHistogram();
+        histograms.put(kind, histogram);
+      }
+      return histogram;
+    }
+  }
+  
+  /**
+   * A histogram of frame durations with fixed buckets.
+   */
+  private static class FrameHistogram {
+    final int[] buckets = new int[BUCKET_COUNT];
+    int count = 0;
+    long total = 0;
+    long max = 0;
+    int dropped = 0;
+    
+    /**
+     * Adds a frame.
+     * 
+     * @param millis The duration of the frame.
+     * @param budget The frame budget, or 0 if frames cannot be dropped.
+     */
+    void add(long millis, int budget) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      total += millis;
+      max = Math.max(max, millis);
+      if (budget > 0 && millis > budget) {
+        dropped += (int) ((millis - 1) / budget);
+      }
+    }
+    
+    void append(StringBuffer sb) {
+      sb.append(count).append('\t').append(total).append('\t').append(max)
+          .append('\t').append(dropped).append('\t');
+      for (int i = 0; i < buckets.length; i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(buckets[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import com.google.test.jinjector.util.Log;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.Displayable;
+
+/**
+ * Records the key, pointer and command events received by the application 
+ * into a binary script which can be replayed by {@link InputReplayer}.
+ * 
+ * <p>When the tool is run with input recording enabled, the 
+ * <code>keyXxx</code> and <code>pointerXxx</code> methods of each Canvas 
+ * and the <code>commandAction</code> methods of each CommandListener 
+ * invoke {@link #beginInput(Canvas, int, int, int)} or 
+ * {@link #beginCommand(Command, Displayable)} when they are entered and 
+ * {@link #endInput()} when they return or throw. Events are only written after 
+ * {@link #start(OutputStream)} has been invoked.
+ * 
+ * <p>The script starts with {@link #MAGIC} and contains one record for each 
+ * event: a byte with the type of the event followed by its arguments:
+ * <ul>
+ * <li>{@link #SCREEN}: the class name of the Displayable receiving the 
+ * following events, as UTF. It is written each time the Displayable 
+ * changes.
+ * <li>{@link #KEY_PRESSED}, {@link #KEY_RELEASED}, {@link #KEY_REPEATED}: 
+ * the key code as an int.
+ * <li>{@link #POINTER_PRESSED}, {@link #POINTER_RELEASED}, 
+ * {@link #POINTER_DRAGGED}: the coordinates as two shorts.
+ * <li>{@link #COMMAND}: the label of the command as UTF.
+ * </ul>
+ * 
+ * <p>Each event is flushed immediately, so that the script is complete 
+ * even if the application is killed.
+ * 
+ * @author Michele Sama
+ */
+public class InputRecorder {
+
+  /**
+   * The first int of each script.
+   */
+  public static final int MAGIC = 0x4A495331;
+  
+  public static final int SCREEN = 0;
+  public static final int KEY_PRESSED = 1;
+  public static final int KEY_RELEASED = 2;
+  public static final int KEY_REPEATED = 3;
+  public static final int POINTER_PRESSED = 4;
+  public static final int POINTER_RELEASED = 5;
+  public static final int POINTER_DRAGGED = 6;
+  public static final int COMMAND = 7;
+  
+  private static DataOutputStream output = null;
+  
+  private static boolean suspended = false;
+  
+  private static int eventCount = 0;
+  
+  /**
+   * The Displayable of the last recorded event.
+   */
+  private static Displayable lastScreen = null;
+  
+  /*
+   * The event being dispatched. A subclass overriding an input method 
+   * usually invokes the method of its superclass, which is instrumented as 
+   * well: the nested invocation must not be recorded again.
+   */
+  private static boolean dispatching = false;
+  private static Object dispatchSource = null;
+  private static int dispatchType;
+  private static int dispatchX;
+  private static int dispatchY;
+  private static Command dispatchCommand = null;
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private InputRecorder() {
+  }
+  
+  /**
+   * Starts recording events into the given stream, which is not closed by 
+   * this class.
+   * 
+   * @param out The destination of the script.
+   * @throws IOException if the header cannot be written.
+   */
+  public static synchronized void start(OutputStream out) 
+      throws IOException {
+    output = new DataOutputStream(out);
+    output.writeInt(MAGIC);
+    output.flush();
+    eventCount = 0;
+    lastScreen = null;
+    dispatching = false;
+  }
+  
+  /**
+   * Stops recording events.
+   */
+  public static synchronized void stop() {
+    output = null;
+    lastScreen = null;
+    dispatchSource = null;
+    dispatchCommand = null;
+  }
+  
+  /**
+   * @return <code>true</code> if events are being recorded.
+   */
+  public static synchronized boolean isRecording() {
+    return output != null;
+  }
+  
+  /**
+   * Suspends or resumes the recording, so that the events sent by the tests 
+   * are not recorded.
+   * 
+   * @param suspend <code>true</code> to suspend the recording.
+   */
+  public static synchronized void setSuspended(boolean suspend) {
+    suspended = suspend;
+  }
+  
+  /**
+   * @return the number of events recorded since the last start.
+   */
+  public static synchronized int getEventCount() {
+    return eventCount;
+  }
+  
+  /**
+   * Records a key or pointer event received by a Canvas.
+   * 
+   * @param source The Canvas receiving the event.
+   * @param type The type of the event.
+   * @param x The key code or the horizontal coordinate.
+   * @param y The vertical coordinate, or 0 for key events.
+   */
+  public static synchronized void beginInput(Canvas source, int type, int x,
+      int y) {
+    FrameProfiler.inputReceived();
+    if (output == null || suspended) {
+      return;
+    }
+    if (dispatching && dispatchSource == source && dispatchType == type 
+        && dispatchCommand == null && dispatchX == x && dispatchY == y) {
+      return;
+    }
+    setDispatching(source, type, x, y, null);
+    try {
+      writeScreen(source);
+      output.writeByte(type);
+      if (type <= KEY_REPEATED) {
+        output.writeInt(x);
+      } else {
+        output.writeShort(x);
+        output.writeShort(y);
+      }
+      flush();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+  
+  /**
+   * Records a command fired on a Displayable.
+   * 
+   * @param command The command.
+   * @param target The Displayable on which the command has been fired.
+   */
+  public static synchronized void beginCommand(Command command, 
+      Displayable target) {
+    FrameProfiler.inputReceived();
+    if (output == null || suspended) {
+      return;
+    }
+    if (dispatching && dispatchSource == target 
+        && dispatchCommand == command) {
+      return;
+    }
+    setDispatching(target, COMMAND, 0, 0, command);
+    try {
+      writeScreen(target);
+      output.writeByte(COMMAND);
+      output.writeUTF(command.getLabel());
+      flush();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+  
+  /**
+   * Marks the end of the dispatch of the current event.
+   */
+  public static synchronized void endInput() {
+    dispatching = false;
+  }
+  
+  private static void setDispatching(Object source, int type, int x, int y, 
+      Command command) {
+    dispatching = true;
+    dispatchSource = source;
+    dispatchType = type;
+    dispatchX = x;
+    dispatchY = y;
+    dispatchCommand = command;
+  }
+  
+  private static void writeScreen(Displayable screen) throws IOException {
+    if (screen != lastScreen) {
+      output.writeByte(SCREEN);
+      output.writeUTF(screen.getClass().getName());
+      lastScreen = screen;
+    }
+  }
+  
+  private static void flush() throws IOException {
+    output.flush();
+    eventCount++;
+  }
+  
+  /**
+   * Stops the recording after a write error, since the script would be 
+   * corrupted anyway.
+   */
+  private static void fail(IOException e) {
+    Log.log(InputRecorder.class, "Input recording stopped: " 
+        + e.getMessage());
+    stop();
+  }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import com.google.test.jinjector.j2me.wrapper.InputWrapper;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Displayable;
+import javax.microedition.midlet.MIDlet;
+
+/**
+ * Replays a script recorded by {@link InputRecorder}.
+ * 
+ * <p>Events are sent as fast as the application can process them: after 
+ * each event on a Canvas the replayer waits for the pending repaints with 
+ * {@link Canvas#serviceRepaints()}, and before the events on a new screen 
+ * it waits for that screen to be shown, so that no sleep is needed between 
+ * events.
+ * 
+ * <p>The Displayables receiving the events must have been wrapped by the 
+ * tool: key and pointer events are sent through {@link InputWrapper} and 
+ * commands through {@link J2meUtil#fireCommand(Displayable, String)}.
+ * 
+ * @author Michele Sama
+ */
+public class InputReplayer {
+
+  private final MIDlet midlet;
+  
+  /**
+   * The Displayable receiving the events.
+   */
+  private Displayable current = null;
+  
+  /**
+   * Creates a replayer for the given MIDlet.
+   * 
+   * @param midlet The MIDlet whose screens receive the events.
+   */
+  public InputReplayer(MIDlet midlet) {
+    this.midlet = midlet;
+  }
+  
+  /**
+   * Replays a script. The stream is not closed.
+   * 
+   * @param in The script.
+   * @return the number of replayed events.
+   * @throws IOException if the script cannot be read or it is not valid.
+   * @throws IllegalStateException if a recorded screen is not shown in 
+   *    time or if it cannot receive the recorded events.
+   */
+  public int replay(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != InputRecorder.MAGIC) {
+      throw new IOException("Not an input script.");
+    }
+    int count = 0;
+    InputRecorder.setSuspended(true);
+    try {
+      int type;
+      while ((type = data.read()) >= 0) {
+        switch (type) {
+          case InputRecorder.SCREEN:
+            waitForScreen(data.readUTF());
+            break;
+          case InputRecorder.KEY_PRESSED:
+          case InputRecorder.KEY_RELEASED:
+          case InputRecorder.KEY_REPEATED:
+            sendInput(type, data.readInt(), 0);
+            count++;
+            break;
+          case InputRecorder.POINTER_PRESSED:
+          case InputRecorder.POINTER_RELEASED:
+          case InputRecorder.POINTER_DRAGGED:
+            sendInput(type, data.readShort(), data.readShort());
+            count++;
+            break;
+          case InputRecorder.COMMAND:
+            sendCommand(data.readUTF());
+            count++;
+            break;
+          default:
+            throw new IOException("Unknown event type: " + type);
+        }
+      }
+    } finally {
+      InputRecorder.setSuspended(false);
+    }
+    return count;
+  }
+  
+  /**
+   * Waits for the given screen to be shown.
+   */
+  private void waitForScreen(String className) throws IOException {
+    Class type;
+    try {
+      type = Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unknown screen: " + className);
+    }
+    current = J2meUtil.waitAndGetDisplayableOfType(midlet, type);
+    if (current == null) {
+      throw new IllegalStateException("The screen " + className 
+          + " has not been shown.");
+    }
+  }
+  
+  /**
+   * Sends a key or pointer event to the current screen and waits for it to 
+   * be repainted.
+   */
+  private void sendInput(int type, int x, int y) {
+    if (!(current instanceof InputWrapper)) {
+      throw new IllegalStateException("Cannot send input events to " 
+          + current);
+    }
+    InputWrapper target = (InputWrapper) current;
+    switch (type) {
+      case InputRecorder.KEY_PRESSED:
+        target.invokeKeyPressed(x);
+        break;
+      case InputRecorder.KEY_RELEASED:
+        target.invokeKeyReleased(x);
+        break;
+      case InputRecorder.KEY_REPEATED:
+        target.invokeKeyRepeated(x);
+        break;
+      case InputRecorder.POINTER_PRESSED:
+        target.invokePointerPressed(x, y);
+        break;
+      case InputRecorder.POINTER_RELEASED:
+        target.invokePointerReleased(x, y);
+        break;
+      default:
+        target.invokePointerDragged(x, y);
+    }
+    serviceRepaints();
+  }
+  
+  /**
+   * Fires a command on the current screen.
+   */
+  private void sendCommand(String label) {
+    if (current == null) {
+      throw new IllegalStateException("No screen for command " + label);
+    }
+    J2meUtil.fireCommand(current, label);
+    serviceRepaints();
+  }
+  
+  private void serviceRepaints() {
+    if (current instanceof Canvas) {
+      ((Canvas) current).serviceRepaints();
+    }
+  }
+}
@@ -17,10 +17,14 @@ package com.google.test.jinjector.j2me;
 
 
 import com.google.test.jinjector.AssistedTestCase;
+import com.google.test.jinjector.util.IoUtil;
 
 import j2meunit.framework.AssertionFailedError;
 import j2meunit.framework.TestMethod;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import javax.microedition.lcdui.Display;
 import javax.microedition.lcdui.Displayable;
 import javax.microedition.midlet.MIDlet;
@@ -127,6 +131,27 @@ public class J2meTestCase extends AssistedTestCase {
     return Display.getDisplay(midlet).getCurrent();
   }
 
+  /**
+   * Replays on {@link #midlet} a script recorded by {@link InputRecorder}.
+   * 
+   * @param resource The name of the resource containing the script.
+   * @return the number of replayed events.
+   * @throws IOException if the script cannot be read.
+   * @throws AssertionFailedError if the resource does not exist.
+   * @see InputReplayer
+   */
+  public int replayInput(String resource) throws IOException {
+    InputStream in = getClass().getResourceAsStream(resource);
+    if (in == null) {
+      fail("Missing input script: " + resource);
+    }
+    try {
+      return new InputReplayer(midlet).replay(in);
+    } finally {
+      IoUtil.closeCloseable(in);
+    }
+  }
+
 
 
   /**
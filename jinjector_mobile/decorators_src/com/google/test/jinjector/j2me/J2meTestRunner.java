@@ -18,15 +18,33 @@ package com.google.test.jinjector.j2me;
 
 import com.google.test.jinjector.RegressionTestRunner;
 import com.google.test.jinjector.ResultDisplayerStrategy;
+import com.google.test.jinjector.TestResultRecorder;
+import com.google.test.jinjector.TestShard;
 import com.google.test.jinjector.coverage.CoverageManager;
 import com.google.test.jinjector.coverage.CoverageReporter;
+import com.google.test.jinjector.coverage.TestCoverageRecorder;
+import com.google.test.jinjector.memory.AllocationProfile;
+import com.google.test.jinjector.memory.InstanceCensus;
+import com.google.test.jinjector.util.ExceptionTable;
+import com.google.test.jinjector.util.FileConnectionUtil;
+import com.google.test.jinjector.util.FileLogSink;
+import com.google.test.jinjector.util.IoUtil;
+import com.google.test.jinjector.util.LineReader;
 import com.google.test.jinjector.util.Log;
 
 import j2meunit.framework.Test;
 import j2meunit.framework.TestSuite;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Enumeration;
+import java.util.Vector;
 
+import javax.microedition.io.Connection;
+import javax.microedition.io.Connector;
+import javax.microedition.io.OutputConnection;
+import javax.microedition.io.file.FileConnection;
 import javax.microedition.midlet.MIDlet;
 
 /**
@@ -38,8 +56,146 @@ import javax.microedition.midlet.MIDlet;
  */
 public class J2meTestRunner extends RegressionTestRunner {
 
+  /**
+   * The application property, or the system property, which specifies how 
+   * many times the suite is run.
+   * 
+   * @see RegressionTestRunner#setRepetitions(int)
+   */
+  public static final String PROPERTY_REPETITIONS = "JInjector-Repetitions";
+
+  /**
+   * The application property, or the system property, which enables the 
+   * measure of the memory used by each test when set to <code>true</code>.
+   * 
+   * @see RegressionTestRunner#setMemoryMonitoring(boolean)
+   */
+  public static final String PROPERTY_MEMORY_MONITOR = 
+      "JInjector-Memory-Monitor";
+
+  /**
+   * The resource listing the tests to run, one per line. If it is not 
+   * bundled with the application all the tests are run.
+   * 
+   * @see RegressionTestRunner#setSelectedTests(Vector)
+   */
+  public static final String RESOURCE_SELECTED_TESTS = "/selectedTests.txt";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * index of the shard run by this device, starting from 0.
+   * 
+   * @see RegressionTestRunner#setShard(TestShard)
+   */
+  public static final String PROPERTY_SHARD_INDEX = "JInjector-Shard-Index";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * number of shards. If it is not set the whole suite is run.
+   */
+  public static final String PROPERTY_SHARD_COUNT = "JInjector-Shard-Count";
+
+  /**
+   * The resource containing the results of a previous run, used to balance 
+   * the shards. If it is not bundled with the application all the tests are
+   * assumed to take the same time.
+   */
+  public static final String RESOURCE_RESULTS = 
+      "/" + TestResultRecorder.FILENAME_RESULTS;
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * URL on which the progress of the tests is streamed, either a file, e.g.
+   * <code>file:///root1/testEvents.txt</code>, or a socket, e.g. 
+   * <code>socket://10.0.2.2:5000</code>.
+   * 
+   * @see RegressionTestRunner#setEventStream(OutputStream)
+   */
+  public static final String PROPERTY_EVENT_STREAM = "JInjector-Event-Stream";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * maximum duration of each test in milliseconds.
+   * 
+   * @see RegressionTestRunner#setTestTimeout(long)
+   */
+  public static final String PROPERTY_TEST_TIMEOUT = "JInjector-Test-Timeout";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * maximum duration of the suite in milliseconds. When it expires the 
+   * reports are written and the MIDlet exits.
+   * 
+   * @see RegressionTestRunner#setSuiteTimeout(long)
+   */
+  public static final String PROPERTY_SUITE_TIMEOUT = 
+      "JInjector-Suite-Timeout";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * file URL on which the input events received by the application are 
+   * recorded, e.g. <code>file:///root1/input.jis</code>. The recording 
+   * continues after the tests, until the MIDlet exits.
+   * 
+   * @see InputRecorder
+   */
+  public static final String PROPERTY_INPUT_RECORD = "JInjector-Input-Record";
+
+  /**
+   * The application property, or the system property, which enables the 
+   * frame timing of Canvases and GameCanvases. Its value is the frame 
+   * budget in milliseconds, e.g. 33 for 30 frames per second. The frame 
+   * times are written next to the coverage report.
+   * 
+   * @see FrameProfiler
+   */
+  public static final String PROPERTY_FRAME_TIMING = "JInjector-Frame-Timing";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * minimum level of the logged messages: <code>DEBUG</code>, 
+   * <code>INFO</code>, <code>WARNING</code>, <code>ERROR</code> or 
+   * <code>OFF</code>.
+   * 
+   * @see Log#setLevel(int)
+   */
+  public static final String PROPERTY_LOG_LEVEL = "JInjector-Log-Level";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * number of log messages which can be queued. When it is set messages are
+   * written by a background thread instead of the thread logging them.
+   * 
+   * @see Log#startAsynchronous(int)
+   */
+  public static final String PROPERTY_LOG_QUEUE = "JInjector-Log-Queue";
+
+  /**
+   * The application property, or the system property, which specifies the 
+   * file URL to which the log is appended instead of 
+   * <code>System.out</code>, e.g. <code>file:///root1/jinjector.log</code>.
+   * 
+   * @see FileLogSink
+   */
+  public static final String PROPERTY_LOG_FILE = "JInjector-Log-File";
+
   protected final MIDlet midlet;
   
+  /**
+   * The connection on which the test events are written, or 
+   * <code>null</code>.
+   */
+  private Connection eventConnection = null;
+  
+  private OutputStream eventOutput = null;
+  
+  /**
+   * The connection on which the input events are recorded, or 
+   * <code>null</code>. It is never closed because the MIDlet can exit at 
+   * any time, so each event is flushed.
+   */
+  private OutputConnection inputConnection = null;
+  
   /**
    * Creates a test playback without depending from a midlet.
    * 
@@ -81,10 +237,239 @@ public class J2meTestRunner extends RegressionTestRunner {
       Log.log(J2meTestRunner.class, "MIDlet is null.");
       throw new IllegalArgumentException("MIDlet is null.");
     }
-    Log.log(J2meTestRunner.class, "MIDlet is " + midlet);
     this.midlet = midlet;
+    configureLog();
+    Log.log(J2meTestRunner.class, "MIDlet is " + midlet);
+    int repetitions = getIntProperty(PROPERTY_REPETITIONS, 1);
+    if (repetitions < 1) {
+      Log.log(J2meTestRunner.class, "Ignoring " + PROPERTY_REPETITIONS 
+          + " because the suite must run at least once: " + repetitions);
+    } else {
+      setRepetitions(repetitions);
+    }
+    setMemoryMonitoring("true".equals(getProperty(PROPERTY_MEMORY_MONITOR)));
+    loadSelectedTests();
+    loadShard();
+    openEventStream();
+    startInputRecording();
+    String budget = getProperty(PROPERTY_FRAME_TIMING);
+    if (budget != null) {
+      FrameProfiler.start(Integer.parseInt(budget));
+    }
+    String timeout = getProperty(PROPERTY_TEST_TIMEOUT);
+    if (timeout != null) {
+      setTestTimeout(Long.parseLong(timeout));
+    }
+    timeout = getProperty(PROPERTY_SUITE_TIMEOUT);
+    if (timeout != null) {
+      setSuiteTimeout(Long.parseLong(timeout));
+    }
   } 
 
+  /**
+   * Configures the {@link Log} with {@link #PROPERTY_LOG_LEVEL}, 
+   * {@link #PROPERTY_LOG_FILE} and {@link #PROPERTY_LOG_QUEUE}, if any. 
+   * Invalid values are logged and ignored.
+   * 
+   * <p> This is protected for testing purposes.
+   */
+  protected void configureLog() {
+    String level = getProperty(PROPERTY_LOG_LEVEL);
+    if (level != null) {
+      if (Log.parseLevel(level) < 0) {
+        Log.log(J2meTestRunner.class, "Unknown log level: " + level);
+      } else {
+        Log.setLevel(Log.parseLevel(level));
+      }
+    }
+    String url = getProperty(PROPERTY_LOG_FILE);
+    if (url != null) {
+      try {
+        FileLogSink.open(url);
+      } catch (IOException e) {
+        Log.log(J2meTestRunner.class, "Cannot log on " + url + ": " 
+            + e.getMessage());
+      }
+    }
+    int capacity = getIntProperty(PROPERTY_LOG_QUEUE, 0);
+    if (capacity > 0) {
+      Log.startAsynchronous(capacity);
+    }
+  }
+
+  /**
+   * Opens the connection specified by {@link #PROPERTY_EVENT_STREAM}, if 
+   * any. Files are overwritten.
+   */
+  private void openEventStream() {
+    String url = getProperty(PROPERTY_EVENT_STREAM);
+    if (url == null) {
+      return;
+    }
+    try {
+      OutputConnection oc = openForWriting(url);
+      eventConnection = oc;
+      eventOutput = oc.openOutputStream();
+      setEventStream(eventOutput);
+    } catch (IOException e) {
+      Log.log(J2meTestRunner.class, "Cannot open the test events on " + url 
+          + ": " + e.getMessage());
+      closeEventStream();
+    }
+  }
+  
+  /**
+   * Starts recording the input events on the file specified by 
+   * {@link #PROPERTY_INPUT_RECORD}, if any.
+   */
+  private void startInputRecording() {
+    String url = getProperty(PROPERTY_INPUT_RECORD);
+    if (url == null) {
+      return;
+    }
+    try {
+      inputConnection = openForWriting(url);
+      InputRecorder.start(inputConnection.openOutputStream());
+      Log.log(J2meTestRunner.class, "Recording input on " + url);
+    } catch (IOException e) {
+      Log.log(J2meTestRunner.class, "Cannot record input on " + url + ": " 
+          + e.getMessage());
+    }
+  }
+  
+  /**
+   * Opens a connection for writing. Files are created if needed and 
+   * overwritten.
+   * 
+   * @param url The URL of a file or of any other output connection.
+   * @return the opened connection.
+   * @throws IOException if the connection cannot be opened.
+   */
+  private static OutputConnection openForWriting(String url) 
+      throws IOException {
+    if (url.startsWith("file:")) {
+      FileConnection fc = FileConnectionUtil.createAndOpenFile(url);
+      fc.truncate(0);
+      return fc;
+    }
+    return (OutputConnection) Connector.open(url, Connector.WRITE);
+  }
+
+  /**
+   * Closes the connection on which the test events are written, if any.
+   */
+  private void closeEventStream() {
+    IoUtil.closeCloseable(eventOutput);
+    eventOutput = null;
+    if (eventConnection != null) {
+      try {
+        eventConnection.close();
+      } catch (IOException e) {
+        Log.log(J2meTestRunner.class, 
+            "Cannot close the test events: " + e.getMessage());
+      }
+      eventConnection = null;
+    }
+  }
+
+  /**
+   * Gets a property from the application descriptor or, if it is not 
+   * defined there, from the system properties, which are easier to set on 
+   * emulators.
+   * 
+   * <p> This is protected for testing purposes.
+   * 
+   * @param name The name of the property.
+   * @return the trimmed value or <code>null</code> if it is not defined.
+   */
+  protected String getProperty(String name) {
+    String value = midlet.getAppProperty(name);
+    if (value == null) {
+      value = System.getProperty(name);
+    }
+    return value == null ? null : value.trim();
+  }
+
+  /**
+   * Gets a numeric property as defined by {@link #getProperty(String)}. 
+   * Values which are not numbers are logged and ignored.
+   * 
+   * @param name The name of the property.
+   * @param defaultValue The value returned if the property is not defined 
+   *     or is not a number.
+   * @return the value of the property.
+   */
+  private int getIntProperty(String name, int defaultValue) {
+    String value = getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      Log.log(J2meTestRunner.class, 
+          "Ignoring " + name + " because it is not a number: " + value);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Sets the shard specified by {@link #PROPERTY_SHARD_INDEX} and 
+   * {@link #PROPERTY_SHARD_COUNT}, if any, balanced with the durations in 
+   * {@link #RESOURCE_RESULTS}.
+   */
+  private void loadShard() {
+    String count = getProperty(PROPERTY_SHARD_COUNT);
+    if (count == null) {
+      return;
+    }
+    String index = getProperty(PROPERTY_SHARD_INDEX);
+    TestShard shard = new TestShard(
+        index == null ? 0 : Integer.parseInt(index), Integer.parseInt(count));
+    InputStream is = getClass().getResourceAsStream(RESOURCE_RESULTS);
+    if (is != null) {
+      try {
+        shard.setDurations(TestResultRecorder.readDurations(is));
+      } catch (IOException e) {
+        Log.log(J2meTestRunner.class, 
+            "Cannot read the test durations, assuming they are equal: " 
+            + e.getMessage());
+      } finally {
+        IoUtil.closeCloseable(is);
+      }
+    }
+    setShard(shard);
+  }
+
+  /**
+   * Loads the tests to run from {@link #RESOURCE_SELECTED_TESTS}, if it 
+   * exists.
+   */
+  private void loadSelectedTests() {
+    InputStream is = getClass().getResourceAsStream(RESOURCE_SELECTED_TESTS);
+    if (is == null) {
+      return;
+    }
+    Vector names = new Vector();
+    LineReader reader = new LineReader(is);
+    try {
+      String line;
+      while ((line = reader.readline()) != null) {
+        line = line.trim();
+        if (line.length() > 0) {
+          names.addElement(line);
+        }
+      }
+      setSelectedTests(names);
+    } catch (IOException e) {
+      Log.log(J2meTestRunner.class, 
+          "Cannot read the selected tests, running all of them: " 
+          + e.getMessage());
+    } finally {
+      IoUtil.closeCloseable(is);
+    }
+  }
+
   /**
    * Set a reference to the current MIDlet to all the tests.
    * 
@@ -122,21 +507,115 @@ public class J2meTestRunner extends RegressionTestRunner {
   }
 
   /**
-   * Force the MIDlet to exit after the execution of all the tests.
+   * Force the MIDlet to exit after the execution of all the tests, or when 
+   * the suite has been aborted because it timed out, since the application 
+   * is in an unknown state.
    * 
    * @see com.google.test.jinjector.RegressionTestRunner#run()
    */
   public void run() {
     super.run();
-    if (needToExit((TestSuite)this.suite)) {
+    closeEventStream();
+    if (isAborted() || needToExit((TestSuite)this.suite)) {
       Log.log(J2meTestRunner.class, "Exit requested");
+      writeReports();
       if (midlet instanceof CoverageReporter) {
         CoverageManager.writeReport("file://localhost/");
       }
+      if (!ExceptionTable.isEmpty()) {
+        ExceptionTable.logSummary();
+      }
+      if (!InstanceCensus.isEmpty()) {
+        InstanceCensus.stopReporting();
+        InstanceCensus.logCensus();
+      }
+      // Queued messages would be lost when the MIDlet exits.
+      Log.flush();
+      FileLogSink.close();
       midlet.notifyDestroyed();
     }
   }
   
+  /**
+   * Writes the reports collected during the run next to the coverage 
+   * report: the outcome and the duration of each test, so that the host can
+   * merge the results of all the shards, the coverage of each test and the
+   * profiles which recorded something.
+   */
+  private void writeReports() {
+    if (resultRecorder != null) {
+      writeReport(TestResultRecorder.FILENAME_RESULTS, new ReportWriter() {
+        public void write(OutputStream out) {
+          resultRecorder.write(out);
+        }
+      });
+    }
+    if (coverageRecorder != null) {
+      writeReport(TestCoverageRecorder.FILENAME_TEST_COVERAGE, 
+          new ReportWriter() {
+        public void write(OutputStream out) {
+          coverageRecorder.write(out);
+        }
+      });
+    }
+    if (!AllocationProfile.isEmpty()) {
+      writeReport(AllocationProfile.DEFAULT_FILENAME, new ReportWriter() {
+        public void write(OutputStream out) throws IOException {
+          AllocationProfile.dump(out);
+        }
+      });
+    }
+    if (!FrameProfiler.isEmpty()) {
+      writeReport(FrameProfiler.DEFAULT_FILENAME, new ReportWriter() {
+        public void write(OutputStream out) throws IOException {
+          FrameProfiler.dump(out);
+        }
+      });
+    }
+    if (!ListenerProfiler.isEmpty()) {
+      writeReport(ListenerProfiler.DEFAULT_FILENAME, new ReportWriter() {
+        public void write(OutputStream out) throws IOException {
+          ListenerProfiler.dump(out);
+        }
+      });
+    }
+    if (UiEventLog.getRecordCount() != 0) {
+      writeReport(UiEventLog.DEFAULT_FILENAME, new ReportWriter() {
+        public void write(OutputStream out) throws IOException {
+          UiEventLog.dump(out);
+        }
+      });
+    }
+  }
+  
+  /**
+   * Writes a report in the folder in which the {@link CoverageManager} 
+   * writes its reports, replacing any previous content. Errors are logged.
+   * 
+   * @param filename The name of the report.
+   * @param writer Writes the content of the report.
+   */
+  private void writeReport(String filename, ReportWriter writer) {
+    FileConnection fc = null;
+    OutputStream os = null;
+    try {
+      fc = FileConnectionUtil.createAndOpenFile(
+          CoverageManager.getWriteableRoot() + filename);
+      fc.truncate(0);
+      os = fc.openOutputStream();
+      writer.write(os);
+    } catch (IOException e) {
+      Log.log(J2meTestRunner.class, 
+          "Cannot write " + filename + ": " + e.getMessage());
+    } catch (IllegalStateException e) {
+      Log.log(J2meTestRunner.class, 
+          "Cannot write " + filename + ": " + e.getMessage());
+    } finally {
+      IoUtil.closeCloseable(os);
+      FileConnectionUtil.close(fc);
+    }
+  }
+  
   /**
    * Tells if at least one test in the given suite is requiring to terminate
    * the application.
@@ -159,4 +638,17 @@ public class J2meTestRunner extends RegressionTestRunner {
     }
     return false;
   }
+  
+  /**
+   * Writes the content of a report written by 
+   * {@link J2meTestRunner#writeReport(String, ReportWriter)}.
+   */
+  private interface ReportWriter {
+    
+    /**
+     * @param out The stream on which to write. It is closed by the caller.
+     * @throws IOException If an error occurs while writing.
+     */
+    void write(OutputStream out) throws IOException;
+  }
 }
@@ -15,6 +15,7 @@
 
 package com.google.test.jinjector.j2me;
 
+import com.google.test.jinjector.j2me.wrapper.CommandRegistry;
 import com.google.test.jinjector.j2me.wrapper.DisplayableWrapper;
 import com.google.test.jinjector.j2me.wrapper.ItemWrapper;
 import com.google.test.jinjector.util.Log;
@@ -55,10 +56,25 @@ public class J2meUtil {
    * delay. In slow devices this value may need to be increased.
    * 
    * <p>The timeout will be this value multiplied for 
-   * {@link #DELAY_FOR_GUI_UPDATE}.
+   * {@link #DELAY_FOR_GUI_UPDATE}. Since waiting threads are woken up by 
+   * {@link DisplayMonitor} the number of queries actually performed is 
+   * usually much smaller.
    */
   private static final int NUM_RETRY_FOR_GUI_UPDATE = 1000;
 
+  /**
+   * The time in milliseconds after a change notified by 
+   * {@link DisplayMonitor} in which the new {@link Displayable} is expected 
+   * to appear on screen.
+   */
+  private static final long SETTLE_TIME = 500;
+
+  /**
+   * The maximum time in milliseconds to wait for a {@link DisplayMonitor} 
+   * notification before checking the display again.
+   */
+  private static final long MAX_WAIT_WITHOUT_CHANGE = 250;
+
   /**
    * Utility class
    */
@@ -77,18 +93,18 @@ public class J2meUtil {
    *    properly.
    */
   public static void fireCommand(Displayable sourceDisp, String action) {
-    DisplayableWrapper wrapper = (DisplayableWrapper) sourceDisp;
-   
-    CommandListener[] listeners = wrapper.getAllCommandListeners();
+    CommandRegistry registry = 
+        ((DisplayableWrapper) sourceDisp).getCommandRegistry();
     
-    Command targetCommand = getCommandFromAction(action, wrapper.getAllCommands());
+    Command targetCommand = registry.getCommand(action);
     // No Command implementing the specific action has been found, return;
     if (targetCommand == null) {
       return;
     }
     
+    Object[] listeners = registry.getListeners();
     for (int i = 0; i < listeners.length; i++) {
-      CommandListener list = listeners[i];
+      CommandListener list = (CommandListener) listeners[i];
       list.commandAction(targetCommand, sourceDisp);
     }
   }
@@ -104,40 +120,23 @@ public class J2meUtil {
    *    properly.
    */
   public static void fireCommand(Item sourceItem, String action) { 
-    ItemWrapper wrapper = (ItemWrapper) sourceItem;
+    CommandRegistry registry = 
+        ((ItemWrapper) sourceItem).getCommandRegistry();
     
-    ItemCommandListener[] listeners = wrapper.getAllItemCommandListeners();
-    
-    Command targetCommand = getCommandFromAction(action, wrapper.getAllCommands());
+    Command targetCommand = registry.getCommand(action);
     // No Command implementing the specific action has been found, return;
     if (targetCommand == null) {
       return;
     }
     
     // Fires the event to all the listeners
+    Object[] listeners = registry.getListeners();
     for (int i = 0; i < listeners.length; i++) {
-      ItemCommandListener list = listeners[i];
+      ItemCommandListener list = (ItemCommandListener) listeners[i];
       list.commandAction(targetCommand, sourceItem);
     }
   }
   
-  /**
-   * Gets a command that wraps a given action from a given array of commands.
-   * 
-   * @param action the String used as action name for the event.
-   * @param commands an array of commands.
-   * @return the {@link Command} wrapping the given action.
-   */
-  private static Command getCommandFromAction(String action, Command[] commands) {
-    for (int i = 0; i < commands.length; i++) {
-      Command cmd = commands[i];
-      if (cmd.getLabel().equals(action)) {
-        return cmd;
-      }
-    }
-    return null;
-  }
-
   /**
    * Get the {@link Displayable} currently on screen for the 
    * given {@link MIDlet}.
@@ -169,6 +168,16 @@ public class J2meUtil {
    * Wait for a instance of {@link Displayable} to appear on screen that 
    * matches the specified type. 
    * 
+   * <p>The calling thread blocks on {@link DisplayMonitor} and is woken up 
+   * as soon as the instrumented application changes the current 
+   * Displayable. Since the change is asynchronous the display is polled 
+   * every <code>delay</code> milliseconds for a while after each change. 
+   * Without recent changes it is only checked every 
+   * {@link #MAX_WAIT_WITHOUT_CHANGE} milliseconds, because the display can 
+   * also change without <code>setCurrent</code>, for example when an Alert 
+   * times out. If the application has not been instrumented the display is 
+   * polled every <code>delay</code> milliseconds.
+   * 
    * @param midlet The MIDlet on which to query.
    * @param type The type of Displayable to query.
    * @param retry The number of attempts.
@@ -179,20 +188,29 @@ public class J2meUtil {
    */
   public static Displayable waitAndGetDisplayableOfType(MIDlet midlet, 
       Class type, int retry, long delay) {
-    Displayable disp = null;
-    while ((disp = getCurrentDisplayable(midlet)) == null ||
-        !type.isAssignableFrom(disp.getClass())) {
-      retry--;
-      if (retry <= 0) {
+    long deadline = System.currentTimeMillis() + retry * delay;
+    while (true) {
+      int seenCount = DisplayMonitor.getChangeCount();
+      Displayable disp = getCurrentDisplayable(midlet);
+      if (disp != null && type.isAssignableFrom(disp.getClass())) {
+        return disp;
+      }
+      long now = System.currentTimeMillis();
+      if (now >= deadline) {
         return null;
       }
+      long wait = delay;
+      long lastChange = DisplayMonitor.getLastChangeTime();
+      if (lastChange != 0 && now - lastChange > SETTLE_TIME) {
+        wait = Math.max(delay, MAX_WAIT_WITHOUT_CHANGE);
+      }
       try {
-        Thread.sleep(delay);
+        DisplayMonitor.waitForChange(seenCount, 
+            Math.min(wait, deadline - now));
       } catch (InterruptedException e) {
         throw new RuntimeException(e.getMessage());
       }
     }
-    return disp;
   }
 
   /**
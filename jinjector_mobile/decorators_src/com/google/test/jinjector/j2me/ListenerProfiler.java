@@ -0,0 +1,236 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.Item;
+
+/**
+ * Measures how long the listeners of the application take to handle 
+ * commands and item changes, which are dispatched on the UI thread.
+ * 
+ * <p>This class is invoked by the code injected by the tool at the end of 
+ * each <code>commandAction</code> of CommandListeners and 
+ * ItemCommandListeners, and of each <code>itemStateChanged</code> of 
+ * ItemStateListeners, also if they throw. Durations are recorded per 
+ * listener class, callback and label into histograms with logarithmic 
+ * buckets: bucket 0 contains the callbacks which took no time and bucket i 
+ * the ones which took from 2^(i-1) to 2^i - 1 milliseconds. Percentiles 
+ * are estimated as the upper bound of the bucket, or the maximum if lower.
+ * 
+ * @author Michele Sama
+ */
+public class ListenerProfiler {
+
+  /**
+   * The file in which the test runner dumps the latencies, next to the 
+   * coverage report.
+   */
+  public static final String DEFAULT_FILENAME = "listenerLatency.txt";
+  
+  /**
+   * The number of buckets of each histogram. The last one contains all the 
+   * callbacks longer than about 4 minutes.
+   */
+  public static final int BUCKET_COUNT = 20;
+  
+  /**
+   * The name of the callback of CommandListeners and ItemCommandListeners.
+   */
+  public static final String COMMAND_ACTION = "commandAction";
+  
+  /**
+   * The name of the callback of ItemStateListeners.
+   */
+  public static final String ITEM_STATE_CHANGED = "itemStateChanged";
+  
+  /**
+   * The histograms, by listener class, callback and label separated by 
+   * tabs.
+   */
+  private static Hashtable histograms = new Hashtable();
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private ListenerProfiler() {
+  }
+  
+  /**
+   * Invoked by the injected code when a <code>commandAction</code> ends.
+   * 
+   * @param listener The listener which handled the command.
+   * @param command The handled command.
+   * @param millis The duration of the callback.
+   */
+  public static void commandHandled(Object listener, Command command, 
+      long millis) {
+    FrameProfiler.inputReceived();
+    record(listener.getClass().getName(), COMMAND_ACTION, 
+        command == null ? null : command.getLabel(), millis);
+  }
+  
+  /**
+   * Invoked by the injected code when an <code>itemStateChanged</code> ends.
+   * 
+   * @param listener The listener which handled the change.
+   * @param item The changed item.
+   * @param millis The duration of the callback.
+   */
+  public static void itemChanged(Object listener, Item item, long millis) {
+    FrameProfiler.inputReceived();
+    record(listener.getClass().getName(), ITEM_STATE_CHANGED, 
+        item == null ? null : item.getLabel(), millis);
+  }
+  
+  /**
+   * Records the duration of a callback.
+   * 
+   * @param listener The class name of the listener.
+   * @param callback The name of the callback.
+   * @param label The label of the command or of the item, or 
+   *    <code>null</code>.
+   * @param millis The duration of the callback.
+   */
+  static synchronized void record(String listener, String callback, 
+      String label, long millis) {
+    String key = getKey(listener, callback, label);
+    LatencyHistogram histogram = (LatencyHistogram) histograms.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      histograms.put(key, histogram);
+    }
+    histogram.add(millis);
+  }
+  
+  private static String getKey(String listener, String callback, 
+      String label) {
+    return listener + '\t' + callback + '\t' + (label == null ? "" : label);
+  }
+  
+  /**
+   * Gets a percentile of the durations of a callback.
+   * 
+   * @param listener The class name of the listener.
+   * @param callback The name of the callback.
+   * @param label The label of the command or of the item, or 
+   *    <code>null</code>.
+   * @param percent The percentile, from 1 to 100.
+   * @return the estimated percentile in milliseconds, or -1 if the callback 
+   *    has not been recorded.
+   */
+  public static synchronized long getPercentile(String listener, 
+      String callback, String label, int percent) {
+    LatencyHistogram histogram = 
+        (LatencyHistogram) histograms.get(getKey(listener, callback, label));
+    return histogram == null ? -1 : histogram.getPercentile(percent);
+  }
+  
+  /**
+   * Gets the number of times a callback has been recorded.
+   * 
+   * @param listener The class name of the listener.
+   * @param callback The name of the callback.
+   * @param label The label of the command or of the item, or 
+   *    <code>null</code>.
+   * @return the number of recorded callbacks.
+   */
+  public static synchronized int getCount(String listener, String callback, 
+      String label) {
+    LatencyHistogram histogram = 
+        (LatencyHistogram) histograms.get(getKey(listener, callback, label));
+    return histogram == null ? 0 : histogram.count;
+  }
+  
+  /**
+   * @return <code>true</code> if no callback has been recorded.
+   */
+  public static synchronized boolean isEmpty() {
+    return histograms.isEmpty();
+  }
+  
+  /**
+   * Discards all the recorded callbacks.
+   */
+  public static synchronized void clear() {
+    histograms.clear();
+  }
+  
+  /**
+   * Writes the latencies, one callback per line as:
+   * <pre>
+   * listener callback label count p50 p95 max
+   * </pre>
+   * separated by tabs, in milliseconds.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void dump(OutputStream out) throws IOException {
+    StringBuffer sb = new StringBuffer();
+    synchronized (ListenerProfiler.class) {
+      sb.append("# listener\tcallback\tlabel\tcount\tp50\tp95\tmax\n");
+      Enumeration keys = histograms.keys();
+      while (keys.hasMoreElements()) {
+        String key = (String) keys.nextElement();
+        LatencyHistogram histogram = (LatencyHistogram) histograms.get(key);
+        sb.append(key).append('\t').append(histogram.count).append('\t')
+            .append(histogram.getPercentile(50)).append('\t')
+            .append(histogram.getPercentile(95)).append('\t')
+            .append(histogram.max).append('\n');
+      }
+    }
+    out.write(sb.toString().getBytes("UTF-8"));
+    out.flush();
+  }
+  
+  /**
+   * A histogram of durations with logarithmic buckets.
+   */
+  private static class LatencyHistogram {
+    final int[] buckets = new int[BUCKET_COUNT];
+    int count = 0;
+    long max = 0;
+    
+    void add(long millis) {
+      int bucket = 0;
+      for (long m = millis; m > 0 && bucket < BUCKET_COUNT - 1; m >>= 1) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      max = Math.max(max, millis);
+    }
+    
+    long getPercentile(int percent) {
+      // The rank of the percentile, rounded up.
+      int rank = (count * percent + 99) / 100;
+      int seen = 0;
+      for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return Math.min((1L << i) - 1, max);
+        }
+      }
+      return max;
+    }
+  }
+}
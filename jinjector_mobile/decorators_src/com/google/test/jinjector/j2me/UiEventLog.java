@@ -0,0 +1,218 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.microedition.lcdui.Command;
+
+/**
+ * Records the commands dispatched to the listeners of the application as 
+ * fixed-size binary records in a preallocated ring buffer.
+ * 
+ * <p>This class is invoked by the code injected at the beginning of each 
+ * <code>commandAction</code> of CommandListeners and ItemCommandListeners. 
+ * Each record takes {@link #RECORD_SIZE} ints:
+ * <ol>
+ * <li>the id of the class of the listener;
+ * <li>the id of the label of the command;
+ * <li>the id of the class of the target Displayable or Item;
+ * <li>the time in milliseconds since the log has been initialized.
+ * </ol>
+ * 
+ * <p>Ids are assigned the first time a class or a label is seen, so that 
+ * no string is built while logging. Names are only written once in the 
+ * dump, and records are rendered on the host by the tool. An id of -1 
+ * stands for <code>null</code>.
+ * 
+ * <p>When the buffer is full the oldest records are overwritten.
+ * 
+ * @author Michele Sama
+ */
+public class UiEventLog {
+  
+  /**
+   * The file in which the test runner dumps the log, next to the coverage 
+   * report.
+   */
+  public static final String DEFAULT_FILENAME = "uiEvents.bin";
+  
+  /**
+   * The number of ints in each record.
+   */
+  public static final int RECORD_SIZE = 4;
+  
+  /**
+   * Identifies a dump of the log.
+   */
+  public static final int MAGIC = 0x4A55454C;
+  
+  /**
+   * The version of the dump format.
+   */
+  public static final int VERSION = 1;
+  
+  /**
+   * The default number of records kept in the buffer.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+  
+  private static int[] buffer = new int[DEFAULT_CAPACITY * RECORD_SIZE];
+  
+  /**
+   * The position in {@link #buffer} of the next record.
+   */
+  private static int position = 0;
+  
+  /**
+   * The number of records written since the initialization, including the 
+   * overwritten ones.
+   */
+  private static int recordCount = 0;
+  
+  private static long startTime = System.currentTimeMillis();
+  
+  /**
+   * The ids of the classes, by Class, and of the labels, by String.
+   */
+  private static Hashtable ids = new Hashtable();
+  
+  /**
+   * The names, by id.
+   */
+  private static Vector names = new Vector();
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private UiEventLog() {
+  }
+  
+  /**
+   * Discards all the records and the names and reallocates the buffer.
+   * 
+   * @param capacity The number of records to keep.
+   */
+  public static synchronized void init(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive.");
+    }
+    buffer = new int[capacity * RECORD_SIZE];
+    position = 0;
+    recordCount = 0;
+    ids.clear();
+    names.removeAllElements();
+    startTime = System.currentTimeMillis();
+  }
+  
+  /**
+   * Invoked by the injected code when a command is dispatched.
+   * 
+   * @param listener The listener receiving the command.
+   * @param command The dispatched command.
+   * @param target The Displayable or the Item on which the command has been 
+   *    fired.
+   */
+  public static void commandAction(Object listener, Command command, 
+      Object target) {
+    record(listener == null ? null : listener.getClass(), 
+        command == null ? null : command.getLabel(), 
+        target == null ? null : target.getClass());
+  }
+  
+  /**
+   * Records an event.
+   * 
+   * @param listener The class of the listener.
+   * @param label The label of the command.
+   * @param target The class of the target.
+   */
+  static synchronized void record(Class listener, String label, 
+      Class target) {
+    int[] b = buffer;
+    int p = position;
+    b[p] = getId(listener);
+    b[p + 1] = getId(label);
+    b[p + 2] = getId(target);
+    b[p + 3] = (int) (System.currentTimeMillis() - startTime);
+    p += RECORD_SIZE;
+    position = p == b.length ? 0 : p;
+    recordCount++;
+  }
+  
+  /**
+   * Gets the id of a class or of a label, assigning a new one if needed.
+   */
+  private static int getId(Object key) {
+    if (key == null) {
+      return -1;
+    }
+    Integer id = (Integer) ids.get(key);
+    if (id == null) {
+      id = new Integer(names.size());
+      ids.put(key, id);
+      names.addElement(key instanceof Class 
+          ? ((Class) key).getName() : (String) key);
+    }
+    return id.intValue();
+  }
+  
+  /**
+   * @return the number of records written since the initialization, 
+   *     including the ones which have been overwritten.
+   */
+  public static synchronized int getRecordCount() {
+    return recordCount;
+  }
+  
+  /**
+   * Writes the content of the buffer, from the oldest record to the newest,
+   * followed by the names.
+   * 
+   * <p>The dump starts with {@link #MAGIC}, {@link #VERSION}, the start 
+   * time, {@link #RECORD_SIZE}, the number of records written since the 
+   * initialization and the number of records in the dump, followed by the 
+   * records, the number of names and the names, by id, in modified UTF-8. 
+   * All values are big endian.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static synchronized void dump(OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    int capacity = buffer.length / RECORD_SIZE;
+    int count = recordCount < capacity ? recordCount : capacity;
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeLong(startTime);
+    dos.writeInt(RECORD_SIZE);
+    dos.writeInt(recordCount);
+    dos.writeInt(count);
+    int first = count < capacity ? 0 : position;
+    for (int i = 0; i < count * RECORD_SIZE; i++) {
+      dos.writeInt(buffer[(first + i) % buffer.length]);
+    }
+    dos.writeInt(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      dos.writeUTF((String) names.elementAt(i));
+    }
+    dos.flush();
+  }
+}
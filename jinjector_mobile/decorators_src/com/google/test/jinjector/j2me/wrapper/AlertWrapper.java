@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.DisplayableVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
 import javax.microedition.lcdui.Command;
@@ -33,8 +31,7 @@ import javax.microedition.lcdui.Image;
  */
 public class AlertWrapper extends Alert implements DisplayableWrapper {
 
-  private Vector commandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass.
@@ -66,9 +63,7 @@ public class AlertWrapper extends Alert implements DisplayableWrapper {
    * @see Alert#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      commands.addElement(cmd);
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -80,9 +75,7 @@ public class AlertWrapper extends Alert implements DisplayableWrapper {
    * @see Alert#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -94,11 +87,7 @@ public class AlertWrapper extends Alert implements DisplayableWrapper {
    * @see Alert#setCommandListener(CommandListener)
    */
   public void setCommandListener(CommandListener listener) {
-    synchronized (commandListeners) {
-      if (!commandListeners.contains(listener)) {
-        commandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setCommandListener(listener);
   }
 
@@ -109,11 +98,7 @@ public class AlertWrapper extends Alert implements DisplayableWrapper {
    * @see DisplayableWrapper#getAllCommands()
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -124,11 +109,14 @@ public class AlertWrapper extends Alert implements DisplayableWrapper {
    * @see DisplayableWrapper#getAllCommandListeners()
    */
   public CommandListener[] getAllCommandListeners() {
-    synchronized (commandListeners) {
-      CommandListener[] cmds = new CommandListener[commandListeners.size()];
-      commandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommandListeners();
+  }
+  
+  /**
+   * @see DisplayableWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
 
   /**
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.DisplayableVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CommandListener;
@@ -39,10 +37,9 @@ import javax.microedition.lcdui.Displayable;
  * @author Michele Sama
  */
 public abstract class CanvasWrapper extends Canvas 
-    implements DisplayableWrapper {  
+    implements DisplayableWrapper, InputWrapper {  
   
-  private Vector commandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass
@@ -59,11 +56,7 @@ public abstract class CanvasWrapper extends Canvas
    * @see Canvas#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -75,9 +68,7 @@ public abstract class CanvasWrapper extends Canvas
    * @see Canvas#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -89,11 +80,7 @@ public abstract class CanvasWrapper extends Canvas
    * @see Canvas#setCommandListener(CommandListener)
    */
   public void setCommandListener(CommandListener listener) {
-    synchronized (commandListeners) {
-      if (!commandListeners.contains(listener)) {
-        commandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setCommandListener(listener);
   }
   /**
@@ -103,11 +90,7 @@ public abstract class CanvasWrapper extends Canvas
    * @return An array containing all the registered {@link Command}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -117,11 +100,14 @@ public abstract class CanvasWrapper extends Canvas
    * @return an array with all the listeners
    */
   public CommandListener[] getAllCommandListeners() {
-    synchronized (commandListeners) {
-      CommandListener[] cmds = new CommandListener[commandListeners.size()];
-      commandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommandListeners();
+  }
+  
+  /**
+   * @see DisplayableWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
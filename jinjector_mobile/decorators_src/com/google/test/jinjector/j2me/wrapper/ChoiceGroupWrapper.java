@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.ItemVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.ChoiceGroup;
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Image;
@@ -31,8 +29,7 @@ import javax.microedition.lcdui.ItemCommandListener;
  */
 public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
 
-  private Vector itemCommandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
 
   /**
    * Constructor from superclass.
@@ -64,13 +61,7 @@ public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
    * @see ChoiceGroup#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        if (!commands.contains(cmd)) {
-          commands.addElement(cmd);
-        }
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -82,9 +73,7 @@ public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
    * @see ChoiceGroup#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -96,11 +85,7 @@ public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
    * @see ChoiceGroup#setItemCommandListener(ItemCommandListener)
    */
   public void setItemCommandListener(ItemCommandListener listener) {
-    synchronized (itemCommandListeners) {
-      if (!itemCommandListeners.contains(listener)) {
-        itemCommandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setItemCommandListener(listener);
   }
 
@@ -111,11 +96,7 @@ public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
    * @return An array containing all the {@link ItemCommandListener}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -125,12 +106,14 @@ public class ChoiceGroupWrapper extends ChoiceGroup implements ItemWrapper {
    * @return an array with all the {@link ItemCommandListener}s.
    */
   public ItemCommandListener[] getAllItemCommandListeners() {
-    synchronized (itemCommandListeners) {
-      ItemCommandListener[] cmds =
-          new ItemCommandListener[itemCommandListeners.size()];
-      itemCommandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyItemCommandListeners();
+  }
+  
+  /**
+   * @see ItemWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
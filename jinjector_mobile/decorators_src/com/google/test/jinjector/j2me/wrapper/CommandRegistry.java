@@ -0,0 +1,185 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me.wrapper;
+
+import java.util.Hashtable;
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.CommandListener;
+import javax.microedition.lcdui.ItemCommandListener;
+
+/**
+ * Stores the {@link Command}s and the listeners registered into a wrapped 
+ * Displayable or Item.
+ * 
+ * <p>All the wrappers delegate to an instance of this class. Commands are 
+ * indexed by label, so that tests can fire an action without scanning all 
+ * the commands. Both commands and listeners are kept in copy-on-write 
+ * arrays: changes, which are rare, create a new array, while the arrays 
+ * returned by {@link #getCommands()} and {@link #getListeners()} are never 
+ * modified and can be iterated without copying them.
+ * 
+ * <p>Listeners are stored as <code>Object</code>s because the same registry 
+ * holds <code>CommandListener</code>s for Displayables and 
+ * <code>ItemCommandListener</code>s for Items.
+ * 
+ * @author Michele Sama
+ */
+public class CommandRegistry {
+
+  private static final Command[] NO_COMMANDS = new Command[0];
+  
+  private static final Object[] NO_LISTENERS = new Object[0];
+  
+  private Command[] commands = NO_COMMANDS;
+  
+  private Object[] listeners = NO_LISTENERS;
+  
+  /**
+   * The first registered command for each label.
+   */
+  private Hashtable commandsByLabel = new Hashtable();
+  
+  /**
+   * Registers a {@link Command}, unless it is already registered.
+   * 
+   * @param cmd The {@link Command} to add.
+   */
+  public synchronized void addCommand(Command cmd) {
+    if (indexOf(commands, cmd) >= 0) {
+      return;
+    }
+    Command[] grown = new Command[commands.length + 1];
+    System.arraycopy(commands, 0, grown, 0, commands.length);
+    grown[commands.length] = cmd;
+    commands = grown;
+    String label = cmd.getLabel();
+    if (!commandsByLabel.containsKey(label)) {
+      commandsByLabel.put(label, cmd);
+    }
+  }
+  
+  /**
+   * Unregisters a {@link Command}.
+   * 
+   * @param cmd The {@link Command} to remove.
+   */
+  public synchronized void removeCommand(Command cmd) {
+    int index = indexOf(commands, cmd);
+    if (index < 0) {
+      return;
+    }
+    Command[] shrunk = new Command[commands.length - 1];
+    System.arraycopy(commands, 0, shrunk, 0, index);
+    System.arraycopy(commands, index + 1, shrunk, index, 
+        shrunk.length - index);
+    commands = shrunk;
+    String label = cmd.getLabel();
+    if (commandsByLabel.get(label) == cmd) {
+      commandsByLabel.remove(label);
+      // Another command may have the same label.
+      for (int i = 0; i < commands.length; i++) {
+        if (label.equals(commands[i].getLabel())) {
+          commandsByLabel.put(label, commands[i]);
+          break;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Registers a listener, unless it is already registered.
+   * 
+   * @param listener The listener to add.
+   */
+  public synchronized void addListener(Object listener) {
+    if (listener == null || indexOf(listeners, listener) >= 0) {
+      return;
+    }
+    Object[] grown = new Object[listeners.length + 1];
+    System.arraycopy(listeners, 0, grown, 0, listeners.length);
+    grown[listeners.length] = listener;
+    listeners = grown;
+  }
+  
+  /**
+   * Gets the first registered {@link Command} with the given label.
+   * 
+   * @param label The label of the command.
+   * @return the command or <code>null</code> if there is none.
+   */
+  public Command getCommand(String label) {
+    return (Command) commandsByLabel.get(label);
+  }
+  
+  /**
+   * @return all the registered {@link Command}s in registration order. The 
+   *    returned array is shared and must not be modified.
+   */
+  public synchronized Command[] getCommands() {
+    return commands;
+  }
+  
+  /**
+   * @return all the registered listeners in registration order. The 
+   *    returned array is shared and must not be modified.
+   */
+  public synchronized Object[] getListeners() {
+    return listeners;
+  }
+  
+  /**
+   * @return a copy of the registered {@link Command}s which the caller can 
+   *    modify.
+   */
+  public Command[] copyCommands() {
+    Command[] current = getCommands();
+    Command[] copy = new Command[current.length];
+    System.arraycopy(current, 0, copy, 0, current.length);
+    return copy;
+  }
+  
+  /**
+   * @return a copy of the registered listeners, which must all be 
+   *    {@link CommandListener}s. The caller can modify it.
+   */
+  public CommandListener[] copyCommandListeners() {
+    Object[] current = getListeners();
+    CommandListener[] copy = new CommandListener[current.length];
+    System.arraycopy(current, 0, copy, 0, current.length);
+    return copy;
+  }
+  
+  /**
+   * @return a copy of the registered listeners, which must all be 
+   *    {@link ItemCommandListener}s. The caller can modify it.
+   */
+  public ItemCommandListener[] copyItemCommandListeners() {
+    Object[] current = getListeners();
+    ItemCommandListener[] copy = new ItemCommandListener[current.length];
+    System.arraycopy(current, 0, copy, 0, current.length);
+    return copy;
+  }
+  
+  private static int indexOf(Object[] array, Object element) {
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.ItemVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CustomItem;
 import javax.microedition.lcdui.ItemCommandListener;
@@ -39,10 +37,10 @@ import javax.microedition.lcdui.ItemCommandListener;
  * @author Michele sama
  *
  */
-public abstract class CustomItemWrapper extends CustomItem implements ItemWrapper {
+public abstract class CustomItemWrapper extends CustomItem 
+    implements ItemWrapper, InputWrapper {
 
-  private Vector itemCommandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * @param label
@@ -59,11 +57,7 @@ public abstract class CustomItemWrapper extends CustomItem implements ItemWrappe
    * @see CustomItem#addCommand(javax.microedition.lcdui.Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -75,9 +69,7 @@ public abstract class CustomItemWrapper extends CustomItem implements ItemWrappe
    * @see CustomItem#removeCommand(javax.microedition.lcdui.Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -89,11 +81,7 @@ public abstract class CustomItemWrapper extends CustomItem implements ItemWrappe
    * @see CustomItem#setItemCommandListener(ItemCommandListener)
    */
   public void setItemCommandListener(ItemCommandListener listener) {
-    synchronized (itemCommandListeners) {
-      if (!itemCommandListeners.contains(listener)) {
-        itemCommandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setItemCommandListener(listener);
   }
  
@@ -104,11 +92,7 @@ public abstract class CustomItemWrapper extends CustomItem implements ItemWrappe
    * @see ItemWrapper#getAllCommands()
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -118,12 +102,14 @@ public abstract class CustomItemWrapper extends CustomItem implements ItemWrappe
    * @see ItemWrapper#getAllItemCommandListeners()
    */
   public ItemCommandListener[] getAllItemCommandListeners() {
-    synchronized (itemCommandListeners) {
-      ItemCommandListener[] cmds =
-          new ItemCommandListener[itemCommandListeners.size()];
-      itemCommandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyItemCommandListeners();
+  }
+  
+  /**
+   * @see ItemWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
  
   /**
@@ -18,8 +18,6 @@ package com.google.test.jinjector.j2me.wrapper;
 import com.google.test.jinjector.j2me.ItemVisitor;
 
 import java.util.TimeZone;
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.DateField;
 import javax.microedition.lcdui.ItemCommandListener;
@@ -34,8 +32,7 @@ import javax.microedition.lcdui.ItemCommandListener;
  */
 public class DateFieldWrapper extends DateField implements ItemWrapper {
 
-  private Vector itemCommandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass. 
@@ -66,11 +63,7 @@ public class DateFieldWrapper extends DateField implements ItemWrapper {
    * @see DateField#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -82,9 +75,7 @@ public class DateFieldWrapper extends DateField implements ItemWrapper {
    * @see DateField#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -96,11 +87,7 @@ public class DateFieldWrapper extends DateField implements ItemWrapper {
    * @see DateField#setItemCommandListener(ItemCommandListener)
    */
   public void setItemCommandListener(ItemCommandListener listener) {
-    synchronized (itemCommandListeners) {
-      if (!itemCommandListeners.contains(listener)) {
-        itemCommandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setItemCommandListener(listener);
   }
  
@@ -111,11 +98,7 @@ public class DateFieldWrapper extends DateField implements ItemWrapper {
    * @return An array containing all the registered {@link Command}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -125,12 +108,14 @@ public class DateFieldWrapper extends DateField implements ItemWrapper {
    * @return An array with all the {@link ItemCommandListener}s.
    */
   public ItemCommandListener[] getAllItemCommandListeners() {
-    synchronized (itemCommandListeners) {
-      ItemCommandListener[] cmds =
-          new ItemCommandListener[itemCommandListeners.size()];
-      itemCommandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyItemCommandListeners();
+  }
+  
+  /**
+   * @see ItemWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
@@ -85,4 +85,15 @@ public interface DisplayableWrapper {
    */
   public abstract CommandListener[] getAllCommandListeners();
 
+  /**
+   * Gets the registry storing the commands and the listeners of the wrapped 
+   * {@link Displayable}.
+   * 
+   * <p>Unlike the other getters this does not copy anything, so it is the 
+   * one to use when commands are fired or looked up repeatedly.
+   * 
+   * @return the {@link CommandRegistry} of this wrapper.
+   */
+  public abstract CommandRegistry getCommandRegistry();
+
 }
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.DisplayableVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CommandListener;
 import javax.microedition.lcdui.Displayable;
@@ -33,8 +31,7 @@ import javax.microedition.lcdui.Item;
  */
 public class FormWrapper extends Form implements DisplayableWrapper {
 
-  private Vector commandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass. 
@@ -63,11 +60,7 @@ public class FormWrapper extends Form implements DisplayableWrapper {
    * @see Form#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -79,9 +72,7 @@ public class FormWrapper extends Form implements DisplayableWrapper {
    * @see Form#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -93,11 +84,7 @@ public class FormWrapper extends Form implements DisplayableWrapper {
    * @see Form#setCommandListener(CommandListener)
    */
   public void setCommandListener(CommandListener listener) {
-    synchronized (commandListeners) {
-      if (!commandListeners.contains(listener)) {
-        commandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setCommandListener(listener);
   }
 
@@ -108,11 +95,7 @@ public class FormWrapper extends Form implements DisplayableWrapper {
    * @return An array containing all the registered {@link Command}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -122,11 +105,14 @@ public class FormWrapper extends Form implements DisplayableWrapper {
    * @return An array with all the {@link CommandListener}s.
    */
   public CommandListener[] getAllCommandListeners() {
-    synchronized (commandListeners) {
-      CommandListener[] cmds = new CommandListener[commandListeners.size()];
-      commandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommandListeners();
+  }
+  
+  /**
+   * @see DisplayableWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
 
   /**
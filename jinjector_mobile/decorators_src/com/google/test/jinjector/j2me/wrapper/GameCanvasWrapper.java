@@ -16,8 +16,7 @@
 package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.DisplayableVisitor;
-
-import java.util.Vector;
+import com.google.test.jinjector.j2me.FrameProfiler;
 
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CommandListener;
@@ -29,14 +28,15 @@ import javax.microedition.lcdui.game.GameCanvas;
  * <p>It exposes getter methods for contained {@link Command}s and 
  * {@link CommandListener}s which allows to fire commands.
  * 
+ * <p>It also times each flush for {@link FrameProfiler}.
+ * 
  * @see DisplayableWrapper
  * @author Michele Sama
  */
 public class GameCanvasWrapper extends GameCanvas 
-implements DisplayableWrapper {
+implements DisplayableWrapper, InputWrapper {
   
-  private Vector commandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass.
@@ -56,11 +56,7 @@ implements DisplayableWrapper {
    * @see GameCanvas#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -72,9 +68,7 @@ implements DisplayableWrapper {
    * @see GameCanvas#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -86,11 +80,7 @@ implements DisplayableWrapper {
    * @see GameCanvas#setCommandListener(CommandListener)
    */
   public void setCommandListener(CommandListener listener) {
-    synchronized (commandListeners) {
-      if (!commandListeners.contains(listener)) {
-        commandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setCommandListener(listener);
   }
 
@@ -101,11 +91,7 @@ implements DisplayableWrapper {
    * @return An array containing all the registered {@link Command}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -115,11 +101,14 @@ implements DisplayableWrapper {
    * @return An array with all the {@link CommandListener}s
    */
   public CommandListener[] getAllCommandListeners() {
-    synchronized (commandListeners) {
-      CommandListener[] cmds = new CommandListener[commandListeners.size()];
-      commandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommandListeners();
+  }
+  
+  /**
+   * @see DisplayableWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
@@ -164,7 +153,7 @@ implements DisplayableWrapper {
    * 
    * @see javax.microedition.lcdui.Canvas#pointerDragged(int, int)
    */
-  protected void invokePointerDragged(int x, int y) {
+  public void invokePointerDragged(int x, int y) {
     pointerDragged(x, y);
   }
 
@@ -173,7 +162,7 @@ implements DisplayableWrapper {
    * 
    * @see javax.microedition.lcdui.Canvas#pointerPressed(int, int)
    */
-  protected void invokePointerPressed(int x, int y) {
+  public void invokePointerPressed(int x, int y) {
     pointerPressed(x, y);
   }
 
@@ -182,8 +171,38 @@ implements DisplayableWrapper {
    * 
    * @see javax.microedition.lcdui.Canvas#pointerReleased(int, int)
    */
-  protected void invokePointerReleased(int x, int y) {
+  public void invokePointerReleased(int x, int y) {
     pointerReleased(x, y);
   }
+
+  /**
+   * Flushes the off-screen buffer and records the frame.
+   * 
+   * @see GameCanvas#flushGraphics()
+   */
+  public void flushGraphics() {
+    if (!FrameProfiler.isEnabled()) {
+      super.flushGraphics();
+      return;
+    }
+    long start = System.currentTimeMillis();
+    super.flushGraphics();
+    FrameProfiler.flushed(this, start);
+  }
+
+  /**
+   * Flushes a region of the off-screen buffer and records the frame.
+   * 
+   * @see GameCanvas#flushGraphics(int, int, int, int)
+   */
+  public void flushGraphics(int x, int y, int width, int height) {
+    if (!FrameProfiler.isEnabled()) {
+      super.flushGraphics(x, y, width, height);
+      return;
+    }
+    long start = System.currentTimeMillis();
+    super.flushGraphics(x, y, width, height);
+    FrameProfiler.flushed(this, start);
+  }
   
 }
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.ItemVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Gauge;
 import javax.microedition.lcdui.ItemCommandListener;
@@ -31,8 +29,7 @@ import javax.microedition.lcdui.ItemCommandListener;
  */
 public class GaugeWrapper extends Gauge implements ItemWrapper {
 
-  private Vector itemCommandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass.
@@ -55,11 +52,7 @@ public class GaugeWrapper extends Gauge implements ItemWrapper {
    * @see Gauge#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -71,9 +64,7 @@ public class GaugeWrapper extends Gauge implements ItemWrapper {
    * @see Gauge#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -85,11 +76,7 @@ public class GaugeWrapper extends Gauge implements ItemWrapper {
    * @see Gauge#setItemCommandListener(ItemCommandListener)
    */
   public void setItemCommandListener(ItemCommandListener listener) {
-    synchronized (itemCommandListeners) {
-      if (!itemCommandListeners.contains(listener)) {
-        itemCommandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setItemCommandListener(listener);
   }
 
@@ -100,11 +87,7 @@ public class GaugeWrapper extends Gauge implements ItemWrapper {
    * @return An array containing all the registered {@link Command}s.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -114,12 +97,14 @@ public class GaugeWrapper extends Gauge implements ItemWrapper {
    * @return An array with all the {@link ItemCommandListener}s.
    */
   public ItemCommandListener[] getAllItemCommandListeners() {
-    synchronized (itemCommandListeners) {
-      ItemCommandListener[] cmds =
-          new ItemCommandListener[itemCommandListeners.size()];
-      itemCommandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyItemCommandListeners();
+  }
+  
+  /**
+   * @see ItemWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.ItemVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.ImageItem;
@@ -33,8 +31,7 @@ import javax.microedition.lcdui.ItemCommandListener;
  */
 public class ImageItemWrapper extends ImageItem implements ItemWrapper {
 
-  private Vector itemCommandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
   
   /**
    * Constructor from superclass.
@@ -72,11 +69,7 @@ public class ImageItemWrapper extends ImageItem implements ItemWrapper {
    * @see ImageItem#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -88,9 +81,7 @@ public class ImageItemWrapper extends ImageItem implements ItemWrapper {
    * @see ImageItem#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -102,11 +93,7 @@ public class ImageItemWrapper extends ImageItem implements ItemWrapper {
    * @see ImageItem#setItemCommandListener(ItemCommandListener)
    */
   public void setItemCommandListener(ItemCommandListener listener) {
-    synchronized (itemCommandListeners) {
-      if (!itemCommandListeners.contains(listener)) {
-        itemCommandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setItemCommandListener(listener);
   }
 
@@ -117,11 +104,7 @@ public class ImageItemWrapper extends ImageItem implements ItemWrapper {
    * @return An array containing all the registered {@link Command}.
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -131,12 +114,14 @@ public class ImageItemWrapper extends ImageItem implements ItemWrapper {
    * @return an array with all the {@link ItemCommandListener}s.
    */
   public ItemCommandListener[] getAllItemCommandListeners() {
-    synchronized (itemCommandListeners) {
-      ItemCommandListener[] cmds =
-          new ItemCommandListener[itemCommandListeners.size()];
-      itemCommandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyItemCommandListeners();
+  }
+  
+  /**
+   * @see ItemWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
 
   /**
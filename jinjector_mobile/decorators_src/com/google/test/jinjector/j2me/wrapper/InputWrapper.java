@@ -0,0 +1,79 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me.wrapper;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.CustomItem;
+
+/**
+ * Defines the methods which a wrapper for a class receiving key and pointer 
+ * events, such as {@link Canvas} or {@link CustomItem}, should have in 
+ * order to let tests send events to it.
+ * 
+ * <p>Each method invokes the protected method of the wrapped class with the 
+ * same name without the <code>invoke</code> prefix.
+ * 
+ * @see DisplayableWrapper
+ * @author Michele Sama
+ */
+public interface InputWrapper {
+
+  /**
+   * Sends a key event to the wrapped instance.
+   * 
+   * @param keyCode The code of the key.
+   */
+  public abstract void invokeKeyPressed(int keyCode);
+
+  /**
+   * Sends a key event to the wrapped instance.
+   * 
+   * @param keyCode The code of the key.
+   */
+  public abstract void invokeKeyReleased(int keyCode);
+
+  /**
+   * Sends a key event to the wrapped instance.
+   * 
+   * @param keyCode The code of the key.
+   */
+  public abstract void invokeKeyRepeated(int keyCode);
+
+  /**
+   * Sends a pointer event to the wrapped instance.
+   * 
+   * @param x The horizontal coordinate.
+   * @param y The vertical coordinate.
+   */
+  public abstract void invokePointerDragged(int x, int y);
+
+  /**
+   * Sends a pointer event to the wrapped instance.
+   * 
+   * @param x The horizontal coordinate.
+   * @param y The vertical coordinate.
+   */
+  public abstract void invokePointerPressed(int x, int y);
+
+  /**
+   * Sends a pointer event to the wrapped instance.
+   * 
+   * @param x The horizontal coordinate.
+   * @param y The vertical coordinate.
+   */
+  public abstract void invokePointerReleased(int x, int y);
+
+}
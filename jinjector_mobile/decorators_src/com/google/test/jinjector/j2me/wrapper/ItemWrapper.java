@@ -87,4 +87,15 @@ public interface ItemWrapper {
    */
   public abstract ItemCommandListener[] getAllItemCommandListeners();
 
+  /**
+   * Gets the registry storing the commands and the listeners of the wrapped 
+   * {@link Item}.
+   * 
+   * <p>Unlike the other getters this does not copy anything, so it is the 
+   * one to use when commands are fired or looked up repeatedly.
+   * 
+   * @return the {@link CommandRegistry} of this wrapper.
+   */
+  public abstract CommandRegistry getCommandRegistry();
+
 }
@@ -17,8 +17,6 @@ package com.google.test.jinjector.j2me.wrapper;
 
 import com.google.test.jinjector.j2me.DisplayableVisitor;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.CommandListener;
 import javax.microedition.lcdui.Image;
@@ -35,8 +33,7 @@ import javax.microedition.lcdui.List;
  */
 public class ListWrapper extends List implements DisplayableWrapper {
 
-  private Vector commandListeners = new Vector();
-  private Vector commands = new Vector();
+  private CommandRegistry commandRegistry = new CommandRegistry();
 
   /**
    * Constructor from superclass.
@@ -69,11 +66,7 @@ public class ListWrapper extends List implements DisplayableWrapper {
    * @see List#addCommand(Command)
    */
   public void addCommand(Command cmd) {
-    synchronized (commands) {
-      if (!commands.contains(cmd)) {
-        commands.addElement(cmd);
-      }
-    }
+    commandRegistry.addCommand(cmd);
     super.addCommand(cmd);
   }
 
@@ -85,9 +78,7 @@ public class ListWrapper extends List implements DisplayableWrapper {
    * @see List#removeCommand(Command)
    */
   public void removeCommand(Command cmd) {
-    synchronized (commands) {
-      commands.removeElement(cmd);
-    }
+    commandRegistry.removeCommand(cmd);
     super.removeCommand(cmd);
   }
 
@@ -99,11 +90,7 @@ public class ListWrapper extends List implements DisplayableWrapper {
    * @see List#setCommandListener(CommandListener)
    */
   public void setCommandListener(CommandListener listener) {
-    synchronized (commandListeners) {
-      if (!commandListeners.contains(listener)) {
-        commandListeners.addElement(listener);
-      }
-    }
+    commandRegistry.addListener(listener);
     super.setCommandListener(listener);
   }
 
@@ -112,11 +99,7 @@ public class ListWrapper extends List implements DisplayableWrapper {
    * @return all the Command
    */
   public Command[] getAllCommands() {
-    synchronized (commands) {
-      Command[] cmds = new Command[commands.size()];
-      commands.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommands();
   }
   
   /**
@@ -124,11 +107,14 @@ public class ListWrapper extends List implements DisplayableWrapper {
    * @return an array with all the listeners
    */
   public CommandListener[] getAllCommandListeners() {
-    synchronized (commandListeners) {
-      CommandListener[] cmds = new CommandListener[commandListeners.size()];
-      commandListeners.copyInto(cmds);
-      return cmds;
-    }
+    return commandRegistry.copyCommandListeners();
+  }
+  
+  /**
+   * @see DisplayableWrapper#getCommandRegistry()
+   */
+  public CommandRegistry getCommandRegistry() {
+    return commandRegistry;
   }
   
   /**
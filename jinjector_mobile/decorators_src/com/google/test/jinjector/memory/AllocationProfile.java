@@ -0,0 +1,209 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import com.google.test.jinjector.util.IoUtil;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Counts the allocations performed at each allocation site.
+ * 
+ * <p>This class is invoked by the code injected by the tool's 
+ * AllocationProfilerLoadable, which assigns an id to each site. For each 
+ * site a single int[] keeps two ints: the number of allocations and, for 
+ * arrays, the sum of their lengths. The array is sized from the 
+ * {@link #RESOURCE_SITE_COUNT} resource which the tool adds to the jar, and
+ * is never shrunk. Counters are updated without 
+ * synchronization, so concurrent allocations may make them slightly 
+ * inaccurate, and the sum of the lengths wraps after 2^31 elements.
+ * 
+ * <p>The profile is written by {@link #dump(OutputStream)} and mapped back 
+ * to classes, methods and lines on the host by the tool's AllocationReport.
+ * 
+ * @author Michele Sama
+ */
+public class AllocationProfile {
+  
+  /**
+   * The file in which the test runner dumps the profile.
+   */
+  public static final String DEFAULT_FILENAME = "allocations.txt";
+  
+  /**
+   * The resource containing the number of allocation sites, as a big endian
+   * int.
+   */
+  public static final String RESOURCE_SITE_COUNT = "/allocationSiteCount.bin";
+  
+  /**
+   * The number of ints kept for each site.
+   */
+  private static final int SITE_SIZE = 2;
+  
+  /**
+   * The counters, by site. It is replaced only by a bigger copy, so a 
+   * reference read once can always be indexed by the sites it was checked 
+   * against.
+   */
+  private static int[] counters = new int[readSiteCount() * SITE_SIZE];
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private AllocationProfile() {
+  }
+  
+  /**
+   * Records the allocation of an object.
+   * 
+   * @param site The id of the allocation site.
+   */
+  public static void allocate(int site) {
+    int[] c = counters;
+    int index = site * SITE_SIZE;
+    if (index >= c.length) {
+      c = ensureCapacity(site + 1);
+    }
+    c[index]++;
+  }
+  
+  /**
+   * Records the allocation of an array.
+   * 
+   * @param length The length of the array.
+   * @param site The id of the allocation site.
+   */
+  public static void allocateArray(int length, int site) {
+    int[] c = counters;
+    int index = site * SITE_SIZE;
+    if (index >= c.length) {
+      c = ensureCapacity(site + 1);
+    }
+    c[index]++;
+    c[index + 1] += length;
+  }
+  
+  /**
+   * Grows the counters. This only happens for sites which were not counted 
+   * in {@link #RESOURCE_SITE_COUNT}.
+   * 
+   * @param sites The minimum number of sites.
+   * @return the counters, with room for at least <code>sites</code> sites.
+   */
+  private static synchronized int[] ensureCapacity(int sites) {
+    int[] c = counters;
+    if (sites * SITE_SIZE <= c.length) {
+      return c;
+    }
+    int size = Math.max(sites * SITE_SIZE, c.length * 2);
+    int[] result = new int[size];
+    System.arraycopy(c, 0, result, 0, c.length);
+    counters = result;
+    return result;
+  }
+  
+  /**
+   * Reads the number of sites from {@link #RESOURCE_SITE_COUNT}.
+   * 
+   * @return the number of sites, or 0 if the resource is missing.
+   */
+  private static int readSiteCount() {
+    InputStream is = 
+        AllocationProfile.class.getResourceAsStream(RESOURCE_SITE_COUNT);
+    if (is == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, new DataInputStream(is).readInt());
+    } catch (IOException e) {
+      return 0;
+    } finally {
+      IoUtil.closeCloseable(is);
+    }
+  }
+  
+  /**
+   * @param site The id of an allocation site.
+   * @return the number of allocations performed at the site.
+   */
+  public static int getCount(int site) {
+    int[] c = counters;
+    int index = site * SITE_SIZE;
+    return index < c.length ? c[index] : 0;
+  }
+  
+  /**
+   * @param site The id of an allocation site.
+   * @return the sum of the lengths of the arrays allocated at the site.
+   */
+  public static int getLength(int site) {
+    int[] c = counters;
+    int index = site * SITE_SIZE + 1;
+    return index < c.length ? c[index] : 0;
+  }
+  
+  /**
+   * @return <code>true</code> if no allocation has been recorded.
+   */
+  public static boolean isEmpty() {
+    int[] c = counters;
+    for (int i = 0; i < c.length; i += SITE_SIZE) {
+      if (c[i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Discards all the counters. They are cleared in place, so that 
+   * concurrent allocations never see them shrink.
+   */
+  public static synchronized void clear() {
+    int[] c = counters;
+    for (int i = 0; i < c.length; i++) {
+      c[i] = 0;
+    }
+  }
+  
+  /**
+   * Writes the counters of the sites which performed at least one 
+   * allocation, one site per line as:
+   * <pre>
+   * site count length
+   * </pre>
+   * separated by tabs.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void dump(OutputStream out) throws IOException {
+    int[] c = counters;
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < c.length; i += SITE_SIZE) {
+      if (c[i] != 0) {
+        sb.append(i / SITE_SIZE).append('\t').append(c[i]).append('\t')
+            .append(c[i + 1]).append('\n');
+      }
+    }
+    out.write(sb.toString().getBytes());
+    out.flush();
+  }
+}
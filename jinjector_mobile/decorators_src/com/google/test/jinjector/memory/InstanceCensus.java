@@ -0,0 +1,204 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import com.google.test.jinjector.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Counts the live instances of the classes selected by the tool's 
+ * CensusLoadable.
+ * 
+ * <p>The code injected at the end of each constructor registers the new 
+ * instance, which is kept through a {@link WeakReference} so that the 
+ * census does not prevent it from being collected. Instances are counted 
+ * by their runtime class. Since the constructors of a class and of its 
+ * superclasses can all be instrumented, an instance which is already the 
+ * last registered one of its class is not registered again.
+ * 
+ * <p>Cleared references are discarded when a bucket is full, before 
+ * growing it, and when the census is reported. The census is logged 
+ * periodically from a {@link Timer}, after forcing a garbage collection.
+ * 
+ * @author Michele Sama
+ */
+public class InstanceCensus {
+  
+  private static final String SOURCE = "InstanceCensus";
+  
+  /**
+   * The initial number of references of each bucket.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+  
+  /**
+   * The buckets, by class.
+   */
+  private static final Hashtable buckets = new Hashtable();
+  
+  private static Timer timer = null;
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private InstanceCensus() {
+  }
+  
+  /**
+   * Registers a new instance and starts the periodic report, if needed.
+   * 
+   * @param instance The instance.
+   * @param period The seconds between two reports, or 0 if the census 
+   *     should not be reported periodically.
+   */
+  public static synchronized void register(Object instance, int period) {
+    Class clazz = instance.getClass();
+    Bucket bucket = (Bucket) buckets.get(clazz);
+    if (bucket == null) {
+      bucket = new Bucket();
+      buckets.put(clazz, bucket);
+    }
+    bucket.add(instance);
+    if (timer == null && period > 0) {
+      timer = new Timer();
+      timer.schedule(new TimerTask() {
+        public void run() {
+          logCensus();
+        }
+      }, period * 1000L, period * 1000L);
+    }
+  }
+  
+  /**
+   * @param clazz A class.
+   * @return the number of instances of the class which have not been 
+   *     collected yet.
+   */
+  public static synchronized int getLiveCount(Class clazz) {
+    Bucket bucket = (Bucket) buckets.get(clazz);
+    return bucket == null ? 0 : bucket.prune();
+  }
+  
+  /**
+   * @param clazz A class.
+   * @return the number of instances of the class registered since the 
+   *     census has been cleared.
+   */
+  public static synchronized int getRegisteredCount(Class clazz) {
+    Bucket bucket = (Bucket) buckets.get(clazz);
+    return bucket == null ? 0 : bucket.registered;
+  }
+  
+  /**
+   * @return <code>true</code> if no instance has been registered.
+   */
+  public static synchronized boolean isEmpty() {
+    return buckets.isEmpty();
+  }
+  
+  /**
+   * Logs a line for each class, as:
+   * <pre>
+   * class live registered
+   * </pre>
+   * separated by tabs. A garbage collection is forced before counting, so 
+   * that only the instances which are still reachable are counted.
+   */
+  public static void logCensus() {
+    System.gc();
+    StringBuffer sb = new StringBuffer("Live instances\n");
+    synchronized (InstanceCensus.class) {
+      Enumeration classes = buckets.keys();
+      while (classes.hasMoreElements()) {
+        Class clazz = (Class) classes.nextElement();
+        Bucket bucket = (Bucket) buckets.get(clazz);
+        sb.append(clazz.getName()).append('\t').append(bucket.prune())
+            .append('\t').append(bucket.registered).append('\n');
+      }
+    }
+    Log.log(Log.LEVEL_INFO, SOURCE, sb.toString());
+  }
+  
+  /**
+   * Stops the periodic report.
+   */
+  public static synchronized void stopReporting() {
+    if (timer != null) {
+      timer.cancel();
+      timer = null;
+    }
+  }
+  
+  /**
+   * Stops the periodic report and discards all the registered instances.
+   */
+  public static synchronized void clear() {
+    stopReporting();
+    buckets.clear();
+  }
+  
+  /**
+   * The weak references to the instances of a single class.
+   */
+  private static class Bucket {
+    
+    private WeakReference[] references = new WeakReference[INITIAL_CAPACITY];
+    
+    private int size = 0;
+    
+    int registered = 0;
+    
+    void add(Object instance) {
+      if (size > 0 && references[size - 1].get() == instance) {
+        return;
+      }
+      if (size == references.length) {
+        // Grows only if at least half of the instances are still alive.
+        if (prune() * 2 > references.length) {
+          WeakReference[] grown = new WeakReference[references.length * 2];
+          System.arraycopy(references, 0, grown, 0, size);
+          references = grown;
+        }
+      }
+      references[size++] = new WeakReference(instance);
+      registered++;
+    }
+    
+    /**
+     * Discards the cleared references.
+     * 
+     * @return the number of live instances.
+     */
+    int prune() {
+      int live = 0;
+      for (int i = 0; i < size; i++) {
+        if (references[i].get() != null) {
+          references[live++] = references[i];
+        }
+      }
+      for (int i = live; i < size; i++) {
+        references[i] = null;
+      }
+      size = live;
+      return live;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import j2meunit.framework.AssertionFailedError;
+import j2meunit.framework.Test;
+import j2meunit.framework.TestListener;
+
+import java.io.PrintStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Measures the heap used by each test.
+ * 
+ * <p>Before and after each test a garbage collection is forced and the used
+ * heap is sampled, so that the difference is the memory retained by the 
+ * test. While a test is running a low priority thread samples the used heap
+ * to estimate its peak.
+ * 
+ * <p>A test which retained more than {@link #LEAK_THRESHOLD} bytes in each 
+ * of its last {@link #LEAK_RUNS} or more runs is reported as a possible 
+ * leak.
+ * Tests are identified by their <code>toString()</code>, so repeated runs 
+ * of the same test are accumulated in the same record.
+ * 
+ * @author Michele Sama
+ */
+public class TestMemoryMonitor implements TestListener, Runnable {
+  
+  /**
+   * The bytes a test can retain in a run without being suspected of a leak.
+   */
+  public static final long LEAK_THRESHOLD = 1024;
+  
+  /**
+   * The number of consecutive runs in which a test must retain memory to be
+   * reported as a possible leak.
+   */
+  public static final int LEAK_RUNS = 2;
+  
+  /**
+   * The milliseconds between two samples of the peak.
+   */
+  private static final int SAMPLE_PERIOD = 50;
+  
+  /**
+   * The maximum number of garbage collections forced for each sample.
+   */
+  private static final int MAX_COLLECTIONS = 4;
+  
+  /**
+   * The records by test name.
+   */
+  private final Hashtable records = new Hashtable();
+  
+  /**
+   * The names of the tests, in order of execution.
+   */
+  private final Vector names = new Vector();
+  
+  private TestMemoryRecord current = null;
+  
+  private Thread sampler = null;
+  
+  /**
+   * @return the heap which is currently used, in bytes.
+   */
+  public static long getUsedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+  
+  /**
+   * Forces garbage collections until the used heap stops decreasing, since 
+   * a single collection is not guaranteed to free all the unreachable 
+   * objects.
+   * 
+   * @return the heap used after the garbage collections, in bytes.
+   */
+  private static long collectAndGetUsedMemory() {
+    System.gc();
+    long used = getUsedMemory();
+    for (int i = 1; i < MAX_COLLECTIONS; i++) {
+      System.gc();
+      long collected = getUsedMemory();
+      if (collected >= used) {
+        return collected;
+      }
+      used = collected;
+    }
+    return used;
+  }
+  
+  /**
+   * Starts sampling the peak of the running tests.
+   */
+  public synchronized void start() {
+    if (sampler == null) {
+      sampler = new Thread(this);
+      sampler.setPriority(Thread.MIN_PRIORITY);
+      sampler.start();
+    }
+  }
+  
+  /**
+   * Stops sampling the peak. Tests ending after this call are still 
+   * measured.
+   */
+  public synchronized void stop() {
+    sampler = null;
+    notifyAll();
+  }
+  
+  /**
+   * Samples the used heap until {@link #stop()} is invoked.
+   */
+  public void run() {
+    Thread self = Thread.currentThread();
+    synchronized (this) {
+      while (sampler == self) {
+        updatePeak();
+        try {
+          wait(SAMPLE_PERIOD);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Updates the peak of the running test.
+   */
+  private synchronized void updatePeak() {
+    if (current != null) {
+      long used = getUsedMemory();
+      if (used > current.lastPeak) {
+        current.lastPeak = used;
+      }
+    }
+  }
+  
+  /**
+   * Samples the heap before the test.
+   * 
+   * @see j2meunit.framework.TestListener#startTest(j2meunit.framework.Test)
+   */
+  public void startTest(Test test) {
+    long before = collectAndGetUsedMemory();
+    synchronized (this) {
+      String name = test.toString();
+      TestMemoryRecord record = (TestMemoryRecord) records.get(name);
+      if (record == null) {
+        record = new TestMemoryRecord(name);
+        records.put(name, record);
+        names.addElement(name);
+      }
+      record.lastBefore = before;
+      record.lastPeak = before;
+      current = record;
+    }
+  }
+  
+  /**
+   * Samples the heap after the test and updates its record.
+   * 
+   * @see j2meunit.framework.TestListener#endTest(j2meunit.framework.Test)
+   */
+  public void endTest(Test test) {
+    updatePeak();
+    long after = collectAndGetUsedMemory();
+    synchronized (this) {
+      TestMemoryRecord record = current;
+      current = null;
+      if (record == null) {
+        return;
+      }
+      record.runs++;
+      record.lastAfter = after;
+      long retained = after - record.lastBefore;
+      if (retained > LEAK_THRESHOLD) {
+        record.growingRuns++;
+        record.retainedWhileGrowing += retained;
+      } else {
+        record.growingRuns = 0;
+        record.retainedWhileGrowing = 0;
+      }
+    }
+  }
+  
+  /**
+   * Updates the peak of the running test.
+   * 
+   * @see j2meunit.framework.TestListener#endTestStep(j2meunit.framework.Test)
+   */
+  public void endTestStep(Test test) {
+    updatePeak();
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addError(j2meunit.framework.Test, 
+   *     java.lang.Throwable)
+   */
+  public void addError(Test test, Throwable t) {
+  }
+  
+  /**
+   * @see j2meunit.framework.TestListener#addFailure(j2meunit.framework.Test, 
+   *     j2meunit.framework.AssertionFailedError)
+   */
+  public void addFailure(Test test, AssertionFailedError e) {
+  }
+  
+  /**
+   * @param name The name of a test, as returned by its 
+   *     <code>toString()</code>.
+   * @return the record of the test or <code>null</code> if it has never 
+   *     run.
+   */
+  public synchronized TestMemoryRecord getRecord(String name) {
+    return (TestMemoryRecord) records.get(name);
+  }
+  
+  /**
+   * @return the record of the test which is running or <code>null</code>.
+   */
+  public synchronized TestMemoryRecord getCurrentRecord() {
+    return current;
+  }
+  
+  /**
+   * Prints the memory used by the last run of each test, as:
+   * <pre>
+   * before after retained peak test
+   * </pre>
+   * separated by tabs and followed by the possible leaks.
+   * 
+   * @param out The stream on which to print.
+   */
+  public synchronized void print(PrintStream out) {
+    out.println("Memory (bytes): before\tafter\tretained\tpeak\ttest");
+    StringBuffer leaks = new StringBuffer();
+    for (int i = 0; i < names.size(); i++) {
+      TestMemoryRecord record = (TestMemoryRecord) records.get(
+          names.elementAt(i));
+      if (record.runs == 0) {
+        continue;
+      }
+      out.println(record.lastBefore + "\t" + record.lastAfter + "\t" 
+          + record.getLastRetained() + "\t" + record.lastPeak + "\t" 
+          + record.name);
+      if (record.isLeakSuspected()) {
+        leaks.append(record.name).append(" retained ")
+            .append(record.retainedWhileGrowing).append(" bytes in ")
+            .append(record.growingRuns).append(" consecutive runs\n");
+      }
+    }
+    if (leaks.length() > 0) {
+      out.println("Possible leaks:");
+      out.print(leaks.toString());
+    }
+  }
+  
+  /**
+   * The memory used by a single test.
+   */
+  public static class TestMemoryRecord {
+    
+    private final String name;
+    
+    private int runs = 0;
+    
+    private long lastBefore;
+    
+    private long lastAfter;
+    
+    private long lastPeak;
+    
+    /**
+     * The number of consecutive runs, up to the last one, in which the 
+     * test retained memory.
+     */
+    private int growingRuns = 0;
+    
+    /**
+     * The bytes retained during the {@link #growingRuns}.
+     */
+    private long retainedWhileGrowing = 0;
+    
+    TestMemoryRecord(String name) {
+      this.name = name;
+    }
+    
+    /**
+     * @return the name of the test.
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * @return the number of completed runs.
+     */
+    public int getRuns() {
+      return runs;
+    }
+    
+    /**
+     * @return the used heap before the last run.
+     */
+    public long getLastBefore() {
+      return lastBefore;
+    }
+    
+    /**
+     * @return the used heap after the last run.
+     */
+    public long getLastAfter() {
+      return lastAfter;
+    }
+    
+    /**
+     * @return the bytes retained by the last run, which can be negative.
+     */
+    public long getLastRetained() {
+      return lastAfter - lastBefore;
+    }
+    
+    /**
+     * @return the peak of the used heap during the last run.
+     */
+    public long getLastPeak() {
+      return lastPeak;
+    }
+    
+    /**
+     * @return <code>true</code> if the test retained memory in each of its 
+     *     last {@link TestMemoryMonitor#LEAK_RUNS} runs.
+     */
+    public boolean isLeakSuspected() {
+      return growingRuns >= LEAK_RUNS;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.util;
+
+/**
+ * Counts the exceptions thrown by the instrumented code.
+ * 
+ * <p>This class is invoked by the code injected before each 
+ * <code>athrow</code> in <code>CAPTURE</code> mode, with the id assigned by
+ * the tool to the throw site. For each site and exception class the table 
+ * stores the number of throws and the time of the first one. The stack 
+ * trace is printed only the first time each site throws, so that exceptions
+ * used for control flow do not slow down the instrumented application.
+ * 
+ * <p>The table has a fixed size. Throws which do not fit are only counted 
+ * as overflow.
+ * 
+ * @author Michele Sama
+ */
+public class ExceptionTable {
+  
+  /**
+   * The number of entries of the table.
+   */
+  public static final int CAPACITY = 512;
+  
+  private static final String SOURCE = "ExceptionTable";
+  
+  private static final int[] sites = new int[CAPACITY];
+  
+  private static final String[] classNames = new String[CAPACITY];
+  
+  private static final int[] counts = new int[CAPACITY];
+  
+  private static final long[] firstTimes = new long[CAPACITY];
+  
+  private static int size = 0;
+  
+  private static int overflow = 0;
+  
+  /**
+   * One bit for each site which has already printed its stack trace.
+   */
+  private static int[] printedSites = new int[0];
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private ExceptionTable() {
+  }
+  
+  /**
+   * Records a thrown exception.
+   * 
+   * @param t The exception which is being thrown.
+   * @param site The id of the throw site.
+   */
+  public static void capture(Throwable t, int site) {
+    boolean print;
+    String className = t.getClass().getName();
+    synchronized (ExceptionTable.class) {
+      int entry = find(site, className);
+      if (entry < 0) {
+        overflow++;
+      } else if (counts[entry]++ == 0) {
+        firstTimes[entry] = System.currentTimeMillis();
+      }
+      print = markPrinted(site);
+    }
+    if (print) {
+      Log.log(Log.LEVEL_WARNING, SOURCE, "First throw at site " + site 
+          + ": " + t);
+      Log.flush();
+      t.printStackTrace();
+    }
+  }
+  
+  /**
+   * Finds the entry of a site and class, adding it if needed.
+   * 
+   * @return the index of the entry or -1 if the table is full.
+   */
+  private static int find(int site, String className) {
+    // Open addressing with linear probing.
+    int start = ((site * 31 + className.hashCode()) & 0x7fffffff) % CAPACITY;
+    for (int i = 0; i < CAPACITY; i++) {
+      int p = (start + i) % CAPACITY;
+      if (classNames[p] == null) {
+        if (size == CAPACITY) {
+          return -1;
+        }
+        sites[p] = site;
+        classNames[p] = className;
+        size++;
+        return p;
+      }
+      if (sites[p] == site && classNames[p].equals(className)) {
+        return p;
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * Marks a site as printed.
+   * 
+   * @return <code>true</code> if the site had not been printed yet.
+   */
+  private static boolean markPrinted(int site) {
+    int word = site >> 5;
+    if (word >= printedSites.length) {
+      int[] grown = new int[Math.max(word + 1, printedSites.length * 2)];
+      System.arraycopy(printedSites, 0, grown, 0, printedSites.length);
+      printedSites = grown;
+    }
+    int bit = 1 << (site & 31);
+    if ((printedSites[word] & bit) != 0) {
+      return false;
+    }
+    printedSites[word] |= bit;
+    return true;
+  }
+  
+  /**
+   * @param site The id of the throw site.
+   * @return the number of exceptions thrown at the site, of any class.
+   */
+  public static synchronized int getCount(int site) {
+    int count = 0;
+    for (int i = 0; i < CAPACITY; i++) {
+      if (classNames[i] != null && sites[i] == site) {
+        count += counts[i];
+      }
+    }
+    return count;
+  }
+  
+  /**
+   * @return the number of throws which did not fit in the table.
+   */
+  public static synchronized int getOverflow() {
+    return overflow;
+  }
+  
+  /**
+   * @return <code>true</code> if no exception has been captured.
+   */
+  public static synchronized boolean isEmpty() {
+    return size == 0 && overflow == 0;
+  }
+  
+  /**
+   * Logs a line for each site and exception class, as:
+   * <pre>
+   * site class count firstTime
+   * </pre>
+   * separated by tabs. Site ids are mapped to the source by the file 
+   * written by the tool.
+   */
+  public static void logSummary() {
+    StringBuffer sb = new StringBuffer();
+    synchronized (ExceptionTable.class) {
+      sb.append(size).append(" throw sites and classes, ")
+          .append(overflow).append(" throws not recorded\n");
+      for (int i = 0; i < CAPACITY; i++) {
+        if (classNames[i] != null) {
+          sb.append(sites[i]).append('\t').append(classNames[i]).append('\t')
+              .append(counts[i]).append('\t').append(firstTimes[i])
+              .append('\n');
+        }
+      }
+    }
+    Log.log(Log.LEVEL_WARNING, SOURCE, sb.toString());
+  }
+  
+  /**
+   * Discards all the entries.
+   */
+  public static synchronized void clear() {
+    for (int i = 0; i < CAPACITY; i++) {
+      classNames[i] = null;
+      counts[i] = 0;
+    }
+    size = 0;
+    overflow = 0;
+    printedSites = new int[0];
+  }
+}
@@ -15,20 +15,147 @@
 
 package com.google.test.jinjector.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * Implements a basic logger.
  * 
+ * <p>Messages below the current level are discarded. Injected code checks 
+ * {@link #isLoggable(int)} before building its messages, so that disabled 
+ * messages cost only that check.
+ * 
+ * <p>By default messages are written synchronously on the calling thread. 
+ * After {@link #startAsynchronous(int)} they are stored in a bounded queue 
+ * and written by a low priority background thread, so that a slow output 
+ * does not stall the caller. When the queue is full new messages are 
+ * dropped and counted, and the number of dropped messages is logged as 
+ * soon as the queue has room again.
+ * 
+ * <p>Messages are written on <code>System.out</code> unless a different 
+ * sink is specified with {@link #setSink(OutputStream)}.
+ * 
  * @author Michele Sama
  *
  */
 public class Log {
   
+  public static final int LEVEL_DEBUG = 0;
+  
+  public static final int LEVEL_INFO = 1;
+  
+  public static final int LEVEL_WARNING = 2;
+  
+  public static final int LEVEL_ERROR = 3;
+  
+  /**
+   * Disables all the messages.
+   */
+  public static final int LEVEL_OFF = 4;
+  
+  /**
+   * The default number of messages which can be queued.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+  
+  private static final String SOURCE = "Log";
+  
+  /**
+   * The names of the levels, indexed by level.
+   */
+  private static final String[] LEVEL_NAMES = 
+      {"DEBUG", "INFO", "WARNING", "ERROR", "OFF"};
+  
+  private static int level = LEVEL_INFO;
+  
+  /**
+   * Guards the queue and the state of the background thread.
+   */
+  private static final Object lock = new Object();
+  
+  private static String[] sources = null;
+  
+  private static String[] messages = null;
+  
+  /**
+   * The position of the oldest message in the queue.
+   */
+  private static int head = 0;
+  
+  private static int size = 0;
+  
+  private static int dropped = 0;
+  
+  /**
+   * The number of dropped messages which have already been reported.
+   */
+  private static int reportedDropped = 0;
+  
+  private static boolean asynchronous = false;
+  
+  /**
+   * <code>true</code> while the background thread is writing messages 
+   * removed from the queue.
+   */
+  private static boolean writing = false;
+  
+  private static Thread flusher = null;
+  
+  /**
+   * The destination of the messages, or <code>null</code> for 
+   * <code>System.out</code>.
+   */
+  private static OutputStream sink = null;
+  
   /**
    * Uninstantiable because it is a utility class.
    */
   private Log() {
   }
   
+  /**
+   * Sets the minimum level of the logged messages.
+   * 
+   * @param newLevel One of the <code>LEVEL_</code> constants.
+   */
+  public static void setLevel(int newLevel) {
+    level = newLevel;
+  }
+  
+  /**
+   * Gets the level with a given name.
+   * 
+   * @param name The name of the level, e.g. <code>WARNING</code>, ignoring 
+   *     the case.
+   * @return one of the <code>LEVEL_</code> constants, or -1 if the name is 
+   *     unknown.
+   */
+  public static int parseLevel(String name) {
+    for (int i = 0; i < LEVEL_NAMES.length; i++) {
+      if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * @return the minimum level of the logged messages.
+   */
+  public static int getLevel() {
+    return level;
+  }
+  
+  /**
+   * Tells if messages of a given level are logged.
+   * 
+   * @param messageLevel The level of the message.
+   * @return <code>true</code> if the message would be logged.
+   */
+  public static boolean isLoggable(int messageLevel) {
+    return messageLevel >= level;
+  }
+  
   /**
    * Logs a message using the classname as a source.
    * 
@@ -36,7 +163,7 @@ public class Log {
    * @param message the message to be logged.
    */
   public static void log(Class clazz, String message) {
-    log(clazz.getName(), message);
+    log(LEVEL_INFO, clazz.getName(), message);
   }
   
   /**
@@ -46,18 +173,214 @@ public class Log {
    * @param message the message to be logged.
    */
   public static void log(String source, String message) {
-    System.out.println("[" + source + "]" + message);
+    log(LEVEL_INFO, source, message);
+  }
+  
+  /**
+   * Logs a message with a given level.
+   * 
+   * @param messageLevel the level of the message.
+   * @param source the source of the message.
+   * @param message the message to be logged.
+   */
+  public static void log(int messageLevel, String source, String message) {
+    if (messageLevel < level) {
+      return;
+    }
+    synchronized (lock) {
+      if (asynchronous) {
+        if (size == messages.length) {
+          dropped++;
+        } else {
+          int tail = (head + size) % messages.length;
+          sources[tail] = source;
+          messages[tail] = message;
+          size++;
+          lock.notifyAll();
+        }
+        return;
+      }
+    }
+    write(source, message);
   }
   
   /**
    * Logs a {@link Throwable} and prints its stack trace.
    * 
+   * <p>Queued messages are written first, so that the stack trace follows 
+   * them.
+   * 
    * @param source the source reporting the throwable.
    * @param t the instance to be logged.
    */
   public static void logThrowable(String source, Throwable t) {
-    log(source, t.getMessage());
+    log(LEVEL_ERROR, source, t.getMessage());
+    flush();
     t.printStackTrace();
   }
-
+  
+  /**
+   * Sets the destination of the messages.
+   * 
+   * @param os the stream on which messages are written, or 
+   *     <code>null</code> to write on <code>System.out</code>. The stream is
+   *     not closed by the logger.
+   */
+  public static synchronized void setSink(OutputStream os) {
+    sink = os;
+  }
+  
+  /**
+   * Writes a message on the sink. If the sink fails it is discarded and the
+   * message is written on <code>System.out</code>.
+   */
+  private static synchronized void write(String source, String message) {
+    String line = "[" + source + "]" + message;
+    if (sink != null) {
+      try {
+        sink.write((line + "\n").getBytes());
+        return;
+      } catch (IOException e) {
+        sink = null;
+        System.out.println("[" + SOURCE + "]Sink failed: " + e.getMessage());
+      }
+    }
+    System.out.println(line);
+  }
+  
+  /**
+   * Starts writing messages from a background thread. Does nothing if the 
+   * logger is already asynchronous.
+   * 
+   * @param capacity the maximum number of queued messages.
+   */
+  public static void startAsynchronous(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive.");
+    }
+    synchronized (lock) {
+      if (asynchronous) {
+        return;
+      }
+      // Waits for a previous thread to exit.
+      while (flusher != null) {
+        waitOnLock();
+      }
+      sources = new String[capacity];
+      messages = new String[capacity];
+      head = 0;
+      size = 0;
+      asynchronous = true;
+      flusher = new Thread(new Flusher());
+      flusher.setPriority(Thread.MIN_PRIORITY);
+      flusher.start();
+    }
+  }
+  
+  /**
+   * Writes all the queued messages and goes back to writing messages on the
+   * calling thread.
+   */
+  public static void stopAsynchronous() {
+    synchronized (lock) {
+      asynchronous = false;
+      lock.notifyAll();
+      while (flusher != null) {
+        waitOnLock();
+      }
+    }
+  }
+  
+  /**
+   * @return <code>true</code> if messages are written by a background 
+   *     thread.
+   */
+  public static boolean isAsynchronous() {
+    synchronized (lock) {
+      return asynchronous;
+    }
+  }
+  
+  /**
+   * Waits until all the queued messages have been written. It must not be
+   * invoked while holding the lock of a sink.
+   */
+  public static void flush() {
+    synchronized (lock) {
+      if (flusher == Thread.currentThread()) {
+        return;
+      }
+      while (flusher != null && (size > 0 || writing)) {
+        waitOnLock();
+      }
+    }
+  }
+  
+  /**
+   * @return the number of messages dropped because the queue was full.
+   */
+  public static int getDroppedCount() {
+    synchronized (lock) {
+      return dropped;
+    }
+  }
+  
+  /**
+   * Waits on {@link #lock}, which must be held by the caller.
+   */
+  private static void waitOnLock() {
+    try {
+      lock.wait();
+    } catch (InterruptedException e) {
+      // Checks the condition again.
+    }
+  }
+  
+  /**
+   * Writes the queued messages in batches.
+   */
+  private static class Flusher implements Runnable {
+    
+    public void run() {
+      String[] batchSources = new String[messages.length];
+      String[] batchMessages = new String[messages.length];
+      while (true) {
+        int count;
+        int lost;
+        synchronized (lock) {
+          writing = false;
+          lock.notifyAll();
+          while (size == 0 && asynchronous) {
+            waitOnLock();
+          }
+          if (size == 0) {
+            flusher = null;
+            lock.notifyAll();
+            return;
+          }
+          count = size;
+          for (int i = 0; i < count; i++) {
+            int p = (head + i) % messages.length;
+            batchSources[i] = sources[p];
+            batchMessages[i] = messages[p];
+            sources[p] = null;
+            messages[p] = null;
+          }
+          head = (head + count) % messages.length;
+          size = 0;
+          lost = dropped - reportedDropped;
+          reportedDropped = dropped;
+          writing = true;
+        }
+        for (int i = 0; i < count; i++) {
+          write(batchSources[i], batchMessages[i]);
+          batchSources[i] = null;
+          batchMessages[i] = null;
+        }
+        if (lost > 0) {
+          write(SOURCE, lost + " messages dropped because the queue was full");
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,392 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * Records method calls and returns as fixed-size binary records in a 
+ * preallocated ring buffer.
+ * 
+ * <p>This class is invoked by the code injected by the WhiteBox in 
+ * <code>TRACE</code> mode. Each record takes {@link #RECORD_SIZE} ints:
+ * <ol>
+ * <li>the id assigned by the instrumentation to the traced method or field;
+ * <li>the event type, the {@link #FLAG_ARGUMENT} flag and the slot of the 
+ *     current thread shifted by 8 bits;
+ * <li>the time in milliseconds since the tracer has been initialized;
+ * <li>the optional argument, or 0.
+ * </ol>
+ * 
+ * <p>When the buffer is full the oldest records are overwritten. Records are
+ * dumped on demand by {@link #dump(String)} and decoded on the host by the 
+ * tool, which maps the ids back to names.
+ * 
+ * <p>Hot methods can be sampled and rate limited by {@link #gate(int, int, 
+ * int)}, which counts the calls it suppresses. The counters of all the ids 
+ * are kept in a single array, sized from the {@link #RESOURCE_ID_COUNT} 
+ * resource which the tool adds to the jar, and which is never shrunk. 
+ * Counters are updated without synchronization, so concurrent calls may 
+ * make them slightly inaccurate.
+ * 
+ * @author Michele Sama
+ */
+public class Tracer {
+  
+  /**
+   * The number of ints in each record.
+   */
+  public static final int RECORD_SIZE = 4;
+  
+  /**
+   * Identifies a trace dump.
+   */
+  public static final int MAGIC = 0x4A545243;
+  
+  /**
+   * The version of the dump format.
+   */
+  public static final int VERSION = 2;
+  
+  public static final int EVENT_CALL = 0;
+  
+  public static final int EVENT_RETURN = 1;
+  
+  public static final int EVENT_SET = 2;
+  
+  /**
+   * Marks the records whose argument is meaningful.
+   */
+  public static final int FLAG_ARGUMENT = 0x80;
+  
+  /**
+   * The default number of records kept in the buffer.
+   */
+  public static final int DEFAULT_CAPACITY = 8192;
+  
+  /**
+   * The number of threads which get their own slot. All the other threads 
+   * share the last slot.
+   */
+  public static final int MAX_THREADS = 64;
+  
+  /**
+   * The resource containing the number of ids assigned by the tool, as a 
+   * big endian int.
+   */
+  public static final String RESOURCE_ID_COUNT = "/whiteboxTraceIdCount.bin";
+  
+  /**
+   * The number of ints used by {@link #gate(int, int, int)} for each id: the
+   * calls seen, the calls suppressed, the tokens missing from the bucket in 
+   * thousandths of a token and the time of the last refill of the bucket.
+   */
+  private static final int GATE_SIZE = 4;
+  
+  private static int[] buffer = new int[DEFAULT_CAPACITY * RECORD_SIZE];
+  
+  /**
+   * The position in {@link #buffer} of the next record.
+   */
+  private static int position = 0;
+  
+  /**
+   * The number of records written since the initialization, including the 
+   * overwritten ones.
+   */
+  private static int recordCount = 0;
+  
+  private static long startTime = System.currentTimeMillis();
+  
+  private static final Thread[] threads = new Thread[MAX_THREADS];
+  
+  private static int threadCount = 0;
+  
+  /**
+   * The counters used by {@link #gate(int, int, int)}, {@link #GATE_SIZE} 
+   * ints per id. It is replaced only by a bigger copy, so a reference read 
+   * once can always be indexed by the ids it was checked against.
+   */
+  private static int[] gates = new int[readIdCount() * GATE_SIZE];
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private Tracer() {
+  }
+  
+  /**
+   * Discards all the records and the counters and reallocates the buffer.
+   * The counters are cleared in place.
+   * 
+   * @param capacity The number of records to keep.
+   */
+  public static synchronized void init(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive.");
+    }
+    buffer = new int[capacity * RECORD_SIZE];
+    position = 0;
+    recordCount = 0;
+    int[] g = gates;
+    for (int i = 0; i < g.length; i++) {
+      g[i] = 0;
+    }
+    startTime = System.currentTimeMillis();
+  }
+  
+  /**
+   * Decides whether a call to a method should be traced.
+   * 
+   * <p>The call is traced if it is one out of <code>sampling</code> and if 
+   * the bucket of the method contains a token. Buckets hold at most 
+   * <code>rate</code> tokens and are refilled with <code>rate</code> tokens 
+   * per second.
+   * 
+   * @param id The id of the method.
+   * @param sampling One call out of <code>sampling</code> is traced.
+   * @param rate The maximum number of calls traced per second, or 0 for no
+   *     limit.
+   * @return <code>true</code> if the call should be traced.
+   */
+  public static boolean gate(int id, int sampling, int rate) {
+    int[] g = gates;
+    int i = id * GATE_SIZE;
+    if (i >= g.length) {
+      g = ensureCapacity(id + 1);
+    }
+    if (sampling > 1 && ++g[i] % sampling != 0) {
+      g[i + 1]++;
+      return false;
+    }
+    if (rate > 0) {
+      int now = (int) (System.currentTimeMillis() - startTime);
+      int elapsed = now - g[i + 3];
+      g[i + 3] = now;
+      int capacity = rate * 1000;
+      // Refilling for more than a second always fills the bucket.
+      int deficit = elapsed >= 1000 ? 0 : g[i + 2] - elapsed * rate;
+      if (deficit < 0) {
+        deficit = 0;
+      }
+      if (deficit + 1000 > capacity) {
+        g[i + 2] = deficit;
+        g[i + 1]++;
+        return false;
+      }
+      g[i + 2] = deficit + 1000;
+    }
+    return true;
+  }
+  
+  /**
+   * Grows the counters used by {@link #gate(int, int, int)}. This only 
+   * happens for ids which were not counted in {@link #RESOURCE_ID_COUNT}.
+   * 
+   * @param size The minimum number of ids.
+   * @return the counters, with room for at least <code>size</code> ids.
+   */
+  private static synchronized int[] ensureCapacity(int size) {
+    int[] g = gates;
+    if (size * GATE_SIZE <= g.length) {
+      return g;
+    }
+    int newSize = Math.max(size * GATE_SIZE, g.length * 2);
+    int[] result = new int[newSize];
+    System.arraycopy(g, 0, result, 0, g.length);
+    gates = result;
+    return result;
+  }
+  
+  /**
+   * Reads the number of ids from {@link #RESOURCE_ID_COUNT}.
+   * 
+   * @return the number of ids, or 0 if the resource is missing.
+   */
+  private static int readIdCount() {
+    InputStream is = Tracer.class.getResourceAsStream(RESOURCE_ID_COUNT);
+    if (is == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, new DataInputStream(is).readInt());
+    } catch (IOException e) {
+      return 0;
+    } finally {
+      IoUtil.closeCloseable(is);
+    }
+  }
+  
+  /**
+   * @param id The id of a method.
+   * @return the number of calls of the method which have not been traced 
+   *     because of sampling or rate limits.
+   */
+  public static int getSuppressedCount(int id) {
+    int[] g = gates;
+    int i = id * GATE_SIZE + 1;
+    return i < g.length ? g[i] : 0;
+  }
+  
+  /**
+   * Records the invocation of a method.
+   * 
+   * @param id The id of the method.
+   */
+  public static void traceCall(int id) {
+    record(id, EVENT_CALL, 0);
+  }
+  
+  /**
+   * Records the invocation of a method with its first argument. 
+   * 
+   * <p>The argument comes first so that the injected code can pass a value 
+   * which is already on the stack.
+   * 
+   * @param argument The argument.
+   * @param id The id of the method.
+   */
+  public static void traceCall(int argument, int id) {
+    record(id, EVENT_CALL | FLAG_ARGUMENT, argument);
+  }
+  
+  /**
+   * Records the return from a method.
+   * 
+   * @param id The id of the method.
+   */
+  public static void traceReturn(int id) {
+    record(id, EVENT_RETURN, 0);
+  }
+  
+  /**
+   * Records the return from a method with its returned value.
+   * 
+   * @param value The returned value.
+   * @param id The id of the method.
+   */
+  public static void traceReturn(int value, int id) {
+    record(id, EVENT_RETURN | FLAG_ARGUMENT, value);
+  }
+  
+  /**
+   * Records the assignment of a field.
+   * 
+   * @param id The id of the field.
+   */
+  public static void traceSet(int id) {
+    record(id, EVENT_SET, 0);
+  }
+  
+  private static synchronized void record(int id, int event, int argument) {
+    int[] b = buffer;
+    int p = position;
+    b[p] = id;
+    b[p + 1] = event | (getThreadSlot() << 8);
+    b[p + 2] = (int) (System.currentTimeMillis() - startTime);
+    b[p + 3] = argument;
+    p += RECORD_SIZE;
+    position = p == b.length ? 0 : p;
+    recordCount++;
+  }
+  
+  /**
+   * Gets the slot of the current thread, assigning a new one if needed.
+   */
+  private static int getThreadSlot() {
+    Thread current = Thread.currentThread();
+    for (int i = 0; i < threadCount; i++) {
+      if (threads[i] == current) {
+        return i;
+      }
+    }
+    if (threadCount < MAX_THREADS - 1) {
+      threads[threadCount] = current;
+      return threadCount++;
+    }
+    return MAX_THREADS - 1;
+  }
+  
+  /**
+   * @return the number of records written since the initialization, 
+   *     including the ones which have been overwritten.
+   */
+  public static synchronized int getRecordCount() {
+    return recordCount;
+  }
+  
+  /**
+   * Writes the content of the buffer, from the oldest record to the newest.
+   * 
+   * <p>The dump starts with {@link #MAGIC}, {@link #VERSION}, the start 
+   * time, {@link #RECORD_SIZE}, the number of records written since the 
+   * initialization and the number of records in the dump, followed by the 
+   * records, the number of suppressed counters and the counters, by id. All
+   * values are big endian.
+   * 
+   * @param out The stream on which to write. It is not closed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static synchronized void dump(OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    int capacity = buffer.length / RECORD_SIZE;
+    int count = recordCount < capacity ? recordCount : capacity;
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeLong(startTime);
+    dos.writeInt(RECORD_SIZE);
+    dos.writeInt(recordCount);
+    dos.writeInt(count);
+    int first = count < capacity ? 0 : position;
+    for (int i = 0; i < count * RECORD_SIZE; i++) {
+      dos.writeInt(buffer[(first + i) % buffer.length]);
+    }
+    int[] g = gates;
+    dos.writeInt(g.length / GATE_SIZE);
+    for (int i = 1; i < g.length; i += GATE_SIZE) {
+      dos.writeInt(g[i]);
+    }
+    dos.flush();
+  }
+  
+  /**
+   * Writes the content of the buffer to a file.
+   * 
+   * @param filename The URL of the file, e.g. 
+   *     <code>file:///root1/trace.bin</code>.
+   * @throws IOException If the file cannot be written.
+   * @see #dump(OutputStream)
+   */
+  public static void dump(String filename) throws IOException {
+    FileConnection fc = null;
+    OutputStream os = null;
+    try {
+      fc = FileConnectionUtil.createAndOpenFile(filename);
+      fc.truncate(0);
+      os = fc.openOutputStream();
+      dump(os);
+    } finally {
+      IoUtil.closeCloseable(os);
+      FileConnectionUtil.close(fc);
+    }
+  }
+}
@@ -32,6 +32,10 @@ public class AllTests extends TestCase {
   public Test suite() {
     TestSuite suite = new TestSuite();
     suite.addTest(new RegressionTestRunnerTest().suite());
+    suite.addTest(new TestEventStreamTest().suite());
+    suite.addTest(new TestResultRecorderTest().suite());
+    suite.addTest(new TestShardTest().suite());
+    suite.addTest(new TestWatchdogTest().suite());
     return suite;
   }
   
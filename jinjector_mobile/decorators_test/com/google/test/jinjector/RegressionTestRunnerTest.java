@@ -22,6 +22,8 @@ import j2meunit.framework.TestMethod;
 import j2meunit.framework.TestResult;
 import j2meunit.framework.TestSuite;
 
+import java.util.Vector;
+
 /**
  * Unit tests for {@link RegressionTestRunnerTest}
  * 
@@ -154,6 +156,84 @@ public class RegressionTestRunnerTest extends TestCase {
     }
   }
   
+  /**
+   * Tests {@link RegressionTestRunner#setRepetitions(int)} by checking that 
+   * the suite is run more than once and that the memory of each test is 
+   * measured when memory monitoring is enabled.
+   */
+  public void testDoRun_repetitions() {
+    final TestSuite suite = createPassingSuite();
+    AssistedTestCase test = new AssistedTestCase() {
+      public Test suite() {
+        return suite;
+      }
+    };
+    
+    RegressionTestRunner runner = new RegressionTestRunner(test);
+    runner.setRepetitions(2);
+    runner.setMemoryMonitoring(true);
+    try {
+      runAndWaitUntilTermination(runner);
+    } catch (InterruptedException e) {
+      fail("The runner has been interrupted before termination: " + 
+          e.getMessage());
+    }
+    assertEquals(2 * NUM_TESTS_IN_SUITE, runner.result.runCount());
+    // All the tests of the suite have the same name.
+    assertEquals(2 * NUM_TESTS_IN_SUITE, runner.memoryMonitor.getRecord(
+        suite.testAt(0).toString()).getRuns());
+  }
+  
+  /**
+   * Tests that the memory is not measured unless memory monitoring is 
+   * enabled.
+   */
+  public void testDoRun_memoryMonitoringDisabled() {
+    final TestSuite suite = createPassingSuite();
+    AssistedTestCase test = new AssistedTestCase() {
+      public Test suite() {
+        return suite;
+      }
+    };
+    
+    RegressionTestRunner runner = new RegressionTestRunner(test);
+    try {
+      runAndWaitUntilTermination(runner);
+    } catch (InterruptedException e) {
+      fail("The runner has been interrupted before termination: " + 
+          e.getMessage());
+    }
+    assertEquals(NUM_TESTS_IN_SUITE, runner.result.runCount());
+    assertTrue(runner.memoryMonitor == null);
+  }
+  
+  /**
+   * Tests {@link RegressionTestRunner#setSelectedTests(Vector)} by checking 
+   * that only the selected tests are run.
+   */
+  public void testDoRun_selectedTests() {
+    final TestSuite suite = createPassingSuite();
+    suite.addTest(createFailingSuite());
+    AssistedTestCase test = new AssistedTestCase() {
+      public Test suite() {
+        return suite;
+      }
+    };
+    
+    RegressionTestRunner runner = new RegressionTestRunner(test);
+    Vector selected = new Vector();
+    selected.addElement(suite.testAt(0).toString());
+    runner.setSelectedTests(selected);
+    try {
+      runAndWaitUntilTermination(runner);
+    } catch (InterruptedException e) {
+      fail("The runner has been interrupted before termination: " + 
+          e.getMessage());
+    }
+    assertEquals(NUM_TESTS_IN_SUITE, runner.result.runCount());
+    assertEquals(0, runner.result.failureCount());
+  }
+  
   /**
    * Tests {@link RegressionTestRunner#displayResult()} by checking that it 
    * will be invoked internally.
@@ -303,6 +383,24 @@ public class RegressionTestRunnerTest extends TestCase {
       }
     });
     
+    suite.addTest(new RegressionTestRunnerTest("testDoRun_repetitions") {
+      public void runTest() {
+        testDoRun_repetitions();
+      }
+    });
+    suite.addTest(new RegressionTestRunnerTest(
+        "testDoRun_memoryMonitoringDisabled") {
+      public void runTest() {
+        testDoRun_memoryMonitoringDisabled();
+      }
+    });
+    
+    suite.addTest(new RegressionTestRunnerTest("testDoRun_selectedTests") {
+      public void runTest() {
+        testDoRun_selectedTests();
+      }
+    });
+    
     return suite;
   }
   
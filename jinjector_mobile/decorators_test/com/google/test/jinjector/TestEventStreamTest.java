@@ -0,0 +1,148 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import com.google.test.jinjector.util.StringUtil;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestResult;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Test for {@link TestEventStream}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestEventStreamTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public TestEventStreamTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestEventStreamTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestEventStreamTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Tests that the events of a passing and a failing test are written in 
+   * order.
+   */
+  public void testEvents() {
+    Test passing = FlaggableTestCase.createPassingTest();
+    Test failing = FlaggableTestCase.createFailingTest();
+    TestSuite suite = new TestSuite();
+    suite.addTest(passing);
+    suite.addTest(failing);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TestEventStream events = new TestEventStream(out);
+    TestResult result = new TestResult();
+    result.addListener(events);
+    events.beginRun(2);
+    suite.run(result);
+    events.endRun(result);
+    
+    String[] lines = StringUtil.split(
+        new String(out.toByteArray()), '\n');
+    assertEquals(TestEventStream.HEADER, lines[0]);
+    assertTrue(lines[1], lines[1].startsWith("B\t"));
+    assertTrue(lines[1], lines[1].endsWith("\t2"));
+    assertTrue(lines[2], lines[2].startsWith("S\t"));
+    assertTrue(lines[2], lines[2].endsWith("\t" + passing));
+    assertTrue(lines[3], lines[3].startsWith("E\t"));
+    assertTrue(lines[3], lines[3].indexOf("\t" + passing + "\t") > 0);
+    assertTrue(lines[4], lines[4].startsWith("S\t"));
+    assertTrue(lines[5], lines[5].startsWith("F\t"));
+    assertTrue(lines[5], lines[5].endsWith("\t" + failing 
+        + "\tHarcoded failure"));
+    assertTrue(lines[6], lines[6].startsWith("E\t"));
+    assertTrue(lines[7], lines[7].startsWith("R\t"));
+    assertTrue(lines[7], lines[7].endsWith("\t2\t1\t0"));
+  }
+  
+  /**
+   * Tests that separators in messages are escaped.
+   */
+  public void testAppendEscaped() {
+    StringBuffer sb = new StringBuffer();
+    TestEventStream.appendEscaped(sb, "a\tb\nc\\d");
+    assertEquals("a\\tb\\nc\\\\d", sb.toString());
+  }
+  
+  /**
+   * Tests that a broken stream does not affect the tests.
+   */
+  public void testWrite_brokenStream() {
+    TestEventStream events = new TestEventStream(new OutputStream() {
+      public void write(int b) throws IOException {
+        throw new IOException("Broken");
+      }
+    });
+    Test test = FlaggableTestCase.createPassingTest();
+    events.startTest(test);
+    events.endTest(test);
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestEventStreamTest("testEvents") {
+      public void runTest() {
+        testEvents();
+      }
+    });
+    
+    suite.addTest(new TestEventStreamTest("testAppendEscaped") {
+      public void runTest() {
+        testAppendEscaped();
+      }
+    });
+    
+    suite.addTest(new TestEventStreamTest("testWrite_brokenStream") {
+      public void runTest() {
+        testWrite_brokenStream();
+      }
+    });
+    
+    return suite;
+  }
+}
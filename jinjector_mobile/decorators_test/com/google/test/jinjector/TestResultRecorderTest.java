@@ -0,0 +1,127 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import com.google.test.jinjector.TestResultRecorder.TestResultRecord;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestResult;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+/**
+ * Test for {@link TestResultRecorder}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestResultRecorderTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public TestResultRecorderTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestResultRecorderTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestResultRecorderTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Tests that runs and failures are counted for each test.
+   */
+  public void testEndTest() {
+    Test passing = FlaggableTestCase.createPassingTest();
+    Test failing = FlaggableTestCase.createFailingTest();
+    TestSuite suite = new TestSuite();
+    suite.addTest(passing);
+    suite.addTest(failing);
+    TestResultRecorder recorder = new TestResultRecorder();
+    TestResult result = new TestResult();
+    result.addListener(recorder);
+    suite.run(result);
+    suite.run(result);
+    
+    assertEquals(2, recorder.size());
+    TestResultRecord record = recorder.getRecord(passing.toString());
+    assertEquals(2, record.getRuns());
+    assertEquals(0, record.getFailures());
+    record = recorder.getRecord(failing.toString());
+    assertEquals(2, record.getRuns());
+    assertEquals(2, record.getFailures());
+    assertNull(recorder.getRecord("never run"));
+  }
+  
+  /**
+   * Tests that the written durations are read back.
+   */
+  public void testReadDurations() throws IOException {
+    Test test = FlaggableTestCase.createPassingTest();
+    TestResultRecorder recorder = new TestResultRecorder();
+    recorder.startTest(test);
+    recorder.endTest(test);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recorder.write(out);
+    
+    Hashtable durations = TestResultRecorder.readDurations(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(1, durations.size());
+    assertEquals(new Long(recorder.getRecord(test.toString())
+        .getAverageTime()), durations.get(test.toString()));
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestResultRecorderTest("testEndTest") {
+      public void runTest() {
+        testEndTest();
+      }
+    });
+    
+    suite.addTest(new TestResultRecorderTest("testReadDurations") {
+      public void runTest() throws IOException {
+        testReadDurations();
+      }
+    });
+    
+    return suite;
+  }
+}
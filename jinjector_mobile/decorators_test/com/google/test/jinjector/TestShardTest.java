@@ -0,0 +1,183 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.util.Hashtable;
+
+/**
+ * Test for {@link TestShard}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestShardTest extends TestCase {
+  
+  private static final int NUM_TESTS = 10;
+
+  /**
+   * Constructor from superclass.
+   */
+  public TestShardTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestShardTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestShardTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Tests that without durations each test is run by exactly one shard and 
+   * that the shards have the same size.
+   */
+  public void testSelect_partition() {
+    TestSuite suite = createSuite();
+    int count = 3;
+    Hashtable seen = new Hashtable();
+    for (int i = 0; i < count; i++) {
+      TestSuite selected = new TestShard(i, count).select(suite);
+      int size = selected.testCount();
+      assertTrue("Unbalanced shard of " + size + " tests", 
+          size == NUM_TESTS / count || size == NUM_TESTS / count + 1);
+      for (int j = 0; j < size; j++) {
+        String name = selected.testAt(j).toString();
+        assertNull(name + " selected twice", seen.put(name, name));
+      }
+    }
+    assertEquals(NUM_TESTS, seen.size());
+  }
+  
+  /**
+   * Tests that a long test is balanced by several short ones.
+   */
+  public void testSelect_durations() {
+    TestSuite suite = createSuite();
+    Hashtable durations = new Hashtable();
+    durations.put(suite.testAt(3).toString(), new Long(1000));
+    for (int i = 0; i < NUM_TESTS; i++) {
+      if (i != 3) {
+        durations.put(suite.testAt(i).toString(), new Long(100));
+      }
+    }
+    
+    TestShard first = new TestShard(0, 2);
+    first.setDurations(durations);
+    TestSuite selected = first.select(suite);
+    assertEquals(1, selected.testCount());
+    assertEquals(suite.testAt(3).toString(), selected.testAt(0).toString());
+    
+    TestShard second = new TestShard(1, 2);
+    second.setDurations(durations);
+    assertEquals(NUM_TESTS - 1, second.select(suite).testCount());
+  }
+  
+  /**
+   * Tests that nested suites are flattened and that each shard keeps the 
+   * original order.
+   */
+  public void testSelect_order() {
+    TestSuite suite = new TestSuite();
+    suite.addTest(createSuite());
+    suite.addTest(createSuite());
+    TestSuite selected = new TestShard(1, 2).select(suite);
+    assertEquals(NUM_TESTS, selected.testCount());
+    for (int i = 1; i < NUM_TESTS / 2; i++) {
+      assertTrue(selected.testAt(i - 1).toString().compareTo(
+          selected.testAt(i).toString()) < 0);
+    }
+  }
+  
+  /**
+   * Tests that invalid shards are rejected.
+   */
+  public void testConstructor_invalid() {
+    try {
+      new TestShard(2, 2);
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      new TestShard(0, 0);
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+  
+  /**
+   * Creates a suite of {@link #NUM_TESTS} tests whose names are sorted in 
+   * order of execution.
+   */
+  private static TestSuite createSuite() {
+    TestSuite suite = new TestSuite();
+    for (int i = 0; i < NUM_TESTS; i++) {
+      suite.addTest(new TestShardTest("test" + (char) ('a' + i)));
+    }
+    return suite;
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestShardTest("testSelect_partition") {
+      public void runTest() {
+        testSelect_partition();
+      }
+    });
+    
+    suite.addTest(new TestShardTest("testSelect_durations") {
+      public void runTest() {
+        testSelect_durations();
+      }
+    });
+    
+    suite.addTest(new TestShardTest("testSelect_order") {
+      public void runTest() {
+        testSelect_order();
+      }
+    });
+    
+    suite.addTest(new TestShardTest("testConstructor_invalid") {
+      public void runTest() {
+        testConstructor_invalid();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,153 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestResult;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Test for {@link TestWatchdog}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestWatchdogTest extends TestCase {
+  
+  private static final long TIMEOUT = 300;
+
+  /**
+   * Constructor from superclass.
+   */
+  public TestWatchdogTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestWatchdogTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestWatchdogTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Tests that a hung test is reported as an error and that the next test 
+   * is run.
+   */
+  public void testRun_testTimeout() {
+    TestSuite suite = new TestSuite();
+    suite.addTest(createHangingTest());
+    suite.addTest(FlaggableTestCase.createPassingTest());
+    TestResult result = new TestResult();
+    TestWatchdog watchdog = new TestWatchdog(result, TIMEOUT, 0);
+    watchdog.run(suite);
+    
+    assertEquals(2, result.runCount());
+    assertEquals(1, result.errorCount());
+    assertEquals(0, result.failureCount());
+    assertEquals(1, watchdog.getTimeoutCount());
+    assertTrue(!watchdog.isAborted());
+  }
+  
+  /**
+   * Tests that the remaining tests are not run when the suite times out.
+   */
+  public void testRun_suiteTimeout() {
+    TestSuite suite = new TestSuite();
+    suite.addTest(FlaggableTestCase.createPassingTest());
+    suite.addTest(createHangingTest());
+    suite.addTest(FlaggableTestCase.createPassingTest());
+    TestResult result = new TestResult();
+    TestWatchdog watchdog = new TestWatchdog(result, 0, TIMEOUT);
+    watchdog.run(suite);
+    
+    assertEquals(2, result.runCount());
+    assertEquals(1, result.errorCount());
+    assertTrue(watchdog.isAborted());
+    assertTrue(result.shouldStop());
+  }
+  
+  /**
+   * Tests that tests which finish in time are reported as usual.
+   */
+  public void testRun_noTimeout() {
+    TestSuite suite = new TestSuite();
+    suite.addTest(FlaggableTestCase.createPassingTest());
+    suite.addTest(FlaggableTestCase.createFailingTest());
+    TestResult result = new TestResult();
+    TestWatchdog watchdog = new TestWatchdog(result, TIMEOUT, TIMEOUT * 10);
+    watchdog.run(suite);
+    
+    assertEquals(2, result.runCount());
+    assertEquals(1, result.failureCount());
+    assertEquals(0, result.errorCount());
+    assertEquals(0, watchdog.getTimeoutCount());
+  }
+  
+  /**
+   * Creates a test which waits until it is interrupted.
+   */
+  private static Test createHangingTest() {
+    return new TestWatchdogTest("hanging") {
+      protected void runTest() throws Throwable {
+        Object lock = new Object();
+        synchronized (lock) {
+          lock.wait();
+        }
+      }
+    };
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestWatchdogTest("testRun_testTimeout") {
+      public void runTest() {
+        testRun_testTimeout();
+      }
+    });
+    
+    suite.addTest(new TestWatchdogTest("testRun_suiteTimeout") {
+      public void runTest() {
+        testRun_suiteTimeout();
+      }
+    });
+    
+    suite.addTest(new TestWatchdogTest("testRun_noTimeout") {
+      public void runTest() {
+        testRun_noTimeout();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -35,6 +35,7 @@ public class AllTests extends TestCase {
     suite.addTest(new CoverageLcovWriterTest().suite());
     suite.addTest(new CoverageManagerTest().suite());
     suite.addTest(new PackageReportContainerTest().suite());
+    suite.addTest(new TestCoverageRecorderTest().suite());
     return suite;
   }
   
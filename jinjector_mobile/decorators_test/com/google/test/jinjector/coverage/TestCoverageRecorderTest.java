@@ -0,0 +1,167 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.coverage;
+
+import com.google.test.jinjector.coverage.CoverageManager.CoverageDataFile;
+import com.google.test.jinjector.coverage.MethodInfoContainer.MethodInfo;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Test for {@link TestCoverageRecorder}.
+ * 
+ * @author Michele Sama
+ */
+public class TestCoverageRecorderTest extends TestCase {
+  
+  private static final int NUMBER_OF_FILES = 4;
+  private static final int NUMBER_OF_METHODS = 8;
+  private static final int NUMBER_OF_LINES = 4;
+  
+  private CoverageManager manager = null;
+  
+  private TestCoverageRecorder recorder = null;
+
+  /**
+   * Constructor from superclass.
+   */
+  public TestCoverageRecorderTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestCoverageRecorderTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestCoverageRecorderTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Installs a coverage manager with a fixed number of methods and files.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    manager = new CoverageManager();
+    MethodInfoContainer methods = new MethodInfoContainer();
+    for (int i = 0; i < NUMBER_OF_METHODS; i++) {
+      MethodInfo dummyMethod = new MethodInfo();
+      dummyMethod.fullName = "dummyMethod" + i;
+      dummyMethod.methodIndex = i;
+      methods.addMethodInfo(dummyMethod);
+    }
+    Bitfield[] fields = new Bitfield[NUMBER_OF_FILES];
+    for (int i = 0; i < NUMBER_OF_FILES; i++) {
+      fields[i] = new Bitfield(NUMBER_OF_LINES);
+    }
+    manager.setMethodCoverageFields(methods, "");
+    manager.setLineCoverageFields(fields, new CoverageDataFile("", ""));
+    CoverageManager.setInstance(manager);
+    CoverageManager.enableCoverage();
+    recorder = new TestCoverageRecorder();
+  }
+
+  /**
+   * Resets the default instance of the coverage manager.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    CoverageManager.setInstance(null);
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that each test is attributed only the methods and files covered 
+   * while it was running, and that the overall coverage is kept.
+   */
+  public void testEndTest_attributesCoverage() {
+    Test first = new TestCoverageRecorderTest("first");
+    Test second = new TestCoverageRecorderTest("second");
+    
+    recorder.startTest(first);
+    CoverageManager.setCovered(1);
+    CoverageManager.setCovered(6);
+    CoverageManager.setLineCovered(2, 0);
+    recorder.endTest(first);
+    
+    recorder.startTest(second);
+    CoverageManager.setCovered(3);
+    recorder.endTest(second);
+    
+    assertEquals(2, recorder.size());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recorder.write(out);
+    String report = new String(out.toByteArray());
+    assertTrue("Wrong coverage of the first test: " + report, 
+        report.startsWith(first.toString() + "\t1,6\t2"));
+    assertTrue("Wrong coverage of the second test: " + report, 
+        report.indexOf(second.toString() + "\t3\t\n") >= 0 
+        || report.indexOf(second.toString() + "\t3\t\r\n") >= 0);
+    assertTrue("The overall coverage has been reset.", manager.isCovered(1));
+    assertTrue("The overall coverage has been reset.", 
+        manager.isLineCovered(2, 0));
+  }
+  
+  /**
+   * Tests that nothing is written when no test has been recorded.
+   */
+  public void testWrite_empty() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recorder.write(out);
+    assertEquals(0, recorder.size());
+    assertEquals(0, out.size());
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestCoverageRecorderTest(
+        "testEndTest_attributesCoverage") {
+      public void runTest() {
+        testEndTest_attributesCoverage();
+      }
+    });
+    
+    suite.addTest(new TestCoverageRecorderTest("testWrite_empty") {
+      public void runTest() {
+        testWrite_empty();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -32,9 +32,14 @@ public class AllTests extends TestCase {
   public Test suite() {
     TestSuite suite = new TestSuite();
     
+    suite.addTest(new DisplayMonitorTest().suite());
+    suite.addTest(new FrameProfilerTest().suite());
+    suite.addTest(new InputReplayerTest().suite());
     suite.addTest(new J2meTestCaseTest().suite());
     suite.addTest(new J2meTestRunnerTest().suite());
+    suite.addTest(new ListenerProfilerTest().suite());
     suite.addTest(new ReportListTest().suite());
+    suite.addTest(new UiEventLogTest().suite());
     
     return suite;
   }
@@ -0,0 +1,123 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Tests for {@link DisplayMonitor}.
+ * 
+ * @author Michele Sama
+ */
+public class DisplayMonitorTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public DisplayMonitorTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public DisplayMonitorTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public DisplayMonitorTest(String name, TestMethod method) {
+    super(name, method);
+  }
+
+  /**
+   * Tests that a waiting thread is woken up by a change notified by another 
+   * thread.
+   */
+  public void testWaitForChange_notified() throws InterruptedException {
+    int seen = DisplayMonitor.getChangeCount();
+    Thread notifier = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // Notifies anyway
+        }
+        DisplayMonitor.notifyChange();
+      }
+    };
+    long start = System.currentTimeMillis();
+    notifier.start();
+    assertTrue("The change has not been notified.", 
+        DisplayMonitor.waitForChange(seen, 10000));
+    assertTrue("The wait did not end with the notification.",
+        System.currentTimeMillis() - start < 5000);
+    assertTrue(DisplayMonitor.getLastChangeTime() >= start);
+  }
+
+  /**
+   * Tests that changes notified before waiting are not missed.
+   */
+  public void testWaitForChange_alreadyChanged() 
+      throws InterruptedException {
+    int seen = DisplayMonitor.getChangeCount();
+    DisplayMonitor.notifyChange();
+    assertEquals(seen + 1, DisplayMonitor.getChangeCount());
+    assertTrue(DisplayMonitor.waitForChange(seen, 0));
+  }
+
+  /**
+   * Tests that the wait ends when the timeout expires.
+   */
+  public void testWaitForChange_timeout() throws InterruptedException {
+    int seen = DisplayMonitor.getChangeCount();
+    assertTrue(!DisplayMonitor.waitForChange(seen, 20));
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new DisplayMonitorTest("testWaitForChange_notified") {
+      public void runTest() throws InterruptedException {
+        testWaitForChange_notified();
+      }
+    });
+    suite.addTest(new DisplayMonitorTest("testWaitForChange_alreadyChanged") {
+      public void runTest() throws InterruptedException {
+        testWaitForChange_alreadyChanged();
+      }
+    });
+    suite.addTest(new DisplayMonitorTest("testWaitForChange_timeout") {
+      public void runTest() throws InterruptedException {
+        testWaitForChange_timeout();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,212 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link FrameProfiler}.
+ * 
+ * @author Michele Sama
+ */
+public class FrameProfilerTest extends TestCase {
+
+  private static final String SCREEN = "test.GameScreen";
+  
+  /**
+   * Constructor from superclass.
+   */
+  public FrameProfilerTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public FrameProfilerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public FrameProfilerTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Starts the profiler with a budget of 10 milliseconds.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    FrameProfiler.clear();
+    FrameProfiler.start(10);
+  }
+  
+  /**
+   * Stops the profiler and discards the recorded frames.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    FrameProfiler.stop();
+    FrameProfiler.clear();
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that paints are counted in the right bucket and that frames 
+   * exceeding the budget are counted as dropped.
+   */
+  public void testRecordPaint_buckets() {
+    FrameProfiler.recordPaint(SCREEN, 3);
+    FrameProfiler.recordPaint(SCREEN, 4);
+    FrameProfiler.recordPaint(SCREEN, 30);
+    FrameProfiler.recordPaint(SCREEN, 5000);
+    
+    int[] histogram = FrameProfiler.getHistogram(SCREEN, "paint");
+    assertEquals(FrameProfiler.BUCKET_COUNT, histogram.length);
+    assertEquals(2, histogram[0]);
+    // 30 falls in the bucket ending at 33.
+    assertEquals(1, histogram[6]);
+    assertEquals(1, histogram[FrameProfiler.BUCKET_COUNT - 1]);
+    // 30 ms drops 2 frames, 5000 ms drops 499 frames.
+    assertEquals(501, FrameProfiler.getDroppedFrames(SCREEN, "paint"));
+    assertTrue(FrameProfiler.getHistogram(SCREEN, "frame") == null);
+  }
+  
+  /**
+   * Tests that the interval between flushes is recorded as a frame, unless 
+   * it is longer than the idle time and the application was inactive.
+   */
+  public void testRecordFlush_frames() {
+    FrameProfiler.recordFlush(SCREEN, 1000, 1002);
+    assertTrue(FrameProfiler.getHistogram(SCREEN, "frame") == null);
+    
+    FrameProfiler.recordFlush(SCREEN, 1010, 1012);
+    FrameProfiler.recordFlush(SCREEN, 1030, 1032);
+    FrameProfiler.recordFlush(SCREEN, 5000, 5001);
+    
+    int[] frames = FrameProfiler.getHistogram(SCREEN, "frame");
+    // 10 ms and 20 ms, the pause is recorded separately.
+    assertEquals(1, frames[2]);
+    assertEquals(1, frames[4]);
+    assertEquals(0, frames[FrameProfiler.BUCKET_COUNT - 1]);
+    assertEquals(1, FrameProfiler.getDroppedFrames(SCREEN, "frame"));
+    int[] pauses = FrameProfiler.getHistogram(SCREEN, "pause");
+    assertEquals(1, pauses[FrameProfiler.BUCKET_COUNT - 1]);
+    
+    int[] flushes = FrameProfiler.getHistogram(SCREEN, "flush");
+    assertEquals(4, flushes[0]);
+    assertEquals(0, FrameProfiler.getDroppedFrames(SCREEN, "flush"));
+  }
+  
+  /**
+   * Tests that a long interval during which the application painted or 
+   * received input is recorded as a frame with all its dropped frames.
+   */
+  public void testRecordFlush_hitch() {
+    FrameProfiler.recordFlush(SCREEN, 1000, 1002);
+    FrameProfiler.inputReceived();
+    FrameProfiler.recordFlush(SCREEN, 3000, 3002);
+    FrameProfiler.recordPaint("Other", 1);
+    FrameProfiler.recordFlush(SCREEN, 5000, 5002);
+    
+    int[] frames = FrameProfiler.getHistogram(SCREEN, "frame");
+    assertEquals(2, frames[FrameProfiler.BUCKET_COUNT - 1]);
+    // Each interval of 2000 ms drops 199 frames.
+    assertEquals(398, FrameProfiler.getDroppedFrames(SCREEN, "frame"));
+    assertTrue(FrameProfiler.getHistogram(SCREEN, "pause") == null);
+  }
+  
+  /**
+   * Tests that nothing is recorded while the profiler is stopped and that 
+   * the budget is validated.
+   */
+  public void testStart() {
+    FrameProfiler.stop();
+    assertTrue(!FrameProfiler.isEnabled());
+    FrameProfiler.endPaint(null);
+    assertTrue(FrameProfiler.isEmpty());
+    try {
+      FrameProfiler.start(0);
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertTrue(!FrameProfiler.isEnabled());
+  }
+  
+  /**
+   * Tests the format of the dump.
+   */
+  public void testDump() throws IOException {
+    FrameProfiler.recordPaint(SCREEN, 12);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameProfiler.dump(out);
+    assertEquals("# budget=10 buckets=4,8,12,16,20,25,33,42,50,67,100,150,"
+        + "250,500,1000,inf\n"
+        + SCREEN + "\tpaint\t1\t12\t12\t1\t0,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0\n",
+        new String(out.toByteArray()));
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new FrameProfilerTest("testRecordPaint_buckets") {
+      public void runTest() {
+        testRecordPaint_buckets();
+      }
+    });
+    suite.addTest(new FrameProfilerTest("testRecordFlush_frames") {
+      public void runTest() {
+        testRecordFlush_frames();
+      }
+    });
+    suite.addTest(new FrameProfilerTest("testRecordFlush_hitch") {
+      public void runTest() {
+        testRecordFlush_hitch();
+      }
+    });
+    suite.addTest(new FrameProfilerTest("testStart") {
+      public void runTest() {
+        testStart();
+      }
+    });
+    suite.addTest(new FrameProfilerTest("testDump") {
+      public void runTest() throws IOException {
+        testDump();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link InputReplayer} and {@link InputRecorder}.
+ * 
+ * @author Michele Sama
+ */
+public class InputReplayerTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public InputReplayerTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public InputReplayerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public InputReplayerTest(String name, TestMethod method) {
+    super(name, method);
+  }
+
+  /**
+   * Stops any recording.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    InputRecorder.stop();
+    InputRecorder.setSuspended(false);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that a script recorded without events can be replayed.
+   */
+  public void testReplay_emptyScript() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputRecorder.start(out);
+    assertTrue(InputRecorder.isRecording());
+    InputRecorder.endInput();
+    InputRecorder.stop();
+    assertTrue(!InputRecorder.isRecording());
+    assertEquals(0, InputRecorder.getEventCount());
+    
+    int count = new InputReplayer(null).replay(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(0, count);
+  }
+
+  /**
+   * Tests that streams which are not scripts are rejected.
+   */
+  public void testReplay_notAScript() {
+    try {
+      new InputReplayer(null).replay(
+          new ByteArrayInputStream(new byte[] {1, 2, 3, 4}));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that unknown events are rejected and that the recorder is 
+   * resumed after the replay.
+   */
+  public void testReplay_unknownEvent() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(InputRecorder.MAGIC);
+    data.writeByte(99);
+    try {
+      new InputReplayer(null).replay(
+          new ByteArrayInputStream(out.toByteArray()));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+    
+    ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+    InputRecorder.start(recorded);
+    InputRecorder.beginInput(null, InputRecorder.KEY_PRESSED, 0, 0);
+    assertEquals("The recorder has not been resumed.", 
+        1, InputRecorder.getEventCount());
+  }
+
+  /**
+   * Tests that events are not recorded while the recorder is suspended.
+   */
+  public void testSetSuspended() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputRecorder.start(out);
+    int headerSize = out.size();
+    InputRecorder.setSuspended(true);
+    InputRecorder.beginInput(null, InputRecorder.KEY_PRESSED, 5, 0);
+    assertEquals(0, InputRecorder.getEventCount());
+    assertEquals(headerSize, out.size());
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new InputReplayerTest("testReplay_emptyScript") {
+      public void runTest() throws IOException {
+        testReplay_emptyScript();
+      }
+    });
+    suite.addTest(new InputReplayerTest("testReplay_notAScript") {
+      public void runTest() {
+        testReplay_notAScript();
+      }
+    });
+    suite.addTest(new InputReplayerTest("testReplay_unknownEvent") {
+      public void runTest() throws IOException {
+        testReplay_unknownEvent();
+      }
+    });
+    suite.addTest(new InputReplayerTest("testSetSuspended") {
+      public void runTest() throws IOException {
+        testSetSuspended();
+      }
+    });
+    
+    return suite;
+  }
+}
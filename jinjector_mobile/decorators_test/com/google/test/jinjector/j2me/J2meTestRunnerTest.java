@@ -16,6 +16,7 @@
 package com.google.test.jinjector.j2me;
 
 import com.google.test.jinjector.FlaggableTestCase;
+import com.google.test.jinjector.util.Log;
 
 import javax.microedition.midlet.MIDlet;
 import javax.microedition.midlet.MIDletStateChangeException;
@@ -123,6 +124,46 @@ public class J2meTestRunnerTest extends TestCase {
     } 
   }
   
+  /**
+   * Tests that {@link J2meTestRunner#configureLog()} sets the level and 
+   * starts writing the log from a background thread when the properties 
+   * are set.
+   */
+  public void testConfigureLog() {
+    J2meTestRunner runner = new J2meTestRunner(new J2meTestCase()) {
+      protected String getProperty(String name) {
+        if (name.equals(PROPERTY_LOG_QUEUE)) {
+          return "16";
+        } else if (name.equals(PROPERTY_LOG_LEVEL)) {
+          return "warning";
+        }
+        return null;
+      }
+    };
+    try {
+      runner.configureLog();
+      assertTrue(Log.isAsynchronous());
+      assertEquals(Log.LEVEL_WARNING, Log.getLevel());
+    } finally {
+      Log.stopAsynchronous();
+      Log.setLevel(Log.LEVEL_INFO);
+    }
+  }
+  
+  /**
+   * Tests that the log stays synchronous when the queue is not configured
+   * or is not a number.
+   */
+  public void testConfigureLog_invalidQueue() {
+    J2meTestRunner runner = new J2meTestRunner(new J2meTestCase()) {
+      protected String getProperty(String name) {
+        return name.equals(PROPERTY_LOG_QUEUE) ? "many" : null;
+      }
+    };
+    runner.configureLog();
+    assertTrue(!Log.isAsynchronous());
+  }
+  
   /**
    * Creates a {@link TestSuite} containing {@link #NUM_TESTS_IN_SUITE} 
    * test cases.
@@ -154,6 +195,18 @@ public class J2meTestRunnerTest extends TestCase {
         testSetMidlet_wrongChildren();
       }
     });
+    
+    suite.addTest(new J2meTestRunnerTest("testConfigureLog") {
+      public void runTest() {
+        testConfigureLog();
+      }
+    });
+    
+    suite.addTest(new J2meTestRunnerTest("testConfigureLog_invalidQueue") {
+      public void runTest() {
+        testConfigureLog_invalidQueue();
+      }
+    });
     return suite;
   }
   
@@ -0,0 +1,156 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link ListenerProfiler}.
+ * 
+ * @author Michele Sama
+ */
+public class ListenerProfilerTest extends TestCase {
+
+  private static final String LISTENER = "test.Controller";
+  
+  /**
+   * Constructor from superclass.
+   */
+  public ListenerProfilerTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public ListenerProfilerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public ListenerProfilerTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Discards the recorded callbacks.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    ListenerProfiler.clear();
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that percentiles are estimated by the upper bound of the 
+   * logarithmic buckets, but never exceed the maximum.
+   */
+  public void testGetPercentile() {
+    for (int i = 0; i < 18; i++) {
+      ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+          "Ok", 5);
+    }
+    ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+        "Ok", 100);
+    ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+        "Ok", 900);
+    
+    assertEquals(20, ListenerProfiler.getCount(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Ok"));
+    // 5 ms falls in the bucket from 4 to 7 ms.
+    assertEquals(7, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Ok", 50));
+    // The 19th callback falls in the bucket from 64 to 127 ms.
+    assertEquals(127, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Ok", 95));
+    assertEquals(900, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Ok", 100));
+  }
+  
+  /**
+   * Tests that callbacks are recorded separately by label and by callback.
+   */
+  public void testRecord_separateLabels() {
+    ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+        "Ok", 0);
+    ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+        "Back", 3);
+    ListenerProfiler.record(LISTENER, ListenerProfiler.ITEM_STATE_CHANGED, 
+        null, 1);
+    
+    assertEquals(0, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Ok", 50));
+    assertEquals(3, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.COMMAND_ACTION, "Back", 50));
+    assertEquals(1, ListenerProfiler.getCount(LISTENER, 
+        ListenerProfiler.ITEM_STATE_CHANGED, null));
+    assertEquals(-1, ListenerProfiler.getPercentile(LISTENER, 
+        ListenerProfiler.ITEM_STATE_CHANGED, "Ok", 50));
+    assertEquals(0, ListenerProfiler.getCount("test.Other", 
+        ListenerProfiler.COMMAND_ACTION, "Ok"));
+  }
+  
+  /**
+   * Tests the format of the dump.
+   */
+  public void testDump() throws IOException {
+    ListenerProfiler.record(LISTENER, ListenerProfiler.COMMAND_ACTION, 
+        "Ok", 12);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ListenerProfiler.dump(out);
+    assertEquals("# listener\tcallback\tlabel\tcount\tp50\tp95\tmax\n"
+        + LISTENER + "\tcommandAction\tOk\t1\t12\t12\t12\n", 
+        new String(out.toByteArray()));
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new ListenerProfilerTest("testGetPercentile") {
+      public void runTest() {
+        testGetPercentile();
+      }
+    });
+    suite.addTest(new ListenerProfilerTest("testRecord_separateLabels") {
+      public void runTest() {
+        testRecord_separateLabels();
+      }
+    });
+    suite.addTest(new ListenerProfilerTest("testDump") {
+      public void runTest() throws IOException {
+        testDump();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,168 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Tests for {@link UiEventLog}.
+ * 
+ * @author Michele Sama
+ */
+public class UiEventLogTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public UiEventLogTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public UiEventLogTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public UiEventLogTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Restores the default capacity.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    UiEventLog.init(UiEventLog.DEFAULT_CAPACITY);
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that classes and labels are assigned an id the first time they 
+   * are seen and that each name is dumped once.
+   */
+  public void testDump_records() throws IOException {
+    UiEventLog.init(4);
+    UiEventLog.record(String.class, "Ok", Vector.class);
+    UiEventLog.record(String.class, "Back", null);
+    UiEventLog.record(String.class, "Ok", Vector.class);
+    
+    DataInputStream in = dump();
+    assertEquals(3, in.readInt());
+    assertEquals(3, in.readInt());
+    assertRecord(in, 0, 1, 2);
+    assertRecord(in, 0, 3, -1);
+    assertRecord(in, 0, 1, 2);
+    assertEquals(4, in.readInt());
+    assertEquals("java.lang.String", in.readUTF());
+    assertEquals("Ok", in.readUTF());
+    assertEquals("java.util.Vector", in.readUTF());
+    assertEquals("Back", in.readUTF());
+    assertEquals(-1, in.read());
+  }
+  
+  /**
+   * Tests that the oldest records are overwritten when the buffer is full.
+   */
+  public void testDump_wraparound() throws IOException {
+    UiEventLog.init(2);
+    UiEventLog.record(String.class, "1", null);
+    UiEventLog.record(String.class, "2", null);
+    UiEventLog.record(String.class, "3", null);
+    
+    assertEquals(3, UiEventLog.getRecordCount());
+    DataInputStream in = dump();
+    assertEquals(3, in.readInt());
+    assertEquals(2, in.readInt());
+    assertRecord(in, 0, 2, -1);
+    assertRecord(in, 0, 3, -1);
+  }
+  
+  /**
+   * Tests that the capacity is validated.
+   */
+  public void testInit_invalidCapacity() {
+    try {
+      UiEventLog.init(0);
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+  
+  private DataInputStream dump() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    UiEventLog.dump(out);
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(UiEventLog.MAGIC, in.readInt());
+    assertEquals(UiEventLog.VERSION, in.readInt());
+    in.readLong();
+    assertEquals(UiEventLog.RECORD_SIZE, in.readInt());
+    return in;
+  }
+  
+  private void assertRecord(DataInputStream in, int listener, int label, 
+      int target) throws IOException {
+    assertEquals("Wrong listener.", listener, in.readInt());
+    assertEquals("Wrong label.", label, in.readInt());
+    assertEquals("Wrong target.", target, in.readInt());
+    assertTrue("Negative time.", in.readInt() >= 0);
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new UiEventLogTest("testDump_records") {
+      public void runTest() throws IOException {
+        testDump_records();
+      }
+    });
+    suite.addTest(new UiEventLogTest("testDump_wraparound") {
+      public void runTest() throws IOException {
+        testDump_wraparound();
+      }
+    });
+    suite.addTest(new UiEventLogTest("testInit_invalidCapacity") {
+      public void runTest() {
+        testInit_invalidCapacity();
+      }
+    });
+    
+    return suite;
+  }
+}
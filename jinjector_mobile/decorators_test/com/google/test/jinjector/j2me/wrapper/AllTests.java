@@ -31,6 +31,7 @@ public class AllTests extends TestCase {
    */
   public Test suite() {
     TestSuite suite = new TestSuite();
+    suite.addTest(new CommandRegistryTest().suite());
     suite.addTest(new DisplayableWrapperTest().suite());
     suite.addTest(new ItemWrapperTest().suite());
     return suite;
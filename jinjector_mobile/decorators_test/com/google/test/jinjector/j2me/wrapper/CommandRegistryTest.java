@@ -0,0 +1,179 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.j2me.wrapper;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import javax.microedition.lcdui.Command;
+import javax.microedition.lcdui.CommandListener;
+import javax.microedition.lcdui.Displayable;
+
+/**
+ * Tests for {@link CommandRegistry}.
+ * 
+ * @author Michele Sama
+ */
+public class CommandRegistryTest extends TestCase {
+
+  private CommandRegistry registry;
+  
+  /**
+   * Constructor from superclass.
+   */
+  public CommandRegistryTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public CommandRegistryTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public CommandRegistryTest(String name, TestMethod method) {
+    super(name, method);
+  }
+
+  /**
+   * Creates an empty registry.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    registry = new CommandRegistry();
+  }
+
+  /**
+   * Tests that commands are found by label, also after removing the first 
+   * of two commands with the same label.
+   */
+  public void testGetCommand() {
+    Command ok = new Command("Ok", Command.OK, 1);
+    Command otherOk = new Command("Ok", Command.SCREEN, 2);
+    Command back = new Command("Back", Command.BACK, 1);
+    registry.addCommand(ok);
+    registry.addCommand(otherOk);
+    registry.addCommand(back);
+    
+    assertSame(ok, registry.getCommand("Ok"));
+    assertSame(back, registry.getCommand("Back"));
+    assertNull(registry.getCommand("Exit"));
+    
+    registry.removeCommand(ok);
+    assertSame(otherOk, registry.getCommand("Ok"));
+    registry.removeCommand(otherOk);
+    assertNull(registry.getCommand("Ok"));
+  }
+
+  /**
+   * Tests that the arrays are not shared with later changes and that 
+   * duplicates are ignored.
+   */
+  public void testCopyOnWrite() {
+    Command ok = new Command("Ok", Command.OK, 1);
+    registry.addCommand(ok);
+    registry.addCommand(ok);
+    Command[] commands = registry.getCommands();
+    assertEquals(1, commands.length);
+    assertSame("Reading must not copy the array.", 
+        commands, registry.getCommands());
+    
+    registry.removeCommand(ok);
+    assertEquals(1, commands.length);
+    assertEquals(0, registry.getCommands().length);
+    
+    Object listener = new Object();
+    registry.addListener(listener);
+    registry.addListener(listener);
+    registry.addListener(null);
+    Object[] listeners = registry.getListeners();
+    assertEquals(1, listeners.length);
+    registry.addListener(new Object());
+    assertEquals(1, listeners.length);
+    assertEquals(2, registry.getListeners().length);
+  }
+
+  /**
+   * Tests that the copy of the commands can be modified.
+   */
+  public void testCopyCommands() {
+    Command ok = new Command("Ok", Command.OK, 1);
+    registry.addCommand(ok);
+    Command[] copy = registry.copyCommands();
+    assertTrue(copy != registry.getCommands());
+    copy[0] = null;
+    assertSame(ok, registry.getCommands()[0]);
+  }
+
+  /**
+   * Tests that the typed copies of the listeners can be modified.
+   */
+  public void testCopyCommandListeners() {
+    CommandListener listener = new CommandListener() {
+      public void commandAction(Command c, Displayable d) {
+      }
+    };
+    registry.addListener(listener);
+    CommandListener[] copy = registry.copyCommandListeners();
+    assertEquals(1, copy.length);
+    assertSame(listener, copy[0]);
+    copy[0] = null;
+    assertSame(listener, registry.getListeners()[0]);
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new CommandRegistryTest("testGetCommand") {
+      public void runTest() {
+        testGetCommand();
+      }
+    });
+    suite.addTest(new CommandRegistryTest("testCopyOnWrite") {
+      public void runTest() {
+        testCopyOnWrite();
+      }
+    });
+    suite.addTest(new CommandRegistryTest("testCopyCommands") {
+      public void runTest() {
+        testCopyCommands();
+      }
+    });
+    
+    suite.addTest(new CommandRegistryTest("testCopyCommandListeners") {
+      public void runTest() {
+        testCopyCommandListeners();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,151 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Test for {@link AllocationProfile}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class AllocationProfileTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public AllocationProfileTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public AllocationProfileTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public AllocationProfileTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Discards the counters.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    AllocationProfile.clear();
+  }
+  
+  /**
+   * Discards the counters.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    AllocationProfile.clear();
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that objects and arrays are counted by site and that array 
+   * lengths are summed.
+   */
+  public void testAllocate() {
+    assertTrue(AllocationProfile.isEmpty());
+    AllocationProfile.allocate(0);
+    AllocationProfile.allocate(0);
+    AllocationProfile.allocateArray(10, 5);
+    AllocationProfile.allocateArray(6, 5);
+    
+    assertTrue(!AllocationProfile.isEmpty());
+    assertEquals(2, AllocationProfile.getCount(0));
+    assertEquals(0, AllocationProfile.getLength(0));
+    assertEquals(2, AllocationProfile.getCount(5));
+    assertEquals(16, AllocationProfile.getLength(5));
+    assertEquals(0, AllocationProfile.getCount(3));
+    assertEquals(0, AllocationProfile.getCount(1000));
+  }
+  
+  /**
+   * Tests that only the sites which allocated something are dumped.
+   */
+  public void testDump() throws IOException {
+    AllocationProfile.allocate(1);
+    AllocationProfile.allocateArray(3, 4);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    AllocationProfile.dump(out);
+    assertEquals("1\t1\t0\n4\t1\t3\n", new String(out.toByteArray()));
+  }
+  
+  /**
+   * Tests that {@link AllocationProfile#clear()} resets the counters without
+   * discarding the sites which have already been allocated.
+   */
+  public void testClear() {
+    AllocationProfile.allocateArray(7, 9);
+    AllocationProfile.clear();
+    assertTrue(AllocationProfile.isEmpty());
+    assertEquals(0, AllocationProfile.getCount(9));
+    assertEquals(0, AllocationProfile.getLength(9));
+    
+    AllocationProfile.allocate(9);
+    assertEquals(1, AllocationProfile.getCount(9));
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new AllocationProfileTest("testAllocate") {
+      public void runTest() {
+        testAllocate();
+      }
+    });
+    
+    suite.addTest(new AllocationProfileTest("testDump") {
+      public void runTest() throws IOException {
+        testDump();
+      }
+    });
+    
+    suite.addTest(new AllocationProfileTest("testClear") {
+      public void runTest() {
+        testClear();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,139 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Test for {@link InstanceCensus}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class InstanceCensusTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public InstanceCensusTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public InstanceCensusTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public InstanceCensusTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Discards the registered instances.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    InstanceCensus.clear();
+  }
+  
+  /**
+   * Discards the registered instances.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    InstanceCensus.clear();
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that instances are counted by class and that an instance 
+   * registered by more than one constructor is counted once.
+   */
+  public void testRegister() {
+    assertTrue(InstanceCensus.isEmpty());
+    Object[] instances = new Object[40];
+    for (int i = 0; i < instances.length; i++) {
+      instances[i] = new StringBuffer();
+      InstanceCensus.register(instances[i], 0);
+      InstanceCensus.register(instances[i], 0);
+    }
+    String string = "census";
+    InstanceCensus.register(string, 0);
+    
+    assertTrue(!InstanceCensus.isEmpty());
+    assertEquals(40, InstanceCensus.getRegisteredCount(StringBuffer.class));
+    assertEquals(40, InstanceCensus.getLiveCount(StringBuffer.class));
+    assertEquals(1, InstanceCensus.getLiveCount(String.class));
+    assertEquals(0, InstanceCensus.getLiveCount(Integer.class));
+  }
+  
+  /**
+   * Tests that collected instances are not counted as live.
+   */
+  public void testGetLiveCount_collected() {
+    Object kept = new StringBuffer();
+    InstanceCensus.register(kept, 0);
+    for (int i = 0; i < 20; i++) {
+      InstanceCensus.register(new StringBuffer(), 0);
+    }
+    
+    int live = 21;
+    // The VM is not forced to clear the references at the first attempt.
+    for (int i = 0; i < 10 && live > 1; i++) {
+      System.gc();
+      live = InstanceCensus.getLiveCount(StringBuffer.class);
+    }
+    assertEquals(1, live);
+    assertEquals(21, InstanceCensus.getRegisteredCount(StringBuffer.class));
+    assertNotNull(kept);
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new InstanceCensusTest("testRegister") {
+      public void runTest() {
+        testRegister();
+      }
+    });
+    
+    suite.addTest(new InstanceCensusTest("testGetLiveCount_collected") {
+      public void runTest() {
+        testGetLiveCount_collected();
+      }
+    });
+    
+    return suite;
+  }
+}
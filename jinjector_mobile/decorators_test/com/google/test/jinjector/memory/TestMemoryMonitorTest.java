@@ -0,0 +1,141 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.memory;
+
+import com.google.test.jinjector.memory.TestMemoryMonitor.TestMemoryRecord;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Vector;
+
+/**
+ * Test for {@link TestMemoryMonitor}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestMemoryMonitorTest extends TestCase {
+
+  /**
+   * The memory retained by the simulated leaking test.
+   */
+  private final Vector leaked = new Vector();
+  
+  /**
+   * Constructor from superclass.
+   */
+  public TestMemoryMonitorTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TestMemoryMonitorTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TestMemoryMonitorTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Releases the leaked memory.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    leaked.removeAllElements();
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that a test which retains memory in consecutive runs is reported
+   * as a possible leak.
+   */
+  public void testEndTest_leak() {
+    TestMemoryMonitor monitor = new TestMemoryMonitor();
+    Test test = new TestMemoryMonitorTest("leaking");
+    for (int i = 0; i < TestMemoryMonitor.LEAK_RUNS; i++) {
+      monitor.startTest(test);
+      assertNotNull(monitor.getCurrentRecord());
+      leaked.addElement(new byte[64 * 1024]);
+      monitor.endTest(test);
+    }
+    
+    assertNull(monitor.getCurrentRecord());
+    TestMemoryRecord record = monitor.getRecord(test.toString());
+    assertEquals(TestMemoryMonitor.LEAK_RUNS, record.getRuns());
+    assertTrue(record.getLastRetained() >= 64 * 1024);
+    assertTrue(record.getLastPeak() >= record.getLastBefore());
+    assertTrue(record.isLeakSuspected());
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    monitor.print(new PrintStream(out));
+    String printed = new String(out.toByteArray());
+    assertTrue(printed, printed.indexOf("Possible leaks:") >= 0);
+    assertTrue(printed, printed.indexOf(test.toString() + " retained ") >= 0);
+  }
+  
+  /**
+   * Tests that a single run is never reported as a leak.
+   */
+  public void testEndTest_singleRun() {
+    TestMemoryMonitor monitor = new TestMemoryMonitor();
+    Test test = new TestMemoryMonitorTest("once");
+    monitor.startTest(test);
+    leaked.addElement(new byte[64 * 1024]);
+    monitor.endTest(test);
+    
+    TestMemoryRecord record = monitor.getRecord(test.toString());
+    assertEquals(1, record.getRuns());
+    assertTrue(!record.isLeakSuspected());
+    assertNull(monitor.getRecord("never run"));
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TestMemoryMonitorTest("testEndTest_leak") {
+      public void runTest() {
+        testEndTest_leak();
+      }
+    });
+    
+    suite.addTest(new TestMemoryMonitorTest("testEndTest_singleRun") {
+      public void runTest() {
+        testEndTest_singleRun();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -31,8 +31,11 @@ public class AllTests extends TestCase {
    */
   public Test suite() {
     TestSuite suite = new TestSuite();
+    suite.addTest(new ExceptionTableTest().suite());
     suite.addTest(new FileConnectionUtilTest().suite());
+    suite.addTest(new LogTest().suite());
     suite.addTest(new StringUtilTest().suite());
+    suite.addTest(new TracerTest().suite());
     return suite;
   }
   
@@ -0,0 +1,133 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.util;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Test for {@link ExceptionTable}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class ExceptionTableTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public ExceptionTableTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public ExceptionTableTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public ExceptionTableTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    ExceptionTable.clear();
+  }
+  
+  /**
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    ExceptionTable.clear();
+    Log.setSink(null);
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that throws are counted by site and class and that only the first
+   * throw of each site is logged.
+   */
+  public void testCapture() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Log.setSink(output);
+    assertTrue(ExceptionTable.isEmpty());
+    for (int i = 0; i < 3; i++) {
+      ExceptionTable.capture(new IllegalStateException(), 5);
+    }
+    ExceptionTable.capture(new NullPointerException(), 5);
+    ExceptionTable.capture(new NullPointerException(), 6);
+    
+    assertTrue(!ExceptionTable.isEmpty());
+    assertEquals(4, ExceptionTable.getCount(5));
+    assertEquals(1, ExceptionTable.getCount(6));
+    assertEquals(0, ExceptionTable.getCount(7));
+    assertEquals(0, ExceptionTable.getOverflow());
+    String log = output.toString();
+    assertEquals("Each site must be logged once.", 2, 
+        StringUtil.countOccurrences(log, "First throw"));
+  }
+  
+  /**
+   * Tests that throws not fitting in the table are counted as overflow.
+   */
+  public void testCapture_overflow() {
+    Log.setSink(new ByteArrayOutputStream());
+    Throwable t = new RuntimeException();
+    for (int i = 0; i < ExceptionTable.CAPACITY + 2; i++) {
+      ExceptionTable.capture(t, i);
+    }
+    ExceptionTable.capture(t, 0);
+    assertEquals(2, ExceptionTable.getOverflow());
+    assertEquals(2, ExceptionTable.getCount(0));
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new ExceptionTableTest("testCapture") {
+      public void runTest() {
+        testCapture();
+      }
+    });
+    
+    suite.addTest(new ExceptionTableTest("testCapture_overflow") {
+      public void runTest() {
+        testCapture_overflow();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,213 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.test.jinjector.util;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Test for {@link Log}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class LogTest extends TestCase {
+
+  private ByteArrayOutputStream output;
+  
+  /**
+   * Constructor from superclass.
+   */
+  public LogTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public LogTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public LogTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Redirects the log into a buffer.
+   * 
+   * @see j2meunit.framework.TestCase#setUp()
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+    output = new ByteArrayOutputStream();
+    Log.setSink(output);
+  }
+  
+  /**
+   * Restores the default configuration.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    Log.stopAsynchronous();
+    Log.setSink(null);
+    Log.setLevel(Log.LEVEL_INFO);
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that messages below the current level are discarded.
+   */
+  public void testLog_level() {
+    Log.setLevel(Log.LEVEL_WARNING);
+    assertTrue(!Log.isLoggable(Log.LEVEL_INFO));
+    assertTrue(Log.isLoggable(Log.LEVEL_ERROR));
+    Log.log("A", "discarded");
+    Log.log(Log.LEVEL_ERROR, "B", "logged");
+    assertEquals("[B]logged\n", output.toString());
+  }
+  
+  /**
+   * Tests {@link Log#parseLevel(String)}.
+   */
+  public void testParseLevel() {
+    assertEquals(Log.LEVEL_DEBUG, Log.parseLevel("debug"));
+    assertEquals(Log.LEVEL_WARNING, Log.parseLevel("WARNING"));
+    assertEquals(Log.LEVEL_OFF, Log.parseLevel("Off"));
+    assertEquals(-1, Log.parseLevel("verbose"));
+  }
+  
+  /**
+   * Tests that queued messages are written in order by the background 
+   * thread.
+   */
+  public void testLog_asynchronous() {
+    Log.startAsynchronous(16);
+    assertTrue(Log.isAsynchronous());
+    for (int i = 0; i < 10; i++) {
+      Log.log("A", "" + i);
+    }
+    Log.flush();
+    assertEquals("[A]0\n[A]1\n[A]2\n[A]3\n[A]4\n[A]5\n[A]6\n[A]7\n[A]8\n[A]9\n",
+        output.toString());
+  }
+  
+  /**
+   * Tests that messages exceeding the capacity of the queue are dropped and
+   * reported.
+   */
+  public void testLog_overflow() throws InterruptedException {
+    BlockingStream blocking = new BlockingStream();
+    Log.setSink(blocking);
+    int previouslyDropped = Log.getDroppedCount();
+    Log.startAsynchronous(2);
+    Log.log("A", "first");
+    blocking.waitForWrite();
+    // The background thread is blocked writing the first message.
+    for (int i = 0; i < 5; i++) {
+      Log.log("A", "" + i);
+    }
+    assertEquals(3, Log.getDroppedCount() - previouslyDropped);
+    blocking.release();
+    Log.flush();
+    assertEquals("[A]first\n[A]0\n[A]1\n" 
+        + "[Log]3 messages dropped because the queue was full\n", 
+        blocking.toString());
+  }
+  
+  /**
+   * A stream which blocks the first write until it is released.
+   */
+  private static class BlockingStream extends ByteArrayOutputStream {
+    
+    private boolean writing = false;
+    private boolean released = false;
+    
+    public synchronized void write(byte[] b, int off, int len) {
+      super.write(b, off, len);
+      writing = true;
+      notifyAll();
+      while (!released) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          // Checks the condition again.
+        }
+      }
+    }
+    
+    public void write(byte[] b) throws IOException {
+      write(b, 0, b.length);
+    }
+    
+    synchronized void waitForWrite() throws InterruptedException {
+      while (!writing) {
+        wait();
+      }
+    }
+    
+    synchronized void release() {
+      released = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new LogTest("testLog_level") {
+      public void runTest() {
+        testLog_level();
+      }
+    });
+    
+    suite.addTest(new LogTest("testParseLevel") {
+      public void runTest() {
+        testParseLevel();
+      }
+    });
+    
+    suite.addTest(new LogTest("testLog_asynchronous") {
+      public void runTest() {
+        testLog_asynchronous();
+      }
+    });
+    
+    suite.addTest(new LogTest("testLog_overflow") {
+      public void runTest() throws InterruptedException {
+        testLog_overflow();
+      }
+    });
+    
+    return suite;
+  }
+}
@@ -0,0 +1,244 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.test.jinjector.util;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Test for {@link Tracer}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TracerTest extends TestCase {
+
+  /**
+   * Constructor from superclass.
+   */
+  public TracerTest() {
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   */
+  public TracerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Constructor from superclass.
+   * 
+   * @param name the test's name.
+   * @param method the test's method.
+   */
+  public TracerTest(String name, TestMethod method) {
+    super(name, method);
+  }
+  
+  /**
+   * Restores the default capacity.
+   * 
+   * @see j2meunit.framework.TestCase#tearDown()
+   */
+  protected void tearDown() throws Exception {
+    Tracer.init(Tracer.DEFAULT_CAPACITY);
+    super.tearDown();
+  }
+  
+  /**
+   * Tests that records are dumped in order together with their arguments.
+   */
+  public void testDump_records() throws IOException {
+    Tracer.init(4);
+    Tracer.traceCall(42, 1);
+    Tracer.traceSet(2);
+    Tracer.traceReturn(1);
+    
+    DataInputStream in = dump();
+    assertEquals(3, in.readInt());
+    assertEquals(3, in.readInt());
+    assertRecord(in, 1, Tracer.EVENT_CALL | Tracer.FLAG_ARGUMENT, 42);
+    assertRecord(in, 2, Tracer.EVENT_SET, 0);
+    assertRecord(in, 1, Tracer.EVENT_RETURN, 0);
+    assertNoSuppressedCalls(in);
+  }
+  
+  /**
+   * Tests that the oldest records are overwritten when the buffer is full.
+   */
+  public void testDump_wraparound() throws IOException {
+    Tracer.init(2);
+    Tracer.traceCall(1);
+    Tracer.traceCall(2);
+    Tracer.traceReturn(7, 3);
+    
+    assertEquals(3, Tracer.getRecordCount());
+    DataInputStream in = dump();
+    assertEquals(3, in.readInt());
+    assertEquals(2, in.readInt());
+    assertRecord(in, 2, Tracer.EVENT_CALL, 0);
+    assertRecord(in, 3, Tracer.EVENT_RETURN | Tracer.FLAG_ARGUMENT, 7);
+    assertNoSuppressedCalls(in);
+  }
+  
+  /**
+   * Tests that sampling traces one call out of N and counts the others.
+   */
+  public void testGate_sampling() throws IOException {
+    Tracer.init(Tracer.DEFAULT_CAPACITY);
+    int traced = 0;
+    for (int i = 0; i < 10; i++) {
+      if (Tracer.gate(3, 4, 0)) {
+        traced++;
+      }
+    }
+    assertEquals(2, traced);
+    assertEquals(8, Tracer.getSuppressedCount(3));
+    assertEquals(0, Tracer.getSuppressedCount(2));
+    
+    DataInputStream in = dump();
+    in.readInt();
+    assertEquals(0, in.readInt());
+    int counters = in.readInt();
+    assertTrue("Missing counters.", counters > 3);
+    for (int i = 0; i < counters; i++) {
+      assertEquals(i == 3 ? 8 : 0, in.readInt());
+    }
+  }
+  
+  /**
+   * Tests that a burst of calls is limited to the capacity of the bucket.
+   */
+  public void testGate_rateLimit() {
+    Tracer.init(Tracer.DEFAULT_CAPACITY);
+    int traced = 0;
+    for (int i = 0; i < 100; i++) {
+      if (Tracer.gate(0, 1, 5)) {
+        traced++;
+      }
+    }
+    // Some tokens may be refilled if the loop is slow.
+    assertTrue("Too many calls traced: " + traced, traced >= 5 && traced < 10);
+    assertEquals(100 - traced, Tracer.getSuppressedCount(0));
+  }
+  
+  /**
+   * Tests that the counters are cleared but kept allocated by 
+   * {@link Tracer#init(int)}, so that a concurrent gate never sees them 
+   * shrink.
+   */
+  public void testInit_clearsCounters() throws IOException {
+    Tracer.gate(5, 2, 0);
+    Tracer.gate(5, 2, 0);
+    assertEquals(1, Tracer.getSuppressedCount(5));
+    
+    Tracer.init(Tracer.DEFAULT_CAPACITY);
+    assertEquals(0, Tracer.getSuppressedCount(5));
+    DataInputStream in = dump();
+    in.readInt();
+    assertEquals(0, in.readInt());
+    int counters = in.readInt();
+    assertTrue("The counters have been shrunk.", counters > 5);
+    for (int i = 0; i < counters; i++) {
+      assertEquals(0, in.readInt());
+    }
+  }
+  
+  /**
+   * Dumps the tracer and skips the header up to the record counters.
+   */
+  private DataInputStream dump() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Tracer.dump(out);
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(Tracer.MAGIC, in.readInt());
+    assertEquals(Tracer.VERSION, in.readInt());
+    in.readLong();
+    assertEquals(Tracer.RECORD_SIZE, in.readInt());
+    return in;
+  }
+  
+  /**
+   * Reads the suppressed counters at the end of a dump and checks that they
+   * are all 0.
+   */
+  private void assertNoSuppressedCalls(DataInputStream in) 
+      throws IOException {
+    int counters = in.readInt();
+    for (int i = 0; i < counters; i++) {
+      assertEquals("Unexpected suppressed calls.", 0, in.readInt());
+    }
+    assertEquals(-1, in.read());
+  }
+  
+  private void assertRecord(DataInputStream in, int id, int event, 
+      int argument) throws IOException {
+    assertEquals("Wrong id.", id, in.readInt());
+    // The slot of the thread is in the upper bits.
+    assertEquals("Wrong event.", event, in.readInt() & 0xFF);
+    assertTrue("Negative time.", in.readInt() >= 0);
+    assertEquals("Wrong argument.", argument, in.readInt());
+  }
+
+  /**
+   * @see j2meunit.framework.TestCase#suite()
+   */
+  public Test suite() {
+    TestSuite suite = new TestSuite();
+    
+    suite.addTest(new TracerTest("testDump_records") {
+      public void runTest() throws IOException {
+        testDump_records();
+      }
+    });
+    
+    suite.addTest(new TracerTest("testDump_wraparound") {
+      public void runTest() throws IOException {
+        testDump_wraparound();
+      }
+    });
+    
+    suite.addTest(new TracerTest("testGate_sampling") {
+      public void runTest() throws IOException {
+        testGate_sampling();
+      }
+    });
+    
+    suite.addTest(new TracerTest("testGate_rateLimit") {
+      public void runTest() {
+        testGate_rateLimit();
+      }
+    });
+    
+    suite.addTest(new TracerTest("testInit_clearsCounters") {
+      public void runTest() throws IOException {
+        testInit_clearsCounters();
+      }
+    });
+    
+    return suite;
+  }
+}
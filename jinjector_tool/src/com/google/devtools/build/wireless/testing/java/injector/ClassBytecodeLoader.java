@@ -15,6 +15,7 @@
 
 package com.google.devtools.build.wireless.testing.java.injector;
 
+import com.google.devtools.build.wireless.testing.java.injector.j2me.CldcPreverifier;
 import com.google.devtools.build.wireless.testing.java.injector.util.Bytes;
 import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
 import com.google.devtools.build.wireless.testing.java.injector.util.Files;
@@ -23,8 +24,11 @@ import com.google.devtools.build.wireless.testing.java.injector.util.StringUtil;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.EmptyVisitor;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.jar.*;
 import java.util.logging.Logger;
@@ -48,6 +52,12 @@ import java.util.logging.Logger;
 public class ClassBytecodeLoader {
   
   private static final String ARGUMENT_FILENAME = "properties=";
+  
+  private static final String ARGUMENT_DAEMON = "daemon=";
+  
+  private static final String ARGUMENT_WATCH = "watch=";
+  
+  private static final String DAEMON_STDIN = "stdin";
 
   /**
    * Specifies a ';' list of jars which will be used as a class base 
@@ -62,7 +72,7 @@ public class ClassBytecodeLoader {
       "A ';' separated list of Jar files to be included in " +
       "the instrumentation (e.g. jar1.jar;jar2.jar).";
   
-  protected static String[] jarArray = null;
+  protected String[] jarArray = null;
   
   /**
    * Specify the target platform which controls the instrumentation.
@@ -148,6 +158,131 @@ public class ClassBytecodeLoader {
   public static final String PROPERTY_OUTPUT_JAR_DESCRIPTION = 
       "File name of the output jar.";
   
+  /**
+   * Specifies whether instrumented classes should be preverified for CLDC 
+   * before being saved.
+   * 
+   * @see CldcPreverifier
+   */
+  public static final String PROPERTY_PREVERIFY = "preverify";
+  
+  /**
+   * Description for the {@link #PROPERTY_PREVERIFY} property. 
+   */
+  public static final String PROPERTY_PREVERIFY_DESCRIPTION = 
+      "Set to true to add CLDC StackMaps to the instrumented classes, " +
+      "so that they do not need to be preverified with the WTK " +
+      "(default false).";
+  
+  /**
+   * File name of the JSON telemetry report (optional).
+   * 
+   * @see InstrumentationTelemetry
+   */
+  public static final String PROPERTY_TELEMETRY_REPORT = "telemetryReport";
+  
+  /**
+   * Description for the {@link #PROPERTY_TELEMETRY_REPORT} property. 
+   */
+  public static final String PROPERTY_TELEMETRY_REPORT_DESCRIPTION = 
+      "File name of a JSON report containing phase and per-class times, " +
+      "code and probes added by each Loadable and methods close to the " +
+      "64 KB limit (optional).";
+  
+  /**
+   * A ';' separated list of property files, each defining a variant to be 
+   * instrumented in the same pass (optional).
+   * 
+   * @see MultiVariantInstrumenter
+   */
+  public static final String PROPERTY_VARIANTS = "variants";
+  
+  /**
+   * Description for the {@link #PROPERTY_VARIANTS} property. 
+   */
+  public static final String PROPERTY_VARIANTS_DESCRIPTION = 
+      "A ';' separated list of property files, each one loaded on top of " +
+      "the others to define a variant with its own Loadables, platform, " +
+      "destinationFolder and outputJar. All the variants are instrumented " +
+      "reading and parsing each class only once (optional).";
+  
+  /**
+   * The number of shards in which the instrumentation is split (optional).
+   * 
+   * @see com.google.devtools.build.wireless.testing.java.injector.coverage.CoverageShardMerger
+   */
+  public static final String PROPERTY_SHARD_COUNT = "shardCount";
+  
+  /**
+   * Description for the {@link #PROPERTY_SHARD_COUNT} property. 
+   */
+  public static final String PROPERTY_SHARD_COUNT_DESCRIPTION = 
+      "The number of processes among which the classes are partitioned. " +
+      "Each process only instruments its own shard, and the outputs are " +
+      "combined by CoverageShardMerger (optional, default 1).";
+  
+  /**
+   * The shard instrumented by this process, starting from 0.
+   */
+  public static final String PROPERTY_SHARD_INDEX = "shardIndex";
+  
+  /**
+   * Description for the {@link #PROPERTY_SHARD_INDEX} property. 
+   */
+  public static final String PROPERTY_SHARD_INDEX_DESCRIPTION = 
+      "The shard instrumented by this process, from 0 to shardCount - 1.";
+  
+  /**
+   * The location of a cache of instrumented classes shared between builds.
+   * 
+   * @see InstrumentedClassCache
+   */
+  public static final String PROPERTY_CLASS_CACHE = "classCache";
+  
+  /**
+   * Description for the {@link #PROPERTY_CLASS_CACHE} property. 
+   */
+  public static final String PROPERTY_CLASS_CACHE_DESCRIPTION = 
+      "The location of a cache of instrumented classes, by default a local " +
+      "directory, used only when all the Loadables are incremental " +
+      "(optional).";
+  
+  /**
+   * The class implementing {@link InstrumentedClassCache} used for 
+   * {@link #PROPERTY_CLASS_CACHE}.
+   */
+  public static final String PROPERTY_CLASS_CACHE_BACKEND = 
+      "classCacheBackend";
+  
+  /**
+   * Description for the {@link #PROPERTY_CLASS_CACHE_BACKEND} property. 
+   */
+  public static final String PROPERTY_CLASS_CACHE_BACKEND_DESCRIPTION = 
+      "The fully qualified name of the InstrumentedClassCache implementation " +
+      "(optional, default DirectoryClassCache).";
+  
+  /**
+   * Changes whenever the output of the same configuration may change, so 
+   * that entries written by older versions of the tool are not used.
+   */
+  private static final String CLASS_CACHE_VERSION = "1";
+  
+  private static final String CLASS_CACHE_FACTS = ".facts";
+  
+  private static final String CLASS_CACHE_CLASS = ".class";
+  
+  /**
+   * Properties which do not affect the instrumentation of a class and are 
+   * therefore not part of the cache keys. The content of the jars is taken
+   * into account through the hierarchy facts.
+   */
+  private static final Set<String> LOCATION_PROPERTIES = 
+      Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+          PROPERTY_JARS, PROPERTY_DESTINATION_FOLDER, PROPERTY_BINARY_FOLDER,
+          PROPERTY_INPUT_JAR, PROPERTY_OUTPUT_JAR, PROPERTY_TELEMETRY_REPORT,
+          PROPERTY_VARIANTS, PROPERTY_SHARD_COUNT, PROPERTY_SHARD_INDEX, 
+          PROPERTY_CLASS_CACHE, PROPERTY_CLASS_CACHE_BACKEND)));
+  
   /**
    * Contains all the instrumentation properties to be used during the
    * instrumentation which are loaded from a configuration file passed as a 
@@ -165,19 +300,62 @@ public class ClassBytecodeLoader {
    */
   private List<Loadable> loadables = new ArrayList<Loadable>();
   
+  /**
+   * Preverifies instrumented classes, or <code>null</code> if 
+   * {@link #PROPERTY_PREVERIFY} is not set.
+   */
+  private CldcPreverifier preverifier = null;
+  
+  /**
+   * Collects the cost of the instrumentation, or <code>null</code> if 
+   * {@link #PROPERTY_TELEMETRY_REPORT} is not set.
+   */
+  private InstrumentationTelemetry telemetry = null;
+  
+  
+  /**
+   * The time spent loading the {@link Loadable}s, reported with the next 
+   * instrumentation.
+   */
+  private long loadLoadablesNanos = 0;
+  
+  private int shardCount = 1;
+  
+  private int shardIndex = 0;
+  
+  /**
+   * The start time of the current phase of the instrumentation.
+   */
+  private long phaseStart;
   
   /**
    * Creates a new ClassBytecodeLoader using a given set of properties and 
-   * starts the instrumentation.
+   * loads the {@link Loadable}s. The instrumentation is started by 
+   * {@link #instrument()}.
    * 
    * @param properties the given set of properties containing base parameters
    *     and a list of {@link Loadable}s.
-   *   
-   * TODO: split this method in two, one constructing the object and one
-   *     running the instrumentation.
    */
   public ClassBytecodeLoader(Properties properties) {
+    this(properties, new ClassHierarchyCache());
+  }
+  
+  /**
+   * Creates a new ClassBytecodeLoader which reads the jars through a given 
+   * {@link ClassHierarchyCache}.
+   * 
+   * <p>Loaders do not share any other state, so several loaders sharing the
+   * same cache can instrument different projects concurrently, as long as 
+   * their folders and output jars are different.
+   * 
+   * @param properties the given set of properties containing base parameters
+   *     and a list of {@link Loadable}s.
+   * @param hierarchyCache the cache of the hierarchies declared by the jars.
+   */
+  public ClassBytecodeLoader(Properties properties, 
+      ClassHierarchyCache hierarchyCache) {
     this.properties = properties;
+    this.hierarchyCache = hierarchyCache;
     
     String binaryFolder = properties.getProperty(PROPERTY_BINARY_FOLDER);
     String destinationFolder = properties.getProperty(PROPERTY_DESTINATION_FOLDER);
@@ -205,29 +383,270 @@ public class ClassBytecodeLoader {
       jarArray = StringUtil.split(propertyJars, ";");
     }
     
-    String outputJar = properties.getProperty(PROPERTY_OUTPUT_JAR);
-    if (outputJar == null) {
+    if (properties.getProperty(PROPERTY_OUTPUT_JAR) == null) {
       throw new RuntimeException("Property " + PROPERTY_OUTPUT_JAR +
           " is mandatory!");
-    } else {
-      instrumentedJar = new InstrumentedJarCreator(outputJar);
     }
     
-    // Checks and extract the input jar if it exists 
-    Manifest manifest = uncompressInputJarIfRequired(binaryFolder);
+    String propertyShardCount = properties.getProperty(PROPERTY_SHARD_COUNT);
+    if (propertyShardCount != null) {
+      shardCount = Integer.parseInt(propertyShardCount.trim());
+      shardIndex = Integer.parseInt(
+          properties.getProperty(PROPERTY_SHARD_INDEX, "0").trim());
+      if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+        throw new RuntimeException("Property " + PROPERTY_SHARD_INDEX + 
+            " must be between 0 and " + PROPERTY_SHARD_COUNT + " - 1.");
+      }
+    }
     
+    String cacheLocation = properties.getProperty(PROPERTY_CLASS_CACHE);
+    if (cacheLocation != null) {
+      classCache = createClassCache(cacheLocation, 
+          properties.getProperty(PROPERTY_CLASS_CACHE_BACKEND));
+    }
+    
+    long start = System.nanoTime();
     loadLoadables();
+    loadLoadablesNanos = System.nanoTime() - start;
+  }
+  
+  /**
+   * Sets the cache of instrumented classes, replacing the one specified by 
+   * {@link #PROPERTY_CLASS_CACHE}.
+   * 
+   * @param classCache The cache or <code>null</code> to always instrument
+   *     classes.
+   */
+  public void setClassCache(InstrumentedClassCache classCache) {
+    this.classCache = classCache;
+  }
+  
+  /**
+   * Instantiates the {@link InstrumentedClassCache}.
+   * 
+   * @param location The value of {@link #PROPERTY_CLASS_CACHE}.
+   * @param backend The implementing class or <code>null</code> for a 
+   *     {@link DirectoryClassCache}.
+   * @return the cache.
+   */
+  private static InstrumentedClassCache createClassCache(String location, 
+      String backend) {
+    if (backend == null) {
+      return new DirectoryClassCache(location);
+    }
+    try {
+      return (InstrumentedClassCache) Class.forName(backend)
+          .getConstructor(String.class).newInstance(location);
+    } catch (Exception ex) {
+      throw new RuntimeException("It was not possible to instantiate " +
+          "class: " + backend + ". Please check the name and try again.", ex);
+    }
+  }
+  
+  /**
+   * Instruments all the classes of the binary folder.
+   * 
+   * @return the instrumented jar.
+   */
+  public File instrument() {
+    return instrument(null);
+  }
+  
+  /**
+   * Instruments the classes of the binary folder, reusing the output of the 
+   * previous invocation for the files which have not changed.
+   * 
+   * <p>The {@link ClassManager} is kept between invocations, so that the 
+   * hierarchies which have already been loaded do not need to be loaded 
+   * again. The changed classes are removed from it. Unchanged files are 
+   * reused only if all the {@link Loadable}s are 
+   * {@link Loadable#isIncremental() incremental}, otherwise all the classes 
+   * are instrumented again.
+   * 
+   * @param changedFiles The absolute files of the binary folder which have 
+   *     been added, modified or deleted since the previous invocation, or 
+   *     <code>null</code> if they are not known, in which case everything is
+   *     instrumented from scratch.
+   * @return the instrumented jar.
+   */
+  public File instrument(Set<File> changedFiles) {
+    changedFiles = startInstrumentation(changedFiles, true);
+    
+    // Folders are checked recursively by #instrumentFolder(...).
+    instrumentFolder(createClassManager(), 
+        new File(properties.getProperty(PROPERTY_BINARY_FOLDER)), 
+        new File(properties.getProperty(PROPERTY_DESTINATION_FOLDER)), 
+        changedFiles);
+    
+    finishInstrumentation();
+    return new File(properties.getProperty(PROPERTY_OUTPUT_JAR));
+  }
+  
+  /**
+   * Prepares this loader for instrumenting the binary folder.
+   * 
+   * @param changedFiles The changed files as specified by 
+   *     {@link #instrument(Set)}.
+   * @param extract <code>false</code> if the input jar has already been 
+   *     extracted by another loader sharing the same binary folder.
+   * @return the files which must be processed, or <code>null</code> if all
+   *     of them must.
+   */
+  Set<File> startInstrumentation(Set<File> changedFiles, boolean extract) {
+    String binaryFolder = properties.getProperty(PROPERTY_BINARY_FOLDER);
+    
+    String telemetryReport = properties.getProperty(PROPERTY_TELEMETRY_REPORT);
+    telemetry = null;
+    if (telemetryReport != null) {
+      telemetry = new InstrumentationTelemetry();
+      for (Loadable l : loadables) {
+        telemetry.addLoadable(l.getClass().getName());
+      }
+      telemetry.addPhase("loadLoadables", loadLoadablesNanos);
+      loadLoadablesNanos = 0;
+    }
+    phaseStart = System.nanoTime();
+    
+    // The content of the input jar is not known until it is extracted.
+    if (properties.getProperty(PROPERTY_INPUT_JAR) != null) {
+      changedFiles = null;
+    }
+    
+    // Checks and extract the input jar if it exists 
+    if (extract) {
+      uncompressInputJarIfRequired(binaryFolder);
+    }
+    phaseStart = recordPhase("extract", phaseStart);
+    
+    if (changedFiles == null) {
+      classManager = null;
+    } else {
+      changedFiles = removeChangedFiles(changedFiles);
+      if (!isIncremental()) {
+        changedFiles = null;
+      }
+    }
+    
+    if (Boolean.parseBoolean(properties.getProperty(PROPERTY_PREVERIFY))) {
+      preverifier = new CldcPreverifier(createClassManager());
+    }
+    classCacheHits = 0;
+    classCacheMisses = 0;
+    configurationDigest = 
+        classCache != null && isIncremental() ? digestConfiguration() : null;
+    instrumentedJar = new InstrumentedJarCreator(
+        properties.getProperty(PROPERTY_OUTPUT_JAR));
     
     logger.info("Starting instrumentation...");
     
     preOperations();
+    phaseStart = recordPhase("preOperation", phaseStart);
+    return changedFiles;
+  }
+  
+  /**
+   * Completes the instrumentation started by 
+   * {@link #startInstrumentation(Set, boolean)}.
+   */
+  void finishInstrumentation() {
+    phaseStart = recordPhase("instrument", phaseStart);
+    if (configurationDigest != null) {
+      logger.info("Class cache: " + classCacheHits + " hits, " + 
+          classCacheMisses + " misses.");
+    }
     
-    // Folders are checked recursively by #instrumentFolder(...).
-    instrumentFolder(createClassManager(), 
-        new File(binaryFolder), new File(destinationFolder));
     postOperations();
+    recordPhase("postOperation", phaseStart);
 
     instrumentedJar.closeOutputJar();
+    
+    String telemetryReport = properties.getProperty(PROPERTY_TELEMETRY_REPORT);
+    if (telemetry != null) {
+      try {
+        telemetry.writeJson(new File(telemetryReport));
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot write the telemetry report " + 
+            telemetryReport + ".", e);
+      }
+    }
+  }
+  
+  /**
+   * @return <code>true</code> if all the {@link Loadable}s are incremental.
+   */
+  private boolean isIncremental() {
+    for (Loadable l : loadables) {
+      if (!l.isIncremental()) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Removes the changed classes from the {@link ClassManager} and deletes 
+   * the output of the files which do not exist anymore.
+   * 
+   * <p>The instrumentation of a class may depend on the hierarchy of its 
+   * superclasses and interfaces, so the classes of the binary folder which 
+   * extend or implement a changed class, according to the hierarchies 
+   * loaded by the {@link ClassManager}, are processed again as well.
+   * 
+   * @param changedFiles The changed files of the binary folder.
+   * @return the files which must be processed again.
+   */
+  private Set<File> removeChangedFiles(Set<File> changedFiles) {
+    String binaryFolder = properties.getProperty(PROPERTY_BINARY_FOLDER);
+    String destinationFolder = properties.getProperty(PROPERTY_DESTINATION_FOLDER);
+    Set<File> result = new HashSet<File>(changedFiles);
+    Set<String> changedClasses = new HashSet<String>();
+    for (File f : changedFiles) {
+      File relativeFile = removeBinaryFolderSubstring(f);
+      String filename = relativeFile.getPath();
+      if (filename.endsWith(".class")) {
+        changedClasses.add(filename.substring(0, 
+            filename.length() - ".class".length()).replace(
+                File.separatorChar, '/'));
+      }
+      if (!f.exists()) {
+        File dest = new File(destinationFolder, filename);
+        if (dest.isFile() && !dest.delete()) {
+          logger.warning("Cannot delete " + dest.getAbsolutePath() + ".");
+        }
+      }
+    }
+    if (classManager == null) {
+      return result;
+    }
+    Set<String> dependents = classManager.getLoadedSubtypes(changedClasses);
+    for (String dependent : dependents) {
+      File f = new File(binaryFolder, dependent.replace('/', 
+          File.separatorChar) + ".class").getAbsoluteFile();
+      if (f.isFile() && result.add(f)) {
+        logger.info("Instrumenting " + dependent + " again because one of " +
+            "its supertypes has changed.");
+      }
+    }
+    changedClasses.addAll(dependents);
+    for (String className : changedClasses) {
+      classManager.cleanLoadedClass(className);
+    }
+    return result;
+  }
+  
+  /**
+   * Records the duration of a phase if telemetry is enabled.
+   * 
+   * @param phase The name of the completed phase.
+   * @param start The time at which the phase started, in nanoseconds.
+   * @return the current time, which is the start time of the next phase.
+   */
+  private long recordPhase(String phase, long start) {
+    long now = System.nanoTime();
+    if (telemetry != null) {
+      telemetry.addPhase(phase, now - start);
+    }
+    return now;
   }
 
   /**
@@ -236,12 +655,34 @@ public class ClassBytecodeLoader {
   private static Logger logger = Logger.getLogger(
       ClassBytecodeLoader.class.getName());
   
-  private static ClassManager classManager = null;  
+  private ClassManager classManager = null;  
+  
+  /**
+   * The hierarchies of the jars in {@link #PROPERTY_JARS}, which may be 
+   * shared with other loaders.
+   */
+  private final ClassHierarchyCache hierarchyCache;
+  
+  /**
+   * The cache of instrumented classes, or <code>null</code> if classes are
+   * always instrumented.
+   */
+  private InstrumentedClassCache classCache = null;
+  
+  /**
+   * The digest of the configuration of the current instrumentation, or 
+   * <code>null</code> if {@link #classCache} cannot be used by it.
+   */
+  private String configurationDigest = null;
+  
+  private int classCacheHits = 0;
+  
+  private int classCacheMisses = 0;
   
   /**
    * Jar file produced by the instrumentation.  
    */
-  private static InstrumentedJarCreator instrumentedJar;
+  private InstrumentedJarCreator instrumentedJar;
 
   /**
    * <p>Entry point of the injector tool.
@@ -272,18 +713,32 @@ public class ClassBytecodeLoader {
    * <p>The instrumentation is performed in three steps:
    * <ul>
    * <li>{@link #preOperations()}
-   * <li>{@link #instrumentFolder(ClassManager, File, File)}
+   * <li>{@link #instrumentFolder(ClassManager, File, File, Set)}
    * <li>{@link #postOperations()}
    * </ul>
    * 
+   * <p>With {@value #ARGUMENT_DAEMON} or {@value #ARGUMENT_WATCH} the tool 
+   * does not terminate after the instrumentation and keeps instrumenting 
+   * again on request or when the binary folder changes.
+   * 
    * @param args {@value #ARGUMENT_FILENAME} followed by a ';' separated lists 
-   *     of file properties files.
+   *     of file properties files. Optionally {@value #ARGUMENT_DAEMON} 
+   *     followed by <code>stdin</code> or by a local port, and 
+   *     {@value #ARGUMENT_WATCH} followed by a polling interval in 
+   *     milliseconds.
+   * @see InstrumentationDaemon
    */
   public static void main(String[] args) {
     String filenameList = null;
+    String daemon = null;
+    long watchInterval = -1;
     for (String s: args) {
       if (s.startsWith(ARGUMENT_FILENAME)) {
         filenameList = s.substring(ARGUMENT_FILENAME.length());
+      } else if (s.startsWith(ARGUMENT_DAEMON)) {
+        daemon = s.substring(ARGUMENT_DAEMON.length());
+      } else if (s.startsWith(ARGUMENT_WATCH)) {
+        watchInterval = Long.parseLong(s.substring(ARGUMENT_WATCH.length()));
       }
       // TODO: let the user add other properties from command line
     }
@@ -299,14 +754,78 @@ public class ClassBytecodeLoader {
       properties = loadProperties(properties, s);
     }
     
+    String variants = properties.getProperty(PROPERTY_VARIANTS);
+    if (variants != null) {
+      if (daemon != null || watchInterval > 0) {
+        throw new IllegalArgumentException("Variants cannot be instrumented " +
+            "by the daemon.");
+      }
+      new MultiVariantInstrumenter(MultiVariantInstrumenter.loadVariants(
+          properties, StringUtil.split(variants, ";"))).instrument();
+      return;
+    }
+    
+    if (daemon != null || watchInterval > 0) {
+      runDaemon(properties, daemon, watchInterval);
+      return;
+    }
+    
     try {
-      new ClassBytecodeLoader(properties);
+      new ClassBytecodeLoader(properties).instrument();
     } catch(RuntimeException ex) {
       logger.severe("An exception occurred while instrumenting.");
       throw ex;
     }
   }
   
+  /**
+   * Keeps instrumenting on request and/or when the binary folder changes.
+   * 
+   * @param properties The instrumentation properties.
+   * @param daemon <code>stdin</code>, a local port or <code>null</code>.
+   * @param watchInterval The polling interval in milliseconds, or a negative
+   *     value to disable the polling.
+   */
+  private static void runDaemon(Properties properties, String daemon, 
+      final long watchInterval) {
+    final InstrumentationDaemon instrumentationDaemon = 
+        new InstrumentationDaemon(new ClassBytecodeLoader(properties), 
+            properties);
+    instrumentationDaemon.run(false);
+    
+    try {
+      if (daemon == null) {
+        instrumentationDaemon.watch(watchInterval);
+        return;
+      }
+      if (watchInterval > 0) {
+        Thread watcher = new Thread("JInjector watcher") {
+          @Override
+          public void run() {
+            try {
+              instrumentationDaemon.watch(watchInterval);
+            } catch (InterruptedException e) {
+              // The daemon is terminating.
+            }
+          }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+      }
+      if (DAEMON_STDIN.equals(daemon)) {
+        instrumentationDaemon.serve(
+            new BufferedReader(new InputStreamReader(System.in)), 
+            new PrintWriter(System.out, true));
+      } else {
+        instrumentationDaemon.serve(Integer.parseInt(daemon));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("The instrumentation daemon failed.", e);
+    } catch (InterruptedException e) {
+      logger.info("The instrumentation daemon has been interrupted.");
+    }
+  }
+  
   /**
    * Uncompresses the input jar to the given folder if required.
    *
@@ -379,6 +898,8 @@ public class ClassBytecodeLoader {
    * <li>If the entry is a directory this method is recursively invoked on it.
    * <li>If the entry is a class file it is instrumented.
    * <li>If the entry is any other kind of file it is just copied.
+   * <li>If the entry has not changed and its output already exists, the 
+   * output is added to the jar as it is.
    * </ul>
    * 
    * <p> BEWARE: this function is recursive!
@@ -389,9 +910,11 @@ public class ClassBytecodeLoader {
    *    folder.
    * @param destFolder An instance of {@link File} pointing to the destination
    *    folder.
+   * @param changedFiles The files which need to be processed again, or 
+   *    <code>null</code> to process all of them.
    */
   private void instrumentFolder(ClassManager classManager, 
-      File sourceFolder, File destFolder) {
+      File sourceFolder, File destFolder, Set<File> changedFiles) {
     try {
       checkSourceFolder(sourceFolder);
       ensureDestinationFolder(destFolder);
@@ -405,7 +928,11 @@ public class ClassBytecodeLoader {
     File[] children = sourceFolder.listFiles();
     for (File f : children) {
       String filename = f.getName();
-      if (f.isFile()) {    
+      File dest = new File(destFolder.getAbsolutePath(), filename);
+      if (f.isFile() && changedFiles != null 
+          && !changedFiles.contains(f.getAbsoluteFile()) && dest.isFile()) {
+        reuseOutputFile(f, dest);
+      } else if (f.isFile()) {    
         if (filename.endsWith(".class")) {
           // If the file is a class file then inject it.
           applyInstrumentation(classManager, f, 
@@ -419,7 +946,7 @@ public class ClassBytecodeLoader {
         // If the file is a directory explore it.
         instrumentFolder(classManager, 
             new File(sourceFolder.getAbsolutePath(), filename), 
-            new File(destFolder.getAbsolutePath(), filename));
+            new File(destFolder.getAbsolutePath(), filename), changedFiles);
       }
     }
   }
@@ -438,24 +965,31 @@ public class ClassBytecodeLoader {
   private void applyInstrumentation(ClassManager classManager, 
       File source, File dest) {
     try {
+      long start = System.nanoTime();
+      
       // Creates a classreader which will start the adaptation chain.            
       byte b[] = Files.toByteArray(source);
+      if (!isClassInShard(b)) {
+        return;
+      }
+      ClassReader cr = new ClassReader(b);
+      // Records the hierarchy of every class of the binary folder, so that
+      // its subtypes can be found when it changes.
+      classManager.addLoadedClass(cr);
       
+      String inputDigest = digestInput(b);
+      if (inputDigest != null 
+          && addCachedClass(inputDigest, removeBinaryFolderSubstring(source))) {
+        return;
+      }
       
       // Creates and computes the chain of adaptation.
       logger.info("Instrumenting file " + source.getAbsolutePath() + ".");
-      ClassReader cr = new ClassReader(b);
-      
-      // Creates a ClassWriter which will write the chain in the new file.
-      ClassWriter cw = new ClasspathBasedClassWriter(ClassWriter.COMPUTE_MAXS,
-          classManager);
-      
-      cr.accept(createAdaptationChain(classManager, cw), 0);
-      b = cw.toByteArray();
-      
-      Files.overwrite(b, dest);
-      instrumentedJar.addFile(removeBinaryFolderSubstring(source), b);
       
+      PendingClass pending = startClass(inputDigest);
+      cr.accept(pending.chain, 0);
+      finishClass(pending, cr.getClassName(), start, b.length, 
+          removeBinaryFolderSubstring(source));
       
     } catch (IOException e) {
       logger.severe("An exception " + e.getMessage() + 
@@ -465,6 +999,296 @@ public class ClassBytecodeLoader {
           "file " + source + " and saving it in " + dest + ".", e);
     }
   }
+  
+  /**
+   * Computes the digest with which a class is looked up in 
+   * {@link #classCache}. It covers the configuration of this loader, so 
+   * loaders with different configurations never share entries.
+   * 
+   * @param b The original class file.
+   * @return the digest or <code>null</code> if this loader does not use the
+   *     class cache.
+   * @throws IOException If the digest cannot be computed.
+   */
+  String digestInput(byte[] b) throws IOException {
+    if (configurationDigest == null) {
+      return null;
+    }
+    return digest(configurationDigest.getBytes("UTF-8"), b);
+  }
+  
+  /**
+   * Saves the instrumented version of a class found in {@link #classCache}.
+   * 
+   * @param inputDigest The digest returned by {@link #digestInput(byte[])}.
+   * @param file The class file relative to the binary folder.
+   * @return <code>true</code> if the class was cached and has been saved.
+   * @throws IOException If the class cannot be saved.
+   */
+  boolean addCachedClass(String inputDigest, File file) throws IOException {
+    byte[] cached = getCachedClass(createClassManager(), inputDigest);
+    if (cached == null) {
+      classCacheMisses++;
+      return false;
+    }
+    classCacheHits++;
+    writeOutput(file, cached);
+    return true;
+  }
+  
+  /**
+   * Creates the adaptation chain for a class.
+   * 
+   * @param inputDigest The digest returned by {@link #digestInput(byte[])},
+   *     in which case the hierarchy facts consulted while instrumenting the 
+   *     class are recorded and the class is stored in {@link #classCache} by
+   *     {@link #finishClass}, or <code>null</code>.
+   * @return the class being instrumented, whose chain must be visited 
+   *     before invoking {@link #finishClass}.
+   */
+  PendingClass startClass(String inputDigest) {
+    // Creates a ClassWriter which will write the chain in the new file.
+    ClassManager classManager = createClassManager();
+    RecordingClassManager recorder = null;
+    if (inputDigest != null) {
+      recorder = new RecordingClassManager(classManager);
+      classManager = recorder;
+    }
+    ClassWriter cw = new ClasspathBasedClassWriter(ClassWriter.COMPUTE_MAXS,
+        classManager);
+    
+    List<TelemetryClassAdapter> meters = null;
+    if (telemetry != null) {
+      meters = new ArrayList<TelemetryClassAdapter>();
+    }
+    return new PendingClass(cw, meters, 
+        createAdaptationChain(classManager, cw, meters), recorder, 
+        inputDigest);
+  }
+  
+  /**
+   * Saves a class whose chain has been visited.
+   * 
+   * @param pending The class returned by {@link #startClass(String)}.
+   * @param className The internal name of the class.
+   * @param start The time at which the instrumentation of the class started.
+   * @param originalSize The size of the original class file.
+   * @param file The class file relative to the binary folder.
+   * @return the instrumented class.
+   * @throws IOException If the class cannot be saved.
+   */
+  byte[] finishClass(PendingClass pending, String className, long start, 
+      int originalSize, File file) throws IOException {
+    byte[] b = pending.cw.toByteArray();
+    if (preverifier != null) {
+      // The facts consulted by the preverifier are recorded as well.
+      b = (pending.recorder == null 
+          ? preverifier : new CldcPreverifier(pending.recorder)).preverify(b);
+    }
+    if (telemetry != null) {
+      telemetry.addClass(className, System.nanoTime() - start, 
+          originalSize, b.length, pending.meters);
+    }
+    
+    writeOutput(file, b);
+    if (pending.inputDigest != null) {
+      putCachedClass(pending.inputDigest, pending.recorder.getFacts(), b);
+    }
+    return b;
+  }
+  
+  /**
+   * Saves a resource file which has already been read.
+   * 
+   * @param file The resource file relative to the binary folder.
+   * @param b The content of the resource.
+   * @throws IOException If the resource cannot be saved.
+   */
+  void addResource(File file, byte[] b) throws IOException {
+    writeOutput(file, b);
+  }
+  
+  /**
+   * Gets the instrumented version of a class from {@link #classCache}.
+   * 
+   * <p>The entry stored with the digest of the original class lists the 
+   * hierarchy facts consulted when the class was instrumented. They are 
+   * evaluated again, and the instrumented class is looked up with a digest 
+   * of their current answers.
+   * 
+   * @param classManager The {@link ClassManager} answering the facts.
+   * @param inputDigest The digest of the configuration and of the original 
+   *     class.
+   * @return the instrumented class or <code>null</code> if it is not cached.
+   */
+  private byte[] getCachedClass(ClassManager classManager, 
+      String inputDigest) {
+    try {
+      byte[] queries = classCache.get(inputDigest + CLASS_CACHE_FACTS);
+      if (queries == null) {
+        return null;
+      }
+      Map<String, String> facts = new LinkedHashMap<String, String>();
+      for (String query : new String(queries, "UTF-8").split("\n")) {
+        if (query.length() == 0) {
+          continue;
+        }
+        String answer = RecordingClassManager.answer(classManager, query);
+        if (answer == null) {
+          return null;
+        }
+        facts.put(query, answer);
+      }
+      return classCache.get(digestFacts(inputDigest, facts) + 
+          CLASS_CACHE_CLASS);
+    } catch (IOException e) {
+      logger.warning("Cannot read from the class cache: " + e.getMessage());
+      return null;
+    }
+  }
+  
+  /**
+   * Stores an instrumented class and the hierarchy facts on which it depends
+   * into {@link #classCache}.
+   * 
+   * <p>The list of the facts replaces the one stored by a previous 
+   * instrumentation of the same class, which may have consulted different 
+   * facts in a different hierarchy. Either list is safe to read, because 
+   * the class is looked up with the answers to the facts in the list.
+   * 
+   * @param inputDigest The digest of the configuration and of the original 
+   *     class.
+   * @param facts The facts consulted during the instrumentation.
+   * @param b The instrumented class.
+   */
+  private void putCachedClass(String inputDigest, Map<String, String> facts, 
+      byte[] b) {
+    try {
+      // The class is stored first, so that facts are never found without it.
+      classCache.put(digestFacts(inputDigest, facts) + CLASS_CACHE_CLASS, b);
+      StringBuilder queries = new StringBuilder();
+      for (String query : facts.keySet()) {
+        queries.append(query).append('\n');
+      }
+      classCache.put(inputDigest + CLASS_CACHE_FACTS, 
+          queries.toString().getBytes("UTF-8"));
+    } catch (IOException e) {
+      logger.warning("Cannot write to the class cache: " + e.getMessage());
+    }
+  }
+  
+  private static String digestFacts(String inputDigest, 
+      Map<String, String> facts) throws IOException {
+    StringBuilder sb = new StringBuilder(inputDigest).append('\n');
+    for (Map.Entry<String, String> fact : facts.entrySet()) {
+      sb.append(fact.getKey()).append('=').append(fact.getValue()).append('\n');
+    }
+    return digest(sb.toString().getBytes("UTF-8"));
+  }
+  
+  /**
+   * Computes a digest of everything which may change the instrumentation of
+   * a class apart from the class itself and the hierarchy: the version of 
+   * the cache, the {@link Loadable}s and all the properties, including the 
+   * platform, except the ones specifying locations.
+   * 
+   * @return the digest of the configuration.
+   */
+  private String digestConfiguration() {
+    StringBuilder sb = new StringBuilder(CLASS_CACHE_VERSION).append('\n');
+    for (Loadable l : loadables) {
+      sb.append(l.getClass().getName()).append('\n');
+    }
+    for (String name : new TreeSet<String>(properties.stringPropertyNames())) {
+      if (!LOCATION_PROPERTIES.contains(name)) {
+        sb.append(name).append('=').append(properties.getProperty(name))
+            .append('\n');
+      }
+    }
+    try {
+      return digest(sb.toString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  /**
+   * Computes the SHA-1 digest of a sequence of byte arrays.
+   * 
+   * @param parts The arrays.
+   * @return the digest as a hexadecimal string.
+   */
+  static String digest(byte[]... parts) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    for (byte[] part : parts) {
+      md.update(part);
+    }
+    StringBuilder sb = new StringBuilder();
+    for (byte b : md.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Writes a file into the destination folder and into the jar.
+   * 
+   * @param file The file relative to the destination folder.
+   * @param b The content of the file.
+   * @throws IOException If the file cannot be written.
+   */
+  private void writeOutput(File file, byte[] b) throws IOException {
+    File dest = new File(
+        properties.getProperty(PROPERTY_DESTINATION_FOLDER), file.getPath());
+    ensureDestinationFolder(dest.getParentFile());
+    Files.overwrite(b, dest);
+    instrumentedJar.addFile(file, b);
+  }
+  
+  /**
+   * A class whose adaptation chain is being visited.
+   */
+  static class PendingClass {
+    final ClassWriter cw;
+    final List<TelemetryClassAdapter> meters;
+    final ClassVisitor chain;
+    final RecordingClassManager recorder;
+    final String inputDigest;
+    
+    PendingClass(ClassWriter cw, List<TelemetryClassAdapter> meters, 
+        ClassVisitor chain, RecordingClassManager recorder, 
+        String inputDigest) {
+      this.cw = cw;
+      this.meters = meters;
+      this.chain = chain;
+      this.recorder = recorder;
+      this.inputDigest = inputDigest;
+    }
+  }
+
+  /**
+   * Adds to the jar the output produced for a file by a previous 
+   * instrumentation.
+   * 
+   * @param source The unchanged source file.
+   * @param dest The output previously produced for the source file.
+   * @throws RuntimeException if an {@link IOException} occurs. 
+   */
+  private void reuseOutputFile(File source, File dest) {
+    try {
+      instrumentedJar.addFile(
+          removeBinaryFolderSubstring(source), Files.toByteArray(dest));
+    } catch (IOException e) {
+      throw new RuntimeException("Execution aborted because it was " +
+          "impossible to reuse " + dest, e);
+    }
+  }
 
   /**
    * Copy a resource file into the new location.
@@ -474,6 +1298,9 @@ public class ClassBytecodeLoader {
    * @throws RuntimeException if an {@link IOException} occurs. 
    */
   private void copyResourceFile(File source, File dest) {
+    if (!isResourceInShard(removeBinaryFolderSubstring(source))) {
+      return;
+    }
     try {
       Files.copy(source, dest);
       instrumentedJar.addFile(
@@ -488,6 +1315,67 @@ public class ClassBytecodeLoader {
     }
   }
 
+  /**
+   * Checks whether a class belongs to the shard instrumented by this loader.
+   * 
+   * @param b The class file.
+   * @return <code>true</code> if the class must be instrumented.
+   */
+  boolean isClassInShard(byte[] b) {
+    return shardCount == 1 || getShard(getShardKey(b), shardCount) == shardIndex;
+  }
+  
+  /**
+   * Checks whether a resource belongs to the shard of this loader.
+   * 
+   * @param file The resource relative to the binary folder.
+   * @return <code>true</code> if the resource must be copied.
+   */
+  boolean isResourceInShard(File file) {
+    return shardCount == 1 || getShard(
+        file.getPath().replace(File.separatorChar, '/'), shardCount) 
+        == shardIndex;
+  }
+  
+  /**
+   * Gets the shard of a file. {@link String#hashCode()} is specified, so all 
+   * the processes agree on the partition.
+   * 
+   * @param key The key of the file.
+   * @param shardCount The number of shards.
+   * @return the shard, from 0 to <code>shardCount - 1</code>.
+   */
+  static int getShard(String key, int shardCount) {
+    return (key.hashCode() & Integer.MAX_VALUE) % shardCount;
+  }
+  
+  /**
+   * Gets the key used to partition a class. Coverage indexes lines by source
+   * file, so all the classes compiled from the same source file are kept in 
+   * the same shard.
+   * 
+   * @param b The class file.
+   * @return the source file of the class including its package, or the 
+   *     name of the outer class if the source file is unknown.
+   */
+  static String getShardKey(byte[] b) {
+    final String[] key = new String[1];
+    new ClassReader(b).accept(new EmptyVisitor() {
+      @Override
+      public void visit(int version, int access, String name, 
+          String signature, String superName, String[] interfaces) {
+        int inner = name.indexOf('$');
+        key[0] = inner < 0 ? name : name.substring(0, inner);
+      }
+
+      @Override
+      public void visitSource(String source, String debug) {
+        key[0] = key[0].substring(0, key[0].lastIndexOf('/') + 1) + source;
+      }
+    }, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+    return key[0];
+  }
+
   private File removeBinaryFolderSubstring(File file) {
     final String root = new File(
         properties.getProperty(PROPERTY_BINARY_FOLDER)).getAbsolutePath();
@@ -543,7 +1431,7 @@ public class ClassBytecodeLoader {
    * @param filename the name of the file containing the properties.
    * @return the loaded set of properties.
    */
-  private static Properties loadProperties(Properties properties, String filename) {
+  static Properties loadProperties(Properties properties, String filename) {
     try {
       properties.load(new FileInputStream(filename));
     } catch (FileNotFoundException e) {
@@ -617,17 +1505,32 @@ public class ClassBytecodeLoader {
    * @param classManager The {@link ClassManager} to be used during this 
    *    method.
    * @param cw The nested ClassWriter which will close the chain.
+   * @param meters If not <code>null</code> a {@link TelemetryClassAdapter} 
+   *     is added after each Loadable and before the first one, and all of 
+   *     them are added to this list starting from the one closer to the 
+   *     writer.
    * @return The ClassVisitor which will start the chain.
    */
   private ClassVisitor createAdaptationChain(ClassManager classManager, 
-      ClassWriter cw) {
+      ClassWriter cw, List<TelemetryClassAdapter> meters) {
     ClassVisitor cv = cw;
     
     for (Loadable l : loadables) {
+      cv = addMeter(cv, meters);
       cv = l.operation(cv, classManager);
     }
         
-    return cv;
+    return addMeter(cv, meters);
+  }
+  
+  private static ClassVisitor addMeter(ClassVisitor cv, 
+      List<TelemetryClassAdapter> meters) {
+    if (meters == null) {
+      return cv;
+    }
+    TelemetryClassAdapter meter = new TelemetryClassAdapter(cv);
+    meters.add(meter);
+    return meter;
   }
   
   /**
@@ -643,7 +1546,8 @@ public class ClassBytecodeLoader {
     if (classManager == null) {
       classManager = new ClassManager(
           new String[] {properties.getProperty(PROPERTY_DESTINATION_FOLDER),
-              properties.getProperty(PROPERTY_BINARY_FOLDER)}, jarArray);
+              properties.getProperty(PROPERTY_BINARY_FOLDER)}, jarArray,
+          hierarchyCache);
     } 
     
     return classManager;
@@ -0,0 +1,207 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Bytes;
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Caches the class hierarchies declared by jar files, such as the jars of the
+ * target platform, so that they are read only once.
+ * 
+ * <p>Each jar is read entirely the first time it is requested and its 
+ * hierarchy is kept as an immutable {@link JarHierarchy}. A jar is read 
+ * again if its size or its modification time change. The cache can be 
+ * shared by several {@link ClassManager}s used concurrently by different
+ * instrumentations.
+ * 
+ * @author Michele Sama
+ */
+public class ClassHierarchyCache {
+  
+  private final ConcurrentMap<String, JarHierarchy> jars = 
+      new ConcurrentHashMap<String, JarHierarchy>();
+  
+  /**
+   * Gets the hierarchy declared by a jar, reading it if it is not cached or 
+   * if it has changed.
+   * 
+   * @param jar The path of the jar.
+   * @return the hierarchy declared by the jar.
+   * @throws IOException If the jar cannot be read.
+   */
+  public JarHierarchy get(String jar) throws IOException {
+    File file = new File(jar).getAbsoluteFile();
+    String key = file.getPath();
+    JarHierarchy hierarchy = jars.get(key);
+    if (hierarchy == null || !hierarchy.isCurrent(file)) {
+      // Concurrent misses may read the same jar twice, which is harmless 
+      // since hierarchies are immutable.
+      hierarchy = JarHierarchy.read(file);
+      jars.put(key, hierarchy);
+    }
+    return hierarchy;
+  }
+  
+  /**
+   * @return the number of cached jars.
+   */
+  public int size() {
+    return jars.size();
+  }
+  
+  /**
+   * The immutable hierarchy of all the classes contained in a jar.
+   */
+  public static final class JarHierarchy {
+    
+    private final long lastModified;
+    private final long length;
+    private final Map<String, ClassHeader> classes;
+    
+    private JarHierarchy(long lastModified, long length, 
+        Map<String, ClassHeader> classes) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.classes = Collections.unmodifiableMap(classes);
+    }
+    
+    /**
+     * Reads the header of all the classes of a jar.
+     */
+    static JarHierarchy read(File file) throws IOException {
+      long lastModified = file.lastModified();
+      long length = file.length();
+      final Map<String, ClassHeader> classes = 
+          new HashMap<String, ClassHeader>();
+      JarFile jar = new JarFile(file);
+      try {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          String entryName = entry.getName();
+          if (!entryName.endsWith(".class")) {
+            continue;
+          }
+          // Classes are looked up by entry name, as ClassManager does.
+          final String key = 
+              entryName.substring(0, entryName.length() - ".class".length());
+          InputStream is = null;
+          byte[] bytecode;
+          try {
+            is = jar.getInputStream(entry);
+            bytecode = Bytes.toByteArray(is);
+          } finally {
+            Closeables.closeQuietly(is);
+          }
+          new ClassReader(bytecode).accept(new EmptyVisitor() {
+            @Override
+            public void visit(int version, int access, String name, 
+                String signature, String superName, String[] interfaces) {
+              if (!classes.containsKey(key)) {
+                classes.put(key, new ClassHeader(version, access, name, 
+                    superName, interfaces));
+              }
+            }
+          }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG 
+              | ClassReader.SKIP_FRAMES);
+        }
+      } finally {
+        try {
+          jar.close();
+        } catch (IOException e) {
+          // nothing to be done
+        }
+      }
+      return new JarHierarchy(lastModified, length, classes);
+    }
+    
+    private boolean isCurrent(File file) {
+      return file.lastModified() == lastModified && file.length() == length;
+    }
+    
+    /**
+     * @param className The internal name of a class.
+     * @return <code>true</code> if the jar contains the class.
+     */
+    public boolean contains(String className) {
+      return classes.containsKey(className);
+    }
+    
+    /**
+     * Makes a {@link ClassVisitor} visit the header of a class, as if it was
+     * read from the jar.
+     * 
+     * @param className The internal name of the class.
+     * @param cv The visitor.
+     * @return <code>true</code> if the jar contains the class, 
+     *     <code>false</code> if nothing has been visited.
+     */
+    public boolean accept(String className, ClassVisitor cv) {
+      ClassHeader header = classes.get(className);
+      if (header == null) {
+        return false;
+      }
+      cv.visit(header.version, header.access, header.name, null, 
+          header.superName, header.getInterfaces());
+      return true;
+    }
+  }
+  
+  /**
+   * The part of a class file which describes its hierarchy.
+   */
+  private static final class ClassHeader {
+    final int version;
+    final int access;
+    final String name;
+    final String superName;
+    private final String[] interfaces;
+    
+    ClassHeader(int version, int access, String name, String superName, 
+        String[] interfaces) {
+      this.version = version;
+      this.access = access;
+      this.name = name;
+      this.superName = superName;
+      this.interfaces = interfaces == null ? null : interfaces.clone();
+    }
+    
+    /**
+     * @return a copy of the implemented interfaces, since visitors may keep 
+     *     the array.
+     */
+    String[] getInterfaces() {
+      return interfaces == null ? null : interfaces.clone();
+    }
+  }
+}
@@ -78,6 +78,12 @@ public class ClassManager {
 
   private String[] classpath;
   private String[] jars;
+  
+  /**
+   * The cache of the hierarchies declared by the jars, or <code>null</code> 
+   * if the jars are searched each time a class is loaded.
+   */
+  private final ClassHierarchyCache jarCache;
 
   
   /**
@@ -105,12 +111,31 @@ public class ClassManager {
    *    <code>null</code>.
    */
   public ClassManager(String[] classpath, String[] jars) {
+    this(classpath, jars, null);
+  }
+  
+  /**
+   * Creates a new ClassManager which reads the hierarchies declared by the 
+   * jar files through a {@link ClassHierarchyCache}, which may be shared with
+   * other ClassManagers.
+   * 
+   * @param classpath The classpath.
+   * @param jars The jarfiles.
+   * @param jarCache The cache of the hierarchies declared by the jars, or 
+   *     <code>null</code> to search the jars each time.
+   * @throws IllegalArgumentException if both classpath and jars are 
+   *    <code>null</code>.
+   * @see #ClassManager(String[], String[])
+   */
+  public ClassManager(String[] classpath, String[] jars, 
+      ClassHierarchyCache jarCache) {
     if (classpath == null && jars == null) {
       throw new IllegalArgumentException("A set of directories and/or a set " +
           "of jar files are required.");
     }
     this.classpath = classpath;
     this.jars = jars;
+    this.jarCache = jarCache;
   }
   
   /**
@@ -134,6 +159,7 @@ public class ClassManager {
     for (int i = 0; i < jarsInClasspath.length; i++) {
       jars[i+2] = jarsInClasspath[i];
     }
+    jarCache = null;
   }
 
   /**
@@ -262,6 +288,9 @@ public class ClassManager {
     if (jars == null) {
       return false;
     }
+    if (jarCache != null) {
+      return reloadFromJarCache(internalClassName);
+    }
     JarFile jar = null;
     for (String j : jars) {
       
@@ -317,6 +346,31 @@ public class ClassManager {
     return false;
   }
 
+  /**
+   * Loads a class from the cached hierarchies of the jars, searching the 
+   * jars in the specified order.
+   * 
+   * @param internalClassName The class to load
+   * @return <code>true</code> if the class has been found in one of the jar.
+   */
+  private boolean reloadFromJarCache(String internalClassName) {
+    for (String j : jars) {
+      ClassHierarchyCache.JarHierarchy hierarchy;
+      try {
+        hierarchy = jarCache.get(j);
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, 
+            "Exception while opening jar file: " + j + " " + e.getMessage(), e);
+        // in case of exception skips this file and try the next.
+        continue;
+      }
+      if (hierarchy.accept(internalClassName, classAdapter)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Converts a class name to a file name and search for it in specified
    * class paths exactly in the specified order.
@@ -429,6 +483,53 @@ public class ClassManager {
     return true;
   }
   
+  /**
+   * Adds the hierarchy of a class which has already been read, so that it 
+   * does not need to be loaded again.
+   * 
+   * @param reader The reader of the class.
+   */
+  public void addLoadedClass(ClassReader reader) {
+    classAdapter.visit(0, reader.getAccess(), reader.getClassName(), null, 
+        reader.getSuperName(), reader.getInterfaces());
+  }
+  
+  /**
+   * Gets the loaded classes and interfaces which extend or implement some 
+   * types, directly or through other loaded types. Classes are not loaded 
+   * by this method.
+   * 
+   * @param types The internal names of the types.
+   * @return the internal names of the loaded subtypes, not including the 
+   *     given types.
+   */
+  public Set<String> getLoadedSubtypes(Collection<String> types) {
+    Set<String> ancestors = new HashSet<String>(types);
+    Set<String> result = new HashSet<String>();
+    boolean added = true;
+    while (added) {
+      added = false;
+      for (Map.Entry<String, String> entry : classHierarchyMap.entrySet()) {
+        String name = entry.getKey();
+        if (ancestors.contains(name)) {
+          continue;
+        }
+        boolean subtype = ancestors.contains(entry.getValue());
+        String[] implemented = implementedInterfaceMap.get(name);
+        for (int i = 0; !subtype && implemented != null 
+            && i < implemented.length; i++) {
+          subtype = ancestors.contains(implemented[i]);
+        }
+        if (subtype) {
+          ancestors.add(name);
+          result.add(name);
+          added = true;
+        }
+      }
+    }
+    return result;
+  }
+  
   /**
    * Explore classes and relate them to their superclass by filling the Map.
    * 
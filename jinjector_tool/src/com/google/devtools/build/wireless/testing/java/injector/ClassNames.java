@@ -51,6 +51,19 @@ public class ClassNames {
   
   // Regression test;  
   public static final String PLAYABLE = DECORATORS_PKG + "Playable";
+  
+  // WhiteBox
+  public static final String TRACER = DECORATORS_PKG + "util/Tracer";
+  
+  // Exceptions
+  public static final String EXCEPTION_TABLE = 
+      DECORATORS_PKG + "util/ExceptionTable";
+  
+  // Memory
+  public static final String ALLOCATION_PROFILE = 
+      DECORATORS_PKG + "memory/AllocationProfile";
+  public static final String INSTANCE_CENSUS = 
+      DECORATORS_PKG + "memory/InstanceCensus";
 
   // com.google.common
   public static final String GOOGLE_GRAPHICS = 
@@ -0,0 +1,95 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An {@link InstrumentedClassCache} which stores each value in a file of a 
+ * local directory, which can be shared by several builds on the same 
+ * machine.
+ * 
+ * <p>Values are stored in sub directories named after the first two 
+ * characters of their key, to keep directories small. Each value is written
+ * to a temporary file which is then renamed over the previous one, so that 
+ * concurrent readers never see partial values.
+ * 
+ * @author Michele Sama
+ */
+public class DirectoryClassCache implements InstrumentedClassCache {
+  
+  private final File directory;
+  
+  /**
+   * Creates a cache in a given directory, which is created if needed.
+   * 
+   * @param directory The path of the directory.
+   */
+  public DirectoryClassCache(String directory) {
+    this.directory = new File(directory);
+    if (!this.directory.exists() && !this.directory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create the cache " + 
+          "directory " + directory);
+    }
+    Files.Assert.isDir(this.directory);
+  }
+  
+  public byte[] get(String key) throws IOException {
+    File file = getFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    return Files.toByteArray(file);
+  }
+  
+  /**
+   * Stores a value, replacing the previous one if any.
+   * 
+   * @see InstrumentedClassCache#put(String, byte[])
+   */
+  public void put(String key, byte[] value) throws IOException {
+    File file = getFile(key);
+    File folder = file.getParentFile();
+    if (!folder.exists() && !folder.mkdirs() && !folder.exists()) {
+      throw new IOException("Cannot create " + folder);
+    }
+    File temp = File.createTempFile(file.getName(), ".tmp", folder);
+    try {
+      Files.overwrite(value, temp);
+      if (!temp.renameTo(file)) {
+        // Some platforms do not rename over existing files. Readers find no
+        // value until the second rename, which is just a cache miss.
+        file.delete();
+        if (!temp.renameTo(file) && !file.exists()) {
+          throw new IOException("Cannot write " + file);
+        }
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+  
+  private File getFile(String key) {
+    if (key.length() < 3 || key.indexOf('/') >= 0 
+        || key.indexOf(File.separatorChar) >= 0) {
+      throw new IllegalArgumentException("Invalid cache key " + key);
+    }
+    return new File(new File(directory, key.substring(0, 2)), key);
+  }
+}
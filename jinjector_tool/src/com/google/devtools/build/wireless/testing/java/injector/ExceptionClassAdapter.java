@@ -17,6 +17,7 @@ package com.google.devtools.build.wireless.testing.java.injector;
 
 import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -31,6 +32,10 @@ import java.util.logging.Logger;
  * exceptions to be exposed in an instrumented version of the target
  * application. 
  * 
+ * <p>In {@link ExceptionMode#CAPTURE} mode exceptions are counted by throw 
+ * site instead, and their stack trace is printed only for the first throw 
+ * of each site.
+ * 
  * @author Michele Sama
  * 
  */
@@ -39,6 +44,13 @@ public class ExceptionClassAdapter extends ClassAdapter {
   private String ownerClass;
   private Platform targetPlatform;
   
+  private ExceptionMode mode = ExceptionMode.PRINT;
+  
+  /**
+   * The ids of the throw sites in {@link ExceptionMode#CAPTURE} mode.
+   */
+  private SiteIds siteIds = null;
+  
   private static Logger logger = 
     Logger.getLogger(ExceptionClassAdapter.class.getName());
 
@@ -53,6 +65,21 @@ public class ExceptionClassAdapter extends ClassAdapter {
     super(cv);
     targetPlatform = platform;
   }
+  
+  /**
+   * Creates an instance of this {@link ClassAdapter} which captures 
+   * exceptions in a table.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param platform The target {@link Platform}.
+   * @param siteIds The ids of the throw sites.
+   */
+  public ExceptionClassAdapter(ClassVisitor cv, Platform platform, 
+      SiteIds siteIds) {
+    this(cv, platform);
+    mode = ExceptionMode.CAPTURE;
+    this.siteIds = siteIds;
+  }
 
   /** 
    * Delegates an Exception method adapter for the chain of visiting.
@@ -90,6 +117,11 @@ public class ExceptionClassAdapter extends ClassAdapter {
    */
   class ExceptionMethodAdapter extends InjectorMethodAdapter {
     
+    /**
+     * The last source line visited, or -1 if unknown.
+     */
+    private int line = -1;
+    
     /**
      * Creates an instance of ExceptionMethodAdapter.
      * @see InjectorMethodAdapter#InjectorMethodAdapter(MethodVisitor, int, 
@@ -122,7 +154,19 @@ public class ExceptionClassAdapter extends ClassAdapter {
     @Override
     public void visitInsn(int opcode) {
 
-      if (Opcodes.ATHROW == opcode) {
+      if (Opcodes.ATHROW == opcode && mode == ExceptionMode.CAPTURE) {
+        int site = siteIds.newSite(ownerClass, methodName, description, line);
+        mv.visitInsn(Opcodes.DUP);
+        if (site <= Short.MAX_VALUE) {
+          mv.visitIntInsn(Opcodes.SIPUSH, site);
+        } else {
+          mv.visitLdcInsn(site);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.EXCEPTION_TABLE,
+            "capture", "(L" + ClassNames.JAVA_LANG_THROWABLE + ";I)V");
+        logger.info("Class " + ownerClass + " method " + methodName 
+            + " site " + site);
+      } else if (Opcodes.ATHROW == opcode) {
         mv.visitInsn(Opcodes.DUP);
         printServant.startPrinting();
         printServant.printString(
@@ -144,6 +188,17 @@ public class ExceptionClassAdapter extends ClassAdapter {
       }
       mv.visitInsn(opcode);
     }
+    
+    /**
+     * Keeps track of the current line, which identifies the throw sites.
+     * 
+     * @see org.objectweb.asm.MethodAdapter#visitLineNumber(int, Label)
+     */
+    @Override
+    public void visitLineNumber(int line, Label start) {
+      this.line = line;
+      super.visitLineNumber(line, start);
+    }
 
   }
   
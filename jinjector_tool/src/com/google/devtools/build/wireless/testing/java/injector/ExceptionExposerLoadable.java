@@ -15,8 +15,13 @@
 
 package com.google.devtools.build.wireless.testing.java.injector;
 
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
 import org.objectweb.asm.ClassVisitor;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -31,9 +36,38 @@ public class ExceptionExposerLoadable extends Loadable {
 
   public static final String LOGGER_NAME = "ExceptionExposerLoadable";
   
+  /**
+   * Default file name with which throw sites are stored, followed by the 
+   * runId.
+   */
+  public static final String FILENAME_EXCEPTION_SITES = "exceptionSites.txt";
+  
+  protected static final String PROPERTY_EXCEPTION_MODE = "exceptionMode";
+  protected ExceptionMode exceptionMode;
+  
+  /**
+   * The ids of the throw sites of the current run in 
+   * {@link ExceptionMode#CAPTURE} mode.
+   */
+  protected SiteIds siteIds = null;
+  
   @Override
   public void loadInternal(Properties properties) {
-    // No additional parameters are required.
+    exceptionMode = ExceptionMode.valueOf(properties.getProperty(
+        PROPERTY_EXCEPTION_MODE, ExceptionMode.PRINT.name()));
+  }
+  
+  /**
+   * Creates the ids of the throw sites in {@link ExceptionMode#CAPTURE} 
+   * mode.
+   * 
+   * @see Loadable#preOperation()
+   */
+  @Override
+  public void preOperation() {
+    if (exceptionMode == ExceptionMode.CAPTURE) {
+      siteIds = new SiteIds();
+    }
   }
 
   /**
@@ -44,9 +78,49 @@ public class ExceptionExposerLoadable extends Loadable {
    */
   @Override
   public ClassVisitor operation(ClassVisitor cv, ClassManager classManager) {
-    cv = new ExceptionClassAdapter(cv, platform);
+    if (siteIds != null) {
+      cv = new ExceptionClassAdapter(cv, platform, siteIds);
+    } else {
+      cv = new ExceptionClassAdapter(cv, platform);
+    }
     return cv;
   }
+  
+  /**
+   * Writes the throw sites, which map the ids in the summary of the 
+   * decorators' ExceptionTable back to the source.
+   * 
+   * @see Loadable#postOperation(java.lang.String, InstrumentedJarCreator)
+   */
+  @Override
+  public void postOperation(String outputDir, 
+      InstrumentedJarCreator instrumentedJar) {
+    if (siteIds == null) {
+      return;
+    }
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(new File(outputDir, 
+          FILENAME_EXCEPTION_SITES + runId));
+      siteIds.write(pw);
+    } catch (IOException e) {
+      Logger log = Logger.getLogger(LOGGER_NAME);
+      log.fine("Problem writing the throw sites: " + e.getMessage());
+    } finally {
+      Closeables.closeQuietly(pw);
+    }
+  }
+  
+  /**
+   * Site ids are assigned sequentially across the whole run in 
+   * {@link ExceptionMode#CAPTURE} mode.
+   * 
+   * @see Loadable#isIncremental()
+   */
+  @Override
+  public boolean isIncremental() {
+    return exceptionMode != ExceptionMode.CAPTURE;
+  }
 
   /**
    * Prints the name of this Loadable.
@@ -0,0 +1,34 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+/**
+ * List of the ways in which thrown exceptions can be exposed.
+ *
+ * @author Michele Sama
+ */
+public enum ExceptionMode {
+  /**
+   * Prints a banner and the stack trace every time an exception is thrown.
+   */
+  PRINT,
+  
+  /**
+   * Counts the exceptions thrown at each site in the decorators' 
+   * ExceptionTable, printing the stack trace only the first time.
+   */
+  CAPTURE
+}
@@ -0,0 +1,441 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ClassVisitor which forwards each event to several ClassVisitors, so that a
+ * class read once by a {@link org.objectweb.asm.ClassReader} can be 
+ * instrumented by independent chains.
+ * 
+ * <p>{@link Label}s cannot be shared between different 
+ * {@link org.objectweb.asm.ClassWriter}s because writers store information
+ * in them. The first visitor receives the original labels, the others 
+ * receive a copy of them which is created the first time a label is 
+ * visited.
+ * 
+ * <p>Visitors returning <code>null</code> for a field, a method or an 
+ * annotation do not receive its content.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class FanOutClassVisitor implements ClassVisitor {
+  
+  private final ClassVisitor[] cvs;
+  
+  /**
+   * Creates a visitor forwarding to the given visitors.
+   * 
+   * @param cvs The visitors to forward events to.
+   */
+  public FanOutClassVisitor(ClassVisitor[] cvs) {
+    this.cvs = cvs;
+  }
+
+  public void visit(int version, int access, String name, String signature,
+      String superName, String[] interfaces) {
+    for (ClassVisitor cv : cvs) {
+      cv.visit(version, access, name, signature, superName, interfaces);
+    }
+  }
+
+  public void visitSource(String source, String debug) {
+    for (ClassVisitor cv : cvs) {
+      cv.visitSource(source, debug);
+    }
+  }
+
+  public void visitOuterClass(String owner, String name, String desc) {
+    for (ClassVisitor cv : cvs) {
+      cv.visitOuterClass(owner, name, desc);
+    }
+  }
+
+  public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+    List<AnnotationVisitor> avs = new ArrayList<AnnotationVisitor>();
+    for (ClassVisitor cv : cvs) {
+      avs.add(cv.visitAnnotation(desc, visible));
+    }
+    return FanOutAnnotationVisitor.create(avs);
+  }
+
+  public void visitAttribute(Attribute attr) {
+    for (ClassVisitor cv : cvs) {
+      cv.visitAttribute(attr);
+    }
+  }
+
+  public void visitInnerClass(String name, String outerName, String innerName,
+      int access) {
+    for (ClassVisitor cv : cvs) {
+      cv.visitInnerClass(name, outerName, innerName, access);
+    }
+  }
+
+  public FieldVisitor visitField(int access, String name, String desc,
+      String signature, Object value) {
+    List<FieldVisitor> fvs = new ArrayList<FieldVisitor>();
+    for (ClassVisitor cv : cvs) {
+      FieldVisitor fv = cv.visitField(access, name, desc, signature, value);
+      if (fv != null) {
+        fvs.add(fv);
+      }
+    }
+    return fvs.isEmpty() ? null : new FanOutFieldVisitor(fvs);
+  }
+
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    List<MethodVisitor> mvs = new ArrayList<MethodVisitor>();
+    for (ClassVisitor cv : cvs) {
+      MethodVisitor mv = 
+          cv.visitMethod(access, name, desc, signature, exceptions);
+      if (mv != null) {
+        mvs.add(mv);
+      }
+    }
+    return mvs.isEmpty() ? null : new FanOutMethodVisitor(mvs);
+  }
+
+  public void visitEnd() {
+    for (ClassVisitor cv : cvs) {
+      cv.visitEnd();
+    }
+  }
+  
+  /**
+   * Forwards annotation events.
+   */
+  private static class FanOutAnnotationVisitor implements AnnotationVisitor {
+    
+    private final List<AnnotationVisitor> avs;
+    
+    private FanOutAnnotationVisitor(List<AnnotationVisitor> avs) {
+      this.avs = avs;
+    }
+    
+    /**
+     * @return a visitor forwarding to the non-<code>null</code> visitors, or
+     *     <code>null</code> if there is none.
+     */
+    static AnnotationVisitor create(List<AnnotationVisitor> avs) {
+      List<AnnotationVisitor> result = new ArrayList<AnnotationVisitor>();
+      for (AnnotationVisitor av : avs) {
+        if (av != null) {
+          result.add(av);
+        }
+      }
+      return result.isEmpty() ? null : new FanOutAnnotationVisitor(result);
+    }
+
+    public void visit(String name, Object value) {
+      for (AnnotationVisitor av : avs) {
+        av.visit(name, value);
+      }
+    }
+
+    public void visitEnum(String name, String desc, String value) {
+      for (AnnotationVisitor av : avs) {
+        av.visitEnum(name, desc, value);
+      }
+    }
+
+    public AnnotationVisitor visitAnnotation(String name, String desc) {
+      List<AnnotationVisitor> result = new ArrayList<AnnotationVisitor>();
+      for (AnnotationVisitor av : avs) {
+        result.add(av.visitAnnotation(name, desc));
+      }
+      return create(result);
+    }
+
+    public AnnotationVisitor visitArray(String name) {
+      List<AnnotationVisitor> result = new ArrayList<AnnotationVisitor>();
+      for (AnnotationVisitor av : avs) {
+        result.add(av.visitArray(name));
+      }
+      return create(result);
+    }
+
+    public void visitEnd() {
+      for (AnnotationVisitor av : avs) {
+        av.visitEnd();
+      }
+    }
+  }
+  
+  /**
+   * Forwards field events.
+   */
+  private static class FanOutFieldVisitor implements FieldVisitor {
+    
+    private final List<FieldVisitor> fvs;
+    
+    FanOutFieldVisitor(List<FieldVisitor> fvs) {
+      this.fvs = fvs;
+    }
+
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+      List<AnnotationVisitor> avs = new ArrayList<AnnotationVisitor>();
+      for (FieldVisitor fv : fvs) {
+        avs.add(fv.visitAnnotation(desc, visible));
+      }
+      return FanOutAnnotationVisitor.create(avs);
+    }
+
+    public void visitAttribute(Attribute attr) {
+      for (FieldVisitor fv : fvs) {
+        fv.visitAttribute(attr);
+      }
+    }
+
+    public void visitEnd() {
+      for (FieldVisitor fv : fvs) {
+        fv.visitEnd();
+      }
+    }
+  }
+  
+  /**
+   * Forwards method events, giving each visitor but the first its own copy
+   * of the labels.
+   */
+  private static class FanOutMethodVisitor implements MethodVisitor {
+    
+    private final List<MethodVisitor> mvs;
+    
+    private final List<Map<Label, Label>> labels = 
+        new ArrayList<Map<Label, Label>>();
+    
+    FanOutMethodVisitor(List<MethodVisitor> mvs) {
+      this.mvs = mvs;
+      for (int i = 0; i < mvs.size(); i++) {
+        labels.add(i == 0 ? null : new HashMap<Label, Label>());
+      }
+    }
+    
+    /**
+     * Gets the label to use for the i-th visitor.
+     */
+    private Label map(int i, Label label) {
+      Map<Label, Label> map = labels.get(i);
+      if (map == null || label == null) {
+        return label;
+      }
+      Label result = map.get(label);
+      if (result == null) {
+        result = new Label();
+        map.put(label, result);
+      }
+      return result;
+    }
+    
+    private Label[] map(int i, Label[] labels) {
+      Label[] result = new Label[labels.length];
+      for (int j = 0; j < labels.length; j++) {
+        result[j] = map(i, labels[j]);
+      }
+      return result;
+    }
+    
+    /**
+     * Maps the labels used by frames to represent uninitialized types.
+     */
+    private Object[] mapFrameTypes(int i, Object[] types) {
+      if (types == null) {
+        return null;
+      }
+      Object[] result = new Object[types.length];
+      for (int j = 0; j < types.length; j++) {
+        result[j] = types[j] instanceof Label 
+            ? map(i, (Label) types[j]) : types[j];
+      }
+      return result;
+    }
+
+    public AnnotationVisitor visitAnnotationDefault() {
+      List<AnnotationVisitor> avs = new ArrayList<AnnotationVisitor>();
+      for (MethodVisitor mv : mvs) {
+        avs.add(mv.visitAnnotationDefault());
+      }
+      return FanOutAnnotationVisitor.create(avs);
+    }
+
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+      List<AnnotationVisitor> avs = new ArrayList<AnnotationVisitor>();
+      for (MethodVisitor mv : mvs) {
+        avs.add(mv.visitAnnotation(desc, visible));
+      }
+      return FanOutAnnotationVisitor.create(avs);
+    }
+
+    public AnnotationVisitor visitParameterAnnotation(int parameter,
+        String desc, boolean visible) {
+      List<AnnotationVisitor> avs = new ArrayList<AnnotationVisitor>();
+      for (MethodVisitor mv : mvs) {
+        avs.add(mv.visitParameterAnnotation(parameter, desc, visible));
+      }
+      return FanOutAnnotationVisitor.create(avs);
+    }
+
+    public void visitAttribute(Attribute attr) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitAttribute(attr);
+      }
+    }
+
+    public void visitCode() {
+      for (MethodVisitor mv : mvs) {
+        mv.visitCode();
+      }
+    }
+
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack,
+        Object[] stack) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitFrame(type, nLocal, mapFrameTypes(i, local), nStack, 
+            mapFrameTypes(i, stack));
+      }
+    }
+
+    public void visitInsn(int opcode) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitInsn(opcode);
+      }
+    }
+
+    public void visitIntInsn(int opcode, int operand) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitIntInsn(opcode, operand);
+      }
+    }
+
+    public void visitVarInsn(int opcode, int var) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitVarInsn(opcode, var);
+      }
+    }
+
+    public void visitTypeInsn(int opcode, String type) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitTypeInsn(opcode, type);
+      }
+    }
+
+    public void visitFieldInsn(int opcode, String owner, String name,
+        String desc) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitFieldInsn(opcode, owner, name, desc);
+      }
+    }
+
+    public void visitMethodInsn(int opcode, String owner, String name,
+        String desc) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitMethodInsn(opcode, owner, name, desc);
+      }
+    }
+
+    public void visitJumpInsn(int opcode, Label label) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitJumpInsn(opcode, map(i, label));
+      }
+    }
+
+    public void visitLabel(Label label) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitLabel(map(i, label));
+      }
+    }
+
+    public void visitLdcInsn(Object cst) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitLdcInsn(cst);
+      }
+    }
+
+    public void visitIincInsn(int var, int increment) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitIincInsn(var, increment);
+      }
+    }
+
+    public void visitTableSwitchInsn(int min, int max, Label dflt,
+        Label[] labels) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitTableSwitchInsn(min, max, map(i, dflt), 
+            map(i, labels));
+      }
+    }
+
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitLookupSwitchInsn(map(i, dflt), keys, map(i, labels));
+      }
+    }
+
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitMultiANewArrayInsn(desc, dims);
+      }
+    }
+
+    public void visitTryCatchBlock(Label start, Label end, Label handler,
+        String type) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitTryCatchBlock(map(i, start), map(i, end), 
+            map(i, handler), type);
+      }
+    }
+
+    public void visitLocalVariable(String name, String desc, String signature,
+        Label start, Label end, int index) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitLocalVariable(name, desc, signature, map(i, start), 
+            map(i, end), index);
+      }
+    }
+
+    public void visitLineNumber(int line, Label start) {
+      for (int i = 0; i < mvs.size(); i++) {
+        mvs.get(i).visitLineNumber(line, map(i, start));
+      }
+    }
+
+    public void visitMaxs(int maxStack, int maxLocals) {
+      for (MethodVisitor mv : mvs) {
+        mv.visitMaxs(maxStack, maxLocals);
+      }
+    }
+
+    public void visitEnd() {
+      for (MethodVisitor mv : mvs) {
+        mv.visitEnd();
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Base class for the method injectors which notify when a method is entered
+ * and when it exits, either by returning or by throwing an exception.
+ * 
+ * <p>Subclasses only supply the notifications: {@link #onEnter()} is 
+ * visited at the beginning of the method, and {@link #onExit()} before each 
+ * return and in a {@link FinallyServant} handler. The notifications must 
+ * leave the stack unchanged.
+ * 
+ * @author Michele Sama
+ *
+ */
+public abstract class FinallyMethodAdapter extends InjectorMethodAdapter {
+
+  private final FinallyServant finallyServant;
+
+  /**
+   * Creates a method adapter which has informations about the method which it 
+   * is going to instrument.
+   * 
+   * @param mv The nested MethodVisitor.
+   * @param access The bitmask representing the method type.
+   * @param owner The currenClass class.
+   * @param name The method name.
+   * @param desc The method description containing parameters and return type.
+   * @param platform The target {@link Platform}.
+   */
+  public FinallyMethodAdapter(MethodVisitor mv, int access, String owner,
+      String name, String desc, Platform platform) {
+    super(mv, access, owner, name, desc, platform);
+    finallyServant = new FinallyServant(mv);
+  }
+
+  /**
+   * Visits the code executed when the method is entered.
+   */
+  protected abstract void onEnter();
+
+  /**
+   * Visits the code executed when the method exits.
+   */
+  protected abstract void onExit();
+
+  /**
+   * Notifies the entering and starts the protected block.
+   * 
+   * @see org.objectweb.asm.MethodAdapter#visitCode()
+   */
+  @Override
+  public void visitCode() {
+    mv.visitCode();
+    onEnter();
+    finallyServant.startTry();
+  }
+
+  /**
+   * Notifies the exit before returning.
+   * 
+   * @see org.objectweb.asm.MethodAdapter#visitInsn(int)
+   */
+  @Override
+  public void visitInsn(int opcode) {
+    if (isReturnInstruction(opcode)) {
+      onExit();
+    }
+    mv.visitInsn(opcode);
+  }
+
+  /**
+   * Appends the handler which notifies the exit when an exception is thrown.
+   * 
+   * @see org.objectweb.asm.MethodAdapter#visitMaxs(int, int)
+   */
+  @Override
+  public void visitMaxs(int maxStack, int maxLocals) {
+    finallyServant.startFinally();
+    onExit();
+    finallyServant.endFinally();
+    mv.visitMaxs(maxStack, maxLocals);
+  }
+}
@@ -0,0 +1,74 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * This servant wraps the code of a method into a handler which behaves like
+ * a <code>finally</code> block: the code visited between 
+ * {@link #startFinally()} and {@link #endFinally()} is executed when any 
+ * exception is thrown, and the exception is then thrown again.
+ * 
+ * <p>The handler is visited at the end of the method, after the handlers of 
+ * the method itself, so that it does not take precedence over them in the 
+ * exception table.
+ * 
+ * @author Michele Sama
+ * 
+ */
+public class FinallyServant extends Servant {
+
+  private final Label start = new Label();
+  private final Label end = new Label();
+  private final Label handler = new Label();
+
+  /**
+   * Creates a new FinallyServant for the specified MethodVisitor.
+   * 
+   * @param mv The ownerClass MethodVisitor 
+   */
+  public FinallyServant(MethodVisitor mv) {
+    super(mv);
+  }
+
+  /**
+   * Starts the protected block. It must be invoked at the beginning of the 
+   * method, after any code which must not be protected.
+   */
+  public void startTry() {
+    mv.visitLabel(start);
+  }
+
+  /**
+   * Ends the protected block and starts the handler. It must be invoked 
+   * after all the code of the method, i.e. when visiting its maxs.
+   */
+  public void startFinally() {
+    mv.visitTryCatchBlock(start, end, handler, null);
+    mv.visitLabel(end);
+    mv.visitLabel(handler);
+  }
+
+  /**
+   * Ends the handler by throwing again the exception on top of the stack.
+   */
+  public void endFinally() {
+    mv.visitInsn(Opcodes.ATHROW);
+  }
+}
@@ -0,0 +1,308 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a {@link ClassBytecodeLoader} alive between instrumentations, so 
+ * that the JVM, the {@link Loadable}s and the {@link ClassManager} do not 
+ * need to be initialized again at each build.
+ * 
+ * <p>A new instrumentation can be requested with a line based protocol, 
+ * over a local socket or over the standard input, or it can be triggered 
+ * by polling the binary folder for changes. Only the changed files are 
+ * instrumented again if all the {@link Loadable}s are 
+ * {@link Loadable#isIncremental() incremental}.
+ * 
+ * <p>The accepted commands are:
+ * <ul>
+ * <li>{@value #COMMAND_INSTRUMENT}: instruments the files changed since the
+ *     previous instrumentation;
+ * <li>{@value #COMMAND_FULL}: instruments everything from scratch;
+ * <li>{@value #COMMAND_QUIT}: terminates the daemon.
+ * </ul>
+ * Each command is answered with a single line starting with either 
+ * {@value #RESPONSE_OK} or {@value #RESPONSE_ERROR}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class InstrumentationDaemon {
+  
+  public static final String COMMAND_INSTRUMENT = "instrument";
+  
+  public static final String COMMAND_FULL = "full";
+  
+  public static final String COMMAND_QUIT = "quit";
+  
+  public static final String RESPONSE_OK = "OK";
+  
+  public static final String RESPONSE_ERROR = "ERROR";
+  
+  private static Logger logger = 
+      Logger.getLogger(InstrumentationDaemon.class.getName());
+  
+  private final ClassBytecodeLoader loader;
+  
+  private final File binaryFolder;
+  
+  /**
+   * The input jar, or <code>null</code> if the binary folder is used 
+   * directly.
+   */
+  private final File inputJar;
+  
+  /**
+   * The state of the input files at the time of the previous 
+   * instrumentation, or <code>null</code> if nothing has been instrumented 
+   * yet.
+   */
+  private Map<File, FileStamp> snapshot = null;
+  
+  /**
+   * Creates a daemon around a loader.
+   * 
+   * @param loader The loader used to instrument.
+   * @param properties The properties used to create the loader.
+   */
+  public InstrumentationDaemon(ClassBytecodeLoader loader, 
+      Properties properties) {
+    this.loader = loader;
+    binaryFolder = new File(properties.getProperty(
+        ClassBytecodeLoader.PROPERTY_BINARY_FOLDER)).getAbsoluteFile();
+    String jar = properties.getProperty(ClassBytecodeLoader.PROPERTY_INPUT_JAR);
+    inputJar = jar == null ? null : new File(jar).getAbsoluteFile();
+  }
+  
+  /**
+   * Instruments the files which have changed since the previous 
+   * instrumentation.
+   * 
+   * @param full <code>true</code> to instrument everything from scratch.
+   * @return the number of changed files or -1 if everything has been 
+   *     instrumented.
+   */
+  public synchronized int run(boolean full) {
+    Map<File, FileStamp> current = scan();
+    Set<File> changedFiles = null;
+    if (!full && snapshot != null) {
+      changedFiles = getChangedFiles(snapshot, current);
+      if (changedFiles.isEmpty()) {
+        return 0;
+      }
+      if (inputJar != null && changedFiles.contains(inputJar)) {
+        changedFiles = null;
+      }
+    }
+    
+    loader.instrument(changedFiles);
+    
+    // The input jar has been extracted again into the binary folder.
+    snapshot = inputJar == null ? current : scan();
+    return changedFiles == null ? -1 : changedFiles.size();
+  }
+  
+  /**
+   * Polls the input files and instruments them each time they change. 
+   * Failures are logged and the polling continues.
+   * 
+   * @param interval The polling interval in milliseconds.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  public void watch(long interval) throws InterruptedException {
+    logger.info("Watching " + binaryFolder + " every " + interval + "ms.");
+    while (true) {
+      Thread.sleep(interval);
+      try {
+        int changed = run(false);
+        if (changed != 0) {
+          logger.info("Instrumented again after " + 
+              (changed < 0 ? "a full change." : changed + " changed files."));
+        }
+      } catch (RuntimeException e) {
+        logger.log(Level.SEVERE, "The instrumentation failed.", e);
+      }
+    }
+  }
+  
+  /**
+   * Serves the commands of a single client.
+   * 
+   * @param in The reader from which commands are read.
+   * @param out The writer to which responses are written.
+   * @return <code>true</code> if the client requested the daemon to 
+   *     terminate.
+   * @throws IOException If the communication fails.
+   */
+  public boolean serve(BufferedReader in, PrintWriter out) throws IOException {
+    String line;
+    while ((line = in.readLine()) != null) {
+      String command = line.trim();
+      if (command.length() == 0) {
+        continue;
+      }
+      if (COMMAND_QUIT.equals(command)) {
+        out.println(RESPONSE_OK);
+        out.flush();
+        return true;
+      }
+      if (COMMAND_INSTRUMENT.equals(command) || COMMAND_FULL.equals(command)) {
+        long start = System.currentTimeMillis();
+        try {
+          int changed = run(COMMAND_FULL.equals(command));
+          out.println(RESPONSE_OK + " " + (changed < 0 ? "all" : changed) + 
+              " " + (System.currentTimeMillis() - start) + "ms");
+        } catch (RuntimeException e) {
+          logger.log(Level.SEVERE, "The instrumentation failed.", e);
+          out.println(RESPONSE_ERROR + " " + e.getMessage());
+        }
+      } else {
+        out.println(RESPONSE_ERROR + " Unknown command: " + command);
+      }
+      out.flush();
+    }
+    return false;
+  }
+  
+  /**
+   * Serves clients connecting to a local port, one at a time, until one of 
+   * them requests the daemon to terminate.
+   * 
+   * @param port The port to listen to on the loopback interface.
+   * @throws IOException If the socket cannot be opened.
+   */
+  public void serve(int port) throws IOException {
+    ServerSocket server = 
+        new ServerSocket(port, 1, InetAddress.getByName(null));
+    logger.info("Listening on port " + server.getLocalPort() + ".");
+    try {
+      boolean quit = false;
+      while (!quit) {
+        Socket socket = server.accept();
+        try {
+          quit = serve(new BufferedReader(
+              new InputStreamReader(socket.getInputStream())),
+              new PrintWriter(socket.getOutputStream()));
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Connection lost.", e);
+        } finally {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // nothing to be done
+          }
+        }
+      }
+    } finally {
+      server.close();
+    }
+  }
+  
+  /**
+   * Gets the state of all the input files.
+   */
+  private Map<File, FileStamp> scan() {
+    Map<File, FileStamp> result = new HashMap<File, FileStamp>();
+    scan(binaryFolder, result);
+    if (inputJar != null) {
+      result.put(inputJar, new FileStamp(inputJar));
+    }
+    return result;
+  }
+  
+  private static void scan(File folder, Map<File, FileStamp> result) {
+    File[] children = folder.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File f : children) {
+      if (f.isDirectory()) {
+        scan(f, result);
+      } else {
+        result.put(f, new FileStamp(f));
+      }
+    }
+  }
+  
+  /**
+   * Compares two states of the input files.
+   * 
+   * @param previous The previous state.
+   * @param current The current state.
+   * @return the files which have been added, modified or deleted.
+   */
+  static Set<File> getChangedFiles(Map<File, FileStamp> previous, 
+      Map<File, FileStamp> current) {
+    Set<File> result = new HashSet<File>();
+    for (Map.Entry<File, FileStamp> entry : current.entrySet()) {
+      if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+        result.add(entry.getKey());
+      }
+    }
+    for (File f : previous.keySet()) {
+      if (!current.containsKey(f)) {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * The modification time and the size of a file.
+   */
+  static class FileStamp {
+    private final long lastModified;
+    private final long length;
+    
+    FileStamp(File file) {
+      this(file.lastModified(), file.length());
+    }
+    
+    FileStamp(long lastModified, long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp other = (FileStamp) o;
+      return lastModified == other.lastModified && length == other.length;
+    }
+    
+    @Override
+    public int hashCode() {
+      return (int) (lastModified ^ length);
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the cost of an instrumentation run and writes it as a JSON report.
+ *
+ * <p>The report contains:
+ * <ul>
+ * <li>the wall time of each phase of the instrumentation;
+ * <li>for each class the instrumentation time and the class file size
+ *     before and after the instrumentation;
+ * <li>for each {@link Loadable} the code bytes and the probes it added;
+ * <li>all the methods whose size is close to the 64 KB limit of the class
+ *     file format.
+ * </ul>
+ *
+ * <p>Code sizes and probes are measured by {@link TelemetryClassAdapter}s.
+ *
+ * @author Michele Sama
+ *
+ */
+public class InstrumentationTelemetry {
+
+  /**
+   * The maximum size of the code of a method.
+   */
+  public static final int MAX_METHOD_SIZE = 65535;
+
+  /**
+   * Methods bigger than this threshold are reported as large methods.
+   */
+  public static final int LARGE_METHOD_THRESHOLD = MAX_METHOD_SIZE * 9 / 10;
+
+  private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+  private final List<LoadableRecord> loadables =
+      new ArrayList<LoadableRecord>();
+
+  private final List<ClassRecord> classes = new ArrayList<ClassRecord>();
+
+  /**
+   * Maximum code size of large methods by class, name and descriptor.
+   */
+  private final Map<String, Integer> largeMethods =
+      new LinkedHashMap<String, Integer>();
+
+  /**
+   * Records the duration of a phase of the instrumentation.
+   *
+   * @param phase The name of the phase.
+   * @param nanos The duration in nanoseconds.
+   */
+  public void addPhase(String phase, long nanos) {
+    Long previous = phases.get(phase);
+    phases.put(phase, previous == null ? nanos : previous + nanos);
+  }
+
+  /**
+   * Adds a {@link Loadable} to the report. Loadables must be added in the
+   * same order in which they appear in the adaptation chain.
+   *
+   * @param name The name of the Loadable.
+   */
+  public void addLoadable(String name) {
+    loadables.add(new LoadableRecord(name));
+  }
+
+  /**
+   * Records the instrumentation of a class.
+   *
+   * @param className The internal name of the class.
+   * @param nanos The time spent instrumenting the class.
+   * @param originalSize The size of the original class file.
+   * @param instrumentedSize The size of the instrumented class file.
+   * @param meters The {@link TelemetryClassAdapter}s of the adaptation
+   *     chain, starting from the one closer to the writer. The adapter at
+   *     position i measures the output of the i-th Loadable and the last one
+   *     measures the original code.
+   */
+  public void addClass(String className, long nanos, int originalSize,
+      int instrumentedSize, List<TelemetryClassAdapter> meters) {
+    classes.add(new ClassRecord(className, nanos, originalSize,
+        instrumentedSize));
+    if (meters == null || meters.size() != loadables.size() + 1) {
+      throw new IllegalArgumentException("One meter for each Loadable plus " +
+          "one for the original code is required.");
+    }
+    for (int i = 0; i < loadables.size(); i++) {
+      LoadableRecord record = loadables.get(i);
+      record.codeBytesAdded +=
+          meters.get(i).getCodeSize() - meters.get(i + 1).getCodeSize();
+      record.probesAdded +=
+          meters.get(i).getProbeCount() - meters.get(i + 1).getProbeCount();
+    }
+    Map<String, Integer> large =
+        meters.get(0).getMethodsLargerThan(LARGE_METHOD_THRESHOLD);
+    for (Map.Entry<String, Integer> entry : large.entrySet()) {
+      largeMethods.put(className + "." + entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Writes the report as JSON.
+   *
+   * @param file The destination file.
+   * @throws IOException If the file cannot be written.
+   */
+  public void writeJson(File file) throws IOException {
+    PrintWriter writer = null;
+    try {
+      writer = new PrintWriter(file, "UTF-8");
+      writeJson(writer);
+    } finally {
+      Closeables.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * Writes the report as JSON.
+   *
+   * @param writer The destination writer.
+   */
+  public void writeJson(PrintWriter writer) {
+    writer.println("{");
+
+    writer.println("  \"phases\": {");
+    int i = 0;
+    for (Map.Entry<String, Long> phase : phases.entrySet()) {
+      writer.print("    " + quote(phase.getKey()) + ": "
+          + toMillis(phase.getValue()));
+      writer.println(++i < phases.size() ? "," : "");
+    }
+    writer.println("  },");
+
+    writer.println("  \"loadables\": [");
+    for (i = 0; i < loadables.size(); i++) {
+      LoadableRecord record = loadables.get(i);
+      writer.print("    {\"name\": " + quote(record.name)
+          + ", \"codeBytesAdded\": " + record.codeBytesAdded
+          + ", \"probesAdded\": " + record.probesAdded + "}");
+      writer.println(i + 1 < loadables.size() ? "," : "");
+    }
+    writer.println("  ],");
+
+    writer.println("  \"largeMethods\": [");
+    i = 0;
+    for (Map.Entry<String, Integer> method : largeMethods.entrySet()) {
+      writer.print("    {\"method\": " + quote(method.getKey())
+          + ", \"maxCodeBytes\": " + method.getValue() + "}");
+      writer.println(++i < largeMethods.size() ? "," : "");
+    }
+    writer.println("  ],");
+
+    writer.println("  \"classes\": [");
+    for (i = 0; i < classes.size(); i++) {
+      ClassRecord record = classes.get(i);
+      writer.print("    {\"name\": " + quote(record.name)
+          + ", \"timeMs\": " + toMillis(record.nanos)
+          + ", \"originalBytes\": " + record.originalSize
+          + ", \"instrumentedBytes\": " + record.instrumentedSize + "}");
+      writer.println(i + 1 < classes.size() ? "," : "");
+    }
+    writer.println("  ]");
+
+    writer.println("}");
+  }
+
+  private static String toMillis(long nanos) {
+    return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+  }
+
+  /**
+   * Quotes a string as a JSON string literal.
+   *
+   * @param s The string to quote.
+   * @return the quoted string.
+   */
+  static String quote(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+
+  /**
+   * The code added by a single {@link Loadable}.
+   */
+  private static class LoadableRecord {
+    final String name;
+    long codeBytesAdded = 0;
+    long probesAdded = 0;
+
+    LoadableRecord(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * The cost of instrumenting a single class.
+   */
+  private static class ClassRecord {
+    final String name;
+    final long nanos;
+    final int originalSize;
+    final int instrumentedSize;
+
+    ClassRecord(String name, long nanos, int originalSize,
+        int instrumentedSize) {
+      this.name = name;
+      this.nanos = nanos;
+      this.originalSize = originalSize;
+      this.instrumentedSize = instrumentedSize;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.io.IOException;
+
+/**
+ * A content-addressed store for instrumented classes, shared between 
+ * instrumentations of different builds or projects.
+ * 
+ * <p>Keys are hexadecimal digests computed by {@link ClassBytecodeLoader}, 
+ * optionally followed by a '.' and a lowercase suffix. Instrumented classes
+ * are stored under a digest of everything they depend on, so their value 
+ * never changes, but the list of the hierarchy facts consulted for a class
+ * is stored under a digest of the class only and is replaced when a 
+ * different hierarchy makes the instrumentation consult different facts.
+ * 
+ * <p>Implementations must be safe to use from several loaders concurrently
+ * and {@link #put(String, byte[])} must be atomic: a concurrent 
+ * {@link #get(String)} returns either the previous value, the new value or 
+ * <code>null</code>, never a partially written one. The default implementation is 
+ * {@link DirectoryClassCache}; other implementations can be selected with 
+ * {@link ClassBytecodeLoader#PROPERTY_CLASS_CACHE_BACKEND} and must have a 
+ * public constructor taking the value of 
+ * {@link ClassBytecodeLoader#PROPERTY_CLASS_CACHE} as its only argument.
+ * 
+ * @author Michele Sama
+ */
+public interface InstrumentedClassCache {
+  
+  /**
+   * Gets a value from the cache.
+   * 
+   * @param key The key of the value.
+   * @return the value or <code>null</code> if it is not in the cache.
+   * @throws IOException If the cache cannot be read.
+   */
+  public byte[] get(String key) throws IOException;
+  
+  /**
+   * Stores a value in the cache.
+   * 
+   * @param key The key of the value.
+   * @param value The value.
+   * @throws IOException If the cache cannot be written.
+   */
+  public void put(String key, byte[] value) throws IOException;
+}
@@ -95,4 +95,18 @@ public abstract class Loadable {
   public void postOperation(String outputDir,
       InstrumentedJarCreator instrumentedJar) {}
   
+  /**
+   * Specifies whether the classes instrumented by a previous run can be 
+   * reused when only some classes have changed. Loadables which collect 
+   * information across all the instrumented classes, like indexes, must 
+   * return <code>false</code>.
+   * 
+   * @return <code>true</code> if each class can be instrumented 
+   *     independently from the others.
+   * @see InstrumentationDaemon
+   */
+  public boolean isIncremental() {
+    return true;
+  }
+  
 }
@@ -0,0 +1,219 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassBytecodeLoader.PendingClass;
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Instruments the same binary folder for several variants in a single pass.
+ * 
+ * <p>Each variant is a full set of properties, with its own 
+ * {@link Loadable}s, platform, destination folder and output jar, and it is
+ * instrumented by its own {@link ClassBytecodeLoader}. The input jar is 
+ * extracted once and each file is read and parsed once: the events of the 
+ * {@link ClassReader} are forwarded to the adaptation chains of all the 
+ * variants by a {@link FanOutClassVisitor}.
+ * 
+ * <p>Each loader looks classes up in its class cache, if any, with a key 
+ * covering its own configuration, so variants never share entries unless 
+ * they would produce the same output. Only the variants missing a class 
+ * take part in the fan out, and a class cached for all the variants is not
+ * parsed at all.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class MultiVariantInstrumenter {
+  
+  private static Logger logger = 
+      Logger.getLogger(MultiVariantInstrumenter.class.getName());
+  
+  private final File binaryFolder;
+  
+  private final List<ClassBytecodeLoader> loaders = 
+      new ArrayList<ClassBytecodeLoader>();
+  
+  /**
+   * Creates the loaders of all the variants.
+   * 
+   * @param variants The properties of each variant. All the variants must 
+   *     share the same binary folder and input jar, and each of them must 
+   *     have its own destination folder.
+   * @throws IllegalArgumentException If the variants are not compatible.
+   */
+  public MultiVariantInstrumenter(List<Properties> variants) {
+    if (variants.isEmpty()) {
+      throw new IllegalArgumentException("No variant has been specified.");
+    }
+    Properties first = variants.get(0);
+    String folder = first.getProperty(ClassBytecodeLoader.PROPERTY_BINARY_FOLDER);
+    String inputJar = first.getProperty(ClassBytecodeLoader.PROPERTY_INPUT_JAR);
+    Set<String> destinations = new HashSet<String>();
+    ClassHierarchyCache hierarchyCache = new ClassHierarchyCache();
+    for (Properties variant : variants) {
+      if (!equal(folder, 
+              variant.getProperty(ClassBytecodeLoader.PROPERTY_BINARY_FOLDER))
+          || !equal(inputJar, 
+              variant.getProperty(ClassBytecodeLoader.PROPERTY_INPUT_JAR))) {
+        throw new IllegalArgumentException("All the variants must use the " +
+            "same " + ClassBytecodeLoader.PROPERTY_BINARY_FOLDER + " and " + 
+            ClassBytecodeLoader.PROPERTY_INPUT_JAR + ".");
+      }
+      String destination = 
+          variant.getProperty(ClassBytecodeLoader.PROPERTY_DESTINATION_FOLDER);
+      if (destination != null 
+          && !destinations.add(new File(destination).getAbsolutePath())) {
+        throw new IllegalArgumentException("Each variant must use its own " + 
+            ClassBytecodeLoader.PROPERTY_DESTINATION_FOLDER + ".");
+      }
+      loaders.add(new ClassBytecodeLoader(variant, hierarchyCache));
+    }
+    binaryFolder = new File(folder).getAbsoluteFile();
+  }
+  
+  /**
+   * Loads the properties of each variant on top of a common set of 
+   * properties.
+   * 
+   * @param properties The common properties.
+   * @param filenames The property files of the variants.
+   * @return the properties of each variant.
+   */
+  public static List<Properties> loadVariants(Properties properties, 
+      String[] filenames) {
+    List<Properties> variants = new ArrayList<Properties>();
+    for (String filename : filenames) {
+      Properties variant = new Properties();
+      variant.putAll(properties);
+      variant.remove(ClassBytecodeLoader.PROPERTY_VARIANTS);
+      variants.add(ClassBytecodeLoader.loadProperties(variant, filename));
+    }
+    return variants;
+  }
+  
+  private static boolean equal(String s1, String s2) {
+    return s1 == null ? s2 == null : s1.equals(s2);
+  }
+  
+  /**
+   * Instruments all the variants.
+   */
+  public void instrument() {
+    for (int i = 0; i < loaders.size(); i++) {
+      // The binary folder is shared, so the input jar is extracted once.
+      loaders.get(i).startInstrumentation(null, i == 0);
+    }
+    
+    instrumentFolder(binaryFolder);
+    
+    for (ClassBytecodeLoader loader : loaders) {
+      loader.finishInstrumentation();
+    }
+  }
+  
+  /**
+   * Instruments all the files of a folder and of its subfolders.
+   * 
+   * @param folder The folder to instrument.
+   */
+  private void instrumentFolder(File folder) {
+    File[] children = folder.listFiles();
+    if (children == null) {
+      throw new RuntimeException(folder.getAbsolutePath() + 
+          " is not a folder.");
+    }
+    for (File f : children) {
+      if (f.isDirectory()) {
+        instrumentFolder(f);
+        continue;
+      }
+      File relative = new File(f.getAbsolutePath().substring(
+          binaryFolder.getPath().length() + 1));
+      try {
+        byte[] b = Files.toByteArray(f);
+        boolean isClass = f.getName().endsWith(".class");
+        // Variants are expected to share the same shard.
+        if (isClass ? !loaders.get(0).isClassInShard(b) 
+            : !loaders.get(0).isResourceInShard(relative)) {
+          continue;
+        }
+        if (isClass) {
+          instrumentClass(b, relative);
+        } else {
+          for (ClassBytecodeLoader loader : loaders) {
+            loader.addResource(relative, b);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("An exception occurred while " +
+            "instrumenting file " + f + ".", e);
+      }
+    }
+  }
+  
+  /**
+   * Instruments a class for all the variants.
+   * 
+   * @param b The original class file.
+   * @param file The class file relative to the binary folder.
+   * @throws IOException If the instrumented class cannot be saved.
+   */
+  private void instrumentClass(byte[] b, File file) throws IOException {
+    long start = System.nanoTime();
+    List<ClassBytecodeLoader> missing = new ArrayList<ClassBytecodeLoader>();
+    List<String> digests = new ArrayList<String>();
+    for (ClassBytecodeLoader loader : loaders) {
+      String inputDigest = loader.digestInput(b);
+      if (inputDigest == null || !loader.addCachedClass(inputDigest, file)) {
+        missing.add(loader);
+        digests.add(inputDigest);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    
+    logger.info("Instrumenting file " + file + " for " + missing.size() + 
+        " variants.");
+    ClassReader cr = new ClassReader(b);
+    
+    PendingClass[] pending = new PendingClass[missing.size()];
+    ClassVisitor[] chains = new ClassVisitor[missing.size()];
+    for (int i = 0; i < pending.length; i++) {
+      pending[i] = missing.get(i).startClass(digests.get(i));
+      chains[i] = pending[i].chain;
+    }
+    cr.accept(new FanOutClassVisitor(chains), 0);
+    
+    for (int i = 0; i < pending.length; i++) {
+      missing.get(i).finishClass(pending[i], cr.getClassName(), start, 
+          b.length, file);
+    }
+  }
+}
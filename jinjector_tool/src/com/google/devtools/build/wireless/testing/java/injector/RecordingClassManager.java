@@ -0,0 +1,121 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link ClassManager} which delegates to another one and records each 
+ * query with its answer, so that the hierarchy facts on which the 
+ * instrumentation of a class depends can be checked again later.
+ * 
+ * <p>Queries are encoded as strings which can be evaluated again by 
+ * {@link #answer(ClassManager, String)}.
+ * 
+ * @author Michele Sama
+ */
+class RecordingClassManager extends ClassManager {
+  
+  private static final String SUPERCLASS = "superclass ";
+  private static final String INTERFACE = "interface ";
+  private static final String ASSIGNABLE = "assignable ";
+  private static final String IMPLEMENTING = "implementing ";
+  
+  private final ClassManager classManager;
+  
+  private final Map<String, String> facts = new LinkedHashMap<String, String>();
+  
+  /**
+   * @param classManager The {@link ClassManager} answering the queries.
+   */
+  RecordingClassManager(ClassManager classManager) {
+    super(null, new String[0]);
+    this.classManager = classManager;
+  }
+  
+  /**
+   * @return the recorded queries with their answers, in the order in which
+   *     they have been asked first.
+   */
+  Map<String, String> getFacts() {
+    return facts;
+  }
+  
+  @Override
+  public String getSuperclass(String classToQuery) {
+    String superclass = classManager.getSuperclass(classToQuery);
+    facts.put(SUPERCLASS + classToQuery, String.valueOf(superclass));
+    return superclass;
+  }
+  
+  @Override
+  public boolean isInterface(String interfaceName) {
+    boolean result = classManager.isInterface(interfaceName);
+    facts.put(INTERFACE + interfaceName, Boolean.toString(result));
+    return result;
+  }
+  
+  @Override
+  public boolean isAssignableFrom(String assignee, String target) {
+    boolean result = classManager.isAssignableFrom(assignee, target);
+    facts.put(ASSIGNABLE + assignee + ' ' + target, Boolean.toString(result));
+    return result;
+  }
+  
+  @Override
+  public boolean isImplementing(String child, String target) {
+    boolean result = classManager.isImplementing(child, target);
+    facts.put(IMPLEMENTING + child + ' ' + target, Boolean.toString(result));
+    return result;
+  }
+  
+  @Override
+  public boolean cleanLoadedClass(String classname) {
+    return classManager.cleanLoadedClass(classname);
+  }
+  
+  /**
+   * Evaluates a recorded query.
+   * 
+   * @param classManager The {@link ClassManager} answering the query.
+   * @param query A query as recorded by {@link #getFacts()}.
+   * @return the answer or <code>null</code> if the query cannot be answered,
+   *     for instance because a class cannot be found anymore.
+   */
+  static String answer(ClassManager classManager, String query) {
+    try {
+      if (query.startsWith(SUPERCLASS)) {
+        return String.valueOf(classManager.getSuperclass(
+            query.substring(SUPERCLASS.length())));
+      } else if (query.startsWith(INTERFACE)) {
+        return Boolean.toString(classManager.isInterface(
+            query.substring(INTERFACE.length())));
+      } else if (query.startsWith(ASSIGNABLE)) {
+        String[] classes = query.substring(ASSIGNABLE.length()).split(" ");
+        return Boolean.toString(
+            classManager.isAssignableFrom(classes[0], classes[1]));
+      } else if (query.startsWith(IMPLEMENTING)) {
+        String[] classes = query.substring(IMPLEMENTING.length()).split(" ");
+        return Boolean.toString(
+            classManager.isImplementing(classes[0], classes[1]));
+      }
+    } catch (RuntimeException e) {
+      // Treated as a different answer.
+    }
+    return null;
+  }
+}
@@ -33,9 +33,9 @@ import org.objectweb.asm.Opcodes;
  */
 public class ReferenceTracerMethodAdapter extends InjectorMethodAdapter {
   
-  private String setterClassName;
+  protected String setterClassName;
   
-  private String setterMethodsName;
+  protected String setterMethodsName;
   
   /**
    * Constructor from superclass.
@@ -71,11 +71,21 @@ public class ReferenceTracerMethodAdapter extends InjectorMethodAdapter {
   @Override
   public void visitInsn(int opcode) {
     if (isReturnInstruction(opcode) || opcode == Opcodes.ATHROW) {
-      stackServant.loadThis();
-      mv.visitMethodInsn(Opcodes.INVOKESTATIC, setterClassName,
-          setterMethodsName, "(L" + ownerClass + ";)V");
+      invokeSetter();
     }
     mv.visitInsn(opcode);
   }
 
+  /**
+   * Injects the invocation of the setter with this instance as argument.
+   * 
+   * <p>Subclasses can override it to pass additional arguments or to invoke
+   * a setter accepting a more generic type.
+   */
+  protected void invokeSetter() {
+    stackServant.loadThis();
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, setterClassName,
+        setterMethodsName, "(L" + ownerClass + ";)V");
+  }
+
 }
\ No newline at end of file
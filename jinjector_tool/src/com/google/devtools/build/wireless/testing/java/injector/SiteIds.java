@@ -0,0 +1,137 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns sequential ids to instrumented instructions, so that the code 
+ * injected at each site can refer to it with a single int and the tool can
+ * map the ids back to their position in the source.
+ * 
+ * <p>Ids are written one per line as:
+ * <pre>
+ * id owner.method(desc) line [detail]
+ * </pre>
+ * separated by tabs, where the line is -1 if the class has no line numbers
+ * and the detail is an optional description of the instruction.
+ * 
+ * @author Michele Sama
+ */
+public class SiteIds {
+  
+  private static final char SEPARATOR = '\t';
+  
+  private final List<String> sites = new ArrayList<String>();
+  
+  /**
+   * Assigns the id of a new site.
+   * 
+   * @param owner The internal name of the class containing the site.
+   * @param method The name of the method containing the site.
+   * @param desc The descriptor of the method.
+   * @param line The source line of the site, or -1 if unknown.
+   * @return the id.
+   */
+  public int newSite(String owner, String method, String desc, int line) {
+    return newSite(owner, method, desc, line, null);
+  }
+  
+  /**
+   * Assigns the id of a new site with a description of its instruction.
+   * 
+   * @param owner The internal name of the class containing the site.
+   * @param method The name of the method containing the site.
+   * @param desc The descriptor of the method.
+   * @param line The source line of the site, or -1 if unknown.
+   * @param detail A description of the instruction, or <code>null</code>.
+   * @return the id.
+   */
+  public synchronized int newSite(String owner, String method, String desc, 
+      int line, String detail) {
+    String site = owner + "." + method + desc + SEPARATOR + line;
+    sites.add(detail == null ? site : site + SEPARATOR + detail);
+    return sites.size() - 1;
+  }
+  
+  /**
+   * @return the number of assigned ids.
+   */
+  public synchronized int size() {
+    return sites.size();
+  }
+  
+  /**
+   * Writes the number of assigned ids as a big endian int, so that the 
+   * device can allocate its per-site counters once.
+   * 
+   * <p>The stream is NOT closed at the end.
+   * 
+   * @param out The stream on which to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public synchronized void writeCount(OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(sites.size());
+    dos.flush();
+  }
+  
+  /**
+   * Writes all the sites.
+   * 
+   * <p>The writer is NOT closed at the end.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   */
+  public synchronized void write(PrintWriter pw) {
+    for (int i = 0; i < sites.size(); i++) {
+      pw.println(Integer.toString(i) + SEPARATOR + sites.get(i));
+    }
+  }
+  
+  /**
+   * Reads the sites written by {@link #write(PrintWriter)}.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the sites by id, formatted as 
+   *     <code>owner.method(desc):line</code> followed by a space and by the 
+   *     detail, if any.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static Map<Integer, String> read(BufferedReader reader) 
+      throws IOException {
+    Map<Integer, String> result = new HashMap<Integer, String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] fields = line.split(String.valueOf(SEPARATOR));
+      if (fields.length == 3) {
+        result.put(Integer.valueOf(fields[0]), fields[1] + ":" + fields[2]);
+      } else if (fields.length == 4) {
+        result.put(Integer.valueOf(fields[0]), 
+            fields[1] + ":" + fields[2] + " " + fields[3]);
+      }
+    }
+    return result;
+  }
+}
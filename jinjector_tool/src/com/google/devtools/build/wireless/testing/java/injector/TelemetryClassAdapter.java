@@ -0,0 +1,139 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ClassAdapter which measures the code flowing through it without modifying
+ * it.
+ *
+ * <p>{@link ClassBytecodeLoader} places one of these adapters before and
+ * after each {@link Loadable} of the chain, so that the cost of each
+ * {@link Loadable} can be computed as the difference between two adjacent
+ * measures.
+ *
+ * <p>Probes are counted as invocations of methods declared in the
+ * decorators' package, which is where all the injected code ends up calling.
+ *
+ * @author Michele Sama
+ *
+ */
+public class TelemetryClassAdapter extends ClassAdapter {
+
+  private final List<MethodSizeEvaluator> methods =
+      new ArrayList<MethodSizeEvaluator>();
+
+  /**
+   * Creates a measuring adapter.
+   *
+   * @param cv The nested ClassVisitor.
+   */
+  public TelemetryClassAdapter(ClassVisitor cv) {
+    super(cv);
+  }
+
+  /**
+   * Wraps each method with a {@link MethodSizeEvaluator}.
+   */
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    MethodVisitor mv = super.visitMethod(access, name, desc, signature,
+        exceptions);
+    if (mv == null) {
+      return null;
+    }
+    MethodSizeEvaluator evaluator = new MethodSizeEvaluator(mv, name, desc);
+    methods.add(evaluator);
+    return evaluator;
+  }
+
+  /**
+   * @return the minimum size in bytes of the code of all the visited
+   *     methods.
+   */
+  public int getCodeSize() {
+    int size = 0;
+    for (MethodSizeEvaluator m : methods) {
+      size += m.getMinSize();
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of invocations of methods belonging to the
+   *     decorators.
+   */
+  public int getProbeCount() {
+    int count = 0;
+    for (MethodSizeEvaluator m : methods) {
+      count += m.probes;
+    }
+    return count;
+  }
+
+  /**
+   * Gets the methods whose code may exceed a given size.
+   *
+   * @param threshold The size in bytes.
+   * @return the maximum code size of each method bigger than the threshold,
+   *     by method name followed by its descriptor.
+   */
+  public Map<String, Integer> getMethodsLargerThan(int threshold) {
+    Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+    for (MethodSizeEvaluator m : methods) {
+      if (m.getMaxSize() > threshold) {
+        result.put(m.name + m.desc, m.getMaxSize());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A {@link CodeSizeEvaluator} which also counts the calls to the
+   * decorators.
+   */
+  private static class MethodSizeEvaluator extends CodeSizeEvaluator {
+
+    final String name;
+    final String desc;
+    int probes = 0;
+
+    MethodSizeEvaluator(MethodVisitor mv, String name, String desc) {
+      super(mv);
+      this.name = name;
+      this.desc = desc;
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name,
+        String desc) {
+      if (owner.startsWith(ClassNames.DECORATORS_PKG)) {
+        probes++;
+      }
+      super.visitMethodInsn(opcode, owner, name, desc);
+    }
+  }
+}
@@ -53,6 +53,20 @@ public class WhiteBoxClassAdapter extends ClassAdapter {
   protected String currentClass;
 
   protected boolean isInterface;
+  
+  protected WhiteBoxMode mode = WhiteBoxMode.LOG;
+  
+  /**
+   * The ids of the traced methods and fields, or <code>null</code> if they 
+   * are not needed.
+   */
+  protected WhiteBoxTraceIds traceIds = null;
+  
+  /**
+   * The sampling and rate limits of the traced methods, or 
+   * <code>null</code> to trace all the calls.
+   */
+  protected WhiteBoxSampling sampling = null;
 
   protected static Logger logger = Logger.getLogger("WhiteBoxClassAdapter");
   
@@ -77,6 +91,47 @@ public class WhiteBoxClassAdapter extends ClassAdapter {
     methodInclusionPattern = methodInclusion;
     fieldInclusionPattern = fieldInclusion;
   }
+  
+  /**
+   * Creates a white box class adapter in {@link WhiteBoxMode#TRACE} mode.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param classInclusion A String containing class inclusion.
+   * @param methodInclusion A String containing method inclusion.
+   * @param fieldInclusion A String containing field inclusion.
+   * @param platform The target {@link Platform}.
+   * @param traceIds The ids of the traced methods and fields.
+   */
+  public WhiteBoxClassAdapter(ClassVisitor cv, String classInclusion,
+      String methodInclusion, String fieldInclusion, Platform platform,
+      WhiteBoxTraceIds traceIds) {
+    this(cv, classInclusion, methodInclusion, fieldInclusion, platform, 
+        WhiteBoxMode.TRACE, traceIds, null);
+  }
+  
+  /**
+   * Creates a white box class adapter which can sample and rate limit the 
+   * traced calls.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param classInclusion A String containing class inclusion.
+   * @param methodInclusion A String containing method inclusion.
+   * @param fieldInclusion A String containing field inclusion.
+   * @param platform The target {@link Platform}.
+   * @param mode The way in which events are exposed.
+   * @param traceIds The ids of the traced methods and fields, required in 
+   *     {@link WhiteBoxMode#TRACE} mode or if some calls are sampled.
+   * @param sampling The sampling and rate limits, or <code>null</code>.
+   */
+  public WhiteBoxClassAdapter(ClassVisitor cv, String classInclusion,
+      String methodInclusion, String fieldInclusion, Platform platform,
+      WhiteBoxMode mode, WhiteBoxTraceIds traceIds, 
+      WhiteBoxSampling sampling) {
+    this(cv, classInclusion, methodInclusion, fieldInclusion, platform);
+    this.mode = mode;
+    this.traceIds = traceIds;
+    this.sampling = sampling;
+  }
 
   /**
    * Visits a class and stores a flag saying if it is an interface.
@@ -102,7 +157,7 @@ public class WhiteBoxClassAdapter extends ClassAdapter {
     if (!isInterface && mv != null && !name.equals("toString")) {
       mv = new WhiteBoxMethodAdapter(mv, access, currentClass, name, desc, 
           classInclusionPattern, methodInclusionPattern, fieldInclusionPattern,
-          targetPlatform);
+          targetPlatform, mode, traceIds, sampling);
     }
     return mv;
   }
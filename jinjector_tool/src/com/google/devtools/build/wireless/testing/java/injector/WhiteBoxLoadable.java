@@ -17,8 +17,14 @@
 package com.google.devtools.build.wireless.testing.java.injector;
 
 
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
 import org.objectweb.asm.ClassVisitor;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -32,13 +38,26 @@ public class WhiteBoxLoadable extends Loadable {
   public static final String LOGGER_NAME = "WhiteBoxLoadable";
 
   protected static final String PROPERTY_WHITEBOX_CLASS_INCLUSION = "whiteboxClassInclusion";
-  protected static String whiteboxClassInclusion;
+  protected String whiteboxClassInclusion;
 
   protected static final String PROPERTY_WHITEBOX_METHOD_INCLUSION = "whiteboxMethodInclusion";
-  protected static String whiteboxMethodInclusion;
+  protected String whiteboxMethodInclusion;
 
   protected static final String PROPERTY_WHITEBOX_FIELD_INCLUSION = "whiteboxFieldInclusion";
-  protected static String whiteboxFieldInclusion;
+  protected String whiteboxFieldInclusion;
+
+  protected static final String PROPERTY_WHITEBOX_MODE = "whiteboxMode";
+  protected WhiteBoxMode whiteboxMode;
+
+  protected static final String PROPERTY_WHITEBOX_SAMPLING = "whiteboxSampling";
+  protected static final String PROPERTY_WHITEBOX_RATE_LIMIT = "whiteboxRateLimit";
+  protected WhiteBoxSampling whiteboxSampling;
+
+  /**
+   * The ids assigned to the traced methods and fields during the current 
+   * run, or <code>null</code> if the mode is {@link WhiteBoxMode#LOG}.
+   */
+  protected WhiteBoxTraceIds traceIds = null;
 
   /* (non-Javadoc)
    * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#loadInternal(java.util.Properties)
@@ -48,6 +67,32 @@ public class WhiteBoxLoadable extends Loadable {
     whiteboxClassInclusion = properties.getProperty(PROPERTY_WHITEBOX_CLASS_INCLUSION, "");
     whiteboxMethodInclusion = properties.getProperty(PROPERTY_WHITEBOX_METHOD_INCLUSION, "");
     whiteboxFieldInclusion = properties.getProperty(PROPERTY_WHITEBOX_FIELD_INCLUSION, "");
+    whiteboxMode = WhiteBoxMode.valueOf(properties.getProperty(
+        PROPERTY_WHITEBOX_MODE, WhiteBoxMode.LOG.name()));
+    whiteboxSampling = new WhiteBoxSampling(
+        properties.getProperty(PROPERTY_WHITEBOX_SAMPLING), 
+        properties.getProperty(PROPERTY_WHITEBOX_RATE_LIMIT));
+  }
+
+  /**
+   * Creates the ids of the traced methods and fields in 
+   * {@link WhiteBoxMode#TRACE} mode or when some calls are sampled.
+   * 
+   * @see Loadable#preOperation()
+   */
+  @Override
+  public void preOperation() {
+    if (needsTraceIds()) {
+      traceIds = new WhiteBoxTraceIds();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the instrumented code refers to methods and
+   *     fields by id.
+   */
+  private boolean needsTraceIds() {
+    return whiteboxMode == WhiteBoxMode.TRACE || !whiteboxSampling.isEmpty();
   }
 
   /* (non-Javadoc)
@@ -56,10 +101,62 @@ public class WhiteBoxLoadable extends Loadable {
   @Override
   public ClassVisitor operation(ClassVisitor cv, ClassManager classManager) {
     cv = new WhiteBoxClassAdapter(cv, whiteboxClassInclusion, 
-        whiteboxMethodInclusion, whiteboxFieldInclusion, platform);
+        whiteboxMethodInclusion, whiteboxFieldInclusion, platform, 
+        whiteboxMode, traceIds, whiteboxSampling);
     return cv;
   }
 
+  /**
+   * Writes the ids of the traced methods and fields, which are needed to 
+   * decode the traces dumped by the device, and adds their number to the 
+   * jar so that the device can allocate its counters once.
+   * 
+   * @see Loadable#postOperation(java.lang.String, InstrumentedJarCreator)
+   */
+  @Override
+  public void postOperation(String outputDir, 
+      InstrumentedJarCreator instrumentedJar) {
+    if (traceIds == null) {
+      return;
+    }
+    // The traces dumped by the device cannot be decoded without the ids.
+    File idFile = new File(outputDir, 
+        WhiteBoxTraceIds.FILENAME_TRACE_IDS + runId);
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(idFile);
+      traceIds.write(pw);
+      if (pw.checkError()) {
+        throw new IOException("Error while writing " + idFile);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Execution aborted because it was " +
+          "impossible to write the trace ids: " + e.getMessage(), e);
+    } finally {
+      Closeables.closeQuietly(pw);
+    }
+    try {
+      ByteArrayOutputStream count = new ByteArrayOutputStream();
+      traceIds.writeCount(count);
+      instrumentedJar.addFile(new File(WhiteBoxTraceIds.RESOURCE_ID_COUNT), 
+          count.toByteArray());
+    } catch (IOException e) {
+      Logger log = Logger.getLogger(LOGGER_NAME);
+      log.warning("Problem adding the trace id count: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Ids are assigned sequentially across the whole run, so traced classes
+   * cannot be instrumented independently.
+   * 
+   * @see Loadable#isIncremental()
+   */
+  @Override
+  public boolean isIncremental() {
+    return !needsTraceIds();
+  }
+
   /* (non-Javadoc)
    * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#printUsage()
    */
@@ -14,6 +14,7 @@
  */
 package com.google.devtools.build.wireless.testing.java.injector;
 
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -52,6 +53,30 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
 
   private int timeIndexInStack = -1;
   private int returnIndexInStack = -1;
+  
+  private final WhiteBoxMode mode;
+  
+  /**
+   * The ids of the traced methods and fields, or <code>null</code> if they
+   * are not needed.
+   */
+  private final WhiteBoxTraceIds traceIds;
+  
+  /**
+   * One call out of {@link #sampling} is traced.
+   */
+  private int sampling = 1;
+  
+  /**
+   * The maximum number of calls traced per second, or 0 for no limit.
+   */
+  private int rateLimit = 0;
+  
+  /**
+   * The local containing the decision of tracing the current call, or -1 if
+   * all calls are traced.
+   */
+  private int gateIndexInStack = -1;
 
   /**
    * Public fields accessed externally needs to be injected from external 
@@ -87,7 +112,66 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
   public WhiteBoxMethodAdapter(MethodVisitor mv, int access, 
       String currentClass, String name, String desc, String classInclusion, 
       String methodInclusion, String fieldInclusion, Platform platform) {
+    this(mv, access, currentClass, name, desc, classInclusion, 
+        methodInclusion, fieldInclusion, platform, null);
+  }
+  
+  /**
+   * Creates a white box method adapter which, if <code>traceIds</code> is 
+   * not <code>null</code>, records events as binary records instead of 
+   * logging them.
+   * 
+   * @param mv The nested MethodVisitor.
+   * @param access The method's access flags.
+   * @param currentClass The current class.
+   * @param name The method's name.
+   * @param desc The method's description.
+   * @param classInclusion The regular expression for class inclusion.
+   * @param methodInclusion The regular expression for methods inclusion.
+   * @param fieldInclusion The regular expression for field inclusion.
+   * @param platform The target platform.
+   * @param traceIds The ids of traced methods and fields for 
+   *     {@link WhiteBoxMode#TRACE}, or <code>null</code> for 
+   *     {@link WhiteBoxMode#LOG}.
+   */
+  public WhiteBoxMethodAdapter(MethodVisitor mv, int access, 
+      String currentClass, String name, String desc, String classInclusion, 
+      String methodInclusion, String fieldInclusion, Platform platform,
+      WhiteBoxTraceIds traceIds) {
+    this(mv, access, currentClass, name, desc, classInclusion, 
+        methodInclusion, fieldInclusion, platform, 
+        traceIds == null ? WhiteBoxMode.LOG : WhiteBoxMode.TRACE, traceIds, 
+        null);
+  }
+  
+  /**
+   * Creates a white box method adapter which can sample and rate limit the
+   * traced calls.
+   * 
+   * @param mv The nested MethodVisitor.
+   * @param access The method's access flags.
+   * @param currentClass The current class.
+   * @param name The method's name.
+   * @param desc The method's description.
+   * @param classInclusion The regular expression for class inclusion.
+   * @param methodInclusion The regular expression for methods inclusion.
+   * @param fieldInclusion The regular expression for field inclusion.
+   * @param platform The target platform.
+   * @param mode The way in which events are exposed.
+   * @param traceIds The ids of traced methods and fields. Must not be 
+   *     <code>null</code> in {@link WhiteBoxMode#TRACE} mode or if 
+   *     <code>whiteBoxSampling</code> applies to any method.
+   * @param whiteBoxSampling The sampling and rate limits, or 
+   *     <code>null</code> to trace all the calls.
+   */
+  public WhiteBoxMethodAdapter(MethodVisitor mv, int access, 
+      String currentClass, String name, String desc, String classInclusion, 
+      String methodInclusion, String fieldInclusion, Platform platform,
+      WhiteBoxMode mode, WhiteBoxTraceIds traceIds, 
+      WhiteBoxSampling whiteBoxSampling) {
     super(mv, access, currentClass, name, desc, platform);
+    this.mode = mode;
+    this.traceIds = traceIds;
 
     // patterns
     classInclusionPattern = Pattern.compile(classInclusion);
@@ -100,7 +184,16 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
     Matcher methodMatcher = methodInclusionPattern.matcher(methodName);
     matchMethod = methodMatcher.find();
 
-    if (matchOwnerClass && matchMethod) {
+    if (matchOwnerClass && matchMethod && whiteBoxSampling != null) {
+      sampling = whiteBoxSampling.getSampling(methodName);
+      rateLimit = whiteBoxSampling.getRateLimit(methodName);
+      if (sampling > 1 || rateLimit > 0) {
+        gateIndexInStack = stackServant.getInstrumentedFrameSize();
+        stackServant.increaseInstrumentedStack(1);
+      }
+    }
+
+    if (matchOwnerClass && matchMethod && mode == WhiteBoxMode.LOG) {
       // time
       timeIndexInStack = stackServant.getInstrumentedFrameSize();
       stackServant.increaseInstrumentedStack(2);
@@ -131,10 +224,43 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
     mv.visitInsn(Opcodes.DCONST_0);
     stackServant.store("D", accessedFieldValueIndexInStack);
 
-    if (matchOwnerClass && matchMethod) {
+    if (matchOwnerClass && matchMethod && gateIndexInStack >= 0) {
+      logger.info("\t[WhiteBox][Method gate]: " + methodName + " 1/" 
+          + sampling + " " + rateLimit + "/s");
+      pushTraceId(traceIds.getId(ownerClass, methodName, description));
+      pushInt(sampling);
+      pushInt(rateLimit);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+          "gate", "(III)Z");
+      stackServant.store("I", gateIndexInStack);
+    }
+
+    Label skip = null;
+    if (matchOwnerClass && matchMethod && mode == WhiteBoxMode.LOG) {
+      // The time must be initialized even if the call is not traced.
       mv.visitInsn(Opcodes.LCONST_0);
       stackServant.store("J", timeIndexInStack);
+    }
+    if (matchOwnerClass && matchMethod) {
+      skip = visitGate();
+    }
 
+    if (matchOwnerClass && matchMethod && mode == WhiteBoxMode.TRACE) {
+      logger.info("\t[WhiteBox][Method trace]: " + methodName + " "
+          + description);
+      // The first argument is recorded if it fits in the record.
+      if (stackServant.getArgumentSize() > 0 
+          && isIntType(stackServant.getArgumentTypeAt(0))) {
+        stackServant.loadArgumentAt(0);
+        pushTraceId(traceIds.getId(ownerClass, methodName, description));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+            "traceCall", "(II)V");
+      } else {
+        pushTraceId(traceIds.getId(ownerClass, methodName, description));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+            "traceCall", "(I)V");
+      }
+    } else if (matchOwnerClass && matchMethod) {
       logger.info("\t[WhiteBox][Method call]: " + methodName + " "
           + description);
 
@@ -169,6 +295,7 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
       // saving and printing
       printServant.stopPrinting();
     }
+    visitGateEnd(skip);
     mv.visitCode();
   }
 
@@ -179,7 +306,24 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
   @Override
   public void visitInsn(int opcode) {
     // TODO: exceptions are not handled yet.
-    if (matchOwnerClass && matchMethod
+    Label skip = null;
+    if (matchOwnerClass && matchMethod 
+        && ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN))) {
+      skip = visitGate();
+    }
+    if (matchOwnerClass && matchMethod && mode == WhiteBoxMode.TRACE
+        && ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN))) {
+      if (isIntType(stackServant.getReturnType())) {
+        mv.visitInsn(Opcodes.DUP);
+        pushTraceId(traceIds.getId(ownerClass, methodName, description));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+            "traceReturn", "(II)V");
+      } else {
+        pushTraceId(traceIds.getId(ownerClass, methodName, description));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+            "traceReturn", "(I)V");
+      }
+    } else if (matchOwnerClass && matchMethod
         && ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN))) {
       logger.info("\t[WhiteBox][Method return]: " + this.methodName
           + " " + description);
@@ -217,6 +361,7 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
       // save and print
       this.printServant.stopPrinting();
     }
+    visitGateEnd(skip);
     mv.visitInsn(opcode);
   }
 
@@ -254,6 +399,16 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
           + " desc " + desc);
     }
 
+    if (instrument && mode == WhiteBoxMode.TRACE) {
+      mv.visitFieldInsn(opcode, owner, name, desc);
+      Label skip = visitGate();
+      pushTraceId(traceIds.getId(owner, name, desc));
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, ClassNames.TRACER, 
+          "traceSet", "(I)V");
+      visitGateEnd(skip);
+      return;
+    }
+
     if (instrument && isField(opcode)) {
       // duplicate and store the value
       stackServant.store(desc, accessedFieldValueIndexInStack);
@@ -265,6 +420,7 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
     mv.visitFieldInsn(opcode, owner, name, desc);
 
     if (instrument) {
+      Label skip = visitGate();
       printServant.startPrinting();
       printServant.printString("[WhiteBox][Set]\t");
 
@@ -300,9 +456,77 @@ public class WhiteBoxMethodAdapter extends InjectorMethodAdapter {
 
       // save and print
       printServant.stopPrinting();
+      visitGateEnd(skip);
+    }
+  }
+  
+  /**
+   * Starts a block of code which is executed only if the current call is 
+   * traced.
+   * 
+   * @return the label to pass to {@link #visitGateEnd(Label)}, or 
+   *     <code>null</code> if all calls are traced.
+   */
+  private Label visitGate() {
+    if (gateIndexInStack < 0) {
+      return null;
+    }
+    Label skip = new Label();
+    stackServant.load("I", gateIndexInStack);
+    mv.visitJumpInsn(Opcodes.IFEQ, skip);
+    return skip;
+  }
+  
+  /**
+   * Ends a block started by {@link #visitGate()}.
+   * 
+   * @param skip The label returned by {@link #visitGate()}.
+   */
+  private void visitGateEnd(Label skip) {
+    if (skip != null) {
+      mv.visitLabel(skip);
+    }
+  }
+  
+  /**
+   * Pushes the id of a traced method or field on the stack.
+   * 
+   * @param id The id.
+   */
+  private void pushTraceId(int id) {
+    if (id <= Short.MAX_VALUE) {
+      mv.visitIntInsn(Opcodes.SIPUSH, id);
+    } else {
+      mv.visitLdcInsn(id);
     }
   }
   
+  /**
+   * Pushes a non negative constant on the stack.
+   * 
+   * @param value The constant.
+   */
+  private void pushInt(int value) {
+    if (value <= 5) {
+      mv.visitInsn(Opcodes.ICONST_0 + value);
+    } else if (value <= Byte.MAX_VALUE) {
+      mv.visitIntInsn(Opcodes.BIPUSH, value);
+    } else {
+      pushTraceId(value);
+    }
+  }
+  
+  /**
+   * Tells if values of a given type are represented as an <code>int</code>
+   * on the stack.
+   * 
+   * @param typeDesc The descriptor of the type.
+   * @return <code>true</code> for int, short, byte, char and boolean.
+   */
+  private static boolean isIntType(String typeDesc) {
+    return typeDesc.length() == 1 && "ISBCZ".indexOf(typeDesc.charAt(0)) >= 0;
+  }
+  
   /**
    * Tells if the given instruction is corresponding to 
    * {@link Opcodes#PUTFIELD}.
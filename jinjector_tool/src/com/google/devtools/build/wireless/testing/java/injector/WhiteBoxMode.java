@@ -0,0 +1,34 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+/**
+ * List of the ways in which the WhiteBox can expose methods and fields.
+ *
+ * @author Michele Sama
+ */
+public enum WhiteBoxMode {
+  /**
+   * Builds a readable message for each event and logs it synchronously.
+   */
+  LOG,
+  
+  /**
+   * Writes a binary record for each event into the ring buffer of the 
+   * decorators' Tracer.
+   */
+  TRACE
+}
@@ -0,0 +1,141 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Limits the number of events traced by the WhiteBox for specific methods.
+ * 
+ * <p>Each method can be sampled, recording only one call out of N, and rate 
+ * limited, recording at most N calls per second with a token bucket whose 
+ * capacity is one second worth of calls. The decision is taken once per 
+ * call by the decorators' Tracer, and the return and the field assignments 
+ * of a suppressed call are suppressed as well.
+ * 
+ * <p>Rules are written as <code>methodRegex=N</code> separated by 
+ * {@value #RULE_SEPARATOR}. Regular expressions are matched against method 
+ * names as for the method inclusion and the first matching rule wins.
+ * 
+ * @author Michele Sama
+ */
+public class WhiteBoxSampling {
+  
+  /**
+   * Separates the rules.
+   */
+  public static final String RULE_SEPARATOR = ";";
+  
+  private final List<Rule> samplingRules;
+  
+  private final List<Rule> rateLimitRules;
+  
+  /**
+   * Creates the sampling configuration.
+   * 
+   * @param sampling The rules specifying one call out of how many is 
+   *     traced. <code>null</code> or empty to trace all the calls.
+   * @param rateLimit The rules specifying the maximum number of calls traced
+   *     each second. <code>null</code> or empty to disable rate limits.
+   * @throws IllegalArgumentException If a rule is malformed.
+   */
+  public WhiteBoxSampling(String sampling, String rateLimit) {
+    samplingRules = parse(sampling);
+    rateLimitRules = parse(rateLimit);
+  }
+  
+  /**
+   * @return <code>true</code> if no method is sampled or rate limited.
+   */
+  public boolean isEmpty() {
+    return samplingRules.isEmpty() && rateLimitRules.isEmpty();
+  }
+  
+  /**
+   * Gets the sampling interval of a method.
+   * 
+   * @param methodName The name of the method.
+   * @return N if one call out of N is traced, or 1 to trace all the calls.
+   */
+  public int getSampling(String methodName) {
+    return find(samplingRules, methodName, 1);
+  }
+  
+  /**
+   * Gets the rate limit of a method.
+   * 
+   * @param methodName The name of the method.
+   * @return the maximum number of calls traced each second, or 0 for no 
+   *     limit.
+   */
+  public int getRateLimit(String methodName) {
+    return find(rateLimitRules, methodName, 0);
+  }
+  
+  private static int find(List<Rule> rules, String methodName, 
+      int defaultValue) {
+    for (Rule rule : rules) {
+      if (rule.pattern.matcher(methodName).find()) {
+        return rule.value;
+      }
+    }
+    return defaultValue;
+  }
+  
+  private static List<Rule> parse(String rules) {
+    List<Rule> result = new ArrayList<Rule>();
+    if (rules == null) {
+      return result;
+    }
+    for (String rule : rules.split(RULE_SEPARATOR)) {
+      rule = rule.trim();
+      if (rule.length() == 0) {
+        continue;
+      }
+      int separator = rule.lastIndexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Rules must be written as " 
+            + "methodRegex=N: " + rule);
+      }
+      int value;
+      try {
+        value = Integer.parseInt(rule.substring(separator + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value in rule " + rule, e);
+      }
+      if (value <= 0) {
+        throw new IllegalArgumentException("Values must be positive: " + rule);
+      }
+      result.add(new Rule(Pattern.compile(rule.substring(0, separator)), 
+          value));
+    }
+    return result;
+  }
+  
+  /**
+   * A value applied to all the methods matching a pattern.
+   */
+  private static class Rule {
+    final Pattern pattern;
+    final int value;
+    
+    Rule(Pattern pattern, int value) {
+      this.pattern = pattern;
+      this.value = value;
+    }
+  }
+}
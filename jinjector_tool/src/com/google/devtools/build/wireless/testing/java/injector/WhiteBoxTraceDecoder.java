@@ -0,0 +1,202 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the binary dump written by the decorators' Tracer into a readable
+ * trace, using the ids written by {@link WhiteBoxTraceIds}.
+ * 
+ * <p>Each record is printed on its own line as:
+ * <pre>
+ * time thread event name [argument]
+ * </pre>
+ * where time is in milliseconds since the tracer was initialized and calls
+ * are indented by their depth in their thread. The records are followed by 
+ * the number of calls suppressed by sampling and rate limits for each 
+ * method which had any.
+ * 
+ * @author Michele Sama
+ */
+public class WhiteBoxTraceDecoder {
+  
+  /**
+   * Must be the same as in the decorators' Tracer.
+   */
+  static final int MAGIC = 0x4A545243;
+  static final int VERSION = 2;
+  static final int EVENT_CALL = 0;
+  static final int EVENT_RETURN = 1;
+  static final int EVENT_SET = 2;
+  static final int FLAG_ARGUMENT = 0x80;
+  
+  private static final String ARGUMENT_TRACE_IDS = "traceIds=";
+  
+  private static final String ARGUMENT_TRACE = "trace=";
+  
+  private final Map<Integer, String> names;
+  
+  /**
+   * Creates a decoder.
+   * 
+   * @param names The names by id, as read by 
+   *     {@link WhiteBoxTraceIds#read(BufferedReader)}.
+   */
+  public WhiteBoxTraceDecoder(Map<Integer, String> names) {
+    this.names = names;
+  }
+  
+  /**
+   * Decodes a dump.
+   * 
+   * @param in The dump. It is not closed.
+   * @param pw The writer on which to print the trace. It is not closed.
+   * @return the number of decoded records.
+   * @throws IOException If the dump cannot be read or is not valid.
+   */
+  public int decode(InputStream in, PrintWriter pw) throws IOException {
+    DataInputStream dis = new DataInputStream(in);
+    if (dis.readInt() != MAGIC) {
+      throw new IOException("Not a trace dump.");
+    }
+    int version = dis.readInt();
+    if (version < 1 || version > VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+    dis.readLong();
+    int recordSize = dis.readInt();
+    int written = dis.readInt();
+    int count = dis.readInt();
+    if (written > count) {
+      pw.println("# " + (written - count) + " older records were overwritten");
+    }
+    
+    Map<Integer, Integer> depths = new HashMap<Integer, Integer>();
+    for (int i = 0; i < count; i++) {
+      int id = dis.readInt();
+      int event = dis.readInt();
+      int time = dis.readInt();
+      int argument = dis.readInt();
+      // Skips fields added by newer formats.
+      for (int k = 4; k < recordSize; k++) {
+        dis.readInt();
+      }
+      
+      int thread = event >>> 8;
+      Integer previous = depths.get(thread);
+      int depth = previous == null ? 0 : previous;
+      StringBuilder sb = new StringBuilder();
+      sb.append(time).append('\t').append(thread).append('\t');
+      switch (event & 0x7f) {
+        case EVENT_CALL:
+          indent(sb, depth);
+          sb.append("-> ");
+          depth++;
+          break;
+        case EVENT_RETURN:
+          depth = Math.max(0, depth - 1);
+          indent(sb, depth);
+          sb.append("<- ");
+          break;
+        case EVENT_SET:
+          indent(sb, depth);
+          sb.append("= ");
+          break;
+        default:
+          sb.append("? ");
+      }
+      depths.put(thread, depth);
+      String name = names.get(id);
+      sb.append(name == null ? "#" + id : name);
+      if ((event & FLAG_ARGUMENT) != 0) {
+        sb.append(' ').append(argument);
+      }
+      pw.println(sb);
+    }
+    
+    if (version >= 2) {
+      int counters = dis.readInt();
+      for (int id = 0; id < counters; id++) {
+        int suppressed = dis.readInt();
+        if (suppressed > 0) {
+          String name = names.get(id);
+          pw.println("# suppressed " + suppressed + " " 
+              + (name == null ? "#" + id : name));
+        }
+      }
+    }
+    pw.flush();
+    return count;
+  }
+  
+  private static void indent(StringBuilder sb, int depth) {
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+  }
+  
+  /**
+   * Decodes a dump and prints it on the standard output.
+   * 
+   * @param args {@value #ARGUMENT_TRACE_IDS} followed by the ids file and 
+   *     {@value #ARGUMENT_TRACE} followed by the dump.
+   * @throws IOException If a file cannot be read.
+   */
+  public static void main(String[] args) throws IOException {
+    String traceIds = null;
+    String trace = null;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_TRACE_IDS)) {
+        traceIds = s.substring(ARGUMENT_TRACE_IDS.length());
+      } else if (s.startsWith(ARGUMENT_TRACE)) {
+        trace = s.substring(ARGUMENT_TRACE.length());
+      }
+    }
+    if (traceIds == null || trace == null) {
+      throw new IllegalArgumentException("Invoke the decoder with " 
+          + ARGUMENT_TRACE_IDS + "file " + ARGUMENT_TRACE + "file");
+    }
+    
+    BufferedReader reader = null;
+    Map<Integer, String> names;
+    try {
+      reader = new BufferedReader(new FileReader(traceIds));
+      names = WhiteBoxTraceIds.read(reader);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    
+    InputStream in = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(trace));
+      new WhiteBoxTraceDecoder(names).decode(in, new PrintWriter(System.out));
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+}
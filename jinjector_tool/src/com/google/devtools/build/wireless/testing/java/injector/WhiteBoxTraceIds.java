@@ -0,0 +1,129 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Assigns the ids with which traced methods and fields are identified in 
+ * the binary records of the decorators' Tracer.
+ * 
+ * <p>Ids are assigned sequentially during the instrumentation and written 
+ * to {@link #FILENAME_TRACE_IDS}, which is then used by 
+ * {@link WhiteBoxTraceDecoder} to map the ids back to names. Their number is 
+ * added to the jar as {@link #RESOURCE_ID_COUNT}, from which the Tracer 
+ * allocates its per-id counters once.
+ * 
+ * @author Michele Sama
+ */
+public class WhiteBoxTraceIds {
+  
+  /**
+   * Default file name with which ids are stored, followed by the runId.
+   */
+  public static final String FILENAME_TRACE_IDS = "whiteboxTraceIds.txt";
+  
+  /**
+   * The jar entry containing the number of assigned ids. It must match 
+   * <code>Tracer.RESOURCE_ID_COUNT</code> in the decorators.
+   */
+  public static final String RESOURCE_ID_COUNT = "whiteboxTraceIdCount.bin";
+  
+  private static final char SEPARATOR = '\t';
+  
+  private final Map<String, Integer> ids = new LinkedHashMap<String, Integer>();
+  
+  /**
+   * Gets the id of a method or field, assigning a new one if needed.
+   * 
+   * @param owner The internal name of the owner class.
+   * @param name The name of the method or field.
+   * @param desc The descriptor of the method or field.
+   * @return the id.
+   */
+  public int getId(String owner, String name, String desc) {
+    String key = owner + "." + name + desc;
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = ids.size();
+      ids.put(key, id);
+    }
+    return id;
+  }
+  
+  /**
+   * @return the number of assigned ids.
+   */
+  public int size() {
+    return ids.size();
+  }
+  
+  /**
+   * Writes the number of assigned ids as a big endian int.
+   * 
+   * <p>The stream is NOT closed at the end.
+   * 
+   * @param out The stream on which to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public void writeCount(OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(ids.size());
+    dos.flush();
+  }
+  
+  /**
+   * Writes each id followed by {@link #SEPARATOR} and by the owner, name and
+   * descriptor, one per line.
+   * 
+   * <p>The writer is NOT closed at the end.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   */
+  public void write(PrintWriter pw) {
+    for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+      pw.println(entry.getValue().toString() + SEPARATOR + entry.getKey());
+    }
+  }
+  
+  /**
+   * Reads the ids written by {@link #write(PrintWriter)}.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the names by id.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static Map<Integer, String> read(BufferedReader reader) 
+      throws IOException {
+    Map<Integer, String> names = new HashMap<Integer, String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      int separator = line.indexOf(SEPARATOR);
+      if (separator > 0) {
+        names.put(Integer.valueOf(line.substring(0, separator)), 
+            line.substring(separator + 1));
+      }
+    }
+    return names;
+  }
+}
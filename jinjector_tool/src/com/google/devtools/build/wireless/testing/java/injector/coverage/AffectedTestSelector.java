@@ -0,0 +1,231 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Selects the tests which must be run after a change.
+ * 
+ * <p>A test is selected if it covered at least one of the changed classes, 
+ * according to a {@link TestCoverageMatrix}, if it is declared by one of the
+ * changed classes, or if it is not in the matrix at all, which is the case 
+ * of new tests. Changes can be given as a list of 
+ * class names or computed by comparing two builds of the application.
+ * 
+ * <p>The selected tests are written one per line and can be bundled in the 
+ * instrumented application as <code>/selectedTests.txt</code>, in which 
+ * case the test runner only runs them.
+ * 
+ * @author Michele Sama
+ */
+public class AffectedTestSelector {
+  
+  private static final String ARGUMENT_MATRIX = "matrix=";
+  
+  private static final String ARGUMENT_CHANGED = "changed=";
+  
+  private static final String ARGUMENT_BEFORE = "before=";
+  
+  private static final String ARGUMENT_AFTER = "after=";
+  
+  private static final String ARGUMENT_TESTS = "tests=";
+  
+  private static final String ARGUMENT_OUTPUT = "output=";
+  
+  private static final String CLASS_EXTENSION = ".class";
+  
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private AffectedTestSelector() {
+  }
+  
+  /**
+   * Selects the affected tests.
+   * 
+   * @param matrix The coverage of each test.
+   * @param changedClasses The internal names of the changed classes.
+   * @param tests All the current tests, or <code>null</code> to consider only
+   *     the tests in the matrix.
+   * @return the names of the selected tests, sorted.
+   */
+  public static Set<String> select(TestCoverageMatrix matrix, 
+      Set<String> changedClasses, Set<String> tests) {
+    Set<String> selected = matrix.getAffectedTests(changedClasses);
+    if (tests != null) {
+      selected.retainAll(tests);
+      for (String test : tests) {
+        if (matrix.getCoveredUnits(test) == null) {
+          selected.add(test);
+        }
+      }
+    }
+    return selected;
+  }
+  
+  /**
+   * Compares the classes of two jars. Classes are compared by the CRC of 
+   * their class file.
+   * 
+   * @param before The jar before the change.
+   * @param after The jar after the change.
+   * @return the internal names of the classes which have been added, removed
+   *     or modified.
+   * @throws IOException If a jar cannot be read.
+   */
+  public static Set<String> getChangedClasses(File before, File after) 
+      throws IOException {
+    Map<String, Long> beforeCrcs = readClassCrcs(before);
+    Map<String, Long> afterCrcs = readClassCrcs(after);
+    Set<String> changed = new TreeSet<String>();
+    for (Map.Entry<String, Long> entry : afterCrcs.entrySet()) {
+      if (!entry.getValue().equals(beforeCrcs.remove(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+    }
+    changed.addAll(beforeCrcs.keySet());
+    return changed;
+  }
+  
+  private static Map<String, Long> readClassCrcs(File jar) throws IOException {
+    Map<String, Long> crcs = new HashMap<String, Long>();
+    ZipFile zip = new ZipFile(jar);
+    try {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (!entry.isDirectory() && name.endsWith(CLASS_EXTENSION)) {
+          crcs.put(name.substring(0, name.length() - CLASS_EXTENSION.length()),
+              entry.getCrc());
+        }
+      }
+    } finally {
+      zip.close();
+    }
+    return crcs;
+  }
+  
+  /**
+   * Reads a file containing one name per line.
+   */
+  private static Set<String> readNames(String filename) throws IOException {
+    Set<String> names = new TreeSet<String>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(filename));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0) {
+          names.add(line.replace('.', '/'));
+        }
+      }
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    return names;
+  }
+  
+  /**
+   * Writes the tests affected by a change.
+   * 
+   * @param args {@value #ARGUMENT_MATRIX} followed by the matrix written by 
+   *     {@link TestCoverageMatrix}; either {@value #ARGUMENT_CHANGED} followed
+   *     by a file listing the changed classes, one per line, or 
+   *     {@value #ARGUMENT_BEFORE} and {@value #ARGUMENT_AFTER} followed by 
+   *     the jars to compare; optionally {@value #ARGUMENT_TESTS} followed by
+   *     a file listing all the current tests and {@value #ARGUMENT_OUTPUT} 
+   *     followed by the file to write, by default the standard output.
+   * @throws IOException If a file cannot be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    String matrixFile = null;
+    String changed = null;
+    String before = null;
+    String after = null;
+    String tests = null;
+    String output = null;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_MATRIX)) {
+        matrixFile = s.substring(ARGUMENT_MATRIX.length());
+      } else if (s.startsWith(ARGUMENT_CHANGED)) {
+        changed = s.substring(ARGUMENT_CHANGED.length());
+      } else if (s.startsWith(ARGUMENT_BEFORE)) {
+        before = s.substring(ARGUMENT_BEFORE.length());
+      } else if (s.startsWith(ARGUMENT_AFTER)) {
+        after = s.substring(ARGUMENT_AFTER.length());
+      } else if (s.startsWith(ARGUMENT_TESTS)) {
+        tests = s.substring(ARGUMENT_TESTS.length());
+      } else if (s.startsWith(ARGUMENT_OUTPUT)) {
+        output = s.substring(ARGUMENT_OUTPUT.length());
+      }
+    }
+    if (matrixFile == null 
+        || (changed == null && (before == null || after == null))) {
+      throw new IllegalArgumentException("Invoke the selector with " 
+          + ARGUMENT_MATRIX + "file and either " + ARGUMENT_CHANGED 
+          + "file or " + ARGUMENT_BEFORE + "jar " + ARGUMENT_AFTER + "jar");
+    }
+    
+    TestCoverageMatrix matrix = TestCoverageMatrix.read(new File(matrixFile));
+    Set<String> changedClasses = changed != null ? readNames(changed) 
+        : getChangedClasses(new File(before), new File(after));
+    Set<String> allTests = null;
+    if (tests != null) {
+      allTests = new TreeSet<String>();
+      BufferedReader reader = null;
+      try {
+        reader = new BufferedReader(new FileReader(tests));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.length() > 0) {
+            allTests.add(line);
+          }
+        }
+      } finally {
+        Closeables.closeQuietly(reader);
+      }
+    }
+    
+    PrintWriter pw = output == null 
+        ? new PrintWriter(System.out) : new PrintWriter(new File(output));
+    try {
+      for (String test : select(matrix, changedClasses, allTests)) {
+        pw.println(test);
+      }
+      pw.flush();
+    } finally {
+      if (output != null) {
+        Closeables.closeQuietly(pw);
+      }
+    }
+  }
+}
@@ -24,6 +24,7 @@ import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -56,8 +57,15 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
    * Specify which level of coverage will be used for the instrumentation. 
    */
   private final CoverageMode coverageMode;
+  
+  /**
+   * The granularity of each package, or <code>null</code> if all the 
+   * packages are fully instrumented.
+   */
+  private final Map<String, CoverageGranularity> packageGranularity;
 
   private String owner;
+  private CoverageGranularity granularity = CoverageGranularity.LINE;
   private boolean shouldInstrumentClass = true;
   private boolean isAutoGeneratedClass = false;
   private int classOpcode;
@@ -77,7 +85,26 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
   public CodeCoverageClassAdapter(ClassVisitor cv, 
       CoverageStatisticContainer container, String[] coverageInclusion,
       CoverageMode coverageMode) {
+    this(cv, container, coverageInclusion, coverageMode, null);
+  }
+  
+  /**
+   * Creates an instance which instruments each package with a specific 
+   * {@link CoverageGranularity}.
+   * 
+   * @param cv the nested ClassVisitor.
+   * @param container The specified container.
+   * @param packageGranularity The granularity of each package, using '/' as 
+   *     a separator. Packages which are not in the map are instrumented with
+   *     {@link CoverageGranularity#LINE}. May be <code>null</code>.
+   * @see CoverageBudget
+   */
+  public CodeCoverageClassAdapter(ClassVisitor cv, 
+      CoverageStatisticContainer container, String[] coverageInclusion,
+      CoverageMode coverageMode, 
+      Map<String, CoverageGranularity> packageGranularity) {
     super(cv);
+    this.packageGranularity = packageGranularity;
     statisticContainer = container;
     
     if (coverageInclusion != null) {
@@ -155,6 +182,18 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
     return inclusionSelector.getMostSpecificAction(clazz);
   }
 
+  /**
+   * Gets the granularity to use for the given class.
+   */
+  private CoverageGranularity getGranularity(String clazz) {
+    if (packageGranularity == null) {
+      return CoverageGranularity.LINE;
+    }
+    CoverageGranularity result = 
+        packageGranularity.get(CoverageBudget.getPackageName(clazz));
+    return result == null ? CoverageGranularity.LINE : result;
+  }
+
   /**
    * Visits a specific class and pass it to the statistic container.
    * 
@@ -175,7 +214,9 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
     owner = name;
     classOpcode = access;
 
-    shouldInstrumentClass = shouldInstrumentClass(owner);
+    granularity = getGranularity(owner);
+    shouldInstrumentClass = granularity != CoverageGranularity.NONE 
+        && shouldInstrumentClass(owner);
     isAutoGeneratedClass = isGeneratedClass(owner);
     
     if (isIncluded()) {
@@ -244,6 +285,9 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
    * <p> Please note that injected methods or methods from external libraries 
    * which do not provide line numbers will be skipped from line coverage.
    * 
+   * <p> With {@link CoverageGranularity#METHOD} only the first line of the 
+   * method is instrumented.
+   * 
    * @author Michele Sama
    */
   protected class MethodCoverage extends MethodAdapter {
@@ -254,6 +298,11 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
      */
     private int methodIndex = -1;
     
+    /**
+     * <code>true</code> once a line of this method has been instrumented.
+     */
+    private boolean lineInstrumented = false;
+    
     /**
      * Creates an instance with a fixed index.
      * 
@@ -313,7 +362,9 @@ public class CodeCoverageClassAdapter extends ClassAdapter {
      */
     @Override
     public void visitLineNumber(int value, Label label) {
-      if (coverageMode == CoverageMode.LINE) {
+      if (coverageMode == CoverageMode.LINE && (!lineInstrumented 
+          || granularity == CoverageGranularity.LINE)) {
+        lineInstrumented = true;
         // Use the same key for all the classes of the same java file. When we
         // display the coverage information, the line numbers are relative to
         // the java file, not the class files.       
@@ -0,0 +1,317 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Chooses the {@link CoverageGranularity} of each package so that the 
+ * growth of the instrumented code stays within a given budget.
+ * 
+ * <p>The cost of each granularity is estimated with a dry run of 
+ * {@link CodeCoverageClassAdapter} on each class of the application, before
+ * the real instrumentation. The budget is then met greedily: packages are 
+ * first downgraded from {@link CoverageGranularity#LINE} to 
+ * {@link CoverageGranularity#METHOD} starting from the ones which save the
+ * most, and then, if that is not enough, from 
+ * {@link CoverageGranularity#METHOD} to {@link CoverageGranularity#NONE}.
+ * 
+ * <p>Only the probes injected by coverage are estimated. The code added by 
+ * other {@link com.google.devtools.build.wireless.testing.java.injector.Loadable}s
+ * is not part of the budget.
+ * 
+ * @author Michele Sama
+ */
+public class CoverageBudget {
+  
+  /**
+   * Name of the file containing the granularity chosen for each package.
+   */
+  public static final String FILENAME_BUDGET = "coverageBudget.txt";
+
+  private static final String CLASS_EXTENSION = ".class";
+  
+  private final String[] coverageInclusion;
+  
+  private final Map<String, PackageEstimate> packages = 
+      new TreeMap<String, PackageEstimate>();
+  
+  private long originalSize = 0;
+  
+  private long maxGrowth = Long.MAX_VALUE;
+  
+  /**
+   * Creates a budget for the classes selected by a coverage inclusion list.
+   * 
+   * @param coverageInclusion The coverage inclusion list, as specified for
+   *     {@link CodeCoverageClassAdapter}.
+   */
+  public CoverageBudget(String[] coverageInclusion) {
+    this.coverageInclusion = coverageInclusion;
+  }
+
+  /**
+   * Gets the package of a class.
+   * 
+   * @param className The internal name of the class.
+   * @return the package using '/' as a separator, or the empty string for 
+   *     the default package.
+   */
+  public static String getPackageName(String className) {
+    int index = className.lastIndexOf('/');
+    return index < 0 ? "" : className.substring(0, index);
+  }
+  
+  /**
+   * Estimates the cost of each granularity for all the classes contained 
+   * in a folder and in its subfolders.
+   * 
+   * @param folder The root of the class files.
+   * @throws IOException If a class file cannot be read.
+   */
+  public void estimate(File folder) throws IOException {
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        estimate(file);
+      } else if (file.getName().endsWith(CLASS_EXTENSION)) {
+        InputStream is = null;
+        try {
+          is = new FileInputStream(file);
+          estimate(new ClassReader(is));
+        } finally {
+          Closeables.closeQuietly(is);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Estimates the cost of each granularity for a single class.
+   * 
+   * @param reader The reader of the class.
+   */
+  public void estimate(ClassReader reader) {
+    String packageName = getPackageName(reader.getClassName());
+    int size = instrument(reader, null, null);
+    CoverageStatisticContainer lineContainer = new CoverageStatisticContainer();
+    int lineSize = instrument(reader, lineContainer, CoverageGranularity.LINE);
+    CoverageStatisticContainer methodContainer = 
+        new CoverageStatisticContainer();
+    int methodSize = 
+        instrument(reader, methodContainer, CoverageGranularity.METHOD);
+    
+    addEstimate(packageName, size, lineSize - size, methodSize - size, 
+        lineContainer.getLineSize(), methodContainer.getLineSize());
+  }
+  
+  /**
+   * Adds the estimate of a class to the estimate of its package.
+   * 
+   * @param packageName The package of the class.
+   * @param size The size of the class without coverage.
+   * @param lineGrowth The bytes added by line granularity.
+   * @param methodGrowth The bytes added by method granularity.
+   * @param lineProbes The probes added by line granularity.
+   * @param methodProbes The probes added by method granularity.
+   */
+  void addEstimate(String packageName, int size, int lineGrowth, 
+      int methodGrowth, int lineProbes, int methodProbes) {
+    PackageEstimate estimate = packages.get(packageName);
+    if (estimate == null) {
+      estimate = new PackageEstimate(packageName);
+      packages.put(packageName, estimate);
+    }
+    originalSize += size;
+    estimate.originalSize += size;
+    estimate.lineGrowth += lineGrowth;
+    estimate.methodGrowth += methodGrowth;
+    estimate.lineProbes += lineProbes;
+    estimate.methodProbes += methodProbes;
+  }
+  
+  /**
+   * Writes a class, optionally through a {@link CodeCoverageClassAdapter}.
+   * 
+   * @return the size of the written class.
+   */
+  private int instrument(ClassReader reader, 
+      CoverageStatisticContainer container, CoverageGranularity granularity) {
+    ClassWriter cw = new ClassWriter(0);
+    ClassVisitor cv = cw;
+    if (granularity != null) {
+      cv = new CodeCoverageClassAdapter(cw, container, coverageInclusion, 
+          CoverageMode.LINE, Collections.singletonMap(
+              getPackageName(reader.getClassName()), granularity));
+    }
+    reader.accept(cv, 0);
+    return cw.toByteArray().length;
+  }
+  
+  /**
+   * @return the total size of the estimated classes before coverage.
+   */
+  public long getOriginalSize() {
+    return originalSize;
+  }
+  
+  /**
+   * @return the growth of the estimated classes with the current selection.
+   */
+  public long getGrowth() {
+    long growth = 0;
+    for (PackageEstimate estimate : packages.values()) {
+      growth += estimate.getGrowth();
+    }
+    return growth;
+  }
+  
+  /**
+   * Chooses the granularity of each package so that the total growth does 
+   * not exceed a given number of bytes.
+   * 
+   * @param maxGrowth The maximum number of bytes coverage is allowed to add.
+   * @return the granularity of each package which has been downgraded.
+   */
+  public Map<String, CoverageGranularity> select(long maxGrowth) {
+    this.maxGrowth = maxGrowth;
+    List<PackageEstimate> sorted = 
+        new ArrayList<PackageEstimate>(packages.values());
+    for (PackageEstimate estimate : sorted) {
+      estimate.granularity = CoverageGranularity.LINE;
+    }
+    long growth = getGrowth();
+    
+    Collections.sort(sorted, new Comparator<PackageEstimate>() {
+      public int compare(PackageEstimate p1, PackageEstimate p2) {
+        return compareLong(p2.lineGrowth - p2.methodGrowth, 
+            p1.lineGrowth - p1.methodGrowth);
+      }
+    });
+    for (PackageEstimate estimate : sorted) {
+      if (growth <= maxGrowth) {
+        break;
+      }
+      growth -= estimate.lineGrowth - estimate.methodGrowth;
+      estimate.granularity = CoverageGranularity.METHOD;
+    }
+    
+    Collections.sort(sorted, new Comparator<PackageEstimate>() {
+      public int compare(PackageEstimate p1, PackageEstimate p2) {
+        return compareLong(p2.methodGrowth, p1.methodGrowth);
+      }
+    });
+    for (PackageEstimate estimate : sorted) {
+      if (growth <= maxGrowth) {
+        break;
+      }
+      growth -= estimate.methodGrowth;
+      estimate.granularity = CoverageGranularity.NONE;
+    }
+    
+    Map<String, CoverageGranularity> result = 
+        new HashMap<String, CoverageGranularity>();
+    Logger log = Logger.getLogger(CoverageLoadable.LOGGER_NAME);
+    for (PackageEstimate estimate : packages.values()) {
+      if (estimate.granularity != CoverageGranularity.LINE) {
+        result.put(estimate.name, estimate.granularity);
+        log.info("Coverage of package '" + estimate.name + 
+            "' downgraded to " + estimate.granularity + ".");
+      }
+    }
+    return result;
+  }
+  
+  private static int compareLong(long l1, long l2) {
+    return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+  }
+  
+  /**
+   * Writes the estimate and the granularity chosen for each package.
+   * 
+   * @param pw The destination writer.
+   */
+  public void writeReport(PrintWriter pw) {
+    pw.println(CoverageStatisticContainer.COMMENT + " originalBytes=" + 
+        originalSize + " maxGrowth=" + maxGrowth + " growth=" + getGrowth());
+    pw.println(CoverageStatisticContainer.COMMENT + " package" + 
+        CoverageStatisticContainer.SEPARATOR + "granularity" + 
+        CoverageStatisticContainer.SEPARATOR + "originalBytes" + 
+        CoverageStatisticContainer.SEPARATOR + "lineGrowth" + 
+        CoverageStatisticContainer.SEPARATOR + "methodGrowth" + 
+        CoverageStatisticContainer.SEPARATOR + "lineProbes" + 
+        CoverageStatisticContainer.SEPARATOR + "methodProbes");
+    for (PackageEstimate estimate : packages.values()) {
+      pw.println(estimate.name + 
+          CoverageStatisticContainer.SEPARATOR + estimate.granularity + 
+          CoverageStatisticContainer.SEPARATOR + estimate.originalSize + 
+          CoverageStatisticContainer.SEPARATOR + estimate.lineGrowth + 
+          CoverageStatisticContainer.SEPARATOR + estimate.methodGrowth + 
+          CoverageStatisticContainer.SEPARATOR + estimate.lineProbes + 
+          CoverageStatisticContainer.SEPARATOR + estimate.methodProbes);
+    }
+    pw.flush();
+  }
+  
+  /**
+   * The estimated cost of coverage for a single package.
+   */
+  private static class PackageEstimate {
+    final String name;
+    long originalSize = 0;
+    long lineGrowth = 0;
+    long methodGrowth = 0;
+    int lineProbes = 0;
+    int methodProbes = 0;
+    CoverageGranularity granularity = CoverageGranularity.LINE;
+    
+    PackageEstimate(String name) {
+      this.name = name;
+    }
+    
+    long getGrowth() {
+      switch (granularity) {
+        case LINE:
+          return lineGrowth;
+        case METHOD:
+          return methodGrowth;
+        default:
+          return 0;
+      }
+    }
+  }
+}
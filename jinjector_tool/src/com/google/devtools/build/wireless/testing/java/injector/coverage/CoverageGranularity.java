@@ -0,0 +1,39 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+/**
+ * The level of detail of the coverage probes injected in a package.
+ * 
+ * @author Michele Sama
+ */
+public enum CoverageGranularity {
+  /**
+   * Each line is instrumented, as required by {@link CoverageMode#LINE}.
+   */
+  LINE,
+  
+  /**
+   * Only the first line of each method is instrumented, so that line coverage 
+   * only tells which methods have been executed.
+   */
+  METHOD,
+  
+  /**
+   * The package is excluded from coverage.
+   */
+  NONE
+}
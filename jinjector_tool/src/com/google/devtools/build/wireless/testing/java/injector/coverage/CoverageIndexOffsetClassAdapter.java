@@ -0,0 +1,280 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds an offset to the method and file indexes injected by 
+ * {@link CodeCoverageClassAdapter}, so that classes instrumented by 
+ * different shards can share the same index space.
+ * 
+ * <p>The indexes are the integer constants pushed right before the calls to
+ * <code>CoverageManager.setCovered(I)V</code> and 
+ * <code>CoverageManager.setLineCovered(II)V</code>. Constants which do not 
+ * fit into a <code>SIPUSH</code> anymore are loaded from the constant pool.
+ * 
+ * @author Michele Sama
+ */
+public class CoverageIndexOffsetClassAdapter extends ClassAdapter {
+  
+  private final int methodOffset;
+  private final int fileOffset;
+  
+  /**
+   * Creates an adapter which shifts the coverage indexes.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param methodOffset The offset added to method indexes.
+   * @param fileOffset The offset added to file indexes.
+   */
+  public CoverageIndexOffsetClassAdapter(ClassVisitor cv, int methodOffset, 
+      int fileOffset) {
+    super(cv);
+    this.methodOffset = methodOffset;
+    this.fileOffset = fileOffset;
+  }
+  
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    MethodVisitor mv = super.visitMethod(access, name, desc, signature, 
+        exceptions);
+    return mv == null ? null : new IndexOffsetMethodAdapter(mv);
+  }
+  
+  /**
+   * Delays the last two integer constants until the next instruction is 
+   * known, so that they can be changed if they are coverage indexes.
+   */
+  private class IndexOffsetMethodAdapter extends MethodAdapter {
+    
+    private final List<IntConstant> pending = new ArrayList<IntConstant>(2);
+    
+    IndexOffsetMethodAdapter(MethodVisitor mv) {
+      super(mv);
+    }
+    
+    private void push(IntConstant constant) {
+      if (pending.size() == 2) {
+        pending.remove(0).emit(mv);
+      }
+      pending.add(constant);
+    }
+    
+    private void flush() {
+      for (IntConstant constant : pending) {
+        constant.emit(mv);
+      }
+      pending.clear();
+    }
+    
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name,
+        String desc) {
+      if (opcode == Opcodes.INVOKESTATIC 
+          && CoverageClassNames.COVERAGE_MANAGER.equals(owner)) {
+        int size = pending.size();
+        if ("setCovered".equals(name) && "(I)V".equals(desc) && size >= 1) {
+          pending.get(size - 1).add(methodOffset);
+        } else if ("setLineCovered".equals(name) && "(II)V".equals(desc) 
+            && size == 2) {
+          pending.get(0).add(fileOffset);
+        }
+      }
+      flush();
+      mv.visitMethodInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+        push(new IntConstant(opcode, opcode - Opcodes.ICONST_0));
+      } else {
+        flush();
+        mv.visitInsn(opcode);
+      }
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+        push(new IntConstant(opcode, operand));
+      } else {
+        flush();
+        mv.visitIntInsn(opcode, operand);
+      }
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+      if (cst instanceof Integer) {
+        push(new IntConstant(Opcodes.LDC, (Integer) cst));
+      } else {
+        flush();
+        mv.visitLdcInsn(cst);
+      }
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name,
+        String desc) {
+      flush();
+      mv.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack,
+        Object[] stack) {
+      flush();
+      mv.visitFrame(type, nLocal, local, nStack, stack);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+      flush();
+      mv.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      flush();
+      mv.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      flush();
+      mv.visitLabel(label);
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+      flush();
+      mv.visitLineNumber(line, start);
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String desc, String signature,
+        Label start, Label end, int index) {
+      flush();
+      mv.visitLocalVariable(name, desc, signature, start, end, index);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      flush();
+      mv.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+      flush();
+      mv.visitMultiANewArrayInsn(desc, dims);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt,
+        Label[] labels) {
+      flush();
+      mv.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler,
+        String type) {
+      flush();
+      mv.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      flush();
+      mv.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+      flush();
+      mv.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+      flush();
+      mv.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+      flush();
+      mv.visitEnd();
+    }
+  }
+  
+  /**
+   * An integer constant whose instruction has not been emitted yet.
+   */
+  private static class IntConstant {
+    private final int opcode;
+    private int value;
+    private boolean changed = false;
+    
+    IntConstant(int opcode, int value) {
+      this.opcode = opcode;
+      this.value = value;
+    }
+    
+    void add(int offset) {
+      if (offset != 0) {
+        value += offset;
+        changed = true;
+      }
+    }
+    
+    /**
+     * Emits the original instruction, or the shortest instruction which can
+     * push the new value.
+     */
+    void emit(MethodVisitor mv) {
+      if (!changed) {
+        if (opcode == Opcodes.LDC) {
+          mv.visitLdcInsn(value);
+        } else if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+          mv.visitIntInsn(opcode, value);
+        } else {
+          mv.visitInsn(opcode);
+        }
+      } else if (value >= -1 && value <= 5) {
+        mv.visitInsn(Opcodes.ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.BIPUSH, value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.SIPUSH, value);
+      } else {
+        mv.visitLdcInsn(value);
+      }
+    }
+  }
+}
@@ -15,16 +15,21 @@
 
 package com.google.devtools.build.wireless.testing.java.injector.coverage;
 
+import com.google.devtools.build.wireless.testing.java.injector.ClassBytecodeLoader;
 import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
 import com.google.devtools.build.wireless.testing.java.injector.InstrumentedJarCreator;
 import com.google.devtools.build.wireless.testing.java.injector.Loadable;
 import com.google.devtools.build.wireless.testing.java.injector.coverage.GenerateCoverageInitializationClassAdapter.CoverageInitializationData;
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
 import com.google.devtools.build.wireless.testing.java.injector.util.StringUtil;
 
 import org.objectweb.asm.ClassVisitor;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -94,6 +99,64 @@ public class CoverageLoadable extends Loadable {
    */
   private String lineCoverageOutputFilename;
   
+  /**
+   * The maximum size in bytes of the instrumented jar.
+   */
+  public static final String PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE = 
+      "coverageBudgetMaxJarSize";
+  
+  /**
+   * Defines a human readable description for the 
+   * {@value #PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE} property. 
+   */
+  public static final String PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE_DESCRIPTION = 
+      "Specifies the maximum size in bytes of the instrumented jar. Line " +
+      "coverage is downgraded to method coverage, or disabled, for the " +
+      "packages which would exceed it. Only the growth due to coverage is " +
+      "taken into account.";
+  
+  /**
+   * The maximum growth of the code due to coverage, as a percentage of the 
+   * original size.
+   */
+  public static final String PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT = 
+      "coverageBudgetMaxGrowthPercent";
+  
+  /**
+   * Defines a human readable description for the 
+   * {@value #PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT} property. 
+   */
+  public static final String 
+      PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT_DESCRIPTION = 
+      "Specifies the maximum growth of the classes due to coverage, as a " +
+      "percentage of their original size. Line coverage is downgraded to " +
+      "method coverage, or disabled, for the packages which would exceed it.";
+  
+  /**
+   * The maximum size of the output jar, or -1 if not specified.
+   */
+  private long maxJarSize = -1;
+  
+  /**
+   * The maximum growth in percent, or -1 if not specified.
+   */
+  private double maxGrowthPercent = -1;
+  
+  private String binaryFolder;
+  
+  private String inputJar;
+  
+  /**
+   * The budget used to choose the granularity, or <code>null</code> if no 
+   * budget has been specified.
+   */
+  private CoverageBudget coverageBudget;
+  
+  /**
+   * The granularity of the downgraded packages.
+   */
+  private Map<String, CoverageGranularity> packageGranularity;
+  
   private CoverageStatisticContainer coverageStatisticContainer;
     
   /**
@@ -109,6 +172,19 @@ public class CoverageLoadable extends Loadable {
         properties.getProperty(PROPERTY_COVERAGE_INCLUSION_LIST), " ;:,");
     lineCoverageOutputFilename = properties.getProperty(
         PROPERTY_LINECOVERAGE_OUTPUT_FILE);
+    String maxJarSizeProperty = 
+        properties.getProperty(PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE);
+    if (maxJarSizeProperty != null) {
+      maxJarSize = Long.parseLong(maxJarSizeProperty.trim());
+    }
+    String maxGrowthProperty = 
+        properties.getProperty(PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT);
+    if (maxGrowthProperty != null) {
+      maxGrowthPercent = Double.parseDouble(maxGrowthProperty.trim());
+    }
+    binaryFolder = 
+        properties.getProperty(ClassBytecodeLoader.PROPERTY_BINARY_FOLDER);
+    inputJar = properties.getProperty(ClassBytecodeLoader.PROPERTY_INPUT_JAR);
     
     // Coverage inclusion list is mandatory
     if (coverageInclusionList == null && 
@@ -123,6 +199,13 @@ public class CoverageLoadable extends Loadable {
       throw new IllegalArgumentException("No output file name has " +
             "been specified.");
     }
+    
+    // The budget only applies to line coverage.
+    if ((maxJarSize >= 0 || maxGrowthPercent >= 0) && 
+        coverage != CoverageMode.LINE) {
+      throw new IllegalArgumentException("A coverage budget can only be " +
+          "specified for " + CoverageMode.LINE + " coverage.");
+    }
   }
 
   /**
@@ -148,7 +231,7 @@ public class CoverageLoadable extends Loadable {
       cv = new GenerateCoverageClassAdapter(platform, cv, classManager);
       cv = new CodeCoverageClassAdapter(
           cv, coverageStatisticContainer, coverageInclusionList, 
-          coverage);
+          coverage, packageGranularity);
     }
     return cv;
   }
@@ -177,6 +260,26 @@ public class CoverageLoadable extends Loadable {
             e.getMessage());
       }
     }
+    if (coverageBudget != null) {
+      writeBudgetReport(new File(outputDir, 
+          CoverageBudget.FILENAME_BUDGET + runId));
+    }
+  }
+  
+  /**
+   * Writes the granularity chosen for each package.
+   */
+  private void writeBudgetReport(File file) {
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(file);
+      coverageBudget.writeReport(pw);
+    } catch (IOException e) {
+      Logger log = Logger.getLogger(LOGGER_NAME);
+      log.warning("Problem writing the coverage budget: " + e.getMessage());
+    } finally {
+      Closeables.closeQuietly(pw);
+    }
   }
 
   /**
@@ -184,6 +287,9 @@ public class CoverageLoadable extends Loadable {
    * lines/methods. The instance of {@link CoverageStatisticContainer} is used 
    * to index all the instrumented entries.
    * 
+   * <p>If a budget has been specified the granularity of each package is 
+   * chosen by a {@link CoverageBudget}.
+   * 
    * @see Loadable#preOperation()
    */
   @Override
@@ -191,6 +297,53 @@ public class CoverageLoadable extends Loadable {
     if (coverage != CoverageMode.DISABLED) {
       coverageStatisticContainer = new CoverageStatisticContainer();
     }
+    if (maxJarSize >= 0 || maxGrowthPercent >= 0) {
+      coverageBudget = new CoverageBudget(coverageInclusionList);
+      try {
+        coverageBudget.estimate(new File(binaryFolder));
+      } catch (IOException e) {
+        throw new RuntimeException("Impossible to estimate the coverage " +
+            "budget.", e);
+      }
+      packageGranularity = coverageBudget.select(getMaxGrowth());
+    }
+  }
+  
+  /**
+   * Converts the specified limits into the maximum number of bytes which 
+   * coverage can add to the uncompressed classes. 
+   * 
+   * <p>The jar size is converted by assuming that the instrumented classes
+   * are compressed as well as the input jar.
+   */
+  private long getMaxGrowth() {
+    long originalSize = coverageBudget.getOriginalSize();
+    long maxGrowth = Long.MAX_VALUE;
+    if (maxGrowthPercent >= 0) {
+      maxGrowth = (long) (originalSize * maxGrowthPercent / 100);
+    }
+    if (maxJarSize >= 0) {
+      long jarSize = originalSize;
+      if (inputJar != null && originalSize > 0) {
+        jarSize = new File(inputJar).length();
+      }
+      double compressionRatio = 
+          originalSize > 0 ? (double) jarSize / originalSize : 1;
+      maxGrowth = Math.min(maxGrowth, 
+          (long) ((maxJarSize - jarSize) / compressionRatio));
+    }
+    return Math.max(maxGrowth, 0);
+  }
+
+  /**
+   * Coverage indexes all the instrumented lines and methods, so it is 
+   * incremental only when it is disabled.
+   * 
+   * @see Loadable#isIncremental()
+   */
+  @Override
+  public boolean isIncremental() {
+    return coverage == CoverageMode.DISABLED;
   }
 
   /**
@@ -208,6 +361,10 @@ public class CoverageLoadable extends Loadable {
         PROPERTY_COVERAGE_INCLUSION_LIST_DESCRIPTION);
     log.fine(PROPERTY_LINECOVERAGE_OUTPUT_FILE + ":" + 
         PROPERTY_LINECOVERAGE_OUTPUT_FILE_DESCRIPTION);
+    log.fine(PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE + ":" + 
+        PROPERTY_COVERAGE_BUDGET_MAX_JAR_SIZE_DESCRIPTION);
+    log.fine(PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT + ":" + 
+        PROPERTY_COVERAGE_BUDGET_MAX_GROWTH_PERCENT_DESCRIPTION);
   }
 
 }
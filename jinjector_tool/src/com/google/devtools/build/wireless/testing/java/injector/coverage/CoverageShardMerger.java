@@ -0,0 +1,387 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.InstrumentedJarCreator;
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+import com.google.devtools.build.wireless.testing.java.injector.util.StringUtil;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.logging.Logger;
+
+/**
+ * Merges the output of several shards of a coverage instrumentation into a 
+ * single application.
+ * 
+ * <p>Each shard instruments a disjoint subset of the source files and 
+ * numbers methods and files starting from 0. The merger concatenates the 
+ * shards in the given order, shifting the indexes of each shard by the 
+ * number of methods and files of the previous ones, both in the coverage 
+ * metadata and in the instrumented bytecode. Line indexes are relative to 
+ * their file and do not need to be changed.
+ * 
+ * <p>All the shards must have been instrumented with the same runId.
+ * 
+ * @author Michele Sama
+ */
+public class CoverageShardMerger {
+  
+  private static final String ARGUMENT_RUN_ID = "runId=";
+  
+  private static final String ARGUMENT_DESTINATION_FOLDER = 
+      "destinationFolder=";
+  
+  private static final String ARGUMENT_OUTPUT_JAR = "outputJar=";
+  
+  private static final String ARGUMENT_SHARD = "shard=";
+  
+  private static final String CLASS_EXTENSION = ".class";
+  
+  private static Logger logger = 
+      Logger.getLogger(CoverageShardMerger.class.getName());
+  
+  private final String runId;
+  
+  private final List<Shard> shards = new ArrayList<Shard>();
+  
+  private final List<String> methods = new ArrayList<String>();
+  
+  private final List<String> instrumentedLines = new ArrayList<String>();
+  
+  private final Set<String> packages = new LinkedHashSet<String>();
+  
+  private int classCount = 0;
+  
+  private int fileCount = 0;
+  
+  private int lineCount = 0;
+  
+  /**
+   * Creates a merger for shards instrumented with the given runId.
+   * 
+   * @param runId The runId used by all the shards.
+   */
+  public CoverageShardMerger(String runId) {
+    this.runId = runId == null ? "" : runId;
+  }
+  
+  /**
+   * Adds the next shard and reads its coverage metadata.
+   * 
+   * @param folder The destination folder of the shard.
+   * @param jar The output jar of the shard.
+   * @throws IOException If the metadata cannot be read.
+   */
+  public void addShard(File folder, File jar) throws IOException {
+    Files.Assert.isDir(folder);
+    Files.Assert.isFile(jar);
+    Shard shard = new Shard(jar, methods.size(), fileCount);
+    shards.add(shard);
+    
+    for (String line : readLines(
+        new File(folder, CoverageStatisticContainer.FILENAME_METHOD + runId))) {
+      int separator = line.lastIndexOf(CoverageStatisticContainer.SEPARATOR);
+      int index = Integer.parseInt(line.substring(separator + 1));
+      methods.add(line.substring(0, separator + 1) 
+          + (index + shard.methodOffset));
+    }
+    for (String line : readLines(new File(folder, 
+        CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + runId))) {
+      if (line.length() == 0 
+          || line.charAt(0) == CoverageStatisticContainer.COMMENT) {
+        continue;
+      }
+      int separator = line.indexOf(CoverageStatisticContainer.SEPARATOR);
+      int index = Integer.parseInt(line.substring(0, separator));
+      instrumentedLines.add((index + shard.fileOffset) 
+          + line.substring(separator));
+    }
+    packages.addAll(readLines(
+        new File(folder, CoverageStatisticContainer.FILENAME_PACKAGE + runId)));
+    
+    for (String line : readLines(new File(folder, 
+        CoverageStatisticContainer.FILENAME_SUMMARY + runId))) {
+      int separator = line.indexOf(':');
+      if (separator < 0 || separator == line.length() - 1) {
+        continue;
+      }
+      String label = line.substring(0, separator);
+      int value = Integer.parseInt(line.substring(separator + 1).trim());
+      if (CoverageStatisticContainer.SUMMARY_CLASSES.equals(label)) {
+        classCount += value;
+      } else if (CoverageStatisticContainer.SUMMARY_FILES.equals(label)) {
+        fileCount += value;
+      } else if (CoverageStatisticContainer.SUMMARY_LINES.equals(label)) {
+        lineCount += value;
+      }
+    }
+  }
+  
+  /**
+   * Writes the merged application and its coverage metadata.
+   * 
+   * @param destinationFolder The folder in which to write the merged classes,
+   *     resources and coverage metadata.
+   * @param outputJar The merged jar.
+   * @throws IOException If an error occurs while reading the shards or 
+   *     writing the output.
+   */
+  public void merge(File destinationFolder, String outputJar) 
+      throws IOException {
+    if (!destinationFolder.exists() && !destinationFolder.mkdirs()) {
+      throw new IOException("Cannot create " + destinationFolder);
+    }
+    InstrumentedJarCreator jar = new InstrumentedJarCreator(outputJar);
+    try {
+      Set<String> entries = new HashSet<String>();
+      for (Shard shard : shards) {
+        copyShard(shard, destinationFolder, jar, entries);
+      }
+      writeMetadata(destinationFolder, jar);
+    } finally {
+      jar.closeOutputJar();
+    }
+  }
+  
+  /**
+   * Copies all the entries of a shard jar but its coverage metadata, shifting
+   * the coverage indexes of its classes.
+   */
+  private void copyShard(Shard shard, File destinationFolder, 
+      InstrumentedJarCreator jar, Set<String> entries) throws IOException {
+    JarInputStream in = null;
+    try {
+      in = new JarInputStream(new FileInputStream(shard.jar));
+      JarEntry entry;
+      while ((entry = in.getNextJarEntry()) != null) {
+        String name = entry.getName();
+        if (entry.isDirectory() || isShardMetadata(name)) {
+          continue;
+        }
+        if (!entries.add(name)) {
+          logger.warning("Skipping duplicate entry " + name + " in " 
+              + shard.jar);
+          continue;
+        }
+        byte[] bytes = readEntry(in);
+        if (name.endsWith(CLASS_EXTENSION)) {
+          bytes = shiftIndexes(bytes, shard.methodOffset, shard.fileOffset);
+        }
+        File output = new File(destinationFolder, name);
+        output.getParentFile().mkdirs();
+        Files.overwrite(bytes, output);
+        jar.addFile(new File(name), bytes);
+      }
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+  
+  private boolean isShardMetadata(String name) {
+    return name.endsWith(CoverageStatisticContainer.FILENAME_METHOD + runId)
+        || name.endsWith(
+            CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + runId);
+  }
+  
+  /**
+   * Shifts the coverage indexes of a class.
+   * 
+   * @param bytes The instrumented class.
+   * @param methodOffset The offset to add to method indexes.
+   * @param fileOffset The offset to add to file indexes.
+   * @return the modified class.
+   */
+  static byte[] shiftIndexes(byte[] bytes, int methodOffset, int fileOffset) {
+    if (methodOffset == 0 && fileOffset == 0) {
+      return bytes;
+    }
+    // Sizes and frames are kept: indexes which do not fit in a SIPUSH anymore
+    // are loaded with LDC, which has the same stack effect.
+    ClassWriter cw = new ClassWriter(0);
+    new ClassReader(bytes).accept(
+        new CoverageIndexOffsetClassAdapter(cw, methodOffset, fileOffset), 0);
+    return cw.toByteArray();
+  }
+  
+  /**
+   * Writes the merged metadata in the same format and with the same names 
+   * used by {@link CoverageStatisticContainer#generateOutput}.
+   */
+  private void writeMetadata(File folder, InstrumentedJarCreator jar) 
+      throws IOException {
+    File summaryFile = 
+        new File(folder, CoverageStatisticContainer.FILENAME_SUMMARY + runId);
+    File methodDataFile = 
+        new File(folder, CoverageStatisticContainer.FILENAME_METHOD + runId);
+    File linesInstrumentedDataFile = new File(folder, 
+        CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + runId);
+    File packagesDataFile = 
+        new File(folder, CoverageStatisticContainer.FILENAME_PACKAGE + runId);
+    
+    PrintWriter printWriter = null;
+    try {
+      printWriter = new PrintWriter(summaryFile);
+      CoverageStatisticContainer.writeSummary(printWriter, packages.size(), 
+          classCount, methods.size(), fileCount, lineCount);
+    } finally {
+      Closeables.closeQuietly(printWriter);
+    }
+    
+    try {
+      printWriter = new PrintWriter(methodDataFile);
+      for (String line : methods) {
+        printWriter.println(line);
+      }
+    } finally {
+      Closeables.closeQuietly(printWriter);
+    }
+    
+    try {
+      printWriter = new PrintWriter(packagesDataFile);
+      for (String line : packages) {
+        printWriter.println(line);
+      }
+    } finally {
+      Closeables.closeQuietly(printWriter);
+    }
+    
+    try {
+      printWriter = new PrintWriter(linesInstrumentedDataFile);
+      CoverageStatisticContainer.writeInstrumentedLinesHeader(printWriter);
+      for (String line : instrumentedLines) {
+        printWriter.println(line);
+      }
+    } finally {
+      Closeables.closeQuietly(printWriter);
+    }
+    
+    jar.addFile(methodDataFile, Files.toByteArray(methodDataFile));
+    jar.addFile(linesInstrumentedDataFile, 
+        Files.toByteArray(linesInstrumentedDataFile));
+  }
+  
+  /**
+   * Reads all the lines of a file, if it exists.
+   * 
+   * @return the lines or an empty list if the file does not exist.
+   */
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    if (!file.exists()) {
+      logger.warning("Missing coverage file " + file);
+      return lines;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    return lines;
+  }
+  
+  private static byte[] readEntry(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+  
+  /**
+   * Merges shards from command line.
+   * 
+   * @param args {@value #ARGUMENT_RUN_ID}, {@value #ARGUMENT_DESTINATION_FOLDER},
+   *     {@value #ARGUMENT_OUTPUT_JAR} and one 
+   *     {@value #ARGUMENT_SHARD}<code>destinationFolder;outputJar</code> for 
+   *     each shard, in shard order.
+   * @throws IOException If an error occurs while merging.
+   */
+  public static void main(String[] args) throws IOException {
+    String runId = "";
+    String destinationFolder = null;
+    String outputJar = null;
+    List<String[]> shardArguments = new ArrayList<String[]>();
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_RUN_ID)) {
+        runId = s.substring(ARGUMENT_RUN_ID.length());
+      } else if (s.startsWith(ARGUMENT_DESTINATION_FOLDER)) {
+        destinationFolder = s.substring(ARGUMENT_DESTINATION_FOLDER.length());
+      } else if (s.startsWith(ARGUMENT_OUTPUT_JAR)) {
+        outputJar = s.substring(ARGUMENT_OUTPUT_JAR.length());
+      } else if (s.startsWith(ARGUMENT_SHARD)) {
+        String[] shard = StringUtil.split(
+            s.substring(ARGUMENT_SHARD.length()), ";");
+        if (shard.length != 2) {
+          throw new IllegalArgumentException("Shards must be specified as " 
+              + ARGUMENT_SHARD + "destinationFolder;outputJar");
+        }
+        shardArguments.add(shard);
+      }
+    }
+    if (destinationFolder == null || outputJar == null 
+        || shardArguments.isEmpty()) {
+      throw new IllegalArgumentException("Invoke the merger with " 
+          + ARGUMENT_RUN_ID + "id " + ARGUMENT_DESTINATION_FOLDER + "folder " 
+          + ARGUMENT_OUTPUT_JAR + "jar " + ARGUMENT_SHARD + "folder;jar ...");
+    }
+    
+    CoverageShardMerger merger = new CoverageShardMerger(runId);
+    for (String[] shard : shardArguments) {
+      merger.addShard(new File(shard[0]), new File(shard[1]));
+    }
+    merger.merge(new File(destinationFolder), outputJar);
+  }
+  
+  /**
+   * A shard and the offsets of its indexes in the merged output.
+   */
+  private static class Shard {
+    final File jar;
+    final int methodOffset;
+    final int fileOffset;
+    
+    Shard(File jar, int methodOffset, int fileOffset) {
+      this.jar = jar;
+      this.methodOffset = methodOffset;
+      this.fileOffset = fileOffset;
+    }
+  }
+}
@@ -89,6 +89,12 @@ public class CoverageStatisticContainer {
    */
   public static final String FILENAME_INSTRUMENTED_LINES = "coverageInstrumentedLines.txt";
   
+  static final String SUMMARY_PACKAGES = "total packages";
+  static final String SUMMARY_CLASSES = "total classes";
+  static final String SUMMARY_METHODS = "total methods";
+  static final String SUMMARY_FILES = "total executable files";
+  static final String SUMMARY_LINES = "total executable lines";
+  
   /**
    * A list containing all the methods which have been mapped for coverage and
    * which is going to be stored into a file by 
@@ -402,13 +408,7 @@ public class CoverageStatisticContainer {
    * @param pw The {@link PrintWriter} on which to write.
    */
   public void writeInstrumentedLines(PrintWriter pw) {
-    pw.println(COMMENT + "---------------------------------------------------");
-    pw.println(COMMENT + "Line coverage instrumentation report.");
-    pw.println(COMMENT + "");
-    pw.println(COMMENT + "The file is written in the following format:");
-    pw.println(COMMENT + "index" + SEPARATOR + "instrumentedLinesCount" + 
-        SEPARATOR + "filename" + SEPARATOR + "listOfLines");
-    pw.println(COMMENT + "---------------------------------------------------");
+    writeInstrumentedLinesHeader(pw);
     for (String filename : instrumentedLines.keySet()) {
       int fileIndex = files.indexOf(filename);
       List<Integer> lines = instrumentedLines.get(filename);
@@ -418,6 +418,22 @@ public class CoverageStatisticContainer {
     }
   }
   
+  /**
+   * Writes the comment which describes the format of the instrumented lines.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   * @see #writeInstrumentedLines(PrintWriter)
+   */
+  static void writeInstrumentedLinesHeader(PrintWriter pw) {
+    pw.println(COMMENT + "---------------------------------------------------");
+    pw.println(COMMENT + "Line coverage instrumentation report.");
+    pw.println(COMMENT + "");
+    pw.println(COMMENT + "The file is written in the following format:");
+    pw.println(COMMENT + "index" + SEPARATOR + "instrumentedLinesCount" + 
+        SEPARATOR + "filename" + SEPARATOR + "listOfLines");
+    pw.println(COMMENT + "---------------------------------------------------");
+  }
+  
   /**
    * Writes summary information in emma-style on the selected 
    * {@link PrintWriter}. This file will be used at runtime to generate the 
@@ -429,12 +445,24 @@ public class CoverageStatisticContainer {
    * @param pw The writer with which to write.
    */
   public void writeSummary(PrintWriter pw){
+    writeSummary(pw, packages.size(), classes.size(), methods.size(), 
+        files.size(), totalLineCount);
+  }
+  
+  /**
+   * Writes summary information from the given counts.
+   * 
+   * @param pw The writer with which to write.
+   * @see #writeSummary(PrintWriter)
+   */
+  static void writeSummary(PrintWriter pw, int packageCount, int classCount, 
+      int methodCount, int fileCount, int lineCount) {
     pw.write("OVERALL STATS SUMMARY:\n\n" +
-        "total packages: " + packages.size() + "\n" +
-        "total classes:  " + classes.size() + "\n" +
-        "total methods:  " + methods.size() + "\n" +
-        "total executable files: " + files.size() + "\n" +
-        "total executable lines: " + totalLineCount + "\n");
+        SUMMARY_PACKAGES + ": " + packageCount + "\n" +
+        SUMMARY_CLASSES + ":  " + classCount + "\n" +
+        SUMMARY_METHODS + ":  " + methodCount + "\n" +
+        SUMMARY_FILES + ": " + fileCount + "\n" +
+        SUMMARY_LINES + ": " + lineCount + "\n");
   }
   
   /**
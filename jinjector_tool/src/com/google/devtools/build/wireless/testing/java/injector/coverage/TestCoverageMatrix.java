@@ -0,0 +1,416 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Maps each test to the code it covers.
+ * 
+ * <p>The matrix is built from the coverage of each test written by the 
+ * decorators' TestCoverageRecorder, whose indexes are mapped back to the 
+ * names written by the instrumentation. It is written one covered unit per 
+ * line as:
+ * <pre>
+ * test unit
+ * </pre>
+ * separated by a tab, where a unit is either a method, written as 
+ * <code>owner.name(desc)</code>, or a source file without extension, 
+ * e.g. <code>com/foo/Bar</code>, depending on the coverage mode. Names are 
+ * used instead of indexes so that the matrix is still valid after the code 
+ * is instrumented again.
+ * 
+ * @author Michele Sama
+ */
+public class TestCoverageMatrix {
+  
+  /**
+   * The name of the file in which the matrix is written.
+   */
+  public static final String FILENAME_MATRIX = "testCoverageMatrix.txt";
+  
+  private static final String ARGUMENT_TEST_COVERAGE = "testCoverage=";
+  
+  private static final String ARGUMENT_COVERAGE_FOLDER = "coverageFolder=";
+  
+  private static final String ARGUMENT_RUN_ID = "runId=";
+  
+  private static final String ARGUMENT_OUTPUT = "output=";
+  
+  private static final char SEPARATOR = '\t';
+  
+  /**
+   * The covered units, by test.
+   */
+  private final Map<String, Set<String>> matrix = 
+      new TreeMap<String, Set<String>>();
+  
+  /**
+   * Adds a covered unit.
+   * 
+   * @param test The name of the test.
+   * @param unit The covered method or file.
+   */
+  public void add(String test, String unit) {
+    getUnits(test).add(unit);
+  }
+  
+  /**
+   * Gets the units covered by a test, adding the test if needed.
+   */
+  private Set<String> getUnits(String test) {
+    Set<String> units = matrix.get(test);
+    if (units == null) {
+      units = new TreeSet<String>();
+      matrix.put(test, units);
+    }
+    return units;
+  }
+  
+  /**
+   * @return the names of all the tests.
+   */
+  public Set<String> getTests() {
+    return matrix.keySet();
+  }
+  
+  /**
+   * @param test The name of a test.
+   * @return the units covered by the test, or <code>null</code> if the test
+   *     is not in the matrix.
+   */
+  public Set<String> getCoveredUnits(String test) {
+    return matrix.get(test);
+  }
+  
+  /**
+   * Gets the tests covering at least a changed class, and the tests declared
+   * by a changed class.
+   * 
+   * @param changedClasses The internal names of the changed classes.
+   * @return the names of the affected tests, sorted.
+   */
+  public Set<String> getAffectedTests(Collection<String> changedClasses) {
+    Set<String> changed = new TreeSet<String>();
+    for (String className : changedClasses) {
+      changed.add(getOuterClass(className));
+    }
+    Set<String> affected = new TreeSet<String>();
+    for (Map.Entry<String, Set<String>> entry : matrix.entrySet()) {
+      String testClass = getTestClass(entry.getKey());
+      if (testClass != null && changed.contains(getOuterClass(testClass))) {
+        affected.add(entry.getKey());
+        continue;
+      }
+      for (String unit : entry.getValue()) {
+        if (changed.contains(getOuterClass(getOwner(unit)))) {
+          affected.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    return affected;
+  }
+  
+  /**
+   * Gets the class declaring a test from its name, which j2meunit formats 
+   * as <code>name(fully.qualified.Class)</code>.
+   * 
+   * @param test The name of a test.
+   * @return the internal name of the class declaring the test, or 
+   *     <code>null</code> if the name does not contain it.
+   */
+  static String getTestClass(String test) {
+    int open = test.lastIndexOf('(');
+    if (open < 0 || !test.endsWith(")") || open + 2 == test.length()) {
+      return null;
+    }
+    return test.substring(open + 1, test.length() - 1).replace('.', '/');
+  }
+  
+  /**
+   * Gets the class or file containing a unit.
+   * 
+   * @param unit A method or a file.
+   * @return the internal name of the class declaring the method, or the 
+   *     file itself.
+   */
+  static String getOwner(String unit) {
+    int parenthesis = unit.indexOf('(');
+    if (parenthesis < 0) {
+      return unit;
+    }
+    return unit.substring(0, unit.lastIndexOf('.', parenthesis));
+  }
+  
+  /**
+   * Gets the top level class of a class, which is also the name of its 
+   * source file in most cases.
+   * 
+   * @param className The internal name of a class.
+   * @return the internal name of the top level class.
+   */
+  static String getOuterClass(String className) {
+    int dollar = className.indexOf('$', className.lastIndexOf('/') + 1);
+    return dollar < 0 ? className : className.substring(0, dollar);
+  }
+  
+  /**
+   * Adds the coverage recorded on the device.
+   * 
+   * @param testCoverage The coverage of each test. It is not closed.
+   * @param methods The methods by index.
+   * @param files The files by index.
+   * @throws IOException If the coverage cannot be read or refers to unknown
+   *     indexes.
+   */
+  public void addDeviceCoverage(BufferedReader testCoverage, 
+      Map<Integer, String> methods, Map<Integer, String> files) 
+      throws IOException {
+    String line;
+    while ((line = testCoverage.readLine()) != null) {
+      if (line.length() == 0) {
+        continue;
+      }
+      String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+      if (fields.length != 3) {
+        throw new IOException("Malformed test coverage: " + line);
+      }
+      Set<String> units = getUnits(fields[0]);
+      addUnits(units, fields[1], methods, line);
+      addUnits(units, fields[2], files, line);
+    }
+  }
+  
+  private static void addUnits(Set<String> units, String indexes, 
+      Map<Integer, String> names, String line) throws IOException {
+    if (indexes.length() == 0) {
+      return;
+    }
+    for (String index : indexes.split(",")) {
+      String name;
+      try {
+        name = names.get(Integer.valueOf(index));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed test coverage: " + line);
+      }
+      if (name == null) {
+        throw new IOException("Unknown index " + index + " in " + line);
+      }
+      units.add(name);
+    }
+  }
+  
+  /**
+   * Reads the methods written by 
+   * {@link CoverageStatisticContainer#writeMappedMethods(PrintWriter)}.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the methods by index.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static Map<Integer, String> readMethods(BufferedReader reader) 
+      throws IOException {
+    Map<Integer, String> methods = new HashMap<Integer, String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      int separator = line.lastIndexOf(CoverageStatisticContainer.SEPARATOR);
+      if (separator > 0) {
+        methods.put(Integer.valueOf(line.substring(separator + 1)), 
+            line.substring(0, separator));
+      }
+    }
+    return methods;
+  }
+  
+  /**
+   * Reads the files written by 
+   * {@link CoverageStatisticContainer#writeInstrumentedLines(PrintWriter)}.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the files by index.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static Map<Integer, String> readFiles(BufferedReader reader) 
+      throws IOException {
+    Map<Integer, String> files = new HashMap<Integer, String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.length() == 0 
+          || line.charAt(0) == CoverageStatisticContainer.COMMENT) {
+        continue;
+      }
+      String[] fields = line.split(
+          String.valueOf(CoverageStatisticContainer.SEPARATOR));
+      if (fields.length >= 3) {
+        files.put(Integer.valueOf(fields[0]), fields[2]);
+      }
+    }
+    return files;
+  }
+  
+  /**
+   * Writes the matrix. Tests which do not cover any unit are written 
+   * without unit, so that they are known to the selector.
+   * 
+   * <p>The writer is NOT closed at the end.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   */
+  public void write(PrintWriter pw) {
+    for (Map.Entry<String, Set<String>> entry : matrix.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        pw.println(entry.getKey());
+      }
+      for (String unit : entry.getValue()) {
+        pw.println(entry.getKey() + SEPARATOR + unit);
+      }
+    }
+    pw.flush();
+  }
+  
+  /**
+   * Reads a matrix written by {@link #write(PrintWriter)}.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the matrix.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static TestCoverageMatrix read(BufferedReader reader) 
+      throws IOException {
+    TestCoverageMatrix result = new TestCoverageMatrix();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.length() == 0) {
+        continue;
+      }
+      int separator = line.lastIndexOf(SEPARATOR);
+      if (separator < 0) {
+        result.getUnits(line);
+      } else {
+        result.add(line.substring(0, separator), 
+            line.substring(separator + 1));
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Reads a matrix from a file.
+   * 
+   * @param file The file containing the matrix.
+   * @return the matrix.
+   * @throws IOException If the file cannot be read.
+   */
+  public static TestCoverageMatrix read(File file) throws IOException {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      return read(reader);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+  
+  /**
+   * Builds the matrix from the coverage recorded on the device.
+   * 
+   * @param args {@value #ARGUMENT_TEST_COVERAGE} followed by the file 
+   *     written by the device, {@value #ARGUMENT_COVERAGE_FOLDER} followed by
+   *     the folder containing the coverage metadata written by the 
+   *     instrumentation, optionally {@value #ARGUMENT_RUN_ID} followed by 
+   *     the runId of the instrumentation and {@value #ARGUMENT_OUTPUT} 
+   *     followed by the matrix to write, by default 
+   *     {@value #FILENAME_MATRIX} in the coverage folder.
+   * @throws IOException If a file cannot be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    String testCoverage = null;
+    String coverageFolder = null;
+    String runId = "";
+    String output = null;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_TEST_COVERAGE)) {
+        testCoverage = s.substring(ARGUMENT_TEST_COVERAGE.length());
+      } else if (s.startsWith(ARGUMENT_COVERAGE_FOLDER)) {
+        coverageFolder = s.substring(ARGUMENT_COVERAGE_FOLDER.length());
+      } else if (s.startsWith(ARGUMENT_RUN_ID)) {
+        runId = s.substring(ARGUMENT_RUN_ID.length());
+      } else if (s.startsWith(ARGUMENT_OUTPUT)) {
+        output = s.substring(ARGUMENT_OUTPUT.length());
+      }
+    }
+    if (testCoverage == null || coverageFolder == null) {
+      throw new IllegalArgumentException("Invoke the matrix builder with " 
+          + ARGUMENT_TEST_COVERAGE + "file " + ARGUMENT_COVERAGE_FOLDER 
+          + "folder [" + ARGUMENT_RUN_ID + "id] [" + ARGUMENT_OUTPUT 
+          + "file]");
+    }
+    
+    Map<Integer, String> methods = new HashMap<Integer, String>();
+    Map<Integer, String> files = new HashMap<Integer, String>();
+    BufferedReader reader = null;
+    File methodsFile = new File(coverageFolder, 
+        CoverageStatisticContainer.FILENAME_METHOD + runId);
+    if (methodsFile.exists()) {
+      try {
+        reader = new BufferedReader(new FileReader(methodsFile));
+        methods = readMethods(reader);
+      } finally {
+        Closeables.closeQuietly(reader);
+      }
+    }
+    File filesFile = new File(coverageFolder, 
+        CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + runId);
+    if (filesFile.exists()) {
+      try {
+        reader = new BufferedReader(new FileReader(filesFile));
+        files = readFiles(reader);
+      } finally {
+        Closeables.closeQuietly(reader);
+      }
+    }
+    
+    TestCoverageMatrix matrix = new TestCoverageMatrix();
+    try {
+      reader = new BufferedReader(new FileReader(testCoverage));
+      matrix.addDeviceCoverage(reader, methods, files);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(output == null 
+          ? new File(coverageFolder, FILENAME_MATRIX) : new File(output));
+      matrix.write(pw);
+    } finally {
+      Closeables.closeQuietly(pw);
+    }
+  }
+}
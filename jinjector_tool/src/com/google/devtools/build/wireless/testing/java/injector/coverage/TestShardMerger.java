@@ -0,0 +1,382 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Merges the files written by the devices which ran the shards of a test 
+ * suite.
+ * 
+ * <p>Each device runs a disjoint subset of the tests of the same 
+ * instrumented application and writes its reports in its own folder. The 
+ * merger combines:
+ * <ul>
+ * <li>the results of the tests, which can be bundled with the application 
+ *     to balance the next shards;
+ * <li>the coverage of each test;
+ * <li>the method coverage, in which a method is covered if any shard 
+ *     covered it and invocations and execution times are summed;
+ * <li>the LCOV line coverage, in which hits are summed.
+ * </ul>
+ * Files missing from a shard are skipped. The package summary is not merged,
+ * since it can be computed from the merged method coverage.
+ * 
+ * <p>This is unrelated to {@link CoverageShardMerger}, which merges the 
+ * shards of an instrumentation.
+ * 
+ * @author Michele Sama
+ */
+public class TestShardMerger {
+  
+  /**
+   * The results written by the decorators' TestResultRecorder.
+   */
+  public static final String FILENAME_RESULTS = "testResults.txt";
+  
+  /**
+   * The coverage of each test written by the decorators' 
+   * TestCoverageRecorder.
+   */
+  public static final String FILENAME_TEST_COVERAGE = "testCoverage.txt";
+  
+  /**
+   * The method coverage written by the decorators' CoverageSummaryWriter.
+   */
+  public static final String FILENAME_METHOD_COVERAGE = "methodCoverage.txt";
+  
+  private static final String ARGUMENT_SHARD = "shard=";
+  
+  private static final String ARGUMENT_DESTINATION_FOLDER = 
+      "destinationFolder=";
+  
+  private static final String ARGUMENT_LCOV = "lcov=";
+  
+  private static final String SEPARATOR = "\t";
+  
+  private static final String LCOV_FILE = "SF:";
+  
+  private static final String LCOV_LINE = "DA:";
+  
+  private static final String LCOV_END = "end_of_record";
+  
+  private static Logger logger = 
+      Logger.getLogger(TestShardMerger.class.getName());
+  
+  private final String lcovFilename;
+  
+  private int shardCount = 0;
+  
+  /**
+   * Runs, failures and total time of each test.
+   */
+  private final Map<String, long[]> results = 
+      new LinkedHashMap<String, long[]>();
+  
+  private final List<String> testCoverage = new ArrayList<String>();
+  
+  private String methodCoverageHeader = null;
+  
+  /**
+   * Coverage flag, invocations and total time of each method.
+   */
+  private final Map<String, long[]> methodCoverage = 
+      new LinkedHashMap<String, long[]>();
+  
+  /**
+   * Hits of each line, by source file.
+   */
+  private final Map<String, Map<String, Long>> lineCoverage = 
+      new LinkedHashMap<String, Map<String, Long>>();
+  
+  /**
+   * Creates a merger.
+   * 
+   * @param lcovFilename The name of the LCOV file written by the devices, or
+   *     <code>null</code> if line coverage has not been collected.
+   */
+  public TestShardMerger(String lcovFilename) {
+    this.lcovFilename = lcovFilename;
+  }
+  
+  /**
+   * Adds the reports of a shard.
+   * 
+   * @param folder The folder containing the files written by the device.
+   * @throws IOException If a file cannot be read or is malformed.
+   */
+  public void addShard(File folder) throws IOException {
+    Files.Assert.isDir(folder);
+    shardCount++;
+    for (String line : readLines(new File(folder, FILENAME_RESULTS))) {
+      String[] fields = line.split(SEPARATOR);
+      if (fields.length != 4) {
+        throw new IOException("Malformed test result: " + line);
+      }
+      long runs = Long.parseLong(fields[1]);
+      add(results, fields[0], new long[] {runs, Long.parseLong(fields[2]), 
+          runs * Long.parseLong(fields[3])});
+    }
+    
+    testCoverage.addAll(readLines(new File(folder, FILENAME_TEST_COVERAGE)));
+    
+    List<String> methods = 
+        readLines(new File(folder, FILENAME_METHOD_COVERAGE));
+    for (int i = 0; i < methods.size(); i++) {
+      String line = methods.get(i);
+      if (i == 0) {
+        methodCoverageHeader = line;
+        continue;
+      }
+      String[] fields = line.split(SEPARATOR);
+      if (fields.length != 4) {
+        throw new IOException("Malformed method coverage: " + line);
+      }
+      long covered = "covered".equals(fields[1]) ? 1 : 0;
+      long[] merged = add(methodCoverage, fields[0], new long[] {0, 
+          Long.parseLong(fields[2]), Long.parseLong(fields[3])});
+      merged[0] |= covered;
+    }
+    
+    if (lcovFilename != null) {
+      addLineCoverage(readLines(new File(folder, lcovFilename)));
+    }
+  }
+  
+  /**
+   * Sums the values of an entry.
+   * 
+   * @return the merged values.
+   */
+  private static long[] add(Map<String, long[]> map, String key, 
+      long[] values) {
+    long[] merged = map.get(key);
+    if (merged == null) {
+      map.put(key, values);
+      return values;
+    }
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] += values[i];
+    }
+    return merged;
+  }
+  
+  private void addLineCoverage(List<String> lines) throws IOException {
+    Map<String, Long> hits = null;
+    for (String line : lines) {
+      if (line.startsWith(LCOV_FILE)) {
+        String file = line.substring(LCOV_FILE.length());
+        hits = lineCoverage.get(file);
+        if (hits == null) {
+          hits = new LinkedHashMap<String, Long>();
+          lineCoverage.put(file, hits);
+        }
+      } else if (line.startsWith(LCOV_LINE)) {
+        int comma = line.indexOf(',');
+        if (hits == null || comma < 0) {
+          throw new IOException("Malformed line coverage: " + line);
+        }
+        String lineNumber = line.substring(LCOV_LINE.length(), comma);
+        long count = Long.parseLong(line.substring(comma + 1));
+        Long previous = hits.get(lineNumber);
+        hits.put(lineNumber, previous == null ? count : previous + count);
+      } else if (line.equals(LCOV_END)) {
+        hits = null;
+      }
+    }
+  }
+  
+  /**
+   * @return the number of shards added so far.
+   */
+  public int getShardCount() {
+    return shardCount;
+  }
+  
+  /**
+   * @return the number of distinct tests run by all the shards.
+   */
+  public int getTestCount() {
+    return results.size();
+  }
+  
+  /**
+   * @return the names of the tests which failed at least once.
+   */
+  public List<String> getFailedTests() {
+    List<String> failed = new ArrayList<String>();
+    for (Map.Entry<String, long[]> entry : results.entrySet()) {
+      if (entry.getValue()[1] > 0) {
+        failed.add(entry.getKey());
+      }
+    }
+    return failed;
+  }
+  
+  /**
+   * Writes the merged files. Files which are not written by any shard are 
+   * not written.
+   * 
+   * @param folder The folder in which to write.
+   * @throws IOException If a file cannot be written.
+   */
+  public void write(File folder) throws IOException {
+    if (!folder.exists() && !folder.mkdirs()) {
+      throw new IOException("Cannot create " + folder);
+    }
+    PrintWriter pw = null;
+    if (!results.isEmpty()) {
+      try {
+        pw = new PrintWriter(new File(folder, FILENAME_RESULTS));
+        for (Map.Entry<String, long[]> entry : results.entrySet()) {
+          long[] values = entry.getValue();
+          pw.println(entry.getKey() + SEPARATOR + values[0] + SEPARATOR 
+              + values[1] + SEPARATOR 
+              + (values[0] == 0 ? 0 : values[2] / values[0]));
+        }
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    }
+    
+    if (!testCoverage.isEmpty()) {
+      try {
+        pw = new PrintWriter(new File(folder, FILENAME_TEST_COVERAGE));
+        for (String line : testCoverage) {
+          pw.println(line);
+        }
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    }
+    
+    if (methodCoverageHeader != null) {
+      try {
+        pw = new PrintWriter(new File(folder, FILENAME_METHOD_COVERAGE));
+        pw.println(methodCoverageHeader);
+        for (Map.Entry<String, long[]> entry : methodCoverage.entrySet()) {
+          long[] values = entry.getValue();
+          pw.println(entry.getKey() + SEPARATOR 
+              + (values[0] != 0 ? "covered" : "UNCOVERED") + SEPARATOR 
+              + values[1] + SEPARATOR + values[2]);
+        }
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    }
+    
+    if (!lineCoverage.isEmpty()) {
+      try {
+        pw = new PrintWriter(new File(folder, lcovFilename));
+        writeLineCoverage(pw);
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    }
+  }
+  
+  private void writeLineCoverage(PrintWriter pw) {
+    for (Map.Entry<String, Map<String, Long>> file : lineCoverage.entrySet()) {
+      pw.println(LCOV_FILE + file.getKey());
+      int covered = 0;
+      for (Map.Entry<String, Long> line : file.getValue().entrySet()) {
+        pw.println(LCOV_LINE + line.getKey() + "," + line.getValue());
+        if (line.getValue() > 0) {
+          covered++;
+        }
+      }
+      pw.println("LH:" + covered);
+      pw.println("LF:" + file.getValue().size());
+      pw.println(LCOV_END);
+    }
+  }
+  
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    if (!file.exists()) {
+      logger.fine("Missing shard file " + file);
+      return lines;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.length() > 0) {
+          lines.add(line);
+        }
+      }
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    return lines;
+  }
+  
+  /**
+   * Merges the reports of several shards and prints the failed tests.
+   * 
+   * @param args {@value #ARGUMENT_DESTINATION_FOLDER} followed by the folder
+   *     in which to write the merged files, {@value #ARGUMENT_SHARD} followed
+   *     by the folder of a shard, once for each shard, and optionally 
+   *     {@value #ARGUMENT_LCOV} followed by the name of the LCOV file 
+   *     written by the devices.
+   * @throws IOException If a file cannot be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    String destinationFolder = null;
+    String lcov = null;
+    List<String> shards = new ArrayList<String>();
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_DESTINATION_FOLDER)) {
+        destinationFolder = s.substring(ARGUMENT_DESTINATION_FOLDER.length());
+      } else if (s.startsWith(ARGUMENT_LCOV)) {
+        lcov = s.substring(ARGUMENT_LCOV.length());
+      } else if (s.startsWith(ARGUMENT_SHARD)) {
+        shards.add(s.substring(ARGUMENT_SHARD.length()));
+      }
+    }
+    if (destinationFolder == null || shards.isEmpty()) {
+      throw new IllegalArgumentException("Invoke the merger with " 
+          + ARGUMENT_DESTINATION_FOLDER + "folder [" + ARGUMENT_LCOV 
+          + "filename] " + ARGUMENT_SHARD + "folder ...");
+    }
+    
+    TestShardMerger merger = new TestShardMerger(lcov);
+    for (String shard : shards) {
+      merger.addShard(new File(shard));
+    }
+    merger.write(new File(destinationFolder));
+    
+    List<String> failed = merger.getFailedTests();
+    System.out.println(merger.getTestCount() + " tests run on " 
+        + merger.getShardCount() + " shards, " + failed.size() + " failed");
+    for (String test : failed) {
+      System.out.println("FAILED: " + test);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.SimpleVerifier;
+import org.objectweb.asm.tree.analysis.Value;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link SimpleVerifier} which resolves the class hierarchy through a
+ * {@link ClassManager} instead of loading classes with a
+ * {@link ClassLoader}, so that classes compiled against the target platform
+ * can be verified on the host.
+ *
+ * <p>The verifier also tracks uninitialized references, which the CLDC
+ * StackMap needs to distinguish from initialized ones: the result of a
+ * <code>NEW</code> and the <code>this</code> reference of a constructor
+ * are represented by {@link UninitializedValue}s until the corresponding
+ * <code>&lt;init&gt;</code> is invoked.
+ *
+ * @author Michele Sama
+ *
+ */
+class ClassManagerVerifier extends SimpleVerifier {
+
+  private final ClassManager classManager;
+
+  private final Type currentClass;
+
+  /**
+   * <code>true</code> while the next value created for the current class is
+   * the uninitialized <code>this</code> of a constructor.
+   */
+  private boolean pendingUninitializedThis;
+
+  /**
+   * The uninitialized values of the analyzed method, by <code>NEW</code>
+   * instruction. The analyzer executes instructions more than once, and each
+   * execution must produce the same value.
+   */
+  private final Map<AbstractInsnNode, UninitializedValue> uninitializedValues =
+      new HashMap<AbstractInsnNode, UninitializedValue>();
+
+  /**
+   * Creates a verifier for the methods of a given class.
+   *
+   * @param classManager The {@link ClassManager} used to load hierarchies.
+   * @param currentClass The class being verified.
+   * @param currentSuperClass The superclass of the class being verified.
+   * @param interfaces The interfaces implemented by the verified class.
+   * @param isInterface <code>true</code> if the verified class is an
+   *     interface.
+   */
+  ClassManagerVerifier(ClassManager classManager, Type currentClass,
+      Type currentSuperClass, List<Type> interfaces, boolean isInterface) {
+    super(currentClass, currentSuperClass, interfaces, isInterface);
+    this.classManager = classManager;
+    this.currentClass = currentClass;
+  }
+
+  /**
+   * Must be invoked before analyzing each method to specify whether its
+   * <code>this</code> reference starts uninitialized.
+   *
+   * @param isConstructor <code>true</code> if the next analyzed method is a
+   *     constructor.
+   */
+  void startMethod(boolean isConstructor) {
+    pendingUninitializedThis = isConstructor;
+    uninitializedValues.clear();
+  }
+
+  @Override
+  public Value newValue(Type type) {
+    if (pendingUninitializedThis && currentClass.equals(type)) {
+      pendingUninitializedThis = false;
+      return new UninitializedValue(type, null);
+    }
+    return super.newValue(type);
+  }
+
+  @Override
+  public Value newOperation(AbstractInsnNode insn) {
+    if (insn.getOpcode() == Opcodes.NEW) {
+      UninitializedValue value = uninitializedValues.get(insn);
+      if (value == null) {
+        value = new UninitializedValue(
+            Type.getObjectType(((TypeInsnNode) insn).desc), insn);
+        uninitializedValues.put(insn, value);
+      }
+      return value;
+    }
+    return super.newOperation(insn);
+  }
+
+  /**
+   * Uninitialized references can only be merged with themselves, any other
+   * combination results in an unusable value.
+   */
+  @Override
+  public Value merge(Value v, Value w) {
+    if (v != w && (v instanceof UninitializedValue
+        || w instanceof UninitializedValue)) {
+      return BasicValue.UNINITIALIZED_VALUE;
+    }
+    return super.merge(v, w);
+  }
+
+  @Override
+  protected boolean isInterface(Type t) {
+    if (currentClass.equals(t) || t.getSort() == Type.ARRAY) {
+      return super.isInterface(t);
+    }
+    return classManager.isInterface(t.getInternalName());
+  }
+
+  @Override
+  protected Type getSuperClass(Type t) {
+    if (currentClass.equals(t)) {
+      return super.getSuperClass(t);
+    }
+    if (t.getSort() == Type.ARRAY) {
+      return Type.getObjectType(ClassNames.JAVA_LANG_OBJECT);
+    }
+    String superclass = classManager.getSuperclass(t.getInternalName());
+    return superclass == null ? null : Type.getObjectType(superclass);
+  }
+
+  @Override
+  protected boolean isAssignableFrom(Type t, Type u) {
+    if (t.equals(u)) {
+      return true;
+    }
+    if (currentClass.equals(t) || currentClass.equals(u)) {
+      return super.isAssignableFrom(t, u);
+    }
+    if (t.getSort() == Type.ARRAY || u.getSort() == Type.ARRAY) {
+      return isArrayAssignableFrom(t, u);
+    }
+    // As in the device verifier interfaces are treated as Object, the check
+    // is left to the invoke instructions at runtime.
+    if (isInterface(t)) {
+      return true;
+    }
+    return classManager.isAssignableFrom(
+        t.getInternalName(), u.getInternalName());
+  }
+
+  /**
+   * Checks assignments in which at least one of the types is an array.
+   *
+   * @param t The type into which the value is going to be assigned.
+   * @param u The type of the value to assign.
+   * @return <code>true</code> if the assignment is possible.
+   */
+  private boolean isArrayAssignableFrom(Type t, Type u) {
+    if (u.getSort() != Type.ARRAY) {
+      return false;
+    }
+    if (t.getSort() != Type.ARRAY) {
+      return ClassNames.JAVA_LANG_OBJECT.equals(t.getInternalName());
+    }
+    Type tElement = Type.getType(t.getDescriptor().substring(1));
+    Type uElement = Type.getType(u.getDescriptor().substring(1));
+    if (tElement.getSort() == Type.OBJECT || tElement.getSort() == Type.ARRAY) {
+      return (uElement.getSort() == Type.OBJECT
+          || uElement.getSort() == Type.ARRAY)
+          && isAssignableFrom(tElement, uElement);
+    }
+    return tElement.equals(uElement);
+  }
+
+  /**
+   * Represents a reference which has not been initialized yet.
+   *
+   * <p>Two uninitialized values are equal only if they are the same instance,
+   * since each one refers to a different allocation.
+   */
+  static class UninitializedValue extends BasicValue {
+
+    private final AbstractInsnNode newInsn;
+
+    /**
+     * @param type The type of the allocated reference.
+     * @param newInsn The <code>NEW</code> instruction which allocated the
+     *     reference or <code>null</code> for the <code>this</code> reference
+     *     of a constructor.
+     */
+    UninitializedValue(Type type, AbstractInsnNode newInsn) {
+      super(type);
+      this.newInsn = newInsn;
+    }
+
+    /**
+     * @return the <code>NEW</code> instruction which allocated this reference
+     *     or <code>null</code> if it is the <code>this</code> reference of a
+     *     constructor.
+     */
+    AbstractInsnNode getNewInsn() {
+      return newInsn;
+    }
+
+    @Override
+    public boolean equals(Object value) {
+      return value == this;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+}
@@ -0,0 +1,392 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
+import com.google.devtools.build.wireless.testing.java.injector.ClasspathBasedClassWriter;
+import com.google.devtools.build.wireless.testing.java.injector.j2me.ClassManagerVerifier.UninitializedValue;
+import com.google.devtools.build.wireless.testing.java.injector.j2me.StackMapAttribute.Item;
+import com.google.devtools.build.wireless.testing.java.injector.j2me.StackMapAttribute.StackMapFrame;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.JSRInlinerAdapter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.Interpreter;
+import org.objectweb.asm.tree.analysis.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Preverifies classes for CLDC 1.1 devices.
+ *
+ * <p>Preverification is normally performed by the WTK <code>preverify</code>
+ * tool after the instrumentation, which requires writing all the classes to
+ * disk once more. This class performs the same job in memory, while the
+ * instrumented bytecode is still available, by:
+ * <ul>
+ * <li>inlining <code>JSR</code>/<code>RET</code> subroutines, which are not
+ *     allowed on CLDC;
+ * <li>computing the types of locals and stack with a data flow analysis and
+ *     storing them in a <code>StackMap</code> attribute at each branch target,
+ *     exception handler and instruction following an unconditional branch.
+ * </ul>
+ *
+ * <p>Checks which the WTK preverifier also performs on the used APIs (e.g.
+ * floating point or finalizers on CLDC 1.0) are not replicated.
+ *
+ * @author Michele Sama
+ *
+ */
+public class CldcPreverifier {
+
+  private final ClassManager classManager;
+
+  /**
+   * Creates a preverifier which resolves class hierarchies with the given
+   * {@link ClassManager}.
+   *
+   * @param classManager The {@link ClassManager} to use.
+   */
+  public CldcPreverifier(ClassManager classManager) {
+    this.classManager = classManager;
+  }
+
+  /**
+   * Preverifies a class.
+   *
+   * @param bytecode The bytecode of the class.
+   * @return the preverified bytecode.
+   * @throws RuntimeException if the class cannot be verified.
+   */
+  @SuppressWarnings("unchecked")
+  public byte[] preverify(byte[] bytecode) {
+    ClassNode classNode = new ClassNode();
+    // Existing frames are skipped since they are going to be recomputed.
+    new ClassReader(bytecode).accept(new JsrInliningClassAdapter(classNode),
+        ClassReader.SKIP_FRAMES);
+
+    List<Type> interfaces = new ArrayList<Type>();
+    for (String s : (List<String>) classNode.interfaces) {
+      interfaces.add(Type.getObjectType(s));
+    }
+    ClassManagerVerifier verifier = new ClassManagerVerifier(classManager,
+        Type.getObjectType(classNode.name),
+        classNode.superName == null
+            ? null : Type.getObjectType(classNode.superName),
+        interfaces, (classNode.access & Opcodes.ACC_INTERFACE) != 0);
+
+    for (MethodNode method : (List<MethodNode>) classNode.methods) {
+      if (method.instructions.size() > 0) {
+        addStackMap(classNode.name, method, verifier);
+      }
+    }
+
+    ClassWriter cw = new ClasspathBasedClassWriter(ClassWriter.COMPUTE_MAXS,
+        classManager);
+    classNode.accept(cw);
+    return cw.toByteArray();
+  }
+
+  /**
+   * Analyzes a method and attaches the resulting {@link StackMapAttribute}
+   * to it.
+   *
+   * @param owner The internal name of the class declaring the method.
+   * @param method The method to analyze.
+   * @param verifier The verifier used for the analysis.
+   */
+  @SuppressWarnings("unchecked")
+  private void addStackMap(String owner, MethodNode method,
+      ClassManagerVerifier verifier) {
+    InsnList instructions = method.instructions;
+    AbstractInsnNode[] insns = instructions.toArray();
+    verifier.startMethod("<init>".equals(method.name));
+    Frame[] frames;
+    try {
+      frames = new InitializationTrackingAnalyzer(verifier).analyze(
+          owner, method);
+    } catch (AnalyzerException e) {
+      throw new RuntimeException("Cannot preverify method " + owner + "."
+          + method.name + method.desc + ".", e);
+    }
+
+    // Collects the positions requiring a frame.
+    Map<AbstractInsnNode, Frame> targets =
+        new HashMap<AbstractInsnNode, Frame>();
+    Map<AbstractInsnNode, Integer> indexes =
+        new HashMap<AbstractInsnNode, Integer>();
+    for (int i = 0; i < insns.length; i++) {
+      indexes.put(insns[i], i);
+    }
+    List<LabelNode> labels = new ArrayList<LabelNode>();
+    for (int i = 0; i < insns.length; i++) {
+      AbstractInsnNode insn = insns[i];
+      if (insn instanceof JumpInsnNode) {
+        labels.add(((JumpInsnNode) insn).label);
+      } else if (insn instanceof TableSwitchInsnNode) {
+        labels.add(((TableSwitchInsnNode) insn).dflt);
+        labels.addAll(((TableSwitchInsnNode) insn).labels);
+      } else if (insn instanceof LookupSwitchInsnNode) {
+        labels.add(((LookupSwitchInsnNode) insn).dflt);
+        labels.addAll(((LookupSwitchInsnNode) insn).labels);
+      }
+      if (isUnconditionalBranch(insn.getOpcode()) && i + 1 < insns.length) {
+        targets.put(insns[i + 1], frames[i + 1]);
+      }
+    }
+    for (TryCatchBlockNode block
+        : (List<TryCatchBlockNode>) method.tryCatchBlocks) {
+      labels.add(block.handler);
+    }
+    for (LabelNode label : labels) {
+      targets.put(label, frames[indexes.get(label)]);
+    }
+
+    // Labels the NEW instructions, so that uninitialized types can refer them.
+    Map<AbstractInsnNode, LabelNode> newLabels =
+        new HashMap<AbstractInsnNode, LabelNode>();
+    for (AbstractInsnNode insn : insns) {
+      if (insn.getOpcode() == Opcodes.NEW) {
+        newLabels.put(insn, labelBefore(instructions, insn));
+      }
+    }
+
+    StackMapAttribute stackMap = new StackMapAttribute();
+    for (AbstractInsnNode insn : insns) {
+      if (!targets.containsKey(insn)) {
+        continue;
+      }
+      Frame frame = targets.get(insn);
+      // Unreachable code does not need a frame.
+      if (frame != null) {
+        stackMap.addFrame(new StackMapFrame(labelBefore(instructions, insn),
+            toLocalItems(frame, newLabels), toStackItems(frame, newLabels)));
+      }
+    }
+    if (stackMap.getFrameCount() > 0) {
+      method.visitAttribute(stackMap);
+    }
+  }
+
+  /**
+   * Returns a label at the position of the given instruction, inserting a new
+   * one if required.
+   */
+  private static LabelNode labelBefore(InsnList instructions,
+      AbstractInsnNode insn) {
+    if (insn instanceof LabelNode) {
+      return (LabelNode) insn;
+    }
+    AbstractInsnNode previous = insn.getPrevious();
+    if (previous instanceof LabelNode) {
+      return (LabelNode) previous;
+    }
+    LabelNode label = new LabelNode();
+    instructions.insertBefore(insn, label);
+    return label;
+  }
+
+  private static boolean isUnconditionalBranch(int opcode) {
+    switch (opcode) {
+      case Opcodes.GOTO:
+      case Opcodes.TABLESWITCH:
+      case Opcodes.LOOKUPSWITCH:
+      case Opcodes.IRETURN:
+      case Opcodes.LRETURN:
+      case Opcodes.FRETURN:
+      case Opcodes.DRETURN:
+      case Opcodes.ARETURN:
+      case Opcodes.RETURN:
+      case Opcodes.ATHROW:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Converts the locals of a frame, trimming trailing unusable slots.
+   */
+  private static List<Item> toLocalItems(Frame frame,
+      Map<AbstractInsnNode, LabelNode> newLabels) {
+    List<Item> items = new ArrayList<Item>();
+    int used = 0;
+    for (int i = 0; i < frame.getLocals(); i++) {
+      Value value = frame.getLocal(i);
+      Item item = toItem(value, newLabels);
+      items.add(item);
+      if (item.tag != StackMapAttribute.ITEM_BOGUS) {
+        used = items.size();
+      }
+      // Longs and doubles take one entry but two slots.
+      if (value.getSize() == 2) {
+        i++;
+      }
+    }
+    return new ArrayList<Item>(items.subList(0, used));
+  }
+
+  private static List<Item> toStackItems(Frame frame,
+      Map<AbstractInsnNode, LabelNode> newLabels) {
+    List<Item> items = new ArrayList<Item>();
+    for (int i = 0; i < frame.getStackSize(); i++) {
+      items.add(toItem(frame.getStack(i), newLabels));
+    }
+    return items;
+  }
+
+  private static Item toItem(Value value,
+      Map<AbstractInsnNode, LabelNode> newLabels) {
+    if (value instanceof UninitializedValue) {
+      AbstractInsnNode newInsn = ((UninitializedValue) value).getNewInsn();
+      return newInsn == null
+          ? Item.simple(StackMapAttribute.ITEM_INIT_OBJECT)
+          : Item.newObject(newLabels.get(newInsn));
+    }
+    Type type = ((BasicValue) value).getType();
+    if (type == null) {
+      return Item.simple(StackMapAttribute.ITEM_BOGUS);
+    }
+    switch (type.getSort()) {
+      case Type.BOOLEAN:
+      case Type.CHAR:
+      case Type.BYTE:
+      case Type.SHORT:
+      case Type.INT:
+        return Item.simple(StackMapAttribute.ITEM_INTEGER);
+      case Type.FLOAT:
+        return Item.simple(StackMapAttribute.ITEM_FLOAT);
+      case Type.LONG:
+        return Item.simple(StackMapAttribute.ITEM_LONG);
+      case Type.DOUBLE:
+        return Item.simple(StackMapAttribute.ITEM_DOUBLE);
+      case Type.ARRAY:
+        return Item.object(type.getDescriptor());
+      case Type.OBJECT:
+        if ("Lnull;".equals(type.getDescriptor())) {
+          return Item.simple(StackMapAttribute.ITEM_NULL);
+        }
+        return Item.object(type.getInternalName());
+      default:
+        throw new IllegalStateException("Unexpected type in frame: " + type);
+    }
+  }
+
+  /**
+   * Inlines subroutines for each visited method.
+   */
+  private static class JsrInliningClassAdapter extends ClassAdapter {
+
+    JsrInliningClassAdapter(ClassNode classNode) {
+      super(classNode);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc,
+        String signature, String[] exceptions) {
+      return new JSRInlinerAdapter(
+          super.visitMethod(access, name, desc, signature, exceptions),
+          access, name, desc, signature, exceptions);
+    }
+  }
+
+  /**
+   * An {@link Analyzer} creating {@link InitializationTrackingFrame}s.
+   */
+  private static class InitializationTrackingAnalyzer extends Analyzer {
+
+    InitializationTrackingAnalyzer(Interpreter interpreter) {
+      super(interpreter);
+    }
+
+    @Override
+    protected Frame newFrame(int nLocals, int nStack) {
+      return new InitializationTrackingFrame(nLocals, nStack);
+    }
+
+    @Override
+    protected Frame newFrame(Frame src) {
+      return new InitializationTrackingFrame(src);
+    }
+  }
+
+  /**
+   * A {@link Frame} which replaces all the copies of an uninitialized
+   * reference with an initialized one when its constructor is invoked.
+   */
+  private static class InitializationTrackingFrame extends Frame {
+
+    InitializationTrackingFrame(int nLocals, int nStack) {
+      super(nLocals, nStack);
+    }
+
+    InitializationTrackingFrame(Frame src) {
+      super(src);
+    }
+
+    @Override
+    public void execute(AbstractInsnNode insn, Interpreter interpreter)
+        throws AnalyzerException {
+      Value receiver = null;
+      if (insn.getOpcode() == Opcodes.INVOKESPECIAL
+          && "<init>".equals(((MethodInsnNode) insn).name)) {
+        int arguments =
+            Type.getArgumentTypes(((MethodInsnNode) insn).desc).length;
+        receiver = getStack(getStackSize() - arguments - 1);
+      }
+
+      super.execute(insn, interpreter);
+
+      if (receiver instanceof UninitializedValue) {
+        Value initialized =
+            interpreter.newValue(((BasicValue) receiver).getType());
+        for (int i = 0; i < getLocals(); i++) {
+          if (getLocal(i) == receiver) {
+            setLocal(i, initialized);
+          }
+        }
+        Value[] stack = new Value[getStackSize()];
+        for (int i = stack.length - 1; i >= 0; i--) {
+          stack[i] = pop();
+        }
+        for (Value value : stack) {
+          push(value == receiver ? initialized : value);
+        }
+      }
+    }
+  }
+}
@@ -42,6 +42,11 @@ public class J2meClassNames {
    * */
   public static final String LOG = "com/google/test/jinjector/util/Log";
   
+  /**
+   * The level of injected messages. Must be the same as Log.LEVEL_INFO.
+   * */
+  public static final int LOG_LEVEL_INFO = 1;
+  
   /**
    * Command and command listeners.
    * */
@@ -54,6 +59,46 @@ public class J2meClassNames {
   public static final String ITEM_COMMAND_LISTENER 
   = "javax/microedition/lcdui/ItemCommandListener";
   
+  public static final String ITEM_STATE_LISTENER 
+  = "javax/microedition/lcdui/ItemStateListener";
+  
+  
+  /**
+   * Display and the hook which notifies its changes.
+   * */
+  public static final String DISPLAY 
+  = "javax/microedition/lcdui/Display";
+  
+  public static final String DISPLAY_MONITOR 
+  = J2ME_PKG + "DisplayMonitor";
+  
+  /**
+   * The hook recording the input events.
+   * */
+  public static final String INPUT_RECORDER 
+  = J2ME_PKG + "InputRecorder";
+  
+  /**
+   * The hook timing the paints of Canvases.
+   * */
+  public static final String FRAME_PROFILER 
+  = J2ME_PKG + "FrameProfiler";
+  
+  public static final String GRAPHICS 
+  = "javax/microedition/lcdui/Graphics";
+  
+  /**
+   * The hook timing the callbacks of listeners.
+   * */
+  public static final String LISTENER_PROFILER 
+  = J2ME_PKG + "ListenerProfiler";
+  
+  /**
+   * The binary log of the commands dispatched to listeners.
+   * */
+  public static final String UI_EVENT_LOG 
+  = J2ME_PKG + "UiEventLog";
+  
   
   /**
    * DISPLAYABLES
@@ -19,6 +19,7 @@ package com.google.devtools.build.wireless.testing.java.injector.j2me;
 import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
 import com.google.devtools.build.wireless.testing.java.injector.PrintServant;
 
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -29,6 +30,11 @@ import org.objectweb.asm.Opcodes;
  * <p> The String is built with a {@link StringBuffer} because J2ME does
  * not have a {@link StringBuilder}.
  *
+ * <p> Messages are logged with the info level, and the whole printing is
+ * skipped if the logger on the device discards that level. The stack is
+ * the same before starting and after stopping the printing, so the jump
+ * does not need to adjust it.
+ *
  * @author Michele Sama
  *
  */
@@ -36,6 +42,12 @@ public class J2mePrintServant extends PrintServant {
 
   protected String logIdentifier;
 
+  /**
+   * The end of the current printing, where the code jumps if the message
+   * is not logged.
+   */
+  private Label skip = null;
+
   /**
    * Creates an instance with a default log flag.
    *
@@ -72,6 +84,8 @@ public class J2mePrintServant extends PrintServant {
     mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.LOG,
         "log", "(L" + ClassNames.JAVA_LANG_STRING + ";L" +
         ClassNames.JAVA_LANG_STRING + ";)V");
+    mv.visitLabel(skip);
+    skip = null;
   }
 
   /**
@@ -81,6 +95,11 @@ public class J2mePrintServant extends PrintServant {
    */
   @Override
   protected void initializePrinting() {
+    skip = new Label();
+    mv.visitInsn(Opcodes.ICONST_0 + J2meClassNames.LOG_LEVEL_INFO);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.LOG,
+        "isLoggable", "(I)Z");
+    mv.visitJumpInsn(Opcodes.IFEQ, skip);
     mv.visitTypeInsn(Opcodes.NEW, ClassNames.STRING_BUFFER);
     mv.visitInsn(Opcodes.DUP);
     mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ClassNames.STRING_BUFFER,
@@ -17,12 +17,14 @@ package com.google.devtools.build.wireless.testing.java.injector.j2me;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
-import com.google.devtools.build.wireless.testing.java.injector.InjectorMethodAdapter;
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.FinallyMethodAdapter;
 import com.google.devtools.build.wireless.testing.java.injector.Platform;
 import com.google.devtools.build.wireless.testing.java.injector.WrapperClassAdapter;
 
 import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -33,6 +35,10 @@ import java.util.logging.Logger;
 /**
  * ClassAdapter to log and inject Command events.
  * 
+ * <p>It also redirects the changes of the current Displayable to 
+ * <code>DisplayMonitor</code> in the decorators, so that tests waiting for a 
+ * screen are notified instead of polling the display.
+ * 
  * @author Michele Sama
  * 
  */
@@ -44,6 +50,11 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
    * <p>This field is protected for testing purposes. 
    */
   protected static final String COMMAND_ACTION = "commandAction";
+  
+  /**
+   * Contains the method's name for item state listeners.
+   */
+  private static final String ITEM_STATE_CHANGED = "itemStateChanged";
 
   private static final Map<String, String> WRAPPER_MAP = 
       new ImmutableMap.Builder<String, String>()
@@ -65,7 +76,44 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
       .put(J2meClassNames.TEXTFIELD, J2meClassNames.TEXTFIELD_WRAPPER)
       .build();
   
+  /**
+   * The input methods of Canvas, with the type of the event recorded by 
+   * <code>InputRecorder</code>.
+   */
+  private static final Map<String, Integer> INPUT_METHODS = 
+      new ImmutableMap.Builder<String, Integer>()
+      .put("keyPressed(I)V", 
+          InputRecorderMethodAdapter.KEY_PRESSED)
+      .put("keyReleased(I)V", 
+          InputRecorderMethodAdapter.KEY_RELEASED)
+      .put("keyRepeated(I)V", 
+          InputRecorderMethodAdapter.KEY_REPEATED)
+      .put("pointerPressed(II)V", 
+          InputRecorderMethodAdapter.POINTER_PRESSED)
+      .put("pointerReleased(II)V", 
+          InputRecorderMethodAdapter.POINTER_RELEASED)
+      .put("pointerDragged(II)V", 
+          InputRecorderMethodAdapter.POINTER_DRAGGED)
+      .build();
+  
   private Logger logger = Logger.getLogger("LcduiDecoratorClassAdapter");
+  
+  private final boolean recordInput;
+  
+  private final boolean timeFrames;
+  
+  private final boolean timeListeners;
+  
+  /**
+   * The original superclass of the visited class.
+   */
+  private String superName = null;
+  
+  /**
+   * Whether the visited class extends Canvas, or <code>null</code> if it 
+   * has not been computed yet.
+   */
+  private Boolean isCanvas = null;
 
   /**
    * Creates an instance of this {@link ClassAdapter} which will use the 
@@ -77,7 +125,30 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
    */
   public LcduiDecoratorClassAdapter(ClassVisitor cv, ClassManager cm, 
       Platform platform) {
+    this(cv, cm, platform, false, false, false);
+  }
+
+  /**
+   * Creates an instance of this {@link ClassAdapter} which can also record
+   * the input events and time the frames and the listeners.
+   * 
+   * @param cv The nested {@link ClassVisitor}.
+   * @param cm The specified {@link ClassManager}.
+   * @param platform The target {@link Platform}.
+   * @param recordInput <code>true</code> to inject the hooks of 
+   *    <code>InputRecorder</code>.
+   * @param timeFrames <code>true</code> to time the paints of Canvases 
+   *    with <code>FrameProfiler</code>.
+   * @param timeListeners <code>true</code> to time the callbacks of 
+   *    listeners with <code>ListenerProfiler</code>.
+   */
+  public LcduiDecoratorClassAdapter(ClassVisitor cv, ClassManager cm, 
+      Platform platform, boolean recordInput, boolean timeFrames, 
+      boolean timeListeners) {
     super(cv, cm, platform, WRAPPER_MAP);
+    this.recordInput = recordInput;
+    this.timeFrames = timeFrames;
+    this.timeListeners = timeListeners;
   }
 
   /**
@@ -88,6 +159,8 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
       String superName, String[] interfaces) {
 
     implementedInterfaces = interfaces;
+    this.superName = superName;
+    isCanvas = null;
 
     // Invokes super in order to instrument the superclass
     super.visit(version, access, name, signature, superName, interfaces);
@@ -99,11 +172,27 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
    * command logger. A class can contain one (or both) those methods if it
    * extends ItemCommandListener or CommandListener or both.
    * 
-   * <p>{@link CommandLoggerMethodAdapter} is logging command invocations.
+   * <p>{@link CommandLoggerMethodAdapter} is logging command invocations 
+   * into the binary log of the decorators.
    * 
    * <p>BEWARE that a class can implement both CommandListener and 
    * ItemCommandListener, so both the delegated visitor must be added to 
    * the instrumentation chain.
+   * 
+   * <p>All the methods outside the decorators are also visited by a
+   * {@link DisplayMonitorMethodAdapter}.
+   * 
+   * <p>If input recording is enabled, the input methods of Canvases and 
+   * the commandAction methods of CommandListeners are visited by an 
+   * {@link InputRecorderMethodAdapter}.
+   * 
+   * <p>If frame timing is enabled, the paint methods of Canvases are visited
+   * by a {@link PaintTimerMethodAdapter}.
+   * 
+   * <p>If listener timing is enabled, the callbacks of CommandListeners, 
+   * ItemCommandListeners and ItemStateListeners are visited by a 
+   * {@link ListenerTimerMethodAdapter}. It is added before the command 
+   * loggers, so that the logging is not timed.
    */
   @Override
   public MethodVisitor visitMethod(int access, String name, String desc,
@@ -112,27 +201,128 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
     MethodVisitor mv =
         super.visitMethod(access, name, desc, signature, exceptions);
     
+    if (!className.startsWith(ClassNames.DECORATORS_PKG)) {
+      mv = new DisplayMonitorMethodAdapter(mv);
+    }
+    
+    if (recordInput && (access & Opcodes.ACC_STATIC) == 0) {
+      mv = applyInputRecorder(mv, access, name, desc);
+    }
+    
+    if (timeFrames && (access & Opcodes.ACC_STATIC) == 0
+        && name.equals("paint") 
+        && desc.equals("(L" + J2meClassNames.GRAPHICS + ";)V")
+        && extendsCanvas()) {
+      logger.info("Paint timing injected into Class: " + className);
+      mv = new PaintTimerMethodAdapter(mv, access, className, name, desc, 
+          targetPlatform);
+    }
+    
+    if (timeListeners && (access & Opcodes.ACC_STATIC) == 0) {
+      mv = applyListenerTimer(mv, access, name, desc);
+    }
+    
     /* Instruments ItemCommandListener.commandAction.
      * BEWARE classes can also implement CommandListener.
      */
-    mv = applyLogger(mv, access, name, desc, 
+    mv = applyLogger(mv, name, desc, 
         J2meClassNames.ITEM_COMMAND_LISTENER, J2meClassNames.ITEM);
 
     /* Instruments CommandListener.commandAction.
      * BEWARE classes can also implement ItemCommandListener.
      */
-    mv = applyLogger(mv, access, name, desc, 
+    mv = applyLogger(mv, name, desc, 
         J2meClassNames.COMMAND_LISTENER, J2meClassNames.DISPLAYABLE);
     
     return mv;
   }
 
+  /**
+   * Adds an instance of {@link InputRecorderMethodAdapter} to the 
+   * {@link MethodVisitor} chain if the method receives input events.
+   * 
+   * @param mv The nested {@link MethodVisitor}.
+   * @param access the access code.
+   * @param name the method's name.
+   * @param desc the method's description.
+   * @return the chain of {@link MethodVisitor} to which 
+   *    {@link InputRecorderMethodAdapter} has been added if applicable.
+   */
+  private MethodVisitor applyInputRecorder(MethodVisitor mv, int access, 
+      String name, String desc) {
+    Integer type = INPUT_METHODS.get(name + desc);
+    if (type != null && extendsCanvas()) {
+      logger.info("Input recording injected into Class: " + className + 
+          " method: " + name + " desc: " + desc);
+      return new InputRecorderMethodAdapter(mv, access, className, name, 
+          desc, targetPlatform, type);
+    }
+    if (implementsInterface(J2meClassNames.COMMAND_LISTENER)
+        && name.equals(COMMAND_ACTION)
+        && desc.equals("(L" + J2meClassNames.COMMAND + ";" + "L"
+            + J2meClassNames.DISPLAYABLE + ";)V")) {
+      logger.info("Command recording injected into Class: " + className);
+      return new InputRecorderMethodAdapter(mv, access, className, name, 
+          desc, targetPlatform, InputRecorderMethodAdapter.COMMAND);
+    }
+    return mv;
+  }
+
+  /**
+   * Adds an instance of {@link ListenerTimerMethodAdapter} to the 
+   * {@link MethodVisitor} chain if the method is the callback of a listener.
+   * 
+   * @param mv The nested {@link MethodVisitor}.
+   * @param access the access code.
+   * @param name the method's name.
+   * @param desc the method's description.
+   * @return the chain of {@link MethodVisitor} to which 
+   *    {@link ListenerTimerMethodAdapter} has been added if applicable.
+   */
+  private MethodVisitor applyListenerTimer(MethodVisitor mv, int access, 
+      String name, String desc) {
+    String hook = null;
+    if (name.equals(COMMAND_ACTION)
+        && ((implementsInterface(J2meClassNames.COMMAND_LISTENER)
+            && desc.equals("(L" + J2meClassNames.COMMAND + ";L" 
+                + J2meClassNames.DISPLAYABLE + ";)V"))
+        || (implementsInterface(J2meClassNames.ITEM_COMMAND_LISTENER)
+            && desc.equals("(L" + J2meClassNames.COMMAND + ";L" 
+                + J2meClassNames.ITEM + ";)V")))) {
+      hook = ListenerTimerMethodAdapter.COMMAND_HANDLED;
+    } else if (name.equals(ITEM_STATE_CHANGED)
+        && implementsInterface(J2meClassNames.ITEM_STATE_LISTENER)
+        && desc.equals("(L" + J2meClassNames.ITEM + ";)V")) {
+      hook = ListenerTimerMethodAdapter.ITEM_CHANGED;
+    }
+    if (hook == null) {
+      return mv;
+    }
+    logger.info("Listener timing injected into Class: " + className + 
+        " method: " + name + " desc: " + desc);
+    return new ListenerTimerMethodAdapter(mv, access, className, name, desc, 
+        targetPlatform, hook);
+  }
+
+  /**
+   * Tells if the visited class extends Canvas. The hierarchy is only 
+   * loaded for classes declaring input methods.
+   * 
+   * @return <code>true</code> if the class is a Canvas.
+   */
+  private boolean extendsCanvas() {
+    if (isCanvas == null) {
+      isCanvas = superName != null 
+          && classManager.isAssignableFrom(J2meClassNames.CANVAS, superName);
+    }
+    return isCanvas;
+  }
+
   /**
    * Adds an instance of {@link CommandLoggerMethodAdapter} to the 
    * {@link MethodVisitor} chain if it is applicable.
    * 
    * @param mv The nested {@link MethodVisitor}.
-   * @param access the access code.
    * @param name the method's name.
    * @param desc the method's description.
    * @param targetInterface The interface that the current class must 
@@ -142,14 +332,12 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
    *    {@link CommandLoggerMethodAdapter} has been added if applicable.
    */
   private MethodVisitor applyLogger(MethodVisitor mv, 
-      int access, String name, String desc, 
-      String targetInterface, String targetClass) {
+      String name, String desc, String targetInterface, String targetClass) {
     if (implementsInterface(targetInterface)
         && name.equals(COMMAND_ACTION)
         && desc.equals("(L" + J2meClassNames.COMMAND + ";" + "L"
             + targetClass + ";)V")) {
-      mv = new CommandLoggerMethodAdapter(mv, access, className, 
-          name, desc, targetPlatform, targetClass);
+      mv = new CommandLoggerMethodAdapter(mv);
       logger.info("Command Loging injected into Class: " + className + 
           " method: " + name + " desc: " + desc);
     }
@@ -163,18 +351,22 @@ public class LcduiDecoratorClassAdapter extends WrapperClassAdapter {
  * MethodAdapter to log any invocation of: ItemCommandListener.commandAction() 
  * and CommandListener.commandAction().
  * 
+ * <p>The listener, the command and the target are passed to 
+ * <code>UiEventLog</code>, which only records ids and a timestamp. Strings 
+ * are rendered on the host by {@link UiEventLogDecoder}, so that logging 
+ * does not slow down the dispatch of commands.
+ * 
  * @author Michele Sama
  * 
  */
-class CommandLoggerMethodAdapter extends InjectorMethodAdapter {
- 
-  private String type = null;
+class CommandLoggerMethodAdapter extends MethodAdapter {
   
-  public CommandLoggerMethodAdapter(MethodVisitor mv,
-      int access, String owner, String name, String desc, Platform platform, 
-      String type) {
-    super(mv, access, owner, name, desc, platform);
-    this.type = type;
+  private static final String HOOK_DESC = "(L" + ClassNames.JAVA_LANG_OBJECT
+      + ";L" + J2meClassNames.COMMAND + ";L" + ClassNames.JAVA_LANG_OBJECT 
+      + ";)V";
+  
+  public CommandLoggerMethodAdapter(MethodVisitor mv) {
+    super(mv);
   }
 
   /**
@@ -184,29 +376,238 @@ class CommandLoggerMethodAdapter extends InjectorMethodAdapter {
    */
   @Override
   public void visitCode() {
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitVarInsn(Opcodes.ALOAD, 1);
+    mv.visitVarInsn(Opcodes.ALOAD, 2);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.UI_EVENT_LOG, 
+        "commandAction", HOOK_DESC);
+    mv.visitCode();
+  }
+}
 
-    printServant.startPrinting();
-    printServant.printString("[Listener] ");
 
-    stackServant.loadThis();
-    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ownerClass, "toString",
-        "()Ljava/lang/String;");
-    printServant.print("Ljava/lang/String;");
+/**
+ * MethodAdapter which redirects the invocations of 
+ * <code>Display.setCurrent</code> and <code>Display.setCurrentItem</code> 
+ * to the static methods with the same name in <code>DisplayMonitor</code>, 
+ * which take the Display as first argument.
+ * 
+ * <p>The operand stack is the same for both invocations, so the invocation 
+ * can be replaced without any other change. Display is not final, but it 
+ * has no public constructor, so applications cannot subclass it. In any 
+ * case <code>DisplayMonitor</code> forwards the call with a virtual 
+ * invocation on the same Display, so an override would still be invoked.
+ * 
+ * @author Michele Sama
+ * 
+ */
+class DisplayMonitorMethodAdapter extends MethodAdapter {
 
-    printServant.printString(" Command = ");
+  public DisplayMonitorMethodAdapter(MethodVisitor mv) {
+    super(mv);
+  }
+
+  /**
+   * Replaces the changes of the current Displayable.
+   * 
+   * @see org.objectweb.asm.MethodAdapter#visitMethodInsn(int, String, String, String)
+   */
+  @Override
+  public void visitMethodInsn(int opcode, String owner, String name, 
+      String desc) {
+    if (opcode == Opcodes.INVOKEVIRTUAL 
+        && owner.equals(J2meClassNames.DISPLAY)
+        && (name.equals("setCurrent") || name.equals("setCurrentItem"))) {
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.DISPLAY_MONITOR,
+          name, "(L" + J2meClassNames.DISPLAY + ";" + desc.substring(1));
+      return;
+    }
+    mv.visitMethodInsn(opcode, owner, name, desc);
+  }
+}
+
+
+/**
+ * MethodAdapter which notifies <code>InputRecorder</code> when an input 
+ * method is entered and when it exits, either by returning or by throwing 
+ * an exception, so that a failing handler does not hide the next identical
+ * event.
+ * 
+ * @author Michele Sama
+ * 
+ */
+class InputRecorderMethodAdapter extends FinallyMethodAdapter {
+
+  /*
+   * The types of the events. They must be the same as in InputRecorder.
+   */
+  static final int KEY_PRESSED = 1;
+  static final int KEY_RELEASED = 2;
+  static final int KEY_REPEATED = 3;
+  static final int POINTER_PRESSED = 4;
+  static final int POINTER_RELEASED = 5;
+  static final int POINTER_DRAGGED = 6;
+  static final int COMMAND = 7;
+  
+  private final int type;
+  
+  /**
+   * @param mv The nested {@link MethodVisitor}.
+   * @param access The bitmask representing the method type.
+   * @param owner The visited class.
+   * @param name The method name.
+   * @param desc The method description.
+   * @param platform The target {@link Platform}.
+   * @param type The type of event received by the method, as defined by 
+   *    <code>InputRecorder</code>.
+   */
+  public InputRecorderMethodAdapter(MethodVisitor mv, int access, 
+      String owner, String name, String desc, Platform platform, int type) {
+    super(mv, access, owner, name, desc, platform);
+    this.type = type;
+  }
+
+  /**
+   * Records the event passed as arguments.
+   * 
+   * @see FinallyMethodAdapter#onEnter()
+   */
+  @Override
+  protected void onEnter() {
+    if (type == COMMAND) {
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitVarInsn(Opcodes.ALOAD, 2);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.INPUT_RECORDER,
+          "beginCommand", "(L" + J2meClassNames.COMMAND + ";L" 
+          + J2meClassNames.DISPLAYABLE + ";)V");
+      return;
+    }
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitIntInsn(Opcodes.BIPUSH, type);
+    mv.visitVarInsn(Opcodes.ILOAD, 1);
+    if (type >= POINTER_PRESSED) {
+      mv.visitVarInsn(Opcodes.ILOAD, 2);
+    } else {
+      mv.visitInsn(Opcodes.ICONST_0);
+    }
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.INPUT_RECORDER, 
+        "beginInput", "(L" + J2meClassNames.CANVAS + ";III)V");
+  }
+
+  /**
+   * Records the end of the event.
+   * 
+   * @see FinallyMethodAdapter#onExit()
+   */
+  @Override
+  protected void onExit() {
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.INPUT_RECORDER, 
+        "endInput", "()V");
+  }
+}
+
+
+/**
+ * MethodAdapter which notifies <code>FrameProfiler</code> when a paint 
+ * method is entered and when it exits, either by returning or by throwing 
+ * an exception.
+ * 
+ * @author Michele Sama
+ * 
+ */
+class PaintTimerMethodAdapter extends FinallyMethodAdapter {
+
+  private static final String HOOK_DESC = 
+      "(L" + J2meClassNames.CANVAS + ";)V";
+  
+  public PaintTimerMethodAdapter(MethodVisitor mv, int access, String owner,
+      String name, String desc, Platform platform) {
+    super(mv, access, owner, name, desc, platform);
+  }
+
+  /**
+   * Notifies the beginning of the paint.
+   * 
+   * @see FinallyMethodAdapter#onEnter()
+   */
+  @Override
+  protected void onEnter() {
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.FRAME_PROFILER, 
+        "beginPaint", HOOK_DESC);
+  }
+
+  /**
+   * Notifies the end of the paint.
+   * 
+   * @see FinallyMethodAdapter#onExit()
+   */
+  @Override
+  protected void onExit() {
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, J2meClassNames.FRAME_PROFILER, 
+        "endPaint", HOOK_DESC);
+  }
+}
+
+
+/**
+ * MethodAdapter which times the callback of a listener and passes the 
+ * duration to <code>ListenerProfiler</code> together with the listener and 
+ * the first argument, i.e. the Command or the Item.
+ * 
+ * <p>The start time is kept in a local variable injected after the 
+ * arguments.
+ * 
+ * @author Michele Sama
+ * 
+ */
+class ListenerTimerMethodAdapter extends FinallyMethodAdapter {
+
+  /*
+   * The hooks of ListenerProfiler.
+   */
+  static final String COMMAND_HANDLED = "commandHandled";
+  static final String ITEM_CHANGED = "itemChanged";
+  
+  private final String hook;
+  
+  private final String hookDesc;
+  
+  private final int timeIndexInStack;
+  
+  public ListenerTimerMethodAdapter(MethodVisitor mv, int access, 
+      String owner, String name, String desc, Platform platform, 
+      String hook) {
+    super(mv, access, owner, name, desc, platform);
+    this.hook = hook;
+    hookDesc = "(L" + ClassNames.JAVA_LANG_OBJECT + ";" 
+        + stackServant.getArgumentTypeAt(0) + "J)V";
+    timeIndexInStack = stackServant.getInstrumentedFrameSize();
+    stackServant.increaseInstrumentedStack(2);
+  }
+
+  /**
+   * Saves the start time.
+   * 
+   * @see FinallyMethodAdapter#onEnter()
+   */
+  @Override
+  protected void onEnter() {
+    timeServant.startCountingTime(timeIndexInStack);
+  }
+
+  /**
+   * Records the duration.
+   * 
+   * @see FinallyMethodAdapter#onExit()
+   */
+  @Override
+  protected void onExit() {
+    stackServant.loadThis();
     stackServant.loadArgumentAt(0);
-    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, J2meClassNames.COMMAND,
-        "getLabel", "()Ljava/lang/String;");
-    printServant.print("Ljava/lang/String;");
-
-    printServant.printString(" Target = ");
-    // method = "getLabel";
-    stackServant.loadArgumentAt(1);
-    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, type,
-        "toString", "()Ljava/lang/String;");
-    printServant.println("Ljava/lang/String;");
-
-    printServant.stopPrinting();
-    mv.visitCode();
+    timeServant.stopCountingTime(timeIndexInStack);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, 
+        J2meClassNames.LISTENER_PROFILER, hook, hookDesc);
   }
-}
\ No newline at end of file
+}
@@ -34,9 +34,36 @@ public class LcduiLoadable extends Loadable {
 
   public static final String LOGGER_NAME = "LcduiLoadable";
   
+  /**
+   * Enables the recording of the input events received by Canvases and 
+   * CommandListeners.
+   */
+  protected static final String PROPERTY_INPUT_RECORDING = 
+      "lcduiInputRecording";
+  protected boolean inputRecording;
+  
+  /**
+   * Enables the timing of the paints of Canvases.
+   */
+  protected static final String PROPERTY_FRAME_TIMING = "lcduiFrameTiming";
+  protected boolean frameTiming;
+  
+  /**
+   * Enables the timing of the callbacks of CommandListeners, 
+   * ItemCommandListeners and ItemStateListeners.
+   */
+  protected static final String PROPERTY_LISTENER_TIMING = 
+      "lcduiListenerTiming";
+  protected boolean listenerTiming;
+  
   @Override
   public void loadInternal(Properties properties) {
-    // No additional property is required.
+    inputRecording = Boolean.parseBoolean(
+        properties.getProperty(PROPERTY_INPUT_RECORDING));
+    frameTiming = Boolean.parseBoolean(
+        properties.getProperty(PROPERTY_FRAME_TIMING));
+    listenerTiming = Boolean.parseBoolean(
+        properties.getProperty(PROPERTY_LISTENER_TIMING));
   }
 
   /**
@@ -51,7 +78,8 @@ public class LcduiLoadable extends Loadable {
      * regression because it requires to wrap items and displayables.
      */  
     if (platform.equals(Platform.J2ME)) {
-      cv = new LcduiDecoratorClassAdapter(cv, classManager, platform);
+      cv = new LcduiDecoratorClassAdapter(cv, classManager, platform, 
+          inputRecording, frameTiming, listenerTiming);
     }
     return cv;
   }
@@ -65,6 +93,10 @@ public class LcduiLoadable extends Loadable {
   public void printUsage() {
     Logger log = Logger.getLogger(LOGGER_NAME);
     log.fine(getClass().getCanonicalName());
+    log.fine("properties:");
+    log.fine(PROPERTY_INPUT_RECORDING + "=true|false (default false)");
+    log.fine(PROPERTY_FRAME_TIMING + "=true|false (default false)");
+    log.fine(PROPERTY_LISTENER_TIMING + "=true|false (default false)");
   }
 
 }
@@ -0,0 +1,201 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ByteVector;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.LabelNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CLDC <code>StackMap</code> code attribute, as produced by the
+ * off-device preverifier and checked by the KVM split verifier.
+ *
+ * <p>The attribute contains one frame for each offset which is the target of
+ * a jump, the start of an exception handler or an instruction following an
+ * unconditional branch. Offsets are only known when the method is written,
+ * so frames refer to {@link LabelNode}s which are resolved in
+ * {@link #write(ClassWriter, byte[], int, int, int)}.
+ *
+ * @author Michele Sama
+ *
+ */
+class StackMapAttribute extends Attribute {
+
+  /**
+   * The name of the attribute.
+   */
+  static final String NAME = "StackMap";
+
+  static final int ITEM_BOGUS = 0;
+  static final int ITEM_INTEGER = 1;
+  static final int ITEM_FLOAT = 2;
+  static final int ITEM_DOUBLE = 3;
+  static final int ITEM_LONG = 4;
+  static final int ITEM_NULL = 5;
+  static final int ITEM_INIT_OBJECT = 6;
+  static final int ITEM_OBJECT = 7;
+  static final int ITEM_NEW_OBJECT = 8;
+
+  private final List<StackMapFrame> frames = new ArrayList<StackMapFrame>();
+
+  /**
+   * Creates an empty attribute.
+   */
+  StackMapAttribute() {
+    super(NAME);
+  }
+
+  /**
+   * Adds a frame to the attribute. Frames must be added in code order.
+   *
+   * @param frame The frame to add.
+   */
+  void addFrame(StackMapFrame frame) {
+    frames.add(frame);
+  }
+
+  /**
+   * @return the number of frames in the attribute.
+   */
+  int getFrameCount() {
+    return frames.size();
+  }
+
+  @Override
+  public boolean isUnknown() {
+    return false;
+  }
+
+  @Override
+  public boolean isCodeAttribute() {
+    return true;
+  }
+
+  /**
+   * Writes all the frames, skipping frames which map to an offset which
+   * has already been written.
+   */
+  @Override
+  protected ByteVector write(ClassWriter cw, byte[] code, int len,
+      int maxStack, int maxLocals) {
+    int count = 0;
+    int lastOffset = -1;
+    for (StackMapFrame frame : frames) {
+      int offset = frame.label.getLabel().getOffset();
+      if (offset != lastOffset) {
+        count++;
+        lastOffset = offset;
+      }
+    }
+
+    ByteVector bv = new ByteVector();
+    bv.putShort(count);
+    lastOffset = -1;
+    for (StackMapFrame frame : frames) {
+      int offset = frame.label.getLabel().getOffset();
+      if (offset == lastOffset) {
+        continue;
+      }
+      lastOffset = offset;
+      bv.putShort(offset);
+      writeItems(cw, bv, frame.locals);
+      writeItems(cw, bv, frame.stack);
+    }
+    return bv;
+  }
+
+  private static void writeItems(ClassWriter cw, ByteVector bv,
+      List<Item> items) {
+    bv.putShort(items.size());
+    for (Item item : items) {
+      bv.putByte(item.tag);
+      if (item.tag == ITEM_OBJECT) {
+        bv.putShort(cw.newClass(item.className));
+      } else if (item.tag == ITEM_NEW_OBJECT) {
+        bv.putShort(item.newLabel.getLabel().getOffset());
+      }
+    }
+  }
+
+  /**
+   * The types of the locals and of the stack at a given position.
+   */
+  static class StackMapFrame {
+    final LabelNode label;
+    final List<Item> locals;
+    final List<Item> stack;
+
+    /**
+     * @param label The position of the frame.
+     * @param locals The types of the local variables.
+     * @param stack The types of the values on the operand stack.
+     */
+    StackMapFrame(LabelNode label, List<Item> locals, List<Item> stack) {
+      this.label = label;
+      this.locals = locals;
+      this.stack = stack;
+    }
+  }
+
+  /**
+   * A verification type.
+   */
+  static class Item {
+    final int tag;
+    final String className;
+    final LabelNode newLabel;
+
+    private Item(int tag, String className, LabelNode newLabel) {
+      this.tag = tag;
+      this.className = className;
+      this.newLabel = newLabel;
+    }
+
+    /**
+     * Creates a type with no additional data.
+     *
+     * @param tag One of the <code>ITEM_*</code> constants.
+     * @return the type.
+     */
+    static Item simple(int tag) {
+      return new Item(tag, null, null);
+    }
+
+    /**
+     * Creates an initialized reference type.
+     *
+     * @param className The internal name or the descriptor of an array.
+     * @return the type.
+     */
+    static Item object(String className) {
+      return new Item(ITEM_OBJECT, className, null);
+    }
+
+    /**
+     * Creates the type of a reference allocated but not initialized yet.
+     *
+     * @param newLabel A label placed on the <code>NEW</code> instruction.
+     * @return the type.
+     */
+    static Item newObject(LabelNode newLabel) {
+      return new Item(ITEM_NEW_OBJECT, null, newLabel);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
+/**
+ * Decodes the binary dump written by the decorators' UiEventLog into a 
+ * readable log.
+ * 
+ * <p>Each record is printed on its own line as:
+ * <pre>
+ * time listener label target
+ * </pre>
+ * separated by tabs, where time is in milliseconds since the log was 
+ * initialized, listener and target are class names and label is the label 
+ * of the command.
+ * 
+ * @author Michele Sama
+ */
+public class UiEventLogDecoder {
+  
+  /**
+   * Must be the same as in the decorators' UiEventLog.
+   */
+  static final int MAGIC = 0x4A55454C;
+  static final int VERSION = 1;
+  
+  private static final String ARGUMENT_LOG = "log=";
+  
+  /**
+   * Decodes a dump.
+   * 
+   * @param in The dump. It is not closed.
+   * @param pw The writer on which to print the log. It is not closed.
+   * @return the number of decoded records.
+   * @throws IOException If the dump cannot be read or is not valid.
+   */
+  public int decode(InputStream in, PrintWriter pw) throws IOException {
+    DataInputStream dis = new DataInputStream(in);
+    if (dis.readInt() != MAGIC) {
+      throw new IOException("Not a UI event log.");
+    }
+    int version = dis.readInt();
+    if (version < 1 || version > VERSION) {
+      throw new IOException("Unsupported UI event log version " + version);
+    }
+    dis.readLong();
+    int recordSize = dis.readInt();
+    int written = dis.readInt();
+    int count = dis.readInt();
+    
+    // Names follow the records, so records are read first.
+    int[] records = new int[count * recordSize];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = dis.readInt();
+    }
+    String[] names = new String[dis.readInt()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = dis.readUTF();
+    }
+    
+    if (written > count) {
+      pw.println("# " + (written - count) + " older records were overwritten");
+    }
+    for (int i = 0; i < records.length; i += recordSize) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(records[i + 3]).append('\t')
+          .append(getName(names, records[i])).append('\t')
+          .append(getName(names, records[i + 1])).append('\t')
+          .append(getName(names, records[i + 2]));
+      pw.println(sb);
+    }
+    pw.flush();
+    return count;
+  }
+  
+  private static String getName(String[] names, int id) {
+    if (id == -1) {
+      return "null";
+    }
+    return id >= 0 && id < names.length ? names[id] : "#" + id;
+  }
+  
+  /**
+   * Decodes a dump and prints it on the standard output.
+   * 
+   * @param args {@value #ARGUMENT_LOG} followed by the dump.
+   * @throws IOException If the dump cannot be read.
+   */
+  public static void main(String[] args) throws IOException {
+    String log = null;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_LOG)) {
+        log = s.substring(ARGUMENT_LOG.length());
+      }
+    }
+    if (log == null) {
+      throw new IllegalArgumentException("Invoke the decoder with " 
+          + ARGUMENT_LOG + "file");
+    }
+    
+    InputStream in = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(log));
+      new UiEventLogDecoder().decode(in, new PrintWriter(System.out));
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+}
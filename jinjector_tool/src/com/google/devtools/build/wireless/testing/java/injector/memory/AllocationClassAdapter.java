@@ -0,0 +1,204 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.SiteIds;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.logging.Logger;
+
+/**
+ * Counts the objects and arrays allocated at each allocation site.
+ * 
+ * <p>Each <code>new</code> is preceded by a call to the decorators' 
+ * AllocationProfile with the id of the site, and each array creation is 
+ * followed by a call which also passes the length of the array. For 
+ * multidimensional arrays only the outermost length is recorded.
+ * 
+ * <p>The decorators are never instrumented, since the profile itself 
+ * allocates memory.
+ * 
+ * @author Michele Sama
+ */
+public class AllocationClassAdapter extends ClassAdapter {
+  
+  private static final Logger logger = 
+      Logger.getLogger(AllocationClassAdapter.class.getName());
+  
+  private final SiteIds siteIds;
+  
+  private final InclusionSelector inclusionSelector;
+  
+  private String owner;
+  
+  private boolean instrument;
+  
+  /**
+   * Creates the adapter.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param siteIds The ids of the allocation sites.
+   * @param inclusionSelector Selects the classes to instrument.
+   */
+  public AllocationClassAdapter(ClassVisitor cv, SiteIds siteIds, 
+      InclusionSelector inclusionSelector) {
+    super(cv);
+    this.siteIds = siteIds;
+    this.inclusionSelector = inclusionSelector;
+  }
+  
+  /**
+   * Decides whether the class has to be instrumented.
+   */
+  @Override
+  public void visit(int version, int access, String name, String signature,
+      String superName, String[] interfaces) {
+    super.visit(version, access, name, signature, superName, interfaces);
+    owner = name;
+    instrument = !name.startsWith(ClassNames.DECORATORS_PKG)
+        && Boolean.TRUE.equals(inclusionSelector.getMostSpecificAction(name));
+  }
+  
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    MethodVisitor mv = super.visitMethod(access, name, desc, signature, 
+        exceptions);
+    if (mv != null && instrument) {
+      mv = new AllocationMethodAdapter(mv, name, desc);
+    }
+    return mv;
+  }
+  
+  /**
+   * Injects the calls to the profile at each allocation.
+   */
+  private class AllocationMethodAdapter extends MethodAdapter {
+    
+    private final String name;
+    private final String desc;
+    
+    /**
+     * The last source line visited, or -1 if unknown.
+     */
+    private int line = -1;
+    
+    AllocationMethodAdapter(MethodVisitor mv, String name, String desc) {
+      super(mv);
+      this.name = name;
+      this.desc = desc;
+    }
+    
+    @Override
+    public void visitLineNumber(int line, Label start) {
+      this.line = line;
+      super.visitLineNumber(line, start);
+    }
+    
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      if (opcode == Opcodes.NEW) {
+        pushSite(newSite("new " + Type.getObjectType(type).getClassName()));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, 
+            ClassNames.ALLOCATION_PROFILE, "allocate", "(I)V");
+        super.visitTypeInsn(opcode, type);
+      } else if (opcode == Opcodes.ANEWARRAY) {
+        super.visitTypeInsn(opcode, type);
+        recordArray("new " + Type.getObjectType(type).getClassName() + "[]");
+      } else {
+        super.visitTypeInsn(opcode, type);
+      }
+    }
+    
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      super.visitIntInsn(opcode, operand);
+      if (opcode == Opcodes.NEWARRAY) {
+        recordArray("new " + getPrimitiveTypeName(operand) + "[]");
+      }
+    }
+    
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+      super.visitMultiANewArrayInsn(desc, dims);
+      recordArray("new " + Type.getType(desc).getClassName());
+    }
+    
+    /**
+     * Records the array on top of the stack without consuming it.
+     */
+    private void recordArray(String detail) {
+      mv.visitInsn(Opcodes.DUP);
+      mv.visitInsn(Opcodes.ARRAYLENGTH);
+      pushSite(newSite(detail));
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, 
+          ClassNames.ALLOCATION_PROFILE, "allocateArray", "(II)V");
+    }
+    
+    private int newSite(String detail) {
+      int site = siteIds.newSite(owner, name, desc, line, detail);
+      logger.fine("\t[Allocation] " + owner + "." + name + " line " + line 
+          + ": " + detail);
+      return site;
+    }
+    
+    private void pushSite(int site) {
+      if (site <= Short.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.SIPUSH, site);
+      } else {
+        mv.visitLdcInsn(site);
+      }
+    }
+  }
+  
+  /**
+   * Gets the name of the type created by a <code>newarray</code>.
+   * 
+   * @param operand The operand of the instruction.
+   * @return the name of the element type.
+   */
+  static String getPrimitiveTypeName(int operand) {
+    switch (operand) {
+      case Opcodes.T_BOOLEAN:
+        return "boolean";
+      case Opcodes.T_CHAR:
+        return "char";
+      case Opcodes.T_FLOAT:
+        return "float";
+      case Opcodes.T_DOUBLE:
+        return "double";
+      case Opcodes.T_BYTE:
+        return "byte";
+      case Opcodes.T_SHORT:
+        return "short";
+      case Opcodes.T_INT:
+        return "int";
+      case Opcodes.T_LONG:
+        return "long";
+      default:
+        throw new IllegalArgumentException("Unknown array type " + operand);
+    }
+  }
+}
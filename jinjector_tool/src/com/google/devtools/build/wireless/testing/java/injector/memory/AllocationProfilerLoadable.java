@@ -0,0 +1,167 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.InstrumentedJarCreator;
+import com.google.devtools.build.wireless.testing.java.injector.Loadable;
+import com.google.devtools.build.wireless.testing.java.injector.SiteIds;
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+import com.google.devtools.build.wireless.testing.java.injector.util.StringUtil;
+
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Loadable which profiles the allocations performed at each allocation 
+ * site.
+ * 
+ * <p>The ids of the sites are written in {@value #FILENAME_ALLOCATION_SITES}
+ * and are needed by {@link AllocationReport} to decode the profile dumped 
+ * by the device. Their number is added to the jar as 
+ * {@value #RESOURCE_SITE_COUNT}, from which the device allocates its 
+ * counters.
+ * 
+ * @author Michele Sama
+ */
+public class AllocationProfilerLoadable extends Loadable {
+
+  public static final String LOGGER_NAME = "AllocationProfilerLoadable";
+  
+  /**
+   * The name of the file in which the ids of the sites are written.
+   */
+  public static final String FILENAME_ALLOCATION_SITES = "allocationSites.txt";
+  
+  /**
+   * The jar entry containing the number of allocation sites. It must match 
+   * <code>AllocationProfile.RESOURCE_SITE_COUNT</code> in the decorators.
+   */
+  public static final String RESOURCE_SITE_COUNT = "allocationSiteCount.bin";
+  
+  /**
+   * The list of the packages and classes to instrument. Prefixes starting 
+   * with '-' are excluded. If not specified all the classes are 
+   * instrumented.
+   */
+  protected static final String PROPERTY_ALLOCATION_INCLUSION_LIST = 
+      "allocationInclusionList";
+  
+  protected InclusionSelector inclusionSelector;
+  
+  /**
+   * The ids assigned to the allocation sites during the current run.
+   */
+  protected SiteIds siteIds;
+  
+  /* (non-Javadoc)
+   * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#loadInternal(java.util.Properties)
+   */
+  @Override
+  protected void loadInternal(Properties properties) {
+    inclusionSelector = new InclusionSelector(Boolean.TRUE);
+    String inclusionList = 
+        properties.getProperty(PROPERTY_ALLOCATION_INCLUSION_LIST);
+    if (inclusionList != null) {
+      inclusionSelector.loadInclusionList(
+          StringUtil.split(inclusionList, " ;:,"));
+    }
+  }
+  
+  /**
+   * Creates the ids of the allocation sites.
+   * 
+   * @see Loadable#preOperation()
+   */
+  @Override
+  public void preOperation() {
+    siteIds = new SiteIds();
+  }
+  
+  /* (non-Javadoc)
+   * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#operation(org.objectweb.asm.ClassVisitor, com.google.devtools.build.wireless.testing.java.injector.ClassManager)
+   */
+  @Override
+  public ClassVisitor operation(ClassVisitor cv, ClassManager classManager) {
+    return new AllocationClassAdapter(cv, siteIds, inclusionSelector);
+  }
+  
+  /**
+   * Writes the ids of the allocation sites and adds their number to the 
+   * jar.
+   * 
+   * @see Loadable#postOperation(java.lang.String, InstrumentedJarCreator)
+   */
+  @Override
+  public void postOperation(String outputDir, 
+      InstrumentedJarCreator instrumentedJar) {
+    // The profiles dumped by the device cannot be decoded without the sites.
+    File siteFile = new File(outputDir, FILENAME_ALLOCATION_SITES + runId);
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(siteFile);
+      siteIds.write(pw);
+      if (pw.checkError()) {
+        throw new IOException("Error while writing " + siteFile);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Execution aborted because it was " +
+          "impossible to write the allocation sites: " + e.getMessage(), e);
+    } finally {
+      Closeables.closeQuietly(pw);
+    }
+    try {
+      ByteArrayOutputStream count = new ByteArrayOutputStream();
+      siteIds.writeCount(count);
+      instrumentedJar.addFile(new File(RESOURCE_SITE_COUNT), 
+          count.toByteArray());
+    } catch (IOException e) {
+      Logger log = Logger.getLogger(LOGGER_NAME);
+      log.warning("Problem adding the allocation site count: " 
+          + e.getMessage());
+    }
+  }
+  
+  /**
+   * Ids are assigned sequentially across the whole run, so classes cannot 
+   * be instrumented independently.
+   * 
+   * @see Loadable#isIncremental()
+   */
+  @Override
+  public boolean isIncremental() {
+    return false;
+  }
+  
+  /* (non-Javadoc)
+   * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#printUsage()
+   */
+  @Override
+  public void printUsage() {
+    Logger log = Logger.getLogger(LOGGER_NAME);
+    log.fine(getClass().getCanonicalName());
+    log.fine("properties:");
+    log.fine(PROPERTY_ALLOCATION_INCLUSION_LIST + ": the classes to " 
+        + "instrument, prefixes starting with '-' are excluded.");
+  }
+}
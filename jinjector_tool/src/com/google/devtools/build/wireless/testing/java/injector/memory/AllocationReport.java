@@ -0,0 +1,209 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import com.google.devtools.build.wireless.testing.java.injector.SiteIds;
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints the sites which allocated the most, using the profile dumped by the
+ * decorators' AllocationProfile and the ids written by 
+ * {@link AllocationProfilerLoadable}.
+ * 
+ * <p>The report contains two tables, sorted by number of allocations and by
+ * total number of array elements. Each row is printed as:
+ * <pre>
+ * count elements site
+ * </pre>
+ * 
+ * @author Michele Sama
+ */
+public class AllocationReport {
+  
+  private static final String ARGUMENT_SITES = "sites=";
+  
+  private static final String ARGUMENT_PROFILE = "profile=";
+  
+  private static final String ARGUMENT_TOP = "top=";
+  
+  /**
+   * The number of sites printed in each table if not specified.
+   */
+  public static final int DEFAULT_TOP = 20;
+  
+  private final Map<Integer, String> sites;
+  
+  private final List<SiteCounter> counters = new ArrayList<SiteCounter>();
+  
+  /**
+   * Creates a report.
+   * 
+   * @param sites The sites by id, as read by 
+   *     {@link SiteIds#read(BufferedReader)}.
+   */
+  public AllocationReport(Map<Integer, String> sites) {
+    this.sites = sites;
+  }
+  
+  /**
+   * Reads a profile.
+   * 
+   * @param reader The profile. It is not closed.
+   * @return the number of sites read.
+   * @throws IOException If the profile cannot be read or is not valid.
+   */
+  public int read(BufferedReader reader) throws IOException {
+    int read = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().length() == 0) {
+        continue;
+      }
+      String[] fields = line.split("\t");
+      if (fields.length != 3) {
+        throw new IOException("Malformed profile line: " + line);
+      }
+      try {
+        counters.add(new SiteCounter(Integer.parseInt(fields[0]), 
+            Integer.parseInt(fields[1]), 
+            // The device sums lengths in an int which may wrap.
+            Integer.parseInt(fields[2]) & 0xFFFFFFFFL));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed profile line: " + line);
+      }
+      read++;
+    }
+    return read;
+  }
+  
+  /**
+   * Prints the top sites by number of allocations and by number of array 
+   * elements.
+   * 
+   * @param pw The writer. It is not closed.
+   * @param top The maximum number of sites printed in each table.
+   */
+  public void write(PrintWriter pw, int top) {
+    pw.println("# Top sites by allocations");
+    writeTable(pw, top, false, new Comparator<SiteCounter>() {
+      public int compare(SiteCounter a, SiteCounter b) {
+        return a.count != b.count 
+            ? (a.count > b.count ? -1 : 1) : a.site - b.site;
+      }
+    });
+    pw.println("# Top sites by array elements");
+    writeTable(pw, top, true, new Comparator<SiteCounter>() {
+      public int compare(SiteCounter a, SiteCounter b) {
+        return a.elements != b.elements 
+            ? (a.elements > b.elements ? -1 : 1) : a.site - b.site;
+      }
+    });
+    pw.flush();
+  }
+  
+  /**
+   * Prints the first sites according to a given order.
+   * 
+   * @param arraysOnly <code>true</code> if only the sites which allocated 
+   *     non empty arrays should be printed.
+   */
+  private void writeTable(PrintWriter pw, int top, boolean arraysOnly,
+      Comparator<SiteCounter> comparator) {
+    List<SiteCounter> sorted = new ArrayList<SiteCounter>();
+    for (SiteCounter counter : counters) {
+      if (!arraysOnly || counter.elements > 0) {
+        sorted.add(counter);
+      }
+    }
+    Collections.sort(sorted, comparator);
+    for (int i = 0; i < Math.min(top, sorted.size()); i++) {
+      SiteCounter counter = sorted.get(i);
+      String name = sites.get(counter.site);
+      pw.println(counter.count + "\t" + counter.elements + "\t" 
+          + (name == null ? "#" + counter.site : name));
+    }
+  }
+  
+  /**
+   * Prints the report on the standard output.
+   * 
+   * @param args {@value #ARGUMENT_SITES} followed by the sites file, 
+   *     {@value #ARGUMENT_PROFILE} followed by the profile and optionally
+   *     {@value #ARGUMENT_TOP} followed by the number of sites to print.
+   * @throws IOException If a file cannot be read.
+   */
+  public static void main(String[] args) throws IOException {
+    String sitesFile = null;
+    String profile = null;
+    int top = DEFAULT_TOP;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_SITES)) {
+        sitesFile = s.substring(ARGUMENT_SITES.length());
+      } else if (s.startsWith(ARGUMENT_PROFILE)) {
+        profile = s.substring(ARGUMENT_PROFILE.length());
+      } else if (s.startsWith(ARGUMENT_TOP)) {
+        top = Integer.parseInt(s.substring(ARGUMENT_TOP.length()));
+      }
+    }
+    if (sitesFile == null || profile == null) {
+      throw new IllegalArgumentException("Invoke the report with " 
+          + ARGUMENT_SITES + "file " + ARGUMENT_PROFILE + "file [" 
+          + ARGUMENT_TOP + "n]");
+    }
+    
+    BufferedReader reader = null;
+    AllocationReport report;
+    try {
+      reader = new BufferedReader(new FileReader(sitesFile));
+      report = new AllocationReport(SiteIds.read(reader));
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    
+    try {
+      reader = new BufferedReader(new FileReader(profile));
+      report.read(reader);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    report.write(new PrintWriter(System.out), top);
+  }
+  
+  /**
+   * The counters of a single site.
+   */
+  private static class SiteCounter {
+    final int site;
+    final int count;
+    final long elements;
+    
+    SiteCounter(int site, int count, long elements) {
+      this.site = site;
+      this.count = count;
+      this.elements = elements;
+    }
+  }
+}
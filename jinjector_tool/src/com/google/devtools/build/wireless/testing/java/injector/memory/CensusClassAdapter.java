@@ -0,0 +1,124 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.Platform;
+import com.google.devtools.build.wireless.testing.java.injector.ReferenceTracerMethodAdapter;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.logging.Logger;
+
+/**
+ * Registers each new instance of the selected classes in the decorators' 
+ * InstanceCensus, which counts the instances still alive.
+ * 
+ * <p>Instances are registered at the end of each constructor by a 
+ * {@link ReferenceTracerMethodAdapter}. Interfaces and the decorators are 
+ * never instrumented.
+ * 
+ * @author Michele Sama
+ */
+public class CensusClassAdapter extends ClassAdapter {
+  
+  private static final Logger logger = 
+      Logger.getLogger(CensusClassAdapter.class.getName());
+  
+  private final InclusionSelector inclusionSelector;
+  
+  private final int reportPeriod;
+  
+  private final Platform platform;
+  
+  private String owner;
+  
+  private boolean instrument;
+  
+  /**
+   * Creates the adapter.
+   * 
+   * @param cv The nested ClassVisitor.
+   * @param inclusionSelector Selects the classes whose instances are 
+   *     counted.
+   * @param reportPeriod The seconds between two reports of the census, or 0
+   *     if the census should not be reported periodically.
+   * @param platform The target {@link Platform}.
+   */
+  public CensusClassAdapter(ClassVisitor cv, 
+      InclusionSelector inclusionSelector, int reportPeriod, 
+      Platform platform) {
+    super(cv);
+    this.inclusionSelector = inclusionSelector;
+    this.reportPeriod = reportPeriod;
+    this.platform = platform;
+  }
+  
+  /**
+   * Decides whether the class has to be instrumented.
+   */
+  @Override
+  public void visit(int version, int access, String name, String signature,
+      String superName, String[] interfaces) {
+    super.visit(version, access, name, signature, superName, interfaces);
+    owner = name;
+    instrument = (access & Opcodes.ACC_INTERFACE) == 0
+        && !name.startsWith(ClassNames.DECORATORS_PKG)
+        && Boolean.TRUE.equals(inclusionSelector.getMostSpecificAction(name));
+    if (instrument) {
+      logger.info("\t[Census] " + name);
+    }
+  }
+  
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String desc,
+      String signature, String[] exceptions) {
+    MethodVisitor mv = super.visitMethod(access, name, desc, signature, 
+        exceptions);
+    if (mv != null && instrument && "<init>".equals(name)) {
+      mv = new CensusMethodAdapter(mv, access, name, desc);
+    }
+    return mv;
+  }
+  
+  /**
+   * Registers the instance, together with the report period, in the census.
+   */
+  private class CensusMethodAdapter extends ReferenceTracerMethodAdapter {
+    
+    CensusMethodAdapter(MethodVisitor mv, int access, String name, 
+        String desc) {
+      super(mv, ClassNames.INSTANCE_CENSUS, "register", access, owner, name, 
+          desc, platform);
+    }
+    
+    @Override
+    protected void invokeSetter() {
+      stackServant.loadThis();
+      if (reportPeriod <= Short.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.SIPUSH, reportPeriod);
+      } else {
+        mv.visitLdcInsn(reportPeriod);
+      }
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, setterClassName, 
+          setterMethodsName, "(L" + ClassNames.JAVA_LANG_OBJECT + ";I)V");
+    }
+  }
+}
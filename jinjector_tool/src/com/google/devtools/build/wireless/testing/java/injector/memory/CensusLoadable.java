@@ -0,0 +1,105 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.Loadable;
+import com.google.devtools.build.wireless.testing.java.injector.util.StringUtil;
+
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Loadable which counts the live instances of the selected classes, e.g. 
+ * to find leaking Displayables or Images during long test sessions.
+ * 
+ * @author Michele Sama
+ */
+public class CensusLoadable extends Loadable {
+
+  public static final String LOGGER_NAME = "CensusLoadable";
+  
+  /**
+   * The list of the packages and classes whose instances are counted. 
+   * Prefixes starting with '-' are excluded.
+   */
+  protected static final String PROPERTY_CENSUS_INCLUSION_LIST = 
+      "censusInclusionList";
+  
+  /**
+   * The seconds between two reports of the census. 0 reports the census 
+   * only when the tests end.
+   */
+  protected static final String PROPERTY_CENSUS_REPORT_PERIOD = 
+      "censusReportPeriod";
+  
+  public static final int DEFAULT_REPORT_PERIOD = 30;
+  
+  protected InclusionSelector inclusionSelector;
+  
+  protected int reportPeriod;
+  
+  /**
+   * @throws IllegalArgumentException if no class has been selected or the 
+   *     period is negative.
+   * @see Loadable#loadInternal(java.util.Properties)
+   */
+  @Override
+  protected void loadInternal(Properties properties) {
+    String inclusionList = 
+        properties.getProperty(PROPERTY_CENSUS_INCLUSION_LIST);
+    if (inclusionList == null || inclusionList.trim().length() == 0) {
+      throw new IllegalArgumentException(PROPERTY_CENSUS_INCLUSION_LIST 
+          + " must specify the classes to count.");
+    }
+    inclusionSelector = new InclusionSelector(Boolean.FALSE);
+    inclusionSelector.loadInclusionList(
+        StringUtil.split(inclusionList, " ;:,"));
+    reportPeriod = Integer.parseInt(properties.getProperty(
+        PROPERTY_CENSUS_REPORT_PERIOD, 
+        Integer.toString(DEFAULT_REPORT_PERIOD)).trim());
+    if (reportPeriod < 0) {
+      throw new IllegalArgumentException(PROPERTY_CENSUS_REPORT_PERIOD 
+          + " cannot be negative.");
+    }
+  }
+  
+  /* (non-Javadoc)
+   * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#operation(org.objectweb.asm.ClassVisitor, com.google.devtools.build.wireless.testing.java.injector.ClassManager)
+   */
+  @Override
+  public ClassVisitor operation(ClassVisitor cv, ClassManager classManager) {
+    return new CensusClassAdapter(cv, inclusionSelector, reportPeriod, 
+        platform);
+  }
+  
+  /* (non-Javadoc)
+   * @see com.google.devtools.build.wireless.testing.java.injector.Loadable#printUsage()
+   */
+  @Override
+  public void printUsage() {
+    Logger log = Logger.getLogger(LOGGER_NAME);
+    log.fine(getClass().getCanonicalName());
+    log.fine("properties:");
+    log.fine(PROPERTY_CENSUS_INCLUSION_LIST + ": the classes whose " 
+        + "instances are counted, prefixes starting with '-' are excluded.");
+    log.fine(PROPERTY_CENSUS_REPORT_PERIOD + ": the seconds between two " 
+        + "reports, 0 to report only at the end of the tests.");
+  }
+}
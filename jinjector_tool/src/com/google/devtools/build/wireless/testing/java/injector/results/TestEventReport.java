@@ -0,0 +1,454 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.results;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Closeables;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts the test events streamed by the decorators' TestEventStream into
+ * a JUnit XML report and a report of the slowest tests.
+ * 
+ * <p>Tests which timed out and tests which started but never ended, e.g. 
+ * because the application died, are reported as errors.
+ * 
+ * @author Michele Sama
+ */
+public class TestEventReport {
+  
+  /**
+   * The first line of a supported stream.
+   */
+  public static final String HEADER = "#JInjector test events 1";
+  
+  private static final String ARGUMENT_EVENTS = "events=";
+  
+  private static final String ARGUMENT_JUNIT = "junit=";
+  
+  private static final String ARGUMENT_SLOWEST = "slowest=";
+  
+  private static final String ARGUMENT_TOP = "top=";
+  
+  private static final int DEFAULT_TOP = 20;
+  
+  /**
+   * The outcome of a test.
+   */
+  public enum Outcome {
+    PASSED, FAILED, ERROR, TIMEOUT, UNFINISHED
+  }
+  
+  private final List<TestCaseResult> results = new ArrayList<TestCaseResult>();
+  
+  /**
+   * The time of the last event.
+   */
+  private long endTime = 0;
+  
+  /**
+   * Reads a stream of events.
+   * 
+   * @param reader The reader. It is not closed.
+   * @return the report.
+   * @throws IOException If the stream cannot be read or is malformed.
+   */
+  public static TestEventReport read(BufferedReader reader) 
+      throws IOException {
+    String line = reader.readLine();
+    if (!HEADER.equals(line)) {
+      throw new IOException("Not a test event stream: " + line);
+    }
+    TestEventReport report = new TestEventReport();
+    Map<String, TestCaseResult> running = 
+        new HashMap<String, TestCaseResult>();
+    while ((line = reader.readLine()) != null) {
+      if (line.length() == 0) {
+        continue;
+      }
+      String[] fields = line.split("\t", -1);
+      if (fields.length < 3 || fields[0].length() != 1) {
+        throw new IOException("Malformed event: " + line);
+      }
+      char event = fields[0].charAt(0);
+      long time;
+      try {
+        time = Long.parseLong(fields[1]);
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed event: " + line);
+      }
+      report.endTime = Math.max(report.endTime, time);
+      if (event == 'B' || event == 'R') {
+        continue;
+      }
+      String name = unescape(fields[2]);
+      TestCaseResult result = running.get(name);
+      switch (event) {
+        case 'S':
+          result = new TestCaseResult(name, time);
+          running.put(name, result);
+          report.results.add(result);
+          break;
+        case 'F':
+        case 'X':
+        case 'T':
+          if (result == null || fields.length != 4) {
+            throw new IOException("Unexpected event: " + line);
+          }
+          // The first problem is the cause of the others.
+          if (result.outcome == Outcome.UNFINISHED) {
+            result.outcome = event == 'F' ? Outcome.FAILED 
+                : event == 'X' ? Outcome.ERROR : Outcome.TIMEOUT;
+            result.message = unescape(fields[3]);
+          }
+          break;
+        case 'E':
+          if (result == null || fields.length != 4) {
+            throw new IOException("Unexpected event: " + line);
+          }
+          result.duration = Long.parseLong(fields[3]);
+          if (result.outcome == Outcome.UNFINISHED) {
+            result.outcome = Outcome.PASSED;
+          }
+          running.remove(name);
+          break;
+        default:
+          throw new IOException("Unknown event: " + line);
+      }
+    }
+    for (TestCaseResult result : running.values()) {
+      result.duration = report.endTime - result.startTime;
+    }
+    return report;
+  }
+  
+  /**
+   * Reverts the escaping of the decorators.
+   */
+  static String unescape(String s) {
+    if (s.indexOf('\\') < 0) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' && i + 1 < s.length()) {
+        c = s.charAt(++i);
+        switch (c) {
+          case 't':
+            c = '\t';
+            break;
+          case 'n':
+            c = '\n';
+            break;
+          case 'r':
+            c = '\r';
+            break;
+          default:
+            break;
+        }
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * @return the results of all the tests in order of execution.
+   */
+  public List<TestCaseResult> getResults() {
+    return results;
+  }
+  
+  /**
+   * Writes the results as JUnit XML, with one test suite for each test 
+   * class.
+   * 
+   * <p>The writer is NOT closed at the end.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   */
+  public void writeJUnitXml(PrintWriter pw) {
+    Map<String, List<TestCaseResult>> classes = 
+        new LinkedHashMap<String, List<TestCaseResult>>();
+    for (TestCaseResult result : results) {
+      List<TestCaseResult> tests = classes.get(result.getClassName());
+      if (tests == null) {
+        tests = new ArrayList<TestCaseResult>();
+        classes.put(result.getClassName(), tests);
+      }
+      tests.add(result);
+    }
+    
+    pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    pw.println("<testsuites>");
+    for (Map.Entry<String, List<TestCaseResult>> entry : classes.entrySet()) {
+      int failures = 0;
+      int errors = 0;
+      long time = 0;
+      for (TestCaseResult result : entry.getValue()) {
+        if (result.outcome == Outcome.FAILED) {
+          failures++;
+        } else if (result.outcome != Outcome.PASSED) {
+          errors++;
+        }
+        time += result.duration;
+      }
+      pw.println("  <testsuite name=\"" + escapeXml(entry.getKey()) 
+          + "\" tests=\"" + entry.getValue().size() + "\" failures=\"" 
+          + failures + "\" errors=\"" + errors + "\" time=\"" 
+          + toSeconds(time) + "\">");
+      for (TestCaseResult result : entry.getValue()) {
+        pw.print("    <testcase classname=\"" + escapeXml(entry.getKey()) 
+            + "\" name=\"" + escapeXml(result.getMethodName()) 
+            + "\" time=\"" + toSeconds(result.duration) + "\"");
+        if (result.outcome == Outcome.PASSED) {
+          pw.println("/>");
+        } else {
+          String tag = result.outcome == Outcome.FAILED ? "failure" : "error";
+          String message = result.outcome == Outcome.UNFINISHED 
+              ? "The test did not finish" : result.message;
+          pw.println("><" + tag + " message=\"" + escapeXml(message) 
+              + "\"/></testcase>");
+        }
+      }
+      pw.println("  </testsuite>");
+    }
+    pw.println("</testsuites>");
+    pw.flush();
+  }
+  
+  /**
+   * Writes the slowest tests, one per line, preceded by their duration in 
+   * milliseconds and separated by a tab.
+   * 
+   * <p>The writer is NOT closed at the end.
+   * 
+   * @param pw The {@link PrintWriter} on which to write.
+   * @param top The maximum number of tests to write.
+   */
+  public void writeSlowest(PrintWriter pw, int top) {
+    List<TestCaseResult> sorted = new ArrayList<TestCaseResult>(results);
+    Collections.sort(sorted, new Comparator<TestCaseResult>() {
+      public int compare(TestCaseResult a, TestCaseResult b) {
+        return a.duration < b.duration ? 1 : a.duration > b.duration ? -1 : 0;
+      }
+    });
+    long total = 0;
+    for (TestCaseResult result : results) {
+      total += result.duration;
+    }
+    pw.println(results.size() + " tests in " + total + " ms");
+    for (int i = 0; i < Math.min(top, sorted.size()); i++) {
+      TestCaseResult result = sorted.get(i);
+      pw.println(result.duration + "\t" + result.name 
+          + (result.outcome == Outcome.PASSED ? "" : "\t" + result.outcome));
+    }
+    pw.flush();
+  }
+  
+  private static String toSeconds(long millis) {
+    return String.format(Locale.US, "%.3f", millis / 1000.0);
+  }
+  
+  /**
+   * Escapes a string so that it can be used as an XML attribute.
+   */
+  static String escapeXml(String s) {
+    if (s == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '"':
+          sb.append("&quot;");
+          break;
+        case '\n':
+          sb.append("&#10;");
+          break;
+        case '\r':
+          sb.append("&#13;");
+          break;
+        case '\t':
+          sb.append("&#9;");
+          break;
+        default:
+          // Other control characters are not allowed in XML 1.0.
+          if (c >= 0x20) {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * The result of a single run of a test.
+   */
+  public static class TestCaseResult {
+    
+    private final String name;
+    
+    private final long startTime;
+    
+    private long duration = 0;
+    
+    private Outcome outcome = Outcome.UNFINISHED;
+    
+    private String message = null;
+    
+    TestCaseResult(String name, long startTime) {
+      this.name = name;
+      this.startTime = startTime;
+    }
+    
+    /**
+     * @return the name of the test, as written by the decorators.
+     */
+    public String getName() {
+      return name;
+    }
+    
+    /**
+     * @return the name of the class declaring the test, without the suffix
+     *     of anonymous and inner classes.
+     */
+    public String getClassName() {
+      int open = name.lastIndexOf('(');
+      if (open < 0 || !name.endsWith(")")) {
+        return name;
+      }
+      String className = name.substring(open + 1, name.length() - 1);
+      int dollar = className.indexOf('$');
+      return dollar < 0 ? className : className.substring(0, dollar);
+    }
+    
+    /**
+     * @return the name of the test method.
+     */
+    public String getMethodName() {
+      int open = name.lastIndexOf('(');
+      return open < 0 || !name.endsWith(")") ? name : name.substring(0, open);
+    }
+    
+    /**
+     * @return the duration in milliseconds.
+     */
+    public long getDuration() {
+      return duration;
+    }
+    
+    /**
+     * @return the outcome.
+     */
+    public Outcome getOutcome() {
+      return outcome;
+    }
+    
+    /**
+     * @return the message of the failure or error, or <code>null</code>.
+     */
+    public String getMessage() {
+      return message;
+    }
+  }
+  
+  /**
+   * Converts a stream of test events.
+   * 
+   * @param args {@value #ARGUMENT_EVENTS} followed by the stream written by 
+   *     the device, optionally {@value #ARGUMENT_JUNIT} followed by the 
+   *     JUnit XML file to write, {@value #ARGUMENT_SLOWEST} followed by the
+   *     report of the slowest tests to write, by default the standard 
+   *     output, and {@value #ARGUMENT_TOP} followed by the number of tests 
+   *     in that report, by default {@value #DEFAULT_TOP}.
+   * @throws IOException If a file cannot be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    String events = null;
+    String junit = null;
+    String slowest = null;
+    int top = DEFAULT_TOP;
+    for (String s : args) {
+      if (s.startsWith(ARGUMENT_EVENTS)) {
+        events = s.substring(ARGUMENT_EVENTS.length());
+      } else if (s.startsWith(ARGUMENT_JUNIT)) {
+        junit = s.substring(ARGUMENT_JUNIT.length());
+      } else if (s.startsWith(ARGUMENT_SLOWEST)) {
+        slowest = s.substring(ARGUMENT_SLOWEST.length());
+      } else if (s.startsWith(ARGUMENT_TOP)) {
+        top = Integer.parseInt(s.substring(ARGUMENT_TOP.length()));
+      }
+    }
+    if (events == null) {
+      throw new IllegalArgumentException("Invoke the report with " 
+          + ARGUMENT_EVENTS + "file [" + ARGUMENT_JUNIT + "file] [" 
+          + ARGUMENT_SLOWEST + "file] [" + ARGUMENT_TOP + "n]");
+    }
+    
+    TestEventReport report;
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(events));
+      report = read(reader);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    
+    PrintWriter pw = null;
+    if (junit != null) {
+      try {
+        pw = new PrintWriter(new File(junit), "UTF-8");
+        report.writeJUnitXml(pw);
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    }
+    if (slowest != null) {
+      try {
+        pw = new PrintWriter(new File(slowest));
+        report.writeSlowest(pw, top);
+      } finally {
+        Closeables.closeQuietly(pw);
+      }
+    } else {
+      report.writeSlowest(new PrintWriter(System.out), top);
+    }
+  }
+}
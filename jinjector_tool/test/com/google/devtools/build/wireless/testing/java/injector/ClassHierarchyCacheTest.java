@@ -0,0 +1,134 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link ClassHierarchyCache}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class ClassHierarchyCacheTest extends TestCase {
+
+  private File jar;
+
+  private ClassHierarchyCache cache;
+
+  /**
+   * Creates a platform jar with an interface and a class implementing it.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    jar = File.createTempFile("platform", ".jar");
+    writeJar(jar, "test/Shape");
+    cache = new ClassHierarchyCache();
+  }
+
+  /**
+   * Deletes the platform jar.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    jar.delete();
+    super.tearDown();
+  }
+
+  /**
+   * Tests that a jar is read only once and read again when it changes.
+   */
+  public void testGet_rereadsChangedJar() throws IOException {
+    ClassHierarchyCache.JarHierarchy hierarchy = cache.get(jar.getPath());
+    assertSame(hierarchy, cache.get(jar.getAbsolutePath()));
+    assertEquals(1, cache.size());
+    assertTrue(hierarchy.contains("test/Shape"));
+
+    writeJar(jar, "test/Figure");
+    jar.setLastModified(jar.lastModified() + 2000);
+    ClassHierarchyCache.JarHierarchy reloaded = cache.get(jar.getPath());
+    assertNotSame(hierarchy, reloaded);
+    assertTrue(reloaded.contains("test/Figure"));
+    assertFalse(reloaded.contains("test/Shape"));
+    assertTrue("Cached hierarchies must not change.", 
+        hierarchy.contains("test/Shape"));
+  }
+
+  /**
+   * Tests that several {@link ClassManager}s can resolve hierarchies 
+   * concurrently from the same cache.
+   */
+  public void testClassManager_sharedCache() throws Exception {
+    final String[] jars = new String[] {jar.getPath()};
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            ClassManager cm = new ClassManager(null, jars, cache);
+            assertTrue(cm.isInterface("test/Shape"));
+            assertTrue(cm.isAssignableFrom("test/Shape", "test/Square"));
+            assertEquals(ClassNames.JAVA_LANG_OBJECT, 
+                cm.getSuperclass("test/Square"));
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertEquals(1, cache.size());
+  }
+
+  /**
+   * Writes a jar containing <code>Object</code>, an interface and the class
+   * <code>test/Square</code> implementing it.
+   */
+  private static void writeJar(File file, String interfaceName) 
+      throws IOException {
+    InstrumentedJarCreator creator = new InstrumentedJarCreator(file.getPath());
+    creator.addFile(new File(ClassNames.JAVA_LANG_OBJECT + ".class"), 
+        TestClassFactory.createClass(ACC_PUBLIC, ClassNames.JAVA_LANG_OBJECT, 
+            null, null));
+    creator.addFile(new File(interfaceName + ".class"), 
+        TestClassFactory.createClass(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT,
+            interfaceName, ClassNames.JAVA_LANG_OBJECT, null));
+    creator.addFile(new File("test/Square.class"), 
+        TestClassFactory.createClass(ACC_PUBLIC, "test/Square", 
+            ClassNames.JAVA_LANG_OBJECT, new String[] {interfaceName}));
+    creator.closeOutputJar();
+  }
+}
@@ -0,0 +1,103 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * JUnit tests for {@link DirectoryClassCache}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class DirectoryClassCacheTest extends TestCase {
+
+  private File directory;
+
+  private DirectoryClassCache cache;
+
+  /**
+   * Creates a cache in an empty directory.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = File.createTempFile("classCache", "");
+    directory.delete();
+    cache = new DirectoryClassCache(directory.getPath());
+  }
+
+  /**
+   * Deletes the cache directory.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    for (File folder : directory.listFiles()) {
+      for (File file : folder.listFiles()) {
+        file.delete();
+      }
+      folder.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  /**
+   * Tests that stored values are found, also by a different instance, and
+   * that no temporary file is left.
+   */
+  public void testPutGet() throws IOException {
+    assertNull(cache.get("0123.class"));
+    cache.put("0123.class", new byte[] {1, 2, 3});
+    cache.put("0123.class", new byte[] {1, 2, 3});
+
+    DirectoryClassCache other = new DirectoryClassCache(directory.getPath());
+    assertTrue(Arrays.equals(new byte[] {1, 2, 3}, other.get("0123.class")));
+    assertEquals(1, new File(directory, "01").list().length);
+  }
+
+  /**
+   * Tests that a value can be replaced, as the list of the facts of a class
+   * is, without leaving temporary files.
+   */
+  public void testPut_replace() throws IOException {
+    cache.put("4567.facts", new byte[] {1, 2, 3});
+    cache.put("4567.facts", new byte[] {4, 5});
+
+    assertTrue(Arrays.equals(new byte[] {4, 5}, cache.get("4567.facts")));
+    assertEquals(1, new File(directory, "45").list().length);
+  }
+
+  /**
+   * Tests that keys cannot refer to other directories.
+   */
+  public void testGet_invalidKey() throws IOException {
+    try {
+      cache.get("01/../../x");
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
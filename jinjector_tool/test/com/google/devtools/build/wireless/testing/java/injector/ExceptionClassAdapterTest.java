@@ -0,0 +1,103 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link ExceptionClassAdapter} in 
+ * {@link ExceptionMode#CAPTURE} mode and for {@link SiteIds}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class ExceptionClassAdapterTest extends TestCase {
+
+  private static final String OWNER = "test/Thrower";
+
+  /**
+   * Tests that each throw passes its site id to the exception table and that
+   * sites are mapped back to their line.
+   */
+  public void testCapture() throws IOException {
+    SiteIds siteIds = new SiteIds();
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    new ClassReader(createClass()).accept(
+        new ExceptionClassAdapter(cw, Platform.J2ME, siteIds), 0);
+
+    final List<String> calls = new ArrayList<String>();
+    new ClassReader(cw.toByteArray()).accept(new EmptyVisitor() {
+      @Override
+      public void visitMethodInsn(int opcode, String owner, String name,
+          String desc) {
+        calls.add(owner + "." + name + desc);
+      }
+    }, 0);
+    String capture = ClassNames.EXCEPTION_TABLE + ".capture(L" 
+        + ClassNames.JAVA_LANG_THROWABLE + ";I)V";
+    assertEquals(2, calls.size());
+    assertEquals(capture, calls.get(0));
+    assertEquals(capture, calls.get(1));
+    assertEquals(2, siteIds.size());
+
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    siteIds.write(pw);
+    pw.flush();
+    Map<Integer, String> sites = SiteIds.read(
+        new BufferedReader(new StringReader(sw.toString())));
+    assertEquals(OWNER + ".m(I)V:-1", sites.get(0));
+    assertEquals(OWNER + ".m(I)V:7", sites.get(1));
+  }
+
+  /**
+   * Creates a method which throws the same exception from two sites, the 
+   * second of which has a line number.
+   */
+  private static byte[] createClass() {
+    return TestClassFactory.createClass(OWNER, "(I)V",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        Label second = new Label();
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFEQ, second);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(second);
+        mv.visitLineNumber(7, second);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ATHROW);
+      }
+    });
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.Arrays;
+
+/**
+ * JUnit tests for {@link FanOutClassVisitor}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class FanOutClassVisitorTest extends TestCase {
+
+  private static final String OWNER = "test/FanOut";
+
+  private ClassReader reader;
+
+  /**
+   * Creates a class containing branches, exception handlers and debug
+   * information.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    reader = new ClassReader(createClass());
+  }
+
+  /**
+   * Tests that each writer produces the same class as a writer visited
+   * directly, which fails if labels are shared between writers.
+   */
+  public void testAccept_sameOutput() {
+    ClassWriter expected = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    reader.accept(expected, 0);
+
+    ClassWriter first = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    ClassWriter second = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    reader.accept(new FanOutClassVisitor(new ClassVisitor[] {first, second}),
+        0);
+
+    assertTrue(Arrays.equals(expected.toByteArray(), first.toByteArray()));
+    assertTrue(Arrays.equals(expected.toByteArray(), second.toByteArray()));
+  }
+
+  /**
+   * Tests that a method removed by one chain is still received by the 
+   * others.
+   */
+  public void testAccept_removedMethod() {
+    ClassWriter removing = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    ClassWriter keeping = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    reader.accept(new FanOutClassVisitor(new ClassVisitor[] {
+        new ClassAdapter(removing) {
+          @Override
+          public MethodVisitor visitMethod(int access, String name,
+              String desc, String signature, String[] exceptions) {
+            return null;
+          }
+        }, keeping}), 0);
+
+    assertEquals(0, countMethods(removing.toByteArray()));
+    assertEquals(1, countMethods(keeping.toByteArray()));
+  }
+
+  private static int countMethods(byte[] bytecode) {
+    final int[] count = new int[1];
+    new ClassReader(bytecode).accept(new ClassAdapter(new ClassWriter(0)) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc,
+          String signature, String[] exceptions) {
+        count[0]++;
+        return super.visitMethod(access, name, desc, signature, exceptions);
+      }
+    }, 0);
+    return count[0];
+  }
+
+  private static byte[] createClass() {
+    return TestClassFactory.createClass(OWNER, "FanOut.java", "(I)I",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        Label negative = new Label();
+        mv.visitTryCatchBlock(start, end, handler, 
+            "java/lang/RuntimeException");
+        mv.visitLabel(start);
+        mv.visitLineNumber(1, start);
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFLT, negative);
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitTableSwitchInsn(0, 1, negative, new Label[] {end, negative});
+        mv.visitLabel(end);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(negative);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(handler);
+        mv.visitInsn(POP);
+        mv.visitInsn(ICONST_M1);
+        mv.visitInsn(IRETURN);
+        mv.visitLocalVariable("i", "I", null, start, handler, 0);
+      }
+    });
+  }
+}
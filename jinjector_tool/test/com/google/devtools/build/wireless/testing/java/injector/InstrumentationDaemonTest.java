@@ -0,0 +1,172 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+/**
+ * JUnit tests for {@link InstrumentationDaemon}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class InstrumentationDaemonTest extends TestCase {
+
+  private File root;
+  private File resource;
+  private InstrumentationDaemon daemon;
+
+  /**
+   * Creates a binary folder containing a single resource and a daemon 
+   * without any {@link Loadable}.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    root = File.createTempFile("daemon", "");
+    root.delete();
+    resource = new File(root, "bin/res/a.txt");
+    write(resource, "a");
+
+    Properties properties = new Properties();
+    properties.setProperty(ClassBytecodeLoader.PROPERTY_BINARY_FOLDER,
+        new File(root, "bin").getPath());
+    properties.setProperty(ClassBytecodeLoader.PROPERTY_DESTINATION_FOLDER,
+        new File(root, "out").getPath());
+    properties.setProperty(ClassBytecodeLoader.PROPERTY_OUTPUT_JAR,
+        new File(root, "out.jar").getPath());
+    daemon = new InstrumentationDaemon(new ClassBytecodeLoader(properties),
+        properties);
+  }
+
+  /**
+   * Deletes the temporary files.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that only changed files are processed after the first run.
+   */
+  public void testRun_onlyChangedFiles() throws IOException {
+    assertEquals(-1, daemon.run(false));
+    File output = new File(root, "out/res/a.txt");
+    assertEquals("a", new String(Files.toByteArray(output)));
+    assertEquals(0, daemon.run(false));
+
+    write(resource, "ab");
+    assertEquals(1, daemon.run(false));
+    assertEquals("ab", new String(Files.toByteArray(output)));
+
+    File added = new File(root, "bin/b.txt");
+    write(added, "b");
+    assertEquals(1, daemon.run(false));
+    assertTrue(new File(root, "out/b.txt").exists());
+
+    added.delete();
+    assertEquals(1, daemon.run(false));
+    assertFalse(new File(root, "out/b.txt").exists());
+
+    assertEquals(-1, daemon.run(true));
+  }
+
+  /**
+   * Tests that the subclasses of a changed class are processed again, while
+   * the other classes are reused.
+   */
+  public void testRun_changedSuperclass() throws IOException {
+    File base = new File(root, "bin/foo/Base.class");
+    write(base, createClass("foo/Base", "java/lang/Object"));
+    write(new File(root, "bin/foo/Sub.class"), 
+        createClass("foo/Sub", "foo/Base"));
+    write(new File(root, "bin/foo/Other.class"), 
+        createClass("foo/Other", "java/lang/Object"));
+    assertEquals(-1, daemon.run(false));
+    File sub = new File(root, "out/foo/Sub.class");
+    File other = new File(root, "out/foo/Other.class");
+    sub.setLastModified(1000);
+    other.setLastModified(1000);
+
+    write(base, TestClassFactory.createClass("foo/Base", "()V",
+        TestClassFactory.EMPTY_BODY));
+    assertEquals(1, daemon.run(false));
+    assertTrue(sub.lastModified() > 1000);
+    assertEquals(1000, other.lastModified());
+  }
+
+  /**
+   * Tests the command protocol.
+   */
+  public void testServe() throws IOException {
+    StringWriter out = new StringWriter();
+    assertTrue(daemon.serve(
+        new BufferedReader(new StringReader("instrument\n\nfoo\nquit\nfull\n")),
+        new PrintWriter(out)));
+    String[] responses = out.toString().split("\\r?\\n");
+    assertEquals(3, responses.length);
+    assertTrue(responses[0], 
+        responses[0].startsWith(InstrumentationDaemon.RESPONSE_OK + " all "));
+    assertTrue(responses[1],
+        responses[1].startsWith(InstrumentationDaemon.RESPONSE_ERROR));
+    assertEquals(InstrumentationDaemon.RESPONSE_OK, responses[2]);
+  }
+
+  private static byte[] createClass(String name, String superName) {
+    return TestClassFactory.createClass(Opcodes.ACC_PUBLIC, name, superName, 
+        null);
+  }
+
+  private static void write(File file, String content) throws IOException {
+    write(file, content.getBytes());
+  }
+
+  private static void write(File file, byte[] content) throws IOException {
+    file.getParentFile().mkdirs();
+    long previous = file.lastModified();
+    Files.overwrite(content, file);
+    // Makes sure that the change is visible on coarse file systems.
+    file.setLastModified(Math.max(previous + 2000, file.lastModified()));
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,149 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link InstrumentationTelemetry} and
+ * {@link TelemetryClassAdapter}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class InstrumentationTelemetryTest extends TestCase {
+
+  private static final String PROBE_OWNER = ClassNames.DECORATORS_PKG + "Probe";
+
+  private InstrumentationTelemetry telemetry;
+
+  /**
+   * Creates a telemetry with a single Loadable.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    telemetry = new InstrumentationTelemetry();
+    telemetry.addLoadable("ProbeLoadable");
+  }
+
+  /**
+   * Tests that the code and the probes added by a Loadable are measured by
+   * the difference between the meters around it.
+   */
+  public void testAddClass_measuresLoadable() {
+    List<TelemetryClassAdapter> meters = new ArrayList<TelemetryClassAdapter>();
+    TelemetryClassAdapter output = new TelemetryClassAdapter(new EmptyVisitor());
+    meters.add(output);
+    TelemetryClassAdapter input =
+        new TelemetryClassAdapter(new ProbeClassAdapter(output));
+    meters.add(input);
+    new ClassReader(createClass()).accept(input, 0);
+
+    assertEquals(0, input.getProbeCount());
+    assertEquals(1, output.getProbeCount());
+    // INVOKESTATIC takes 3 bytes.
+    assertEquals(3, output.getCodeSize() - input.getCodeSize());
+
+    telemetry.addClass("test/Measured", 0, 100, 110, meters);
+    String json = toJson();
+    assertTrue(json, json.contains("{\"name\": \"ProbeLoadable\", " +
+        "\"codeBytesAdded\": 3, \"probesAdded\": 1}"));
+    assertTrue(json, json.contains("{\"name\": \"test/Measured\", " +
+        "\"timeMs\": 0.000, \"originalBytes\": 100, " +
+        "\"instrumentedBytes\": 110}"));
+  }
+
+  /**
+   * Tests that a wrong number of meters is rejected.
+   */
+  public void testAddClass_wrongMeters() {
+    try {
+      telemetry.addClass("test/Measured", 0, 0, 0,
+          new ArrayList<TelemetryClassAdapter>());
+      fail("An IllegalArgumentException was expected.");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that phases with the same name are summed.
+   */
+  public void testAddPhase() {
+    telemetry.addPhase("instrument", 1000000);
+    telemetry.addPhase("instrument", 500000);
+    assertTrue(toJson().contains("\"instrument\": 1.500"));
+  }
+
+  /**
+   * Tests {@link InstrumentationTelemetry#quote(String)}.
+   */
+  public void testQuote() {
+    assertEquals("\"a\\\"b\\\\c\\n\\u0001\"",
+        InstrumentationTelemetry.quote("a\"b\\c\n\u0001"));
+  }
+
+  private String toJson() {
+    StringWriter writer = new StringWriter();
+    telemetry.writeJson(new PrintWriter(writer));
+    return writer.toString();
+  }
+
+  private static byte[] createClass() {
+    return TestClassFactory.createClass("test/Measured", "()V", 
+        TestClassFactory.EMPTY_BODY);
+  }
+
+  /**
+   * Adds a call to the decorators at the beginning of each method.
+   */
+  private static class ProbeClassAdapter extends ClassAdapter {
+
+    ProbeClassAdapter(ClassVisitor cv) {
+      super(cv);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc,
+        String signature, String[] exceptions) {
+      return new MethodAdapter(
+          super.visitMethod(access, name, desc, signature, exceptions)) {
+        @Override
+        public void visitCode() {
+          super.visitCode();
+          super.visitMethodInsn(INVOKESTATIC, PROBE_OWNER, "hit", "()V");
+        }
+      };
+    }
+  }
+}
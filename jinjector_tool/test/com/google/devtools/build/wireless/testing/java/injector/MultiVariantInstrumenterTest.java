@@ -0,0 +1,141 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * JUnit tests for {@link MultiVariantInstrumenter}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class MultiVariantInstrumenterTest extends TestCase {
+
+  private static final String CLASS_FILE = "foo/Bar.class";
+
+  private File root;
+
+  /**
+   * Creates a binary folder containing a single class.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    root = File.createTempFile("variants", "");
+    root.delete();
+    File classFile = new File(root, "bin/" + CLASS_FILE);
+    classFile.getParentFile().mkdirs();
+    Files.overwrite(TestClassFactory.createClass(Opcodes.ACC_PUBLIC, 
+        "foo/Bar", "java/lang/Object", null), classFile);
+    CountingClassCache.puts = 0;
+  }
+
+  /**
+   * Deletes the temporary files.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that each variant stores its classes in the class cache under its
+   * own key and that cached classes are not instrumented again.
+   */
+  public void testInstrument_classCache() throws IOException {
+    new MultiVariantInstrumenter(createVariants()).instrument();
+    // The class and its facts, for each variant.
+    assertEquals(4, CountingClassCache.puts);
+    byte[] first = Files.toByteArray(new File(root, "a/" + CLASS_FILE));
+
+    delete(new File(root, "a"));
+    delete(new File(root, "b"));
+    new MultiVariantInstrumenter(createVariants()).instrument();
+    assertEquals(4, CountingClassCache.puts);
+    assertTrue(Arrays.equals(first, 
+        Files.toByteArray(new File(root, "a/" + CLASS_FILE))));
+    assertTrue(new File(root, "b/" + CLASS_FILE).exists());
+  }
+
+  /**
+   * Creates two variants which differ by a property, sharing the same class
+   * cache.
+   */
+  private List<Properties> createVariants() {
+    List<Properties> variants = new ArrayList<Properties>();
+    for (String name : new String[] {"a", "b"}) {
+      Properties properties = new Properties();
+      properties.setProperty(ClassBytecodeLoader.PROPERTY_BINARY_FOLDER,
+          new File(root, "bin").getPath());
+      properties.setProperty(ClassBytecodeLoader.PROPERTY_DESTINATION_FOLDER,
+          new File(root, name).getPath());
+      properties.setProperty(ClassBytecodeLoader.PROPERTY_OUTPUT_JAR,
+          new File(root, name + ".jar").getPath());
+      properties.setProperty(ClassBytecodeLoader.PROPERTY_CLASS_CACHE,
+          new File(root, "cache").getPath());
+      properties.setProperty(ClassBytecodeLoader.PROPERTY_CLASS_CACHE_BACKEND,
+          CountingClassCache.class.getName());
+      properties.setProperty("variant", name);
+      variants.add(properties);
+    }
+    return variants;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * A {@link DirectoryClassCache} which counts the stored values.
+   */
+  public static class CountingClassCache extends DirectoryClassCache {
+
+    static int puts = 0;
+
+    public CountingClassCache(String directory) {
+      super(directory);
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+      puts++;
+      super.put(key, value);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link RecordingClassManager}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class RecordingClassManagerTest extends TestCase {
+
+  private StubClassManager stub;
+
+  private RecordingClassManager recorder;
+
+  /**
+   * Creates a recorder on top of a stub hierarchy.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    stub = new StubClassManager();
+    recorder = new RecordingClassManager(stub);
+  }
+
+  /**
+   * Tests that each query is recorded once with its answer and that the 
+   * recorded queries can be evaluated again.
+   */
+  public void testFacts() {
+    assertEquals(ClassNames.JAVA_LANG_OBJECT, recorder.getSuperclass("a/B"));
+    assertTrue(recorder.isInterface("a/I"));
+    assertFalse(recorder.isAssignableFrom("a/I", "a/B"));
+    assertFalse(recorder.isInterface("a/B"));
+    assertTrue(recorder.isInterface("a/I"));
+
+    Map<String, String> facts = recorder.getFacts();
+    assertEquals(4, facts.size());
+    for (Map.Entry<String, String> fact : facts.entrySet()) {
+      assertEquals(fact.getKey(), fact.getValue(), 
+          RecordingClassManager.answer(stub, fact.getKey()));
+    }
+  }
+
+  /**
+   * Tests that queries which cannot be answered anymore have no answer.
+   */
+  public void testAnswer_missingClass() {
+    recorder.getSuperclass("a/B");
+    String query = recorder.getFacts().keySet().iterator().next();
+    stub.missing = true;
+    assertNull(RecordingClassManager.answer(stub, query));
+  }
+
+  /**
+   * A hierarchy in which interfaces are the classes whose name ends with 
+   * 'I' and everything else extends <code>Object</code>.
+   */
+  private static class StubClassManager extends ClassManager {
+
+    boolean missing = false;
+
+    StubClassManager() {
+      super(null, new String[0]);
+    }
+
+    @Override
+    public String getSuperclass(String classToQuery) {
+      if (missing) {
+        throw new IllegalStateException("Cannot load: " + classToQuery);
+      }
+      return ClassNames.JAVA_LANG_OBJECT;
+    }
+
+    @Override
+    public boolean isInterface(String interfaceName) {
+      return interfaceName.endsWith("I");
+    }
+
+    @Override
+    public boolean isAssignableFrom(String assignee, String target) {
+      return assignee.equals(target);
+    }
+  }
+}
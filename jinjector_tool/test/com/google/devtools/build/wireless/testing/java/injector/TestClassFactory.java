@@ -0,0 +1,154 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Generates the classes instrumented by the tests, so that each test only 
+ * supplies the instructions which it exercises.
+ * 
+ * <p>Classes are public, extend {@link Object} unless specified otherwise 
+ * and are written with {@link ClassWriter#COMPUTE_MAXS}.
+ * 
+ * @author Michele Sama
+ *
+ */
+public class TestClassFactory {
+
+  /**
+   * The name of the method created by 
+   * {@link #createClass(String, String, MethodBody)}.
+   */
+  public static final String METHOD_NAME = "m";
+
+  /**
+   * A body which only returns from a void method.
+   */
+  public static final MethodBody EMPTY_BODY = new MethodBody() {
+    public void visitInstructions(MethodVisitor mv) {
+      mv.visitInsn(RETURN);
+    }
+  };
+
+  /**
+   * Visits the instructions of a generated method, including its return.
+   */
+  public interface MethodBody {
+    
+    /**
+     * @param mv The visitor of the method, between <code>visitCode</code> 
+     *     and <code>visitMaxs</code>.
+     */
+    void visitInstructions(MethodVisitor mv);
+  }
+
+  /**
+   * Uninstantiable because it is a utility class.
+   */
+  private TestClassFactory() {
+  }
+
+  /**
+   * Creates a class containing only a static method named 
+   * {@link #METHOD_NAME}.
+   * 
+   * @param name The internal name of the class.
+   * @param desc The descriptor of the method.
+   * @param body The instructions of the method.
+   * @return the bytecode of the class.
+   */
+  public static byte[] createClass(String name, String desc, MethodBody body) {
+    return createClass(name, null, desc, body);
+  }
+
+  /**
+   * Creates a class compiled from a source file, containing only a static 
+   * method named {@link #METHOD_NAME}.
+   * 
+   * @param name The internal name of the class.
+   * @param source The name of the source file, or <code>null</code>.
+   * @param desc The descriptor of the method.
+   * @param body The instructions of the method.
+   * @return the bytecode of the class.
+   */
+  public static byte[] createClass(String name, String source, String desc, 
+      MethodBody body) {
+    ClassWriter cw = createClassWriter(ACC_PUBLIC, name, 
+        ClassNames.JAVA_LANG_OBJECT, null);
+    if (source != null) {
+      cw.visitSource(source, null);
+    }
+    addMethod(cw, ACC_STATIC, METHOD_NAME, desc, body);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Creates a class without any member.
+   * 
+   * @param access The access flags of the class.
+   * @param name The internal name of the class.
+   * @param superName The internal name of the superclass.
+   * @param interfaces The internal names of the implemented interfaces, or 
+   *     <code>null</code>.
+   * @return the bytecode of the class.
+   */
+  public static byte[] createClass(int access, String name, String superName,
+      String[] interfaces) {
+    ClassWriter cw = createClassWriter(access, name, superName, interfaces);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Starts writing a class, to which the caller can add members.
+   * 
+   * @param access The access flags of the class.
+   * @param name The internal name of the class.
+   * @param superName The internal name of the superclass.
+   * @param interfaces The internal names of the implemented interfaces, or 
+   *     <code>null</code>.
+   * @return a writer on which the header of the class has been visited.
+   */
+  public static ClassWriter createClassWriter(int access, String name, 
+      String superName, String[] interfaces) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_1, access, name, null, superName, interfaces);
+    return cw;
+  }
+
+  /**
+   * Adds a method to a class.
+   * 
+   * @param cw The writer of the class.
+   * @param access The access flags of the method.
+   * @param name The name of the method.
+   * @param desc The descriptor of the method.
+   * @param body The instructions of the method.
+   */
+  public static void addMethod(ClassWriter cw, int access, String name, 
+      String desc, MethodBody body) {
+    MethodVisitor mv = cw.visitMethod(access, name, desc, null, null);
+    mv.visitCode();
+    body.visitInstructions(mv);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+}
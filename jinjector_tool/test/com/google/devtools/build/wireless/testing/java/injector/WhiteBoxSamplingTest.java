@@ -0,0 +1,66 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit tests for {@link WhiteBoxSampling}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class WhiteBoxSamplingTest extends TestCase {
+
+  /**
+   * Tests that the first matching rule wins and that unmatched methods are 
+   * not limited.
+   */
+  public void testRules() {
+    WhiteBoxSampling sampling = new WhiteBoxSampling(
+        "^paint$=10; key=5 ;.*=2", "keyPressed=20");
+    assertFalse(sampling.isEmpty());
+    assertEquals(10, sampling.getSampling("paint"));
+    assertEquals(5, sampling.getSampling("keyPressed"));
+    assertEquals(2, sampling.getSampling("run"));
+    assertEquals(20, sampling.getRateLimit("keyPressed"));
+    assertEquals(0, sampling.getRateLimit("paint"));
+  }
+
+  /**
+   * Tests that missing rules trace everything.
+   */
+  public void testRules_empty() {
+    WhiteBoxSampling sampling = new WhiteBoxSampling(null, "");
+    assertTrue(sampling.isEmpty());
+    assertEquals(1, sampling.getSampling("paint"));
+    assertEquals(0, sampling.getRateLimit("paint"));
+  }
+
+  /**
+   * Tests that malformed rules are rejected.
+   */
+  public void testRules_invalid() {
+    String[] invalid = {"paint", "paint=0", "paint=x", "=3"};
+    for (String rule : invalid) {
+      try {
+        new WhiteBoxSampling(rule, null);
+        fail("An IllegalArgumentException was expected for " + rule);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.devtools.build.wireless.testing.java.injector;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link WhiteBoxTraceDecoder} and {@link WhiteBoxTraceIds}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class WhiteBoxTraceDecoderTest extends TestCase {
+
+  private WhiteBoxTraceIds traceIds;
+
+  /**
+   * Assigns the ids of a method and of a field.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    traceIds = new WhiteBoxTraceIds();
+    assertEquals(0, traceIds.getId("test/Traced", "m", "(I)I"));
+    assertEquals(1, traceIds.getId("test/Traced", "f", "I"));
+    assertEquals(0, traceIds.getId("test/Traced", "m", "(I)I"));
+  }
+
+  /**
+   * Tests that written ids are read back.
+   */
+  public void testReadWrite() throws IOException {
+    Map<Integer, String> names = readIds();
+    assertEquals(2, names.size());
+    assertEquals("test/Traced.m(I)I", names.get(0));
+    assertEquals("test/Traced.fI", names.get(1));
+  }
+
+  /**
+   * Tests the decoding of nested calls, arguments, overwritten records and
+   * suppressed calls.
+   */
+  public void testDecode() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(WhiteBoxTraceDecoder.MAGIC);
+    dos.writeInt(WhiteBoxTraceDecoder.VERSION);
+    dos.writeLong(0);
+    dos.writeInt(4);
+    dos.writeInt(6);
+    dos.writeInt(4);
+    writeRecord(dos, 0, WhiteBoxTraceDecoder.EVENT_CALL 
+        | WhiteBoxTraceDecoder.FLAG_ARGUMENT, 10, 5);
+    writeRecord(dos, 0, WhiteBoxTraceDecoder.EVENT_CALL, 11, 0);
+    writeRecord(dos, 1, WhiteBoxTraceDecoder.EVENT_SET, 12, 0);
+    writeRecord(dos, 0, WhiteBoxTraceDecoder.EVENT_RETURN 
+        | WhiteBoxTraceDecoder.FLAG_ARGUMENT | (1 << 8), 13, 7);
+    dos.writeInt(2);
+    dos.writeInt(3);
+    dos.writeInt(0);
+
+    StringWriter sw = new StringWriter();
+    int count = new WhiteBoxTraceDecoder(readIds()).decode(
+        new ByteArrayInputStream(out.toByteArray()), new PrintWriter(sw));
+
+    assertEquals(4, count);
+    String[] lines = sw.toString().split("\\r?\\n");
+    assertEquals(6, lines.length);
+    assertEquals("# 2 older records were overwritten", lines[0]);
+    assertEquals("10\t0\t-> test/Traced.m(I)I 5", lines[1]);
+    assertEquals("11\t0\t  -> test/Traced.m(I)I", lines[2]);
+    assertEquals("12\t0\t    = test/Traced.fI", lines[3]);
+    // Depths are tracked separately for each thread.
+    assertEquals("13\t1\t<- test/Traced.m(I)I 7", lines[4]);
+    assertEquals("# suppressed 3 test/Traced.m(I)I", lines[5]);
+  }
+
+  /**
+   * Tests that dumps written by other tools are rejected.
+   */
+  public void testDecode_wrongMagic() {
+    try {
+      new WhiteBoxTraceDecoder(null).decode(
+          new ByteArrayInputStream(new byte[8]), 
+          new PrintWriter(new StringWriter()));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private Map<Integer, String> readIds() throws IOException {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    traceIds.write(pw);
+    pw.flush();
+    return WhiteBoxTraceIds.read(
+        new BufferedReader(new StringReader(sw.toString())));
+  }
+
+  private static void writeRecord(DataOutputStream dos, int id, int event, 
+      int time, int argument) throws IOException {
+    dos.writeInt(id);
+    dos.writeInt(event);
+    dos.writeInt(time);
+    dos.writeInt(argument);
+  }
+}
@@ -0,0 +1,113 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import com.google.devtools.build.wireless.testing.java.injector.TestClassFactory;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link CoverageBudget}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class CoverageBudgetTest extends TestCase {
+
+  private CoverageBudget budget;
+
+  /**
+   * Creates a budget with three packages of different cost.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    budget = new CoverageBudget(new String[] {"+com/"});
+    budget.addEstimate("com/a", 1000, 300, 20, 30, 2);
+    budget.addEstimate("com/b", 1000, 100, 50, 10, 5);
+    budget.addEstimate("com/c", 1000, 200, 10, 20, 1);
+  }
+
+  /**
+   * Tests that nothing is downgraded when the budget is large enough.
+   */
+  public void testSelect_withinBudget() {
+    assertTrue(budget.select(600).isEmpty());
+    assertEquals(600, budget.getGrowth());
+  }
+
+  /**
+   * Tests that the packages saving more are downgraded to method first.
+   */
+  public void testSelect_downgradesToMethod() {
+    Map<String, CoverageGranularity> granularity = budget.select(400);
+    assertEquals(1, granularity.size());
+    assertEquals(CoverageGranularity.METHOD, granularity.get("com/a"));
+    assertEquals(320, budget.getGrowth());
+  }
+
+  /**
+   * Tests that packages are excluded when method granularity is not enough.
+   */
+  public void testSelect_disables() {
+    Map<String, CoverageGranularity> granularity = budget.select(30);
+    assertEquals(CoverageGranularity.NONE, granularity.get("com/b"));
+    assertEquals(CoverageGranularity.METHOD, granularity.get("com/a"));
+    assertEquals(CoverageGranularity.METHOD, granularity.get("com/c"));
+    assertEquals(30, budget.getGrowth());
+  }
+
+  /**
+   * Tests that method granularity only instruments the first line of each
+   * method.
+   */
+  public void testEstimate() {
+    budget = new CoverageBudget(new String[] {"+com/"});
+    budget.estimate(new ClassReader(createClass()));
+    budget.select(Long.MAX_VALUE);
+    long lineGrowth = budget.getGrowth();
+    budget.select(lineGrowth - 1);
+    long methodGrowth = budget.getGrowth();
+    // SIPUSH, SIPUSH and INVOKESTATIC take 9 bytes for each extra line.
+    assertEquals(18, lineGrowth - methodGrowth);
+    assertTrue(methodGrowth > 0);
+  }
+
+  private static byte[] createClass() {
+    return TestClassFactory.createClass("com/d/Lines", "Lines.java", "()V",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        for (int line = 1; line <= 3; line++) {
+          Label label = new Label();
+          mv.visitLabel(label);
+          mv.visitLineNumber(line, label);
+          mv.visitInsn(NOP);
+        }
+        mv.visitInsn(RETURN);
+      }
+    });
+  }
+}
@@ -0,0 +1,213 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import com.google.devtools.build.wireless.testing.java.injector.InstrumentedJarCreator;
+import com.google.devtools.build.wireless.testing.java.injector.TestClassFactory;
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link CoverageShardMerger} and 
+ * {@link CoverageIndexOffsetClassAdapter}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class CoverageShardMergerTest extends TestCase {
+
+  private static final String RUN_ID = "7";
+
+  private File root;
+
+  /**
+   * Creates an empty working folder.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    root = File.createTempFile("shards", "");
+    root.delete();
+    root.mkdirs();
+  }
+
+  /**
+   * Deletes the working folder.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that only the indexes passed to the coverage manager are shifted
+   * and that indexes out of the SIPUSH range are loaded from the constant 
+   * pool.
+   */
+  public void testShiftIndexes() {
+    byte[] shifted = CoverageShardMerger.shiftIndexes(
+        createClass("test/Probed", 5, 1), 40000, 10);
+
+    List<Object> constants = readIntConstants(shifted);
+    assertEquals("[LDC 40005, BIPUSH 11, SIPUSH 3, ICONST 2]", 
+        constants.toString());
+  }
+
+  /**
+   * Tests that the metadata of the second shard is appended with shifted 
+   * indexes and that the classes of both shards are in the output.
+   */
+  public void testMerge() throws IOException {
+    File first = createShard("first", "test/First", "test/First.java");
+    File second = createShard("second", "test/Second", "test/Second.java");
+    CoverageShardMerger merger = new CoverageShardMerger(RUN_ID);
+    merger.addShard(first, new File(first, "out.jar"));
+    merger.addShard(second, new File(second, "out.jar"));
+    File merged = new File(root, "merged");
+    merger.merge(merged, new File(root, "merged.jar").getPath());
+
+    assertEquals("test/First.m()V\t0\ntest/Second.m()V\t1\n", read(new File(
+        merged, CoverageStatisticContainer.FILENAME_METHOD + RUN_ID)));
+    String lines = read(new File(merged, 
+        CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + RUN_ID));
+    assertTrue(lines, lines.contains("\n0\t1\ttest/First.java\t3\n"));
+    assertTrue(lines, lines.contains("\n1\t1\ttest/Second.java\t3\n"));
+    assertEquals("test\n", read(new File(
+        merged, CoverageStatisticContainer.FILENAME_PACKAGE + RUN_ID)));
+    String summary = read(new File(
+        merged, CoverageStatisticContainer.FILENAME_SUMMARY + RUN_ID));
+    assertTrue(summary, summary.contains("total classes:  2\n"));
+    assertTrue(summary, summary.contains("total executable files: 2\n"));
+
+    byte[] secondClass =
+        Files.toByteArray(new File(merged, "test/Second.class"));
+    assertEquals("[ICONST 1, ICONST 1, SIPUSH 3, ICONST 2]", 
+        readIntConstants(secondClass).toString());
+  }
+
+  /**
+   * Creates the output of a shard with a single class and a single file.
+   */
+  private File createShard(String name, String className, String fileName) 
+      throws IOException {
+    File folder = new File(root, name);
+    folder.mkdirs();
+    write(new File(folder, CoverageStatisticContainer.FILENAME_METHOD + RUN_ID),
+        className + ".m()V\t0");
+    write(new File(folder, 
+        CoverageStatisticContainer.FILENAME_INSTRUMENTED_LINES + RUN_ID),
+        "#header\n0\t1\t" + fileName + "\t3");
+    write(new File(folder, CoverageStatisticContainer.FILENAME_PACKAGE + RUN_ID),
+        "test");
+    PrintWriter summary = new PrintWriter(new File(folder, 
+        CoverageStatisticContainer.FILENAME_SUMMARY + RUN_ID));
+    CoverageStatisticContainer.writeSummary(summary, 1, 1, 1, 1, 1);
+    summary.close();
+    InstrumentedJarCreator jar = 
+        new InstrumentedJarCreator(new File(folder, "out.jar").getPath());
+    jar.addFile(new File(className + ".class"), createClass(className, 0, 0));
+    jar.addFile(new File(folder, 
+        CoverageStatisticContainer.FILENAME_METHOD + RUN_ID), new byte[0]);
+    jar.closeOutputJar();
+    return folder;
+  }
+
+  /**
+   * Creates a class whose only method marks a method and a line as covered 
+   * and then calls an unrelated method with an integer constant.
+   */
+  private static byte[] createClass(final String className,
+      final int methodIndex, final int fileIndex) {
+    return TestClassFactory.createClass(className, "()V",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        mv.visitIntInsn(SIPUSH, methodIndex);
+        mv.visitMethodInsn(INVOKESTATIC, CoverageClassNames.COVERAGE_MANAGER, 
+            "setCovered", "(I)V");
+        mv.visitIntInsn(SIPUSH, fileIndex);
+        mv.visitIntInsn(SIPUSH, 3);
+        mv.visitMethodInsn(INVOKESTATIC, CoverageClassNames.COVERAGE_MANAGER, 
+            "setLineCovered", "(II)V");
+        mv.visitInsn(ICONST_2);
+        mv.visitMethodInsn(INVOKESTATIC, className, "other", "(I)V");
+        mv.visitInsn(RETURN);
+      }
+    });
+  }
+
+  /**
+   * @return the integer constants pushed by a class, prefixed by the kind of
+   *     instruction pushing them.
+   */
+  private static List<Object> readIntConstants(byte[] bytecode) {
+    final List<Object> constants = new ArrayList<Object>();
+    new ClassReader(bytecode).accept(new EmptyVisitor() {
+      @Override
+      public void visitInsn(int opcode) {
+        if (opcode >= ICONST_M1 && opcode <= ICONST_5) {
+          constants.add("ICONST " + (opcode - ICONST_0));
+        }
+      }
+
+      @Override
+      public void visitIntInsn(int opcode, int operand) {
+        constants.add((opcode == SIPUSH ? "SIPUSH " : "BIPUSH ") + operand);
+      }
+
+      @Override
+      public void visitLdcInsn(Object cst) {
+        constants.add("LDC " + cst);
+      }
+    }, 0);
+    return constants;
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.overwrite(content.getBytes(), file);
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.toByteArray(file)).replace("\r\n", "\n");
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
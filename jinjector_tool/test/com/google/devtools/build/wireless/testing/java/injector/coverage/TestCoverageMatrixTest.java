@@ -0,0 +1,160 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * JUnit tests for {@link TestCoverageMatrix} and 
+ * {@link AffectedTestSelector}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class TestCoverageMatrixTest extends TestCase {
+
+  private TestCoverageMatrix matrix;
+
+  /**
+   * Creates a matrix from the coverage of three tests.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Map<Integer, String> methods = TestCoverageMatrix.readMethods(reader(
+        "foo/Bar.run()V\t0\n" 
+        + "foo/Bar$Inner.<init>(Lfoo/Bar;)V\t1\n" 
+        + "foo/Baz.get(I)Ljava/lang/String;\t2\n"));
+    Map<Integer, String> files = TestCoverageMatrix.readFiles(reader(
+        "#index\tinstrumentedLinesCount\tfilename\tlistOfLines\n" 
+        + "0\t2\tfoo/Qux\t3\t4\n"));
+    matrix = new TestCoverageMatrix();
+    matrix.addDeviceCoverage(reader(
+        "testRun\t0,1\t\n" 
+        + "testGet\t2\t0\n" 
+        + "testNothing\t\t\n"), methods, files);
+  }
+
+  /**
+   * Tests that the indexes are mapped to the names.
+   */
+  public void testAddDeviceCoverage() {
+    assertEquals(new TreeSet<String>(Arrays.asList("foo/Bar.run()V", 
+        "foo/Bar$Inner.<init>(Lfoo/Bar;)V")), 
+        matrix.getCoveredUnits("testRun"));
+    assertEquals(new TreeSet<String>(Arrays.asList(
+        "foo/Baz.get(I)Ljava/lang/String;", "foo/Qux")), 
+        matrix.getCoveredUnits("testGet"));
+    assertTrue(matrix.getCoveredUnits("testNothing").isEmpty());
+    assertNull(matrix.getCoveredUnits("testMissing"));
+  }
+
+  /**
+   * Tests that unknown indexes are rejected.
+   */
+  public void testAddDeviceCoverage_unknownIndex() {
+    try {
+      matrix.addDeviceCoverage(reader("testRun\t5\t\n"), 
+          new HashMap<Integer, String>(), new HashMap<Integer, String>());
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that inner classes are attributed to their outer class and that
+   * files are matched by name.
+   */
+  public void testGetAffectedTests() {
+    assertEquals(set("testRun"), 
+        matrix.getAffectedTests(set("foo/Bar$Inner")));
+    assertEquals(set("testRun"), matrix.getAffectedTests(set("foo/Bar")));
+    assertEquals(set("testGet"), matrix.getAffectedTests(set("foo/Qux$1")));
+    assertTrue(matrix.getAffectedTests(set("foo/Other")).isEmpty());
+  }
+
+  /**
+   * Tests that a test is affected by a change of the class declaring it, 
+   * even if it does not cover that class.
+   */
+  public void testGetAffectedTests_testClassChanged() throws IOException {
+    matrix.addDeviceCoverage(reader(
+        "testEmpty(foo.BarTest)\t\t\n" 
+        + "testBaz(foo.BazTest)\t2\t\n"), 
+        TestCoverageMatrix.readMethods(reader(
+            "foo/Baz.get(I)Ljava/lang/String;\t2\n")), 
+        new HashMap<Integer, String>());
+    assertEquals(set("testEmpty(foo.BarTest)"), 
+        matrix.getAffectedTests(set("foo/BarTest")));
+    assertEquals(set("testEmpty(foo.BarTest)"), 
+        matrix.getAffectedTests(set("foo/BarTest$1")));
+    assertEquals(set("testGet", "testBaz(foo.BazTest)"), 
+        matrix.getAffectedTests(set("foo/Baz")));
+    assertNull(TestCoverageMatrix.getTestClass("testRun"));
+    
+    Set<String> selected = AffectedTestSelector.select(matrix, 
+        set("foo/BarTest"), set("testEmpty(foo.BarTest)", "testRun"));
+    assertEquals(set("testEmpty(foo.BarTest)"), selected);
+  }
+
+  /**
+   * Tests that the matrix is read back as written, including the tests 
+   * which do not cover anything.
+   */
+  public void testWriteRead() throws IOException {
+    StringWriter writer = new StringWriter();
+    matrix.write(new PrintWriter(writer));
+    TestCoverageMatrix read = 
+        TestCoverageMatrix.read(reader(writer.toString()));
+    assertEquals(matrix.getTests(), read.getTests());
+    for (String test : matrix.getTests()) {
+      assertEquals(matrix.getCoveredUnits(test), read.getCoveredUnits(test));
+    }
+  }
+
+  /**
+   * Tests that the tests which are not in the matrix are always selected 
+   * and that removed tests are not.
+   */
+  public void testSelect() {
+    Set<String> selected = AffectedTestSelector.select(matrix, 
+        set("foo/Baz"), set("testGet", "testNothing", "testNew"));
+    assertEquals(set("testGet", "testNew"), selected);
+  }
+
+  private static BufferedReader reader(String s) {
+    return new BufferedReader(new StringReader(s));
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<String>(Arrays.asList(values));
+  }
+}
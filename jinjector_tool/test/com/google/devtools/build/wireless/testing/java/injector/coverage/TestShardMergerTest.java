@@ -0,0 +1,141 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.coverage;
+
+import com.google.devtools.build.wireless.testing.java.injector.util.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * JUnit tests for {@link TestShardMerger}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class TestShardMergerTest extends TestCase {
+
+  private static final String LCOV = "coverage.lcov7";
+
+  private File root;
+
+  /**
+   * Creates an empty working folder.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    root = File.createTempFile("testShards", "");
+    root.delete();
+    root.mkdirs();
+  }
+
+  /**
+   * Deletes the working folder.
+   *
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  /**
+   * Tests that the results and the coverage of two shards are merged.
+   */
+  public void testMerge() throws IOException {
+    File first = new File(root, "0");
+    first.mkdirs();
+    write(new File(first, TestShardMerger.FILENAME_RESULTS), 
+        "testA\t2\t0\t10\ntestB\t1\t1\t30\n");
+    write(new File(first, TestShardMerger.FILENAME_TEST_COVERAGE), 
+        "testA\t0\t\n");
+    write(new File(first, TestShardMerger.FILENAME_METHOD_COVERAGE), 
+        "Method\tCoverage\tInvocationCount\tTotalExecutionTime\n" 
+        + "foo/Bar.a()V\tcovered\t2\t5\n" 
+        + "foo/Bar.b()V\tUNCOVERED\t0\t0\n");
+    write(new File(first, LCOV), 
+        "SF:foo/Bar.java\nDA:3,1\nDA:4,0\nLH:1\nLF:2\nend_of_record\n");
+    File second = new File(root, "1");
+    second.mkdirs();
+    write(new File(second, TestShardMerger.FILENAME_RESULTS), 
+        "testA\t2\t1\t20\ntestC\t1\t0\t5\n");
+    write(new File(second, TestShardMerger.FILENAME_METHOD_COVERAGE), 
+        "Method\tCoverage\tInvocationCount\tTotalExecutionTime\n" 
+        + "foo/Bar.a()V\tUNCOVERED\t0\t0\n" 
+        + "foo/Bar.b()V\tcovered\t1\t3\n");
+    write(new File(second, LCOV), 
+        "SF:foo/Bar.java\nDA:3,1\nDA:4,1\nLH:2\nLF:2\nend_of_record\n");
+
+    TestShardMerger merger = new TestShardMerger(LCOV);
+    merger.addShard(first);
+    merger.addShard(second);
+    assertEquals(2, merger.getShardCount());
+    assertEquals(3, merger.getTestCount());
+    assertEquals(Arrays.asList("testA", "testB"), merger.getFailedTests());
+
+    File output = new File(root, "merged");
+    merger.write(output);
+    assertEquals("testA\t4\t1\t15\ntestB\t1\t1\t30\ntestC\t1\t0\t5\n", 
+        read(new File(output, TestShardMerger.FILENAME_RESULTS)));
+    assertEquals("testA\t0\t\n", 
+        read(new File(output, TestShardMerger.FILENAME_TEST_COVERAGE)));
+    assertEquals("Method\tCoverage\tInvocationCount\tTotalExecutionTime\n" 
+        + "foo/Bar.a()V\tcovered\t2\t5\n" 
+        + "foo/Bar.b()V\tcovered\t1\t3\n", 
+        read(new File(output, TestShardMerger.FILENAME_METHOD_COVERAGE)));
+    assertEquals(
+        "SF:foo/Bar.java\nDA:3,2\nDA:4,1\nLH:2\nLF:2\nend_of_record\n", 
+        read(new File(output, LCOV)));
+  }
+
+  /**
+   * Tests that malformed results are rejected.
+   */
+  public void testAddShard_malformed() throws IOException {
+    write(new File(root, TestShardMerger.FILENAME_RESULTS), "testA\t2\n");
+    try {
+      new TestShardMerger(null).addShard(root);
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.overwrite(content.getBytes(), file);
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.toByteArray(file)).replace("\r\n", "\n");
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
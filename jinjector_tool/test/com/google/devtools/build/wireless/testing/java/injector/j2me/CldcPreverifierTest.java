@@ -0,0 +1,190 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassManager;
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.TestClassFactory;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link CldcPreverifier}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class CldcPreverifierTest extends TestCase {
+
+  private static final String OWNER = "test/Preverified";
+  private static final String HOLDER = "test/Holder";
+
+  private CldcPreverifier preverifier;
+
+  /**
+   * Creates a preverifier on top of a {@link ClassManager} which knows a
+   * minimal hierarchy.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    preverifier = new CldcPreverifier(new FlatClassManager());
+  }
+
+  /**
+   * Tests that a conditional branch produces a frame at its target.
+   */
+  public void testPreverify_branch() {
+    byte[] bytecode = TestClassFactory.createClass(OWNER, "(I)I",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        Label target = new Label();
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFLE, target);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IRETURN);
+        mv.visitLabel(target);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+      }
+    });
+
+    List<Object[][]> frames = readFrames(preverifier.preverify(bytecode));
+
+    assertEquals("Wrong number of frames.", 1, frames.size());
+    assertEquals(1, frames.get(0)[0].length);
+    assertEquals(INTEGER, frames.get(0)[0][0]);
+    assertEquals(0, frames.get(0)[1].length);
+  }
+
+  /**
+   * Tests that references allocated but not initialized when branching are
+   * mapped to the offset of their <code>NEW</code> instruction.
+   */
+  public void testPreverify_uninitializedReference() {
+    byte[] bytecode = TestClassFactory.createClass(OWNER, 
+        "(I)Ljava/lang/Object;", new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        Label elseLabel = new Label();
+        Label endLabel = new Label();
+        mv.visitTypeInsn(NEW, HOLDER);
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFLE, elseLabel);
+        mv.visitInsn(ICONST_1);
+        mv.visitJumpInsn(GOTO, endLabel);
+        mv.visitLabel(elseLabel);
+        mv.visitInsn(ICONST_0);
+        mv.visitLabel(endLabel);
+        mv.visitMethodInsn(INVOKESPECIAL, HOLDER, "<init>", "(I)V");
+        mv.visitInsn(ARETURN);
+      }
+    });
+
+    List<Object[][]> frames = readFrames(preverifier.preverify(bytecode));
+
+    assertEquals("Wrong number of frames.", 2, frames.size());
+    Object[] elseStack = frames.get(0)[1];
+    assertEquals(2, elseStack.length);
+    assertTrue("Uninitialized types must refer to the NEW instruction.",
+        elseStack[0] instanceof Label);
+    assertSame(elseStack[0], elseStack[1]);
+    Object[] endStack = frames.get(1)[1];
+    assertEquals(3, endStack.length);
+    assertSame(elseStack[0], endStack[0]);
+    assertEquals(INTEGER, endStack[2]);
+  }
+
+  /**
+   * Tests that methods without branches do not get any StackMap.
+   */
+  public void testPreverify_straightCode() {
+    byte[] bytecode = TestClassFactory.createClass(OWNER, "()I",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+      }
+    });
+
+    assertEquals(0, readFrames(preverifier.preverify(bytecode)).size());
+  }
+
+  /**
+   * Reads the frames of all the methods in a class. ASM converts StackMap 
+   * attributes into frames, reporting the implicit initial frame of each 
+   * method first, which is skipped.
+   * 
+   * @return an array containing locals and stack for each frame.
+   */
+  private static List<Object[][]> readFrames(byte[] bytecode) {
+    final List<Object[][]> frames = new ArrayList<Object[][]>();
+    new ClassReader(bytecode).accept(new EmptyVisitor() {
+      private boolean initialFrame;
+
+      @Override
+      public void visitCode() {
+        initialFrame = true;
+      }
+
+      @Override
+      public void visitFrame(int type, int nLocal, Object[] local, int nStack,
+          Object[] stack) {
+        if (initialFrame) {
+          initialFrame = false;
+          return;
+        }
+        Object[] locals = new Object[nLocal];
+        System.arraycopy(local, 0, locals, 0, nLocal);
+        Object[] stackItems = new Object[nStack];
+        System.arraycopy(stack, 0, stackItems, 0, nStack);
+        frames.add(new Object[][] {locals, stackItems});
+      }
+    }, 0);
+    return frames;
+  }
+
+  /**
+   * A {@link ClassManager} in which every class but {@link Object} directly
+   * extends {@link Object}.
+   */
+  private static class FlatClassManager extends ClassManager {
+
+    FlatClassManager() {
+      super(null, new String[0]);
+    }
+
+    @Override
+    protected void reloadClass(String className) {
+      classAdapter.visit(V1_1, ACC_PUBLIC, className, null,
+          ClassNames.JAVA_LANG_OBJECT.equals(className)
+              ? null : ClassNames.JAVA_LANG_OBJECT,
+          null);
+    }
+  }
+}
@@ -22,9 +22,15 @@ import com.google.devtools.build.wireless.testing.java.injector.Platform;
 
 import junit.framework.TestCase;
 
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.commons.EmptyVisitor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 
 /**
  * JUnit tests for {@link LcduiDecoratorClassAdapter}.
@@ -78,6 +84,240 @@ public class LcduiDecoratorClassAdapterTest extends TestCase {
         mv instanceof CommandLoggerMethodAdapter);
   }
   
+  /**
+   * Tests that commands are logged by passing the listener, the command and
+   * the target to the binary log.
+   */
+  public void testVisitMethod_logsCommands() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, false, false, false);
+    MethodVisitor mv = invokeVisitMethodOnAdapter(J2meClassNames.DISPLAYABLE);
+    mv.visitCode();
+    assertEquals(1, calls.size());
+    assertEquals(INVOKESTATIC + " " + J2meClassNames.UI_EVENT_LOG 
+        + ".commandAction(Ljava/lang/Object;L" + J2meClassNames.COMMAND 
+        + ";Ljava/lang/Object;)V", calls.get(0));
+  }
+
+  /**
+   * Tests that the changes of the current Displayable are redirected to the
+   * display monitor and that other invocations on Display are left unchanged.
+   */
+  public void testVisitMethodInsn_redirectsSetCurrent() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, false, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/Midlet", null, 
+        "javax/microedition/midlet/MIDlet", null);
+    MethodVisitor mv = adapter.visitMethod(ACC_PUBLIC, "show", "()V", 
+        null, null);
+    String displayable = "L" + J2meClassNames.DISPLAYABLE + ";";
+    mv.visitMethodInsn(INVOKEVIRTUAL, J2meClassNames.DISPLAY, "setCurrent",
+        "(" + displayable + ")V");
+    mv.visitMethodInsn(INVOKEVIRTUAL, J2meClassNames.DISPLAY, "setCurrent",
+        "(L" + J2meClassNames.ALERT + ";" + displayable + ")V");
+    mv.visitMethodInsn(INVOKEVIRTUAL, J2meClassNames.DISPLAY, "getCurrent",
+        "()" + displayable);
+
+    String display = "L" + J2meClassNames.DISPLAY + ";";
+    assertEquals(3, calls.size());
+    assertEquals(INVOKESTATIC + " " + J2meClassNames.DISPLAY_MONITOR 
+        + ".setCurrent(" + display + displayable + ")V", calls.get(0));
+    assertEquals(INVOKESTATIC + " " + J2meClassNames.DISPLAY_MONITOR 
+        + ".setCurrent(" + display + "L" + J2meClassNames.ALERT + ";" 
+        + displayable + ")V", calls.get(1));
+    assertEquals(INVOKEVIRTUAL + " " + J2meClassNames.DISPLAY 
+        + ".getCurrent()" + displayable, calls.get(2));
+  }
+  
+  /**
+   * Tests that the input methods of a Canvas notify the input recorder when
+   * they are entered and when they return or throw.
+   */
+  public void testVisitMethod_recordsCanvasInput() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, true, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/GameScreen", null, 
+        J2meClassNames.CANVAS, null);
+    MethodVisitor mv = adapter.visitMethod(ACC_PUBLIC, "pointerDragged", 
+        "(II)V", null, null);
+    mv.visitCode();
+    mv.visitTryCatchBlock(new Label(), new Label(), new Label(), 
+        "java/lang/RuntimeException");
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    
+    String endInput = INVOKESTATIC + " " + J2meClassNames.INPUT_RECORDER 
+        + ".endInput()V";
+    assertEquals(5, calls.size());
+    assertEquals(INVOKESTATIC + " " + J2meClassNames.INPUT_RECORDER 
+        + ".beginInput(L" + J2meClassNames.CANVAS + ";III)V", calls.get(0));
+    // The handler of the method must come first in the exception table.
+    assertEquals("catch java/lang/RuntimeException", calls.get(1));
+    // Once before returning and once in the exception handler.
+    assertEquals(endInput, calls.get(2));
+    assertEquals("catch null", calls.get(3));
+    assertEquals(endInput, calls.get(4));
+  }
+
+  /**
+   * Tests that commands are recorded, and that input methods are not 
+   * instrumented when recording is disabled.
+   */
+  public void testVisitMethod_recordsCommands() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, true, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/Listener", null, 
+        "java/lang/Object", interfaces);
+    MethodVisitor mv = adapter.visitMethod(ACC_PUBLIC, 
+        LcduiDecoratorClassAdapter.COMMAND_ACTION, "(L" 
+        + J2meClassNames.COMMAND + ";L" + J2meClassNames.DISPLAYABLE 
+        + ";)V", null, null);
+    mv.visitCode();
+    assertTrue(calls.toString(), calls.contains(INVOKESTATIC + " " 
+        + J2meClassNames.INPUT_RECORDER + ".beginCommand(L" 
+        + J2meClassNames.COMMAND + ";L" + J2meClassNames.DISPLAYABLE 
+        + ";)V"));
+    
+    calls.clear();
+    adapter = createRecordingAdapter(calls, false, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/GameScreen", null, 
+        J2meClassNames.CANVAS, null);
+    mv = adapter.visitMethod(ACC_PUBLIC, "keyPressed", "(I)V", null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    assertTrue(calls.isEmpty());
+  }
+
+  /**
+   * Tests that the paint of a Canvas notifies FrameProfiler when it begins,
+   * when it returns and when it throws.
+   */
+  public void testVisitMethod_timesCanvasPaint() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, false, true, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/GameScreen", null, 
+        J2meClassNames.CANVAS, null);
+    MethodVisitor mv = adapter.visitMethod(ACC_PUBLIC, "paint", 
+        "(L" + J2meClassNames.GRAPHICS + ";)V", null, null);
+    mv.visitCode();
+    mv.visitTryCatchBlock(new Label(), new Label(), new Label(), 
+        "java/lang/RuntimeException");
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    
+    String begin = INVOKESTATIC + " " + J2meClassNames.FRAME_PROFILER 
+        + ".beginPaint(L" + J2meClassNames.CANVAS + ";)V";
+    String end = INVOKESTATIC + " " + J2meClassNames.FRAME_PROFILER 
+        + ".endPaint(L" + J2meClassNames.CANVAS + ";)V";
+    assertEquals(5, calls.size());
+    assertEquals(begin, calls.get(0));
+    // The handler of the method must come first in the exception table.
+    assertEquals("catch java/lang/RuntimeException", calls.get(1));
+    // Once before returning and once in the exception handler.
+    assertEquals(end, calls.get(2));
+    assertEquals("catch null", calls.get(3));
+    assertEquals(end, calls.get(4));
+    
+    calls.clear();
+    adapter = createRecordingAdapter(calls, false, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/GameScreen", null, 
+        J2meClassNames.CANVAS, null);
+    mv = adapter.visitMethod(ACC_PUBLIC, "paint", 
+        "(L" + J2meClassNames.GRAPHICS + ";)V", null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    assertTrue(calls.isEmpty());
+  }
+
+  /**
+   * Tests that the callbacks of listeners are timed when they return and 
+   * when they throw.
+   */
+  public void testVisitMethod_timesListeners() {
+    List<String> calls = new ArrayList<String>();
+    adapter = createRecordingAdapter(calls, false, false, true);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/Controller", null, 
+        "java/lang/Object", new String[] {
+        J2meClassNames.COMMAND_LISTENER, J2meClassNames.ITEM_STATE_LISTENER});
+    MethodVisitor mv = adapter.visitMethod(ACC_PUBLIC, 
+        LcduiDecoratorClassAdapter.COMMAND_ACTION, "(L" 
+        + J2meClassNames.COMMAND + ";L" + J2meClassNames.DISPLAYABLE + ";)V", 
+        null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    
+    String commandHandled = INVOKESTATIC + " " 
+        + J2meClassNames.LISTENER_PROFILER + ".commandHandled(Ljava/lang/"
+        + "Object;L" + J2meClassNames.COMMAND + ";J)V";
+    assertEquals(2, Collections.frequency(calls, commandHandled));
+    assertEquals("catch null", calls.get(calls.lastIndexOf(commandHandled) 
+        - 2));
+    
+    calls.clear();
+    mv = adapter.visitMethod(ACC_PUBLIC, "itemStateChanged", 
+        "(L" + J2meClassNames.ITEM + ";)V", null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    assertEquals(2, Collections.frequency(calls, INVOKESTATIC + " " 
+        + J2meClassNames.LISTENER_PROFILER + ".itemChanged(Ljava/lang/"
+        + "Object;L" + J2meClassNames.ITEM + ";J)V"));
+    
+    calls.clear();
+    adapter = createRecordingAdapter(calls, false, false, false);
+    adapter.visit(V1_3, ACC_PUBLIC, "test/Controller", null, 
+        "java/lang/Object", new String[] {J2meClassNames.ITEM_STATE_LISTENER});
+    mv = adapter.visitMethod(ACC_PUBLIC, "itemStateChanged", 
+        "(L" + J2meClassNames.ITEM + ";)V", null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    assertTrue(calls.isEmpty());
+  }
+
+  /**
+   * Creates an adapter which records the method invocations and the 
+   * exception handlers it emits. Every class is considered a Canvas.
+   * 
+   * @param calls The list to which the invocations are added as opcode, 
+   *    owner, name and descriptor, and the handlers as "catch" followed by 
+   *    the type.
+   * @param recordInput whether the input recording is enabled.
+   * @param timeFrames whether the frame timing is enabled.
+   * @param timeListeners whether the listener timing is enabled.
+   * @return the adapter.
+   */
+  private LcduiDecoratorClassAdapter createRecordingAdapter(
+      final List<String> calls, boolean recordInput, boolean timeFrames, 
+      boolean timeListeners) {
+    return new LcduiDecoratorClassAdapter(new EmptyVisitor() {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc,
+          String signature, String[] exceptions) {
+        return new MethodAdapter(new EmptyVisitor()) {
+          @Override
+          public void visitMethodInsn(int opcode, String owner, String name,
+              String desc) {
+            calls.add(opcode + " " + owner + "." + name + desc);
+          }
+          
+          @Override
+          public void visitTryCatchBlock(Label start, Label end, 
+              Label handler, String type) {
+            calls.add("catch " + type);
+          }
+        };
+      }
+    }, new DummyClassManager() {
+      @Override
+      public boolean isAssignableFrom(String assignee, String target) {
+        return true;
+      }
+    }, Platform.J2ME, recordInput, timeFrames, timeListeners);
+  }
+  
   /**
    * Starts the visiting process and returns the opportune 
    * {@link MethodVisitor}.
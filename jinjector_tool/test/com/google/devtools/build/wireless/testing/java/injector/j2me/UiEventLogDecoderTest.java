@@ -0,0 +1,89 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.j2me;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * JUnit tests for {@link UiEventLogDecoder}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class UiEventLogDecoderTest extends TestCase {
+
+  /**
+   * Tests the decoding of records, of missing names and of overwritten 
+   * records.
+   */
+  public void testDecode() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(UiEventLogDecoder.MAGIC);
+    dos.writeInt(UiEventLogDecoder.VERSION);
+    dos.writeLong(0);
+    dos.writeInt(4);
+    dos.writeInt(3);
+    dos.writeInt(2);
+    writeRecord(dos, 0, 1, 2, 10);
+    writeRecord(dos, 0, 3, -1, 25);
+    dos.writeInt(3);
+    dos.writeUTF("test.Controller");
+    dos.writeUTF("Ok");
+    dos.writeUTF("test.MainForm");
+    
+    StringWriter sw = new StringWriter();
+    int count = new UiEventLogDecoder().decode(
+        new ByteArrayInputStream(out.toByteArray()), new PrintWriter(sw));
+
+    assertEquals(2, count);
+    String[] lines = sw.toString().split("\\r?\\n");
+    assertEquals(3, lines.length);
+    assertEquals("# 1 older records were overwritten", lines[0]);
+    assertEquals("10\ttest.Controller\tOk\ttest.MainForm", lines[1]);
+    // Unknown ids are printed as numbers.
+    assertEquals("25\ttest.Controller\t#3\tnull", lines[2]);
+  }
+
+  /**
+   * Tests that dumps written by other tools are rejected.
+   */
+  public void testDecode_wrongMagic() {
+    try {
+      new UiEventLogDecoder().decode(
+          new ByteArrayInputStream(new byte[8]), 
+          new PrintWriter(new StringWriter()));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static void writeRecord(DataOutputStream dos, int listener, 
+      int label, int target, int time) throws IOException {
+    dos.writeInt(listener);
+    dos.writeInt(label);
+    dos.writeInt(target);
+    dos.writeInt(time);
+  }
+}
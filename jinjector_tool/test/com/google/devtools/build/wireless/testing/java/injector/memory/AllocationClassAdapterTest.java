@@ -0,0 +1,198 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.SiteIds;
+import com.google.devtools.build.wireless.testing.java.injector.TestClassFactory;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link AllocationClassAdapter} and 
+ * {@link AllocationReport}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class AllocationClassAdapterTest extends TestCase {
+
+  private static final String OWNER = "test/Allocator";
+
+  private SiteIds siteIds;
+
+  /**
+   * Creates the site ids.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    siteIds = new SiteIds();
+  }
+
+  /**
+   * Tests that objects are counted before their creation and arrays after 
+   * it, together with their length.
+   */
+  public void testInstrument() throws IOException {
+    List<String> calls = getCalls(instrument(OWNER, new InclusionSelector(
+        Boolean.TRUE)));
+    String profile = ClassNames.ALLOCATION_PROFILE;
+    assertEquals(4, calls.size());
+    assertEquals(profile + ".allocate(I)V", calls.get(0));
+    assertEquals(ClassNames.JAVA_LANG_OBJECT + ".<init>()V", calls.get(1));
+    assertEquals(profile + ".allocateArray(II)V", calls.get(2));
+    assertEquals(profile + ".allocateArray(II)V", calls.get(3));
+
+    Map<Integer, String> sites = readSites();
+    assertEquals(3, sites.size());
+    assertEquals(OWNER + ".m()V:3 new java.lang.Object", sites.get(0));
+    assertEquals(OWNER + ".m()V:4 new int[]", sites.get(1));
+    assertEquals(OWNER + ".m()V:4 new java.lang.String[]", sites.get(2));
+  }
+
+  /**
+   * Tests that excluded classes and the decorators are not instrumented.
+   */
+  public void testInstrument_excluded() {
+    InclusionSelector selector = new InclusionSelector(Boolean.TRUE);
+    selector.loadInclusionList(new String[] {"-test/"});
+    assertEquals(1, getCalls(instrument(OWNER, selector)).size());
+    assertEquals(1, getCalls(instrument(
+        ClassNames.DECORATORS_PKG + "Allocator", 
+        new InclusionSelector(Boolean.TRUE))).size());
+    assertEquals(0, siteIds.size());
+  }
+
+  /**
+   * Tests that the report sorts the sites by allocations and by array 
+   * elements.
+   */
+  public void testReport() throws IOException {
+    instrument(OWNER, new InclusionSelector(Boolean.TRUE));
+    AllocationReport report = new AllocationReport(readSites());
+    assertEquals(3, report.read(new BufferedReader(new StringReader(
+        "0\t5\t0\n1\t2\t100\n2\t7\t3\n"))));
+    StringWriter sw = new StringWriter();
+    report.write(new PrintWriter(sw), 2);
+    String[] lines = sw.toString().split("\r?\n");
+    assertEquals(6, lines.length);
+    assertEquals("# Top sites by allocations", lines[0]);
+    assertEquals("7\t3\t" + OWNER + ".m()V:4 new java.lang.String[]", 
+        lines[1]);
+    assertEquals("5\t0\t" + OWNER + ".m()V:3 new java.lang.Object", lines[2]);
+    assertEquals("# Top sites by array elements", lines[3]);
+    assertEquals("2\t100\t" + OWNER + ".m()V:4 new int[]", lines[4]);
+    assertEquals("7\t3\t" + OWNER + ".m()V:4 new java.lang.String[]", 
+        lines[5]);
+  }
+
+  /**
+   * Tests that a malformed profile is rejected.
+   */
+  public void testReport_malformed() {
+    AllocationReport report = new AllocationReport(readSites());
+    try {
+      report.read(new BufferedReader(new StringReader("0\tx\t0\n")));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private byte[] instrument(String owner, InclusionSelector selector) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    new ClassReader(createClass(owner)).accept(
+        new AllocationClassAdapter(cw, siteIds, selector), 0);
+    return cw.toByteArray();
+  }
+
+  private Map<Integer, String> readSites() {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    siteIds.write(pw);
+    pw.flush();
+    try {
+      return SiteIds.read(new BufferedReader(new StringReader(
+          sw.toString())));
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static List<String> getCalls(byte[] bytecode) {
+    final List<String> calls = new ArrayList<String>();
+    new ClassReader(bytecode).accept(new EmptyVisitor() {
+      @Override
+      public void visitMethodInsn(int opcode, String owner, String name,
+          String desc) {
+        calls.add(owner + "." + name + desc);
+      }
+    }, 0);
+    return calls;
+  }
+
+  /**
+   * Creates a method which allocates an object on line 3 and two arrays on 
+   * line 4.
+   */
+  private static byte[] createClass(final String owner) {
+    return TestClassFactory.createClass(owner, "()V",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        Label line3 = new Label();
+        mv.visitLabel(line3);
+        mv.visitLineNumber(3, line3);
+        mv.visitTypeInsn(NEW, ClassNames.JAVA_LANG_OBJECT);
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, ClassNames.JAVA_LANG_OBJECT, "<init>",
+            "()V");
+        mv.visitInsn(POP);
+        Label line4 = new Label();
+        mv.visitLabel(line4);
+        mv.visitLineNumber(4, line4);
+        mv.visitInsn(ICONST_2);
+        mv.visitIntInsn(NEWARRAY, T_INT);
+        mv.visitInsn(POP);
+        mv.visitInsn(ICONST_1);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        mv.visitInsn(POP);
+        mv.visitInsn(RETURN);
+      }
+    });
+  }
+}
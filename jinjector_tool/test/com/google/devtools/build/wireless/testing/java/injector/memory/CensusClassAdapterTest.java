@@ -0,0 +1,139 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.devtools.build.wireless.testing.java.injector.memory;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import com.google.devtools.build.wireless.testing.java.injector.ClassNames;
+import com.google.devtools.build.wireless.testing.java.injector.InclusionSelector;
+import com.google.devtools.build.wireless.testing.java.injector.Platform;
+import com.google.devtools.build.wireless.testing.java.injector.TestClassFactory;
+
+import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link CensusClassAdapter}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class CensusClassAdapterTest extends TestCase {
+
+  private static final String REGISTER = ClassNames.INSTANCE_CENSUS 
+      + ".register(L" + ClassNames.JAVA_LANG_OBJECT + ";I)V";
+
+  private InclusionSelector selector;
+
+  /**
+   * Selects the classes of the test package.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    selector = new InclusionSelector(Boolean.FALSE);
+    selector.loadInclusionList(new String[] {"test/", "-test/excluded/"});
+  }
+
+  /**
+   * Tests that only constructors register the instance.
+   */
+  public void testInstrument() {
+    List<String> calls = getCalls(instrument("test/Counted"));
+    assertEquals(3, calls.size());
+    assertEquals("<init>:" + ClassNames.JAVA_LANG_OBJECT + ".<init>()V", 
+        calls.get(0));
+    assertEquals("<init>:" + REGISTER, calls.get(1));
+    assertEquals("m:" + ClassNames.JAVA_LANG_OBJECT + ".hashCode()I", 
+        calls.get(2));
+  }
+
+  /**
+   * Tests that the classes which are not selected are not instrumented.
+   */
+  public void testInstrument_notSelected() {
+    assertEquals(2, getCalls(instrument("other/Counted")).size());
+    assertEquals(2, getCalls(instrument("test/excluded/Counted")).size());
+    assertEquals(2, getCalls(instrument(
+        ClassNames.DECORATORS_PKG + "Counted")).size());
+  }
+
+  private byte[] instrument(String owner) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    new ClassReader(createClass(owner)).accept(
+        new CensusClassAdapter(cw, selector, 30, Platform.J2ME), 0);
+    return cw.toByteArray();
+  }
+
+  /**
+   * @return the invoked methods, prefixed by the name of the invoking one.
+   */
+  private static List<String> getCalls(byte[] bytecode) {
+    final List<String> calls = new ArrayList<String>();
+    new ClassReader(bytecode).accept(new EmptyVisitor() {
+      @Override
+      public MethodVisitor visitMethod(final int access, final String name, 
+          String desc, String signature, String[] exceptions) {
+        return new EmptyVisitor() {
+          @Override
+          public void visitMethodInsn(int opcode, String owner, 
+              String method, String desc) {
+            calls.add(name + ":" + owner + "." + method + desc);
+          }
+        };
+      }
+    }, 0);
+    return calls;
+  }
+
+  /**
+   * Creates a class with a constructor and a method.
+   */
+  private static byte[] createClass(String owner) {
+    ClassWriter cw = TestClassFactory.createClassWriter(ACC_PUBLIC, owner,
+        ClassNames.JAVA_LANG_OBJECT, null);
+    TestClassFactory.addMethod(cw, ACC_PUBLIC, "<init>", "()V",
+        new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, ClassNames.JAVA_LANG_OBJECT, 
+            "<init>", "()V");
+        mv.visitInsn(RETURN);
+      }
+    });
+    TestClassFactory.addMethod(cw, ACC_PUBLIC, TestClassFactory.METHOD_NAME,
+        "()I", new TestClassFactory.MethodBody() {
+      public void visitInstructions(MethodVisitor mv) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, ClassNames.JAVA_LANG_OBJECT, 
+            "hashCode", "()I");
+        mv.visitInsn(IRETURN);
+      }
+    });
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2008 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *    
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.build.wireless.testing.java.injector.results;
+
+import com.google.devtools.build.wireless.testing.java.injector.results.TestEventReport.Outcome;
+import com.google.devtools.build.wireless.testing.java.injector.results.TestEventReport.TestCaseResult;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link TestEventReport}.
+ *
+ * @author Michele Sama
+ *
+ */
+public class TestEventReportTest extends TestCase {
+
+  private static final String EVENTS = TestEventReport.HEADER + "\n" 
+      + "B\t0\t3\n" 
+      + "S\t1\ttestA(foo.BarTest$1)\n" 
+      + "E\t11\ttestA(foo.BarTest$1)\t10\n" 
+      + "S\t12\ttestB(foo.BarTest$2)\n" 
+      + "F\t40\ttestB(foo.BarTest$2)\texpected:<1> \\\\ \\tbut \"was\"\n" 
+      + "E\t42\ttestB(foo.BarTest$2)\t30\n" 
+      + "S\t43\ttestC(foo.BazTest)\n" 
+      + "X\t50\ttestC(foo.BazTest)\tjava.lang.NullPointerException\n" 
+      + "S\t60\ttestD(foo.BazTest)\n" 
+      + "T\t70\ttestD(foo.BazTest)\tTest timed out\n" 
+      + "E\t70\ttestD(foo.BazTest)\t10\n" 
+      + "S\t71\ttestE(foo.BazTest)\n";
+
+  private TestEventReport report;
+
+  /**
+   * Reads the events of five tests, the last of which never ends.
+   *
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    report = TestEventReport.read(
+        new BufferedReader(new StringReader(EVENTS)));
+  }
+
+  /**
+   * Tests that outcomes, durations and messages are parsed.
+   */
+  public void testRead() {
+    List<TestCaseResult> results = report.getResults();
+    assertEquals(5, results.size());
+    assertEquals(Outcome.PASSED, results.get(0).getOutcome());
+    assertEquals(10, results.get(0).getDuration());
+    assertEquals("foo.BarTest", results.get(0).getClassName());
+    assertEquals("testA", results.get(0).getMethodName());
+    assertEquals(Outcome.FAILED, results.get(1).getOutcome());
+    assertEquals("expected:<1> \\ \tbut \"was\"", 
+        results.get(1).getMessage());
+    // Tests which did not end last until the end of the stream.
+    assertEquals(Outcome.ERROR, results.get(2).getOutcome());
+    assertEquals(28, results.get(2).getDuration());
+    assertEquals(Outcome.TIMEOUT, results.get(3).getOutcome());
+    assertEquals("Test timed out", results.get(3).getMessage());
+    assertEquals(Outcome.UNFINISHED, results.get(4).getOutcome());
+    assertEquals(0, results.get(4).getDuration());
+  }
+
+  /**
+   * Tests that a stream with another format is rejected.
+   */
+  public void testRead_wrongHeader() {
+    try {
+      TestEventReport.read(new BufferedReader(new StringReader("S\t1\tx\n")));
+      fail("An IOException was expected.");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that a test class is converted to a test suite.
+   */
+  public void testWriteJUnitXml() {
+    StringWriter writer = new StringWriter();
+    report.writeJUnitXml(new PrintWriter(writer));
+    String xml = writer.toString();
+    assertTrue(xml, xml.contains("<testsuite name=\"foo.BarTest\" " 
+        + "tests=\"2\" failures=\"1\" errors=\"0\" time=\"0.040\">"));
+    assertTrue(xml, xml.contains("<testcase classname=\"foo.BarTest\" " 
+        + "name=\"testA\" time=\"0.010\"/>"));
+    assertTrue(xml, xml.contains("<failure message=\"expected:&lt;1&gt; " 
+        + "\\ &#9;but &quot;was&quot;\"/>"));
+    assertTrue(xml, xml.contains("<testsuite name=\"foo.BazTest\" " 
+        + "tests=\"3\" failures=\"0\" errors=\"3\""));
+    assertTrue(xml, xml.contains("<error message=\"Test timed out\"/>"));
+    assertTrue(xml, xml.contains(
+        "<error message=\"The test did not finish\"/>"));
+  }
+
+  /**
+   * Tests that the slowest tests are written first.
+   */
+  public void testWriteSlowest() {
+    StringWriter writer = new StringWriter();
+    report.writeSlowest(new PrintWriter(writer), 2);
+    String[] lines = writer.toString().split("\r?\n");
+    assertEquals(3, lines.length);
+    assertEquals("5 tests in 78 ms", lines[0]);
+    assertEquals("30\ttestB(foo.BarTest$2)\tFAILED", lines[1]);
+    assertEquals("28\ttestC(foo.BazTest)\tERROR", lines[2]);
+  }
+}